@@ -31,7 +31,7 @@ public class Egads {
         args[0] = "src/test/resources/sample_config.ini";
 
         if (args.length == 0) {
-            System.err.println("Usage: java Egads config.ini (input [STDIN,CSV])");
+            System.err.println("Usage: java Egads config.ini (input [STDIN,CSV,BINARY])");
             System.exit(1);
         }
 
@@ -60,6 +60,9 @@ public class Egads {
         if (properties.getProperty("INPUT") == null || properties.getProperty("INPUT").equals("CSV")) {
             // 从数据文件 读入 数据并处理
             inputProcessor = new FileInputProcessor(args[1]);
+        } else if (properties.getProperty("INPUT").equals("BINARY")) {
+            // 从二进制列存文件（BinaryTimeSeriesWriter生成）映射读入数据
+            inputProcessor = new BinaryInputProcessor(args[1]);
         } else {
             // 从控制台 读入 数据并处理
             inputProcessor = new StdinProcessor();
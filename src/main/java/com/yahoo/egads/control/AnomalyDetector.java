@@ -38,10 +38,17 @@
 package com.yahoo.egads.control;
 
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.yahoo.egads.data.Anomaly;
 import com.yahoo.egads.data.Anomaly.IntervalSequence;
+import com.yahoo.egads.data.DetectionContext;
+import com.yahoo.egads.data.DetectionRange;
 import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.models.adm.AnomalyDetectionAbstractModel;
 import com.yahoo.egads.models.adm.AnomalyDetectionModel;
 
 public class AnomalyDetector {
@@ -136,6 +143,29 @@ public class AnomalyDetector {
         isTuned.add(false);
     }
 
+    // Adds a model tuned before, e.g. one from a ModelCache, with the time base
+    // it was tuned with.
+    public void addTunedModel(AnomalyDetectionModel model, long firstTimeStamp) {
+        models.add(model);
+        isTuned.add(true);
+        this.firstTimeStamp = firstTimeStamp;
+    }
+
+    public boolean isTuned() {
+        return !models.isEmpty() && !isTuned.contains(false);
+    }
+
+    // True if the models only read the expected values of the points they
+    // report on, see AnomalyDetectionModel.isPointwise().
+    public boolean isPointwise() {
+        for (AnomalyDetectionModel model : models) {
+            if (!model.isPointwise()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // Algorithmic Methods ////////////////////////////////////////////////////////////////////
 
     public void reset() {
@@ -153,12 +183,27 @@ public class AnomalyDetector {
 
         metric.data.setLogicalIndices(firstTimeStamp, period);
 
+        // the residuals and errors are computed once, for the first model that needs them
+        shareContext(new DetectionContext(metric.data, expectedValues));
+        try {
+            for (AnomalyDetectionModel model : models) {
+                if (!isTuned.get(i)) {
+                    model.tune(metric.data, expectedValues, anomalySequence);
+                    isTuned.set(i, true);
+                }
+                i++;
+            }
+        } finally {
+            shareContext(null);
+        }
+    }
+
+    // Hands the context of the series of a run to the models that read it.
+    private void shareContext(DetectionContext context) {
         for (AnomalyDetectionModel model : models) {
-            if (!isTuned.get(i)) {
-                model.tune(metric.data, expectedValues, anomalySequence);
-                isTuned.set(i, true);
+            if (model instanceof AnomalyDetectionAbstractModel) {
+                ((AnomalyDetectionAbstractModel) model).setContext(context);
             }
-            i++;
         }
     }
 
@@ -173,6 +218,28 @@ public class AnomalyDetector {
      */
     public ArrayList<Anomaly> detect(TimeSeries observedSeries,
                                      TimeSeries.DataSequence expectedSeries) throws Exception {
+        return detect(observedSeries, expectedSeries, null);
+    }
+
+    // Same as above, with the models run in parallel on 'executor' unless it
+    // is null. Either way the models share one DetectionContext, so the
+    // residuals and errors are computed once.
+    public ArrayList<Anomaly> detect(final TimeSeries observedSeries,
+                                     final TimeSeries.DataSequence expectedSeries,
+                                     ExecutorService executor) throws Exception {
+        return detect(observedSeries, expectedSeries, null, executor);
+    }
+
+    // Same as above, with the models reporting on the points of 'range' only,
+    // or on their own detection window if it is null.
+    public ArrayList<Anomaly> detect(final TimeSeries observedSeries,
+                                     final TimeSeries.DataSequence expectedSeries,
+                                     final DetectionRange range,
+                                     ExecutorService executor) throws Exception {
+        if (range != null && !range.isFor(observedSeries.size())) {
+            throw new IllegalArgumentException("The detection range " + range + " is not for a series of "
+                    + observedSeries.size() + " points.");
+        }
         for (Boolean b : isTuned) {
             if (!b) {
                 throw new Exception(
@@ -186,20 +253,75 @@ public class AnomalyDetector {
         // 设置  期望数据  的逻辑索引 period是在构造异常检测器的时候设置的值
         expectedSeries.setLogicalIndices(firstTimeStamp, period);
 
+        shareContext(new DetectionContext(observedSeries.data, expectedSeries));
+        try {
+            if (executor == null || models.size() < 2) {
+                for (AnomalyDetectionModel model : models) {
+                    result.add(detect(model, observedSeries, expectedSeries, range));
+                }
+            } else {
+                ArrayList<Future<Anomaly>> futures = new ArrayList<Future<Anomaly>>();
+                for (final AnomalyDetectionModel model : models) {
+                    futures.add(executor.submit(new Callable<Anomaly>() {
+                        @Override
+                        public Anomaly call() throws Exception {
+                            return detect(model, observedSeries, expectedSeries, range);
+                        }
+                    }));
+                }
+                for (Future<Anomaly> future : futures) {
+                    try {
+                        result.add(future.get());
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof Exception) {
+                            throw (Exception) e.getCause();
+                        }
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            shareContext(null);
+        }
+
+        return result;
+    }
+
+    // Runs the detection of one model.
+    private Anomaly detect(AnomalyDetectionModel model, TimeSeries observedSeries,
+                           TimeSeries.DataSequence expectedSeries, DetectionRange range) throws Exception {
+        Anomaly anomaly = new Anomaly(observedSeries.meta.name/*观测数据的属性名字*/,
+                observedSeries.meta);
+        anomaly.modelName = model.getModelName();
+        // 异常类型有：离群点、变化点、异常时序，离群点是本次检测以异常类型
+        anomaly.type = model.getType();
+        // 真正的异常检测代码，返回所有异常点组成的时序
+        if (range == null) {
+            anomaly.intervals = model.detect(observedSeries.data, expectedSeries);
+        } else {
+            anomaly.intervals = model.detect(observedSeries.data, expectedSeries, range);
+        }
+        anomaly.intervals.setLogicalIndices(firstTimeStamp, period);
+        anomaly.intervals.setTimeStamps(firstTimeStamp, period);
+        return anomaly;
+    }
+
+    // Streaming mode: scores the new point with every model. Each Anomaly holds
+    // the interval found at this point, if any.
+    public ArrayList<Anomaly> onPoint(long time, float observed, float expected) throws Exception {
+        ArrayList<Anomaly> result = new ArrayList<Anomaly>();
         for (AnomalyDetectionModel model : models) {
-            Anomaly anomaly = new Anomaly(observedSeries.meta.name/*观测数据的属性名字*/,
-                    observedSeries.meta);
+            Anomaly anomaly = new Anomaly(metric.meta.name, metric.meta);
             anomaly.modelName = model.getModelName();
-            // 异常类型有：离群点、变化点、异常时序，离群点是本次检测以异常类型
             anomaly.type = model.getType();
-            // 真正的异常检测代码，返回所有异常点组成的时序
-            anomaly.intervals = model.detect(observedSeries.data,
-                    expectedSeries);
-            anomaly.intervals.setLogicalIndices(firstTimeStamp, period);
-            anomaly.intervals.setTimeStamps(firstTimeStamp, period);
+            Anomaly.Interval interval = model.onPoint(time, observed, expected);
+            if (interval != null) {
+                anomaly.intervals.add(interval);
+                anomaly.intervals.setLogicalIndices(firstTimeStamp, period);
+                anomaly.intervals.setTimeStamps(firstTimeStamp, period);
+            }
             result.add(anomaly);
         }
-
         return result;
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// Logs the anomalies of each metric the PipelineExecutor processed, in the
+// order the metrics were submitted, whatever the number of threads.
+
+package com.yahoo.egads.control;
+
+import java.util.ArrayList;
+import java.util.Properties;
+
+import com.yahoo.egads.data.Anomaly;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.utilities.Now;
+import com.yahoo.egads.utilities.StatisticsUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+@Slf4j
+public class AnomalyPrinter implements PipelineExecutor.ResultListener {
+
+    private final Properties config;
+
+    public AnomalyPrinter(Properties config) {
+        this.config = config;
+    }
+
+    @Override
+    public void onResult(TimeSeries ts, ProcessableObject po) throws Exception {
+        // OUTPUT ANOMALY_DB 输出到异常检测数据库，其余的输出到控制台
+        if (!(po instanceof DetectAnomalyProcessable) || "ANOMALY_DB".equals(config.getProperty("OUTPUT"))) {
+            return;
+        }
+        printAnomalyList(((DetectAnomalyProcessable) po).getAnomalyList());
+    }
+
+    private void printAnomalyList(ArrayList<Anomaly> anomalyList) {
+        if (anomalyList == null || anomalyList.size() == 0) {
+            log.info("异常检测结果:{}", "没有异常");
+        } else {
+            for (Anomaly anomaly : anomalyList) {
+                log.info(StringUtils.isBlank(anomaly.toPerlString()) ? "没有异常" : "存在异常 " + anomaly.intervals.size() + "\n" + anomaly.toPerlString());
+                log.info("命中个数:{}", isTrue(anomaly.intervals));
+            }
+        }
+    }
+
+    private int isTrue(Anomaly.IntervalSequence intervals) {
+        int r = 0;
+        for (int i = 0; i < intervals.size(); i++) {
+            Anomaly.Interval interval = intervals.get(i);
+            if (StatisticsUtils.BK.contains(Now.TimeStampSecond2Date(String.valueOf(interval.utime), "yyyy-MM-dd hh:MM:ss"))) {
+                r++;
+            }
+        }
+        return r;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// BatchModelAdapter trains the OlympicModel2 of many metrics with the same
+// config at once. The metrics that are time aligned with the first one are
+// trained together by an OlympicBatchTrainer, the others on their own. Each
+// metric then gets a ModelAdapter holding its trained model, to forecast or
+// update as usual.
+
+package com.yahoo.egads.control;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.models.tsmm.OlympicBatchTrainer;
+import com.yahoo.egads.models.tsmm.OlympicModel2;
+
+public class BatchModelAdapter {
+
+    protected List<TimeSeries> metrics;
+    protected long period;
+    protected Properties config;
+    protected ArrayList<ModelAdapter> adapters = new ArrayList<ModelAdapter>();
+    // number of metrics trained in the batch
+    protected int batched = 0;
+
+    public BatchModelAdapter(List<TimeSeries> metrics, long period, Properties config) throws Exception {
+        if (metrics == null || metrics.isEmpty()) {
+            throw new Exception("The input metrics are empty.");
+        }
+        for (TimeSeries metric : metrics) {
+            if (metric == null || metric.size() == 0) {
+                throw new Exception("The input metric is null or empty.");
+            }
+        }
+        this.metrics = metrics;
+        this.period = period;
+        this.config = config;
+    }
+
+    public void train() throws Exception {
+        adapters.clear();
+        TimeSeries first = metrics.get(0);
+        List<TimeSeries.DataSequence> aligned = new ArrayList<TimeSeries.DataSequence>();
+        boolean[] inBatch = new boolean[metrics.size()];
+        for (int i = 0; i < metrics.size(); i++) {
+            inBatch[i] = aligned(first.data, metrics.get(i).data);
+            if (inBatch[i]) {
+                aligned.add(metrics.get(i).data);
+            }
+        }
+
+        OlympicModel2[] models = new OlympicBatchTrainer(config).train(aligned);
+        batched = models.length;
+        for (int i = 0, b = 0; i < metrics.size(); i++) {
+            TimeSeries metric = metrics.get(i);
+            ModelAdapter adapter = new ModelAdapter(metric, period);
+            if (inBatch[i]) {
+                metric.data.setLogicalIndices(adapter.firstTimeStamp, period);
+                adapter.addTrainedModel(models[b++], adapter.firstTimeStamp, metric.lastTime());
+            } else {
+                adapter.addModel(new OlympicModel2(config));
+                adapter.train();
+            }
+            adapters.add(adapter);
+        }
+    }
+
+    // The adapter of the i-th metric, after train().
+    public ModelAdapter getAdapter(int i) {
+        if (adapters.isEmpty()) {
+            throw new IllegalStateException("The models need to be trained first.");
+        }
+        return adapters.get(i);
+    }
+
+    public int size() {
+        return metrics.size();
+    }
+
+    // Number of metrics the last train() trained in the batch.
+    public int batched() {
+        return batched;
+    }
+
+    private static boolean aligned(TimeSeries.DataSequence a, TimeSeries.DataSequence b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i).time != b.get(i).time) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
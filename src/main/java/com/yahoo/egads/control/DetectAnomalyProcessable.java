@@ -11,12 +11,11 @@ package com.yahoo.egads.control;
 import java.util.ArrayList;
 
 import com.yahoo.egads.data.Anomaly;
+import com.yahoo.egads.data.DetectionRange;
 import com.yahoo.egads.data.TimeSeries;
 import com.yahoo.egads.utilities.GUIUtils;
-import com.yahoo.egads.utilities.Now;
-import com.yahoo.egads.utilities.StatisticsUtils;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang.NotImplementedException;
 
 import java.util.Properties;
 
@@ -35,6 +34,12 @@ public class DetectAnomalyProcessable implements ProcessableObject {
      */
     private Properties config;
     private ArrayList<Anomaly> anomalyList;
+    /**
+     * 模型缓存，为null时每次都重新训练
+     */
+    private ModelCache cache = null;
+    private String tsKey;
+    private String adKey;
 
     public ArrayList<Anomaly> getAnomalyList() {
         return anomalyList;
@@ -48,49 +53,77 @@ public class DetectAnomalyProcessable implements ProcessableObject {
         anomalyList = new ArrayList<>();
     }
 
+    void setModelCache(ModelCache cache, String tsKey, String adKey) {
+        this.cache = cache;
+        this.tsKey = tsKey;
+        this.adKey = adKey;
+    }
+
     /**
      * 异常检测的实际处理操作
      *
      * @throws Exception
      */
     public void process() throws Exception {
+        // 缓存中已训练好的模型只需要用新的数据点更新
+        boolean warm = modelAdapter.isTrained();
+        if (warm) {
+            try {
+                modelAdapter.updateWithNewPoints();
+            } catch (NotImplementedException e) {
+                warm = false;
+            }
+        }
+        if (!warm) {
+            // Resetting the models
+            modelAdapter.reset();
 
-        // Resetting the models
-        modelAdapter.reset();
-
-        // Training the model with the whole metric
-        // 训练应该是为了构建预测模型
-        modelAdapter.train();
+            // Training the model with the whole metric
+            // 训练应该是为了构建预测模型
+            modelAdapter.train();
+        }
+        boolean tuned = anomalyDetector.isTuned();
+        // 检测窗口只算一次（按时间二分查找），预测和检测都只处理窗口内的点
+        DetectionRange range = DetectionRange.of(anomalyDetector.metric.data, config);
 
         // Finding the expected values
         // 获取时序数据（整个原始时序数据，从数据的起始时间到数据的截至时间）的预测值
         // 一个模型对应一段数据，多个模型就会有多个数据，统一放到List中
         // 这个List里面存放的是各种算法模型产生的预测值，每个算法模型产生的预测值，对应list的一个对象，一个对象是一个List<Entry>结构
+        // 调谐要用整个时序的预测值，已调谐且模型只看窗口内的点时，只预测窗口
         ArrayList<TimeSeries.DataSequence> list = modelAdapter.forecast(
-            modelAdapter.metric.startTime(), modelAdapter.metric.lastTime());
-        String tdTmep = list.get(0).toString();
-        log.info("------------list.get(0):{}", list.get(0).toString());
+            modelAdapter.metric.startTime(), modelAdapter.metric.lastTime(),
+            tuned && anomalyDetector.isPointwise() ? range : null);
+        String tdTmep = null;
+        if (log.isDebugEnabled()) {
+            tdTmep = list.get(0).toString();
+            log.debug("------------list.get(0):{}", tdTmep);
+        }
         // For each model's prediction in the ModelAdapter
         for (TimeSeries.DataSequence dataSequence : list) {
-            // Reseting the anomaly detectors
-            anomalyDetector.reset();
-
-            // Unsupervised tuning of the anomaly detectors 异常探测器的无监督调谐
-            anomalyDetector.tune(dataSequence, null);
-            log.info("调谐后的 》》》》》  list.get(0) 没发生变化？:{}", dataSequence.toString().equals(tdTmep));
-            if (!dataSequence.toString().equals(tdTmep)) {
-                log.info(">>>>>tdTmep: {}", tdTmep);
-                log.info(">>>>>dataSequence.toString: {}", dataSequence.toString());
+            if (!tuned) {
+                // Reseting the anomaly detectors
+                anomalyDetector.reset();
+
+                // Unsupervised tuning of the anomaly detectors 异常探测器的无监督调谐
+                anomalyDetector.tune(dataSequence, null);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("调谐后的 》》》》》  list.get(0) 没发生变化？:{}", dataSequence.toString().equals(tdTmep));
+                if (!dataSequence.toString().equals(tdTmep)) {
+                    log.debug(">>>>>tdTmep: {}", tdTmep);
+                    log.debug(">>>>>dataSequence.toString: {}", dataSequence.toString());
+                }
             }
             // Detecting anomalies for each anomaly detection model in anomaly detector 异常检测
             // anomalyDetector.metric是原始数据   dataSequence 经典模型 的 预测数据
             // 异常的序列，如果只用了一个异常检测模型  则 anomalyList的大小为1
             // 异常序列在 anomaly.intervals 中
-            anomalyList = anomalyDetector.detect(anomalyDetector.metric, dataSequence);
+            anomalyList = anomalyDetector.detect(anomalyDetector.metric, dataSequence, range, null);
 
             /******************************************************
              * 以下代码的作用只是进行输出展示，可以输出到数据库
-             * ，也可以输出到控制台和GUI界面
+             * ，也可以输出到GUI界面；控制台输出由 AnomalyPrinter 按提交顺序完成
              */
 
             // Writing the anomalies to AnomalyDB
@@ -102,38 +135,15 @@ public class DetectAnomalyProcessable implements ProcessableObject {
             } else if (config.getProperty("OUTPUT") != null && config.getProperty("OUTPUT").equals("GUI")) {
                 // 页面绘图函数, modelAdapter.metric.data - 原始数据， dataSequence - 预测数据， anomalyList - 一个属性的异常点， config - 配置文件
                 GUIUtils.plotResults(modelAdapter.metric.data, dataSequence, anomalyList, config);
-                printAnomalyList(anomalyList);
-            } else if (config.getProperty("OUTPUT") != null && config.getProperty("OUTPUT").equals("PLOT")) {
-                printAnomalyList(anomalyList);
-            } else { // 如果没有设置输出，默认输出到控制台
-                printAnomalyList(anomalyList);
             }
         }
+        if (cache != null) {
+            cache.put(tsKey, modelAdapter.models.get(0), modelAdapter.firstTimeStamp, modelAdapter.trainedUntil);
+            cache.put(adKey, anomalyDetector.models.get(0), anomalyDetector.firstTimeStamp, modelAdapter.trainedUntil);
+        }
     }
 
     public ArrayList<Anomaly> result() throws Exception {
         return getAnomalyList();
     }
-
-    private void printAnomalyList( ArrayList<Anomaly> anomalyList) {
-        if (anomalyList == null || anomalyList.size() == 0) {
-            log.info("异常检测结果:{}", "没有异常");
-        } else {
-            for (Anomaly anomaly : anomalyList) {
-                log.info(StringUtils.isBlank(anomaly.toPerlString()) ? "没有异常" : "存在异常 " + anomaly.intervals.size() + "\n" + anomaly.toPerlString());
-                log.info("命中个数:{}", isTrue(anomaly.intervals));
-            }
-        }
-    }
-
-    private int isTrue(Anomaly.IntervalSequence intervals) {
-        int r = 0;
-        for (int i = 0; i < intervals.size(); i++) {
-            Anomaly.Interval interval = intervals.get(i);
-            if (StatisticsUtils.BK.contains(Now.TimeStampSecond2Date(String.valueOf(interval.utime), "yyyy-MM-dd hh:MM:ss"))) {
-                r++;
-            }
-        }
-        return r;
-    }
 }
@@ -32,6 +32,7 @@ package com.yahoo.egads.control;
 
 import java.util.ArrayList;
 
+import com.yahoo.egads.data.DetectionRange;
 import com.yahoo.egads.data.TimeSeries;
 import com.yahoo.egads.models.tsmm.TimeSeriesModel;
 
@@ -54,6 +55,10 @@ public class ModelAdapter { // Encapsulates a metric and the models operating on
      * 时序数据的周期
      */
     protected long period;
+    /**
+     * 模型已经训练过的最后一个时间戳
+     */
+    protected long trainedUntil = Long.MIN_VALUE;
 
     // Construction ///////////////////////////////////////////////////////////
 
@@ -138,6 +143,19 @@ public class ModelAdapter { // Encapsulates a metric and the models operating on
         isTrained.add(false);
     }
 
+    // Adds a model trained before, e.g. one from a ModelCache. The adapter takes
+    // over its time base so that the logical indices stay the same.
+    public void addTrainedModel(TimeSeriesModel model, long firstTimeStamp, long trainedUntil) {
+        models.add(model);
+        isTrained.add(true);
+        this.firstTimeStamp = firstTimeStamp;
+        this.trainedUntil = models.size() == 1 ? trainedUntil : Math.min(this.trainedUntil, trainedUntil);
+    }
+
+    public boolean isTrained() {
+        return !models.isEmpty() && !isTrained.contains(false);
+    }
+
     public String[] getModelNames() {
         String[] names = new String[models.size()];
         for (int i = 0; i < models.size(); ++i) {
@@ -156,6 +174,7 @@ public class ModelAdapter { // Encapsulates a metric and the models operating on
             isTrained.set(i, false); // 给每一模型打标记，表示没有训练过
             i++;
         }
+        trainedUntil = Long.MIN_VALUE;
     }
 
     public void train() throws Exception {
@@ -170,6 +189,9 @@ public class ModelAdapter { // Encapsulates a metric and the models operating on
             }
             i++;
         }
+        if (metric.data.size() > 0) {
+            trainedUntil = Math.max(trainedUntil, metric.lastTime());
+        }
     }
 
     public void update(TimeSeries.DataSequence newData) throws Exception {
@@ -189,10 +211,30 @@ public class ModelAdapter { // Encapsulates a metric and the models operating on
             for (TimeSeriesModel model : models) {
                 model.update(newData);
             }
+            trainedUntil = Math.max(trainedUntil, newData.get(newData.size() - 1).time);
+        }
+    }
+
+    // Updates the trained models with the points of the metric after the last
+    // one they have seen.
+    public void updateWithNewPoints() throws Exception {
+        TimeSeries.DataSequence newData = new TimeSeries.DataSequence();
+        for (TimeSeries.Entry e : metric.data) {
+            if (e.time > trainedUntil) {
+                newData.add(e);
+            }
         }
+        update(newData);
     }
 
     public ArrayList<TimeSeries.DataSequence> forecast(long from, long to) throws Exception {
+        return forecast(from, to, null);
+    }
+
+    // Same as above, with only the points of 'range' predicted when it is not
+    // null; the values of the points before it are left at 0.
+    public ArrayList<TimeSeries.DataSequence> forecast(long from, long to, DetectionRange range)
+            throws Exception {
         for (Boolean b : isTrained) {
             if (!b) {
                 throw new Exception("All the models need to be trained before forecasting.");
@@ -212,9 +254,29 @@ public class ModelAdapter { // Encapsulates a metric and the models operating on
         		sequence = new TimeSeries.DataSequence(metric.data.getTimes(), metric.data.getValues());
         	}
             // 对切割出来的时序数据进行预测，预测的时候用的模型就是model，model的实现有MA算法等
-        	model.predict(sequence); // 模型会修改sequence的值
+        	if (range == null) {
+        	    model.predict(sequence); // 模型会修改sequence的值
+        	} else {
+        	    model.predict(sequence, range.getFrom(), sequence.size());
+        	}
             result.add(sequence);
         }
         return result;
     }
+
+    // Streaming mode: returns each model's expected value for the new point and
+    // lets the models absorb it.
+    public float[] onPoint(long time, float value) throws Exception {
+        for (Boolean b : isTrained) {
+            if (!b) {
+                throw new Exception("All the models need to be trained before streaming.");
+            }
+        }
+
+        float[] result = new float[models.size()];
+        for (int i = 0; i < models.size(); i++) {
+            result[i] = models.get(i).onPoint(time, value);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// ModelCache keeps trained models in memory between runs, keyed by metric and
+// model config (see key()), so that a repeated detection on the same metric
+// only feeds the new points to the models instead of retraining them. That
+// needs the metric to start at the first point the models have seen and to
+// reach their last one; otherwise, e.g. for a sliding window, they are
+// trained again.
+// The cache holds at most maxBytes, measured by the snapshot size of the
+// models, and evicts the least recently used entry first. A model is measured
+// when it is first cached; put back after an update, it keeps that weight
+// until the next flush, so that a warm detection does not encode the whole
+// history of its models. With a ModelStore,
+// evicted and flushed models that changed since they were cached are written
+// back, and a miss is looked up in the store before the caller retrains.
+
+package com.yahoo.egads.control;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import com.yahoo.egads.data.Model;
+import com.yahoo.egads.data.ModelSnapshot;
+import com.yahoo.egads.data.ModelStore;
+
+public class ModelCache {
+
+    // Weight of the models that can not be encoded as a snapshot.
+    public static final long DEFAULT_WEIGHT = 64 << 10;
+
+    // Config keys that do not change the models.
+    private static final String[] NOT_MODEL_KEYS = {"OP_TYPE", "INPUT", "OUTPUT", "PIPELINE_THREADS", "PIPELINE_MODE",
+        "PIPELINE_QUEUE_SIZE", "MODEL_CACHE_BYTES", "MODEL_STORE_PATH"};
+
+    // A trained model and its time base: the first timestamp its logical
+    // indices count from and the time of the last point it has seen.
+    public static class Checkpoint implements Model {
+        private static final long serialVersionUID = 1L;
+
+        static {
+            ModelSnapshot.register(Checkpoint.class, new SnapshotCodec());
+        }
+
+        public final Model model;
+        public final long firstTimeStamp;
+        public final long trainedUntil;
+
+        public Checkpoint(Model model, long firstTimeStamp, long trainedUntil) {
+            this.model = model;
+            this.firstTimeStamp = firstTimeStamp;
+            this.trainedUntil = trainedUntil;
+        }
+
+        public void reset() {
+            model.reset();
+        }
+
+        public String getModelName() {
+            return model.getModelName();
+        }
+
+        public String getModelType() {
+            return model.getModelType();
+        }
+
+        public void toJson(JSONStringer json_out) throws Exception {
+            model.toJson(json_out);
+        }
+
+        public void fromJson(JSONObject json_obj) throws Exception {
+            model.fromJson(json_obj);
+        }
+    }
+
+    // Nests the snapshot of the model, so that it keeps its own codec.
+    private static class SnapshotCodec implements ModelSnapshot.Codec<Checkpoint> {
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(Checkpoint c, DataOutput out) throws IOException {
+            out.writeLong(c.firstTimeStamp);
+            out.writeLong(c.trainedUntil);
+            byte[] b = ModelSnapshot.toBytes(c.model);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        @Override
+        public Checkpoint read(DataInput in, int version) throws IOException {
+            long firstTimeStamp = in.readLong();
+            long trainedUntil = in.readLong();
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            return new Checkpoint(ModelSnapshot.fromBytes(b, 0, b.length), firstTimeStamp, trainedUntil);
+        }
+    }
+
+    private static class Entry {
+        Checkpoint checkpoint;
+        long weight;
+        // encodable as a snapshot, so it can be written back
+        boolean persistent;
+        boolean dirty;
+    }
+
+    private final long maxBytes;
+    private final ModelStore store;
+    // access ordered: eldest entry first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long bytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long loads = 0;
+    private long evictions = 0;
+    private long writeBacks = 0;
+
+    public ModelCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    public ModelCache(long maxBytes, ModelStore store) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes should be > 0");
+        }
+        this.maxBytes = maxBytes;
+        this.store = store;
+    }
+
+    // The cache key of the models of 'role' (e.g. TS_MODEL or AD_MODEL) for a
+    // metric: the metric id followed by a hash of the config.
+    public static String key(String metric, String role, Properties config) {
+        ArrayList<String> names = new ArrayList<String>(config.stringPropertyNames());
+        for (String k : NOT_MODEL_KEYS) {
+            names.remove(k);
+        }
+        Collections.sort(names);
+        // 64 bit FNV-1a over "name=value\n"
+        long h = 0xcbf29ce484222325L;
+        for (String name : names) {
+            String s = name + "=" + config.getProperty(name) + "\n";
+            for (int i = 0; i < s.length(); i++) {
+                h = (h ^ s.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        return metric + "/" + role + "/" + Long.toHexString(h);
+    }
+
+    // Returns the cached checkpoint, loading it from the store on a miss, or
+    // null if the model needs to be trained. The model is shared with the
+    // cache, callers should put() it back after changing it.
+    public synchronized Checkpoint get(String key) {
+        Entry e = entries.get(key);
+        if (e != null) {
+            hits++;
+            return e.checkpoint;
+        }
+        if (store != null) {
+            Model m = store.retrieveModel(key);
+            if (m instanceof Checkpoint) {
+                loads++;
+                e = new Entry();
+                e.checkpoint = (Checkpoint) m;
+                weigh(e);
+                add(key, e);
+                return e.checkpoint;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    // Caches a trained model, replacing the previous one of 'key'.
+    public synchronized void put(String key, Model model, long firstTimeStamp, long trainedUntil) {
+        Entry e = new Entry();
+        e.checkpoint = new Checkpoint(model, firstTimeStamp, trainedUntil);
+        e.dirty = true;
+        Entry old = entries.remove(key);
+        if (old != null) {
+            bytes -= old.weight;
+        }
+        if (old != null && old.checkpoint.model == model) {
+            e.weight = old.weight;
+            e.persistent = old.persistent;
+        } else {
+            weigh(e);
+        }
+        add(key, e);
+    }
+
+    // Writes back the changed models and measures them again.
+    public synchronized void flush() {
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.dirty) {
+                writeBack(e.getKey(), entry);
+                bytes -= entry.weight;
+                weigh(entry);
+                bytes += entry.weight;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Total weight of the cached models.
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    // Misses served from the store.
+    public synchronized long loads() {
+        return loads;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized long writeBacks() {
+        return writeBacks;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ModelCache[" + entries.size() + " models, " + bytes + " bytes, hits " + hits + ", misses " + misses
+               + ", loads " + loads + ", evictions " + evictions + ", write backs " + writeBacks + "]";
+    }
+
+    // helpers ////////////////////////////////////////////////
+
+    private void weigh(Entry e) {
+        try {
+            e.weight = ModelSnapshot.toBytes(e.checkpoint).length;
+            e.persistent = true;
+        } catch (IOException ex) {
+            // a model that can not be encoded, kept in memory only
+            e.weight = DEFAULT_WEIGHT;
+            e.persistent = false;
+        }
+    }
+
+    // Adds the entry and evicts the eldest ones over the budget, never the new one.
+    private void add(String key, Entry e) {
+        entries.put(key, e);
+        bytes += e.weight;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && entries.size() > 1) {
+            Map.Entry<String, Entry> eldest = it.next();
+            writeBack(eldest.getKey(), eldest.getValue());
+            bytes -= eldest.getValue().weight;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private void writeBack(String key, Entry e) {
+        if (store == null || !e.dirty || !e.persistent) {
+            return;
+        }
+        try {
+            store.storeModel(key, e.checkpoint);
+            writeBacks++;
+            e.dirty = false;
+        } catch (UncheckedIOException ex) {
+            // keep the entry dirty, the next flush tries again
+        }
+    }
+}
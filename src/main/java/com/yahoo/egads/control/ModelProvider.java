@@ -0,0 +1,17 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// Registers the models of a jar with the ModelRegistry. The implementations
+// are found with java.util.ServiceLoader: list them in
+// META-INF/services/com.yahoo.egads.control.ModelProvider, one class name a
+// line, and give them a public no-arg constructor. Their models can then be
+// named in TS_MODEL and AD_MODEL like the EGADS ones.
+
+package com.yahoo.egads.control;
+
+public interface ModelProvider {
+    void registerModels(ModelRegistry registry);
+}
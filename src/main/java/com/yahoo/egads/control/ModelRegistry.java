@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// The models TS_MODEL and AD_MODEL name, with the factory each one is built
+// with. The EGADS models are registered with their constructors and the
+// models of other jars by their ModelProvider, once, when the registry is
+// first used. A name nobody registered is looked up as a class, in the
+// EGADS model package or as a fully qualified name, and the factory found is
+// kept, so reflection only runs the first time a model is asked for.
+
+package com.yahoo.egads.control;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.yahoo.egads.data.ModelConfig;
+import com.yahoo.egads.models.adm.*;
+import com.yahoo.egads.models.tsmm.*;
+
+public class ModelRegistry {
+
+    // Builds a model from the parsed config.
+    public interface Factory<T> {
+        T create(ModelConfig config) throws Exception;
+    }
+
+    private static final String TS_PACKAGE = "com.yahoo.egads.models.tsmm.";
+    private static final String AD_PACKAGE = "com.yahoo.egads.models.adm.";
+
+    private static volatile ModelRegistry instance;
+
+    private final ConcurrentHashMap<String, Factory<? extends TimeSeriesModel>> tsModels =
+        new ConcurrentHashMap<String, Factory<? extends TimeSeriesModel>>();
+    private final ConcurrentHashMap<String, Factory<? extends AnomalyDetectionModel>> adModels =
+        new ConcurrentHashMap<String, Factory<? extends AnomalyDetectionModel>>();
+
+    // The registry of the EGADS models and of the ModelProviders on the class path.
+    public static ModelRegistry getInstance() {
+        ModelRegistry registry = instance;
+        if (registry == null) {
+            synchronized (ModelRegistry.class) {
+                registry = instance;
+                if (registry == null) {
+                    registry = new ModelRegistry();
+                    registry.registerBuiltIns();
+                    for (ModelProvider provider : ServiceLoader.load(ModelProvider.class)) {
+                        provider.registerModels(registry);
+                    }
+                    instance = registry;
+                }
+            }
+        }
+        return registry;
+    }
+
+    // An empty registry, see getInstance() for the shared one.
+    public ModelRegistry() {
+    }
+
+    public void registerTimeSeriesModel(String name, Factory<? extends TimeSeriesModel> factory) {
+        tsModels.put(name, factory);
+    }
+
+    public void registerAnomalyDetectionModel(String name, Factory<? extends AnomalyDetectionModel> factory) {
+        adModels.put(name, factory);
+    }
+
+    public boolean hasTimeSeriesModel(String name) {
+        return tsModels.containsKey(name);
+    }
+
+    public boolean hasAnomalyDetectionModel(String name) {
+        return adModels.containsKey(name);
+    }
+
+    // The TS_MODEL of the config.
+    public TimeSeriesModel createTimeSeriesModel(ModelConfig config) throws Exception {
+        return createTimeSeriesModel(config.getTsModel(), config);
+    }
+
+    public TimeSeriesModel createTimeSeriesModel(String name, ModelConfig config) throws Exception {
+        if (name == null) {
+            throw new IllegalArgumentException("TS_MODEL is NULL");
+        }
+        Factory<? extends TimeSeriesModel> factory = tsModels.get(name);
+        if (factory == null) {
+            factory = byReflection(name, TS_PACKAGE, TimeSeriesModel.class);
+            Factory<? extends TimeSeriesModel> other = tsModels.putIfAbsent(name, factory);
+            factory = other != null ? other : factory;
+        }
+        return factory.create(config);
+    }
+
+    // The AD_MODEL of the config.
+    public AnomalyDetectionModel createAnomalyDetectionModel(ModelConfig config) throws Exception {
+        return createAnomalyDetectionModel(config.getAdModel(), config);
+    }
+
+    public AnomalyDetectionModel createAnomalyDetectionModel(String name, ModelConfig config) throws Exception {
+        if (name == null) {
+            throw new IllegalArgumentException("AD_MODEL is NULL");
+        }
+        Factory<? extends AnomalyDetectionModel> factory = adModels.get(name);
+        if (factory == null) {
+            factory = byReflection(name, AD_PACKAGE, AnomalyDetectionModel.class);
+            Factory<? extends AnomalyDetectionModel> other = adModels.putIfAbsent(name, factory);
+            factory = other != null ? other : factory;
+        }
+        return factory.create(config);
+    }
+
+    private void registerBuiltIns() {
+        registerTimeSeriesModel("AutoForecastModel", c -> new AutoForecastModel(c.getProperties()));
+        registerTimeSeriesModel("DoubleExponentialSmoothingModel",
+            c -> new DoubleExponentialSmoothingModel(c.getProperties()));
+        registerTimeSeriesModel("MovingAverageModel", c -> new MovingAverageModel(c.getProperties()));
+        registerTimeSeriesModel("MultipleLinearRegressionModel",
+            c -> new MultipleLinearRegressionModel(c.getProperties()));
+        registerTimeSeriesModel("NaiveForecastingModel", c -> new NaiveForecastingModel(c.getProperties()));
+        registerTimeSeriesModel("NullModel", c -> new NullModel(c.getProperties()));
+        registerTimeSeriesModel("OlympicModel", c -> new OlympicModel(c.getProperties()));
+        registerTimeSeriesModel("PolynomialRegressionModel", c -> new PolynomialRegressionModel(c.getProperties()));
+        registerTimeSeriesModel("RegressionModel", c -> new RegressionModel(c.getProperties()));
+        registerTimeSeriesModel("SimpleExponentialSmoothingModel",
+            c -> new SimpleExponentialSmoothingModel(c.getProperties()));
+        registerTimeSeriesModel("SpectralSmoother", c -> new SpectralSmoother(c.getProperties()));
+        registerTimeSeriesModel("TripleExponentialSmoothingModel",
+            c -> new TripleExponentialSmoothingModel(c.getProperties()));
+        registerTimeSeriesModel("WeightedMovingAverageModel", c -> new WeightedMovingAverageModel(c.getProperties()));
+
+        registerAnomalyDetectionModel("AdaptiveKernelDensityChangePointDetector",
+            AdaptiveKernelDensityChangePointDetector::new);
+        registerAnomalyDetectionModel("DBScanModel", DBScanModel::new);
+        registerAnomalyDetectionModel("ExtremeLowDensityModel", ExtremeLowDensityModel::new);
+        registerAnomalyDetectionModel("KSigmaModel", KSigmaModel::new);
+        registerAnomalyDetectionModel("NaiveModel", NaiveModel::new);
+        registerAnomalyDetectionModel("SimpleThresholdModel", SimpleThresholdModel::new);
+    }
+
+    // A factory calling the (ModelConfig) or else the (Properties) constructor of the class.
+    private static <T> Factory<T> byReflection(String name, String pkg, final Class<T> type) throws Exception {
+        Class<?> c;
+        try {
+            c = Class.forName(name.indexOf('.') < 0 ? pkg + name : name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Unknown model " + name, e);
+        }
+        if (!type.isAssignableFrom(c)) {
+            throw new IllegalArgumentException(name + " is not a " + type.getSimpleName());
+        }
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodHandle handle;
+        boolean parsed = true;
+        try {
+            handle = lookup.findConstructor(c, MethodType.methodType(void.class, ModelConfig.class));
+        } catch (NoSuchMethodException e) {
+            handle = lookup.findConstructor(c, MethodType.methodType(void.class, Properties.class));
+            parsed = false;
+        }
+        final MethodHandle constructor = handle.asType(MethodType.methodType(Object.class, handle.type().parameterType(0)));
+        final boolean withConfig = parsed;
+        return config -> {
+            try {
+                return type.cast(withConfig ? constructor.invoke(config) : constructor.invoke(config.getProperties()));
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        };
+    }
+}
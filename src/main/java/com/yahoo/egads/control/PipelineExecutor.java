@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+/*
+ * Description: PipelineExecutor fans the ProcessableObjects built for a stream of metrics out over a
+ * thread pool. At most PIPELINE_QUEUE_SIZE metrics are in flight at any time; submit() blocks on the
+ * oldest one once the queue is full, which throttles the input side. Results are handed to the
+ * listener in submission order, so the output does not depend on the number of threads.
+ *
+ * Config:
+ *      PIPELINE_THREADS     number of worker threads; 1 (default) processes in the calling thread,
+ *                           0 uses one thread per available core. OUTPUT GUI always runs serially.
+ *      PIPELINE_MODE        FORK_JOIN (default, work-stealing pool) or FIXED (fixed thread pool).
+ *      PIPELINE_QUEUE_SIZE  maximum number of metrics in flight, defaults to 4 x PIPELINE_THREADS.
+ *      MODEL_CACHE_BYTES    memory budget of a ModelCache shared by all the metrics, so that a metric
+ *                           seen again is not retrained; no cache when not set.
+ *      MODEL_STORE_PATH     directory of a SegmentModelStore the cache evicts and flushes to, and
+ *                           loads from on a miss, so the models survive a restart.
+ * Each metric is processed by its own ProcessableObject, ModelAdapter and AnomalyDetector, none of
+ * them thread-safe nor shared between threads. With a cache, the cached models are: a metric waits
+ * for the one with the same id in flight.
+ */
+
+package com.yahoo.egads.control;
+
+import java.util.ArrayDeque;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.yahoo.egads.data.ModelConfig;
+import com.yahoo.egads.data.SegmentModelStore;
+import com.yahoo.egads.data.TimeSeries;
+
+public class PipelineExecutor {
+
+    public enum Mode {
+        SERIAL, FORK_JOIN, FIXED
+    }
+
+    // Receives every processed metric, in the order it was submitted.
+    public interface ResultListener {
+        void onResult(TimeSeries ts, ProcessableObject po) throws Exception;
+    }
+
+    private static class Task {
+        private final TimeSeries ts;
+        private final Future<ProcessableObject> future;
+
+        Task(TimeSeries ts, Future<ProcessableObject> future) {
+            this.ts = ts;
+            this.future = future;
+        }
+    }
+
+    // parsed once for all the metrics
+    private final ModelConfig modelConfig;
+    private final Mode mode;
+    private final int threads;
+    private final int queueSize;
+    private final ResultListener listener;
+    private final ExecutorService pool;
+    private final SegmentModelStore store;
+    private final ModelCache cache;
+    private final ArrayDeque<Task> inFlight = new ArrayDeque<Task>();
+
+    public PipelineExecutor(Properties config) {
+        this(config, null);
+    }
+
+    public PipelineExecutor(Properties config, ResultListener listener) {
+        this.modelConfig = new ModelConfig(config);
+        this.listener = listener;
+
+        int n = 1;
+        if (config.getProperty("PIPELINE_THREADS") != null) {
+            n = new Integer(config.getProperty("PIPELINE_THREADS"));
+        }
+        if (n == 0) {
+            n = Runtime.getRuntime().availableProcessors();
+        }
+        if (n < 0) {
+            throw new IllegalArgumentException("PIPELINE_THREADS should be >= 0");
+        }
+        threads = n;
+
+        // The GUI output is not thread-safe, keep plotting in the calling thread.
+        if (threads == 1 || "GUI".equals(config.getProperty("OUTPUT"))) {
+            mode = Mode.SERIAL;
+        } else if (config.getProperty("PIPELINE_MODE") != null) {
+            mode = Mode.valueOf(config.getProperty("PIPELINE_MODE"));
+        } else {
+            mode = Mode.FORK_JOIN;
+        }
+
+        if (config.getProperty("PIPELINE_QUEUE_SIZE") != null) {
+            queueSize = new Integer(config.getProperty("PIPELINE_QUEUE_SIZE"));
+            if (queueSize < 1) {
+                throw new IllegalArgumentException("PIPELINE_QUEUE_SIZE should be > 0");
+            }
+        } else {
+            queueSize = 4 * threads;
+        }
+
+        switch (mode) {
+            case FORK_JOIN:
+                pool = new ForkJoinPool(threads);
+                break;
+            case FIXED:
+                pool = Executors.newFixedThreadPool(threads);
+                break;
+            default:
+                pool = null;
+        }
+
+        if (config.getProperty("MODEL_CACHE_BYTES") != null) {
+            long maxBytes = new Long(config.getProperty("MODEL_CACHE_BYTES"));
+            store = config.getProperty("MODEL_STORE_PATH") != null
+                            ? new SegmentModelStore(config.getProperty("MODEL_STORE_PATH")) : null;
+            cache = new ModelCache(maxBytes, store);
+        } else if (config.getProperty("MODEL_STORE_PATH") != null) {
+            throw new IllegalArgumentException("MODEL_STORE_PATH needs MODEL_CACHE_BYTES");
+        } else {
+            store = null;
+            cache = null;
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // null without MODEL_CACHE_BYTES.
+    public ModelCache getModelCache() {
+        return cache;
+    }
+
+    // Processes the metric, blocking while the pipeline is full.
+    public void submit(final TimeSeries ts) throws Exception {
+        if (pool == null) {
+            ProcessableObject po = ProcessableObjectFactory.create(ts, modelConfig, cache);
+            po.process();
+            emit(ts, po);
+            return;
+        }
+        while (inFlight.size() >= queueSize || (cache != null && isInFlight(ts))) {
+            complete(inFlight.poll());
+        }
+        Future<ProcessableObject> future = pool.submit(new Callable<ProcessableObject>() {
+            @Override
+            public ProcessableObject call() throws Exception {
+                ProcessableObject po = ProcessableObjectFactory.create(ts, modelConfig, cache);
+                po.process();
+                return po;
+            }
+        });
+        inFlight.add(new Task(ts, future));
+    }
+
+    // Waits for all submitted metrics and emits their results.
+    public void flush() throws Exception {
+        while (!inFlight.isEmpty()) {
+            complete(inFlight.poll());
+        }
+    }
+
+    // Flushes the pipeline and the model cache, and releases the worker
+    // threads and the store. A failure to release them is suppressed by the
+    // one of processing, if any.
+    public void close() throws Exception {
+        AutoCloseable shutdown = () -> {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        };
+        try (AutoCloseable s = store; AutoCloseable t = shutdown) {
+            flush();
+            if (cache != null) {
+                cache.flush();
+            }
+        }
+    }
+
+    private boolean isInFlight(TimeSeries ts) {
+        String id = ProcessableObjectFactory.metricId(ts);
+        for (Task task : inFlight) {
+            if (ProcessableObjectFactory.metricId(task.ts).equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void complete(Task task) throws Exception {
+        ProcessableObject po;
+        try {
+            po = task.future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        emit(task.ts, po);
+    }
+
+    private void emit(TimeSeries ts, ProcessableObject po) throws Exception {
+        if (listener != null) {
+            listener.onResult(ts, po);
+        }
+    }
+}
@@ -8,9 +8,9 @@
 
 package com.yahoo.egads.control;
 
+import com.yahoo.egads.data.ModelConfig;
 import com.yahoo.egads.data.TimeSeries;
 
-import java.lang.reflect.Constructor;
 import java.util.Properties;
 
 import com.yahoo.egads.models.adm.*;
@@ -19,57 +19,76 @@ import com.yahoo.egads.models.tsmm.*;
 public class ProcessableObjectFactory {
 
     public static ProcessableObject create(TimeSeries ts, Properties config) {
+        return create(ts, config, null);
+    }
+
+    // With a cache, DETECT_ANOMALY and UPDATE_MODEL reuse the models trained
+    // on the metric before and put them back after processing.
+    public static ProcessableObject create(TimeSeries ts, Properties config, ModelCache cache) {
+        return create(ts, new ModelConfig(config), cache);
+    }
+
+    // Same as above with a config parsed once for all the metrics, the models
+    // come from the ModelRegistry.
+    public static ProcessableObject create(TimeSeries ts, ModelConfig modelConfig, ModelCache cache) {
+        Properties config = modelConfig.getProperties();
         // OP_TYPE 指定要进行的数据处理操作
-        if (config.getProperty("OP_TYPE") == null) {
+        if (modelConfig.getOpType() == null) {
             throw new IllegalArgumentException("OP_TYPE is NULL");
         }
-        if (config.getProperty("OP_TYPE").equals("DETECT_ANOMALY")) {
+        if (modelConfig.getOpType().equals("DETECT_ANOMALY")) {
             // 建立模型适配器，建立模型适配器的时候会指定Period
-            ModelAdapter modelAdapter = ProcessableObjectFactory.buildTSModel(ts, config);
+            String tsKey = cache == null ? null : ModelCache.key(metricId(ts), "TS_MODEL", config);
+            String adKey = cache == null ? null : ModelCache.key(metricId(ts), "AD_MODEL", config);
+            ModelAdapter modelAdapter = ProcessableObjectFactory.buildTSModel(ts, modelConfig, cache, tsKey);
             // 建立异常检测器（需要进行异常检测的原始数据{从ts中来}，以及 数据的 Period{从config中来}）
-            AnomalyDetector anomalyDetector = ProcessableObjectFactory.buildAnomalyModel(ts, config);
+            AnomalyDetector anomalyDetector = ProcessableObjectFactory.buildAnomalyModel(ts, modelConfig, cache, adKey);
             // 返回可以处理的对象的实例————————异常检测对象
-            return (new DetectAnomalyProcessable(modelAdapter, anomalyDetector, config));
-        } else if (config.getProperty("OP_TYPE").equals("UPDATE_MODEL")) {
-            ModelAdapter ma = ProcessableObjectFactory.buildTSModel(ts, config);
-            return (new UpdateModelProcessable(ma, ts.data, config));
-        } else if (config.getProperty("OP_TYPE").equals("TRANSFORM_INPUT")) {
-            ModelAdapter ma = ProcessableObjectFactory.buildTSModel(ts, config);
+            DetectAnomalyProcessable processable = new DetectAnomalyProcessable(modelAdapter, anomalyDetector, config);
+            processable.setModelCache(cache, tsKey, adKey);
+            return processable;
+        } else if (modelConfig.getOpType().equals("UPDATE_MODEL")) {
+            String tsKey = cache == null ? null : ModelCache.key(metricId(ts), "TS_MODEL", config);
+            ModelAdapter ma = ProcessableObjectFactory.buildTSModel(ts, modelConfig, cache, tsKey);
+            UpdateModelProcessable processable = new UpdateModelProcessable(ma, ts.data, config);
+            processable.setModelCache(cache, tsKey);
+            return processable;
+        } else if (modelConfig.getOpType().equals("TRANSFORM_INPUT")) {
+            ModelAdapter ma = ProcessableObjectFactory.buildTSModel(ts, modelConfig, null, null);
             return (new TransformInputProcessable(ma, config));
         }
         // Should not be here.
         System.err.println("Unknown OP_TYPE, returning UPDATE_MODEL ProcessableObject");
-        ModelAdapter ma = ProcessableObjectFactory.buildTSModel(ts, config);
+        ModelAdapter ma = ProcessableObjectFactory.buildTSModel(ts, modelConfig, null, null);
         return (new UpdateModelProcessable(ma, ts.data, config));
     }
 
-    private static ModelAdapter buildTSModel(TimeSeries ts, Properties config) {
+    // The metric part of the cache keys.
+    static String metricId(TimeSeries ts) {
+        return ts.meta.id != null ? ts.meta.id : ts.meta.fileName + ":" + ts.meta.name;
+    }
+
+    // The models keep their history by position from its first point, so a
+    // cached model is only used for a metric that starts at the same point and
+    // reaches its last one, e.g. not for a sliding window. The others are
+    // trained again.
+    private static boolean extendsHistory(TimeSeries ts, ModelCache.Checkpoint cached) {
+        return ts.size() > 0 && ts.startTime() == cached.firstTimeStamp && ts.lastTime() >= cached.trainedUntil;
+    }
+
+    private static ModelAdapter buildTSModel(TimeSeries ts, ModelConfig config, ModelCache cache, String key) {
         ModelAdapter modelAdapter = null;
         try {
-            Long period = (long) -1;
-            if (config.getProperty("PERIOD") != null) { // 获取时序数据的周期，  0 - auto detect. -1 - disable.
-              period = new Long(config.getProperty("PERIOD"));
-            }
-            if (period == 0) {
-              if (ts.size() > 1) {
-                // TODO 算法改进，时序数据的周期性不应该被简单的计算为，头两个时间的差值
-                period = ts.data.get(1).time - ts.data.get(0).time;
-              } else {
-                  // TODO 算法改进，时序数据的周期性不应该被暴力指定
-                period = (long) 1;
-              }
-            }
+            // 获取时序数据的周期，  0 - auto detect. -1 - disable.
             // 用时序和周期性去建立模型适配器
-            modelAdapter = new ModelAdapter(ts, period);
-            // 获取时间预测模型
-            String modelType = config.getProperty("TS_MODEL");
-            // 加载时序预测模型的代码实现
-            Class<?> tsModelClass = Class.forName("com.yahoo.egads.models.tsmm." + modelType);
-            Constructor<?> constructor = tsModelClass.getConstructor(Properties.class);
-            // 将配置文件作为构造参数，构造指定的时序预测模型
-            TimeSeriesAbstractModel m = (TimeSeriesAbstractModel) constructor.newInstance(config);
-            // 给模型适配器添加上模型
-            modelAdapter.addModel(m);
+            modelAdapter = new ModelAdapter(ts, config.getPeriod(ts));
+            ModelCache.Checkpoint cached = cache == null ? null : cache.get(key);
+            if (cached != null && cached.model instanceof TimeSeriesModel && extendsHistory(ts, cached)) {
+                modelAdapter.addTrainedModel((TimeSeriesModel) cached.model, cached.firstTimeStamp, cached.trainedUntil);
+                return modelAdapter;
+            }
+            // 将配置文件作为构造参数，构造TS_MODEL指定的时序预测模型，并给模型适配器添加上模型
+            modelAdapter.addModel(ModelRegistry.getInstance().createTimeSeriesModel(config));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -77,29 +96,17 @@ public class ProcessableObjectFactory {
         return modelAdapter;
     }
 
-    private static AnomalyDetector buildAnomalyModel(TimeSeries ts, Properties config) {
+    private static AnomalyDetector buildAnomalyModel(TimeSeries ts, ModelConfig config, ModelCache cache, String key) {
         AnomalyDetector ad = null;
         try {
-            Long period = (long) -1;
-            if (config.getProperty("PERIOD") != null) {
-              period = new Long(config.getProperty("PERIOD"));
-            }
-            if (period == 0) {
-              if (ts.size() > 1) {
-                  // TODO 算法改进，时序数据的周期性不应该被简单的计算为，头两个时间的差值
-                period = ts.data.get(1).time - ts.data.get(0).time;
-              } else {
-                  // TODO 算法改进，时序数据的周期性不应该被暴力指定
-                period = (long) 1;
-              }
+            ad = new AnomalyDetector(ts, config.getPeriod(ts));
+            ModelCache.Checkpoint cached = cache == null ? null : cache.get(key);
+            if (cached != null && cached.model instanceof AnomalyDetectionModel && extendsHistory(ts, cached)) {
+                ad.addTunedModel((AnomalyDetectionModel) cached.model, cached.firstTimeStamp);
+                return ad;
             }
-            ad = new AnomalyDetector(ts, period);
-            String modelType = config.getProperty("AD_MODEL");
-
-            // 用动态类加载的方式来构造 异常检测模型，比如DBSCAN等，构造函数的初始化参数是配置文件
-            Class<?> tsModelClass = Class.forName("com.yahoo.egads.models.adm." + modelType);
-            Constructor<?> constructor = tsModelClass.getConstructor(Properties.class);
-            ad.addModel((AnomalyDetectionAbstractModel) constructor.newInstance(config));
+            // 构造AD_MODEL指定的异常检测模型，比如DBSCAN等，构造函数的初始化参数是解析过的配置文件
+            ad.addModel(ModelRegistry.getInstance().createAnomalyDetectionModel(config));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -10,12 +10,15 @@ package com.yahoo.egads.control;
 
 import com.yahoo.egads.data.TimeSeries;
 import java.util.Properties;
+import org.apache.commons.lang.NotImplementedException;
 
 public class UpdateModelProcessable implements ProcessableObject {
 
     private ModelAdapter ma;
     private TimeSeries.DataSequence newData;
     private Properties config;
+    private ModelCache cache = null;
+    private String tsKey;
 
     UpdateModelProcessable(ModelAdapter ma, TimeSeries.DataSequence newData, Properties config) {
         this.ma = ma;
@@ -23,9 +26,30 @@ public class UpdateModelProcessable implements ProcessableObject {
         this.config = config;
     }
 
+    void setModelCache(ModelCache cache, String tsKey) {
+        this.cache = cache;
+        this.tsKey = tsKey;
+    }
+
+    // Models trained before only learn the points after the last one they
+    // have seen, the others, and the ones that can not learn them, are
+    // trained on all of them.
     public void process() throws Exception {
-        this.ma.train();
-        this.ma.update(this.newData);
+        boolean warm = this.ma.isTrained();
+        if (warm) {
+            try {
+                this.ma.updateWithNewPoints();
+            } catch (NotImplementedException e) {
+                warm = false;
+            }
+        }
+        if (!warm) {
+            this.ma.reset();
+            this.ma.train();
+        }
+        if (cache != null) {
+            cache.put(tsKey, ma.models.get(0), ma.firstTimeStamp, ma.trainedUntil);
+        }
     }
 
     public Object result() throws Exception {
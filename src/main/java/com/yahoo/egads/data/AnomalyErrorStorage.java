@@ -42,6 +42,15 @@ public class AnomalyErrorStorage {
     public Map<Integer, String> getIndexToError() {
         return indexToError;
     }
+
+    // The MASE denominator of the last init, kept by the model snapshots.
+    public float getMaseDenom() {
+        return maseDenom;
+    }
+
+    public void setMaseDenom(float maseDenom) {
+        this.maseDenom = maseDenom;
+    }
     
     // Force the user to define this constructor that acts as a
     // factory method.
@@ -63,36 +72,51 @@ public class AnomalyErrorStorage {
     
     // Initializes all anomaly errors.
     public HashMap<String, ArrayList<Float>> initAnomalyErrors(DataSequence observedSeries, DataSequence expectedSeries) {
-        int n = observedSeries.size();
-        
-        // init MASE.
-        for (int i = 1; i < n; i++) {
-            maseDenom += Math.abs(observedSeries.get(i).value - observedSeries.get(i - 1).value);
-        }
-        maseDenom = maseDenom / (n - 1);
+        ErrorMetrics errors = initErrorMetrics(observedSeries, expectedSeries, null);
+        errors.compute();
+        int n = errors.size();
+        // k是5个误差指标名，v是observedSeries和expectedSeries之间每一个点 的 误差值 构成的序列
         HashMap<String, ArrayList<Float>> allErrors = new HashMap<String, ArrayList<Float>>();
-        
-        for (int i = 0; i < n; i++) {
-            // 计算两个值之间的误差（不同的统计标准，会计算出不同的值，这些值以数组形式存放）；computeErrorMetrics的形参中 第一个值是预测点的value，第二值是观测点的value
-            Float[] errors = computeErrorMetrics(expectedSeries.get(i).value, observedSeries.get(i).value);
-            // 向allErrors中添加 对应的指标名 和 指标值
-            for (int j = 0; j < errors.length; j++) {
-                if (!allErrors.containsKey(indexToError.get(j))) {
-                    allErrors.put(indexToError.get(j), new ArrayList<Float>());
-                }
-                // tmp 是 误差指标indexToError.get(j) 对应的 值序列
-                ArrayList<Float> tmp = allErrors.get(indexToError.get(j));
-                tmp.add(errors[j]);
-                allErrors.put(indexToError.get(j), tmp);
-            }            
-        } // 这个for循环执行完最后形成k-v结构，k是5个误差指标名，v是observedSeries和expectedSeries之间每一个点 的 误差值 构成的序列
-        isInit = true;
+        for (int j = 0; j < ErrorMetrics.NAMES.length; j++) {
+            float[] column = errors.get(j);
+            ArrayList<Float> tmp = new ArrayList<Float>(n);
+            for (int i = 0; i < n; i++) {
+                tmp.add(column[i]);
+            }
+            allErrors.put(indexToError.get(j), tmp);
+        }
         return allErrors;
     }
+
+    // Columnar counterpart of initAnomalyErrors(): the errors are taken from
+    // 'shared' when it was made for these very series, e.g. by the
+    // AnomalyDetector running this model with others, and computed otherwise.
+    // Also sets the MASE scale used by computeErrorMetrics().
+    public ErrorMetrics initErrorMetrics(DataSequence observedSeries, DataSequence expectedSeries, ErrorMetrics shared) {
+        ErrorMetrics errors = shared;
+        if (errors == null || !errors.isFor(observedSeries, expectedSeries)) {
+            errors = new ErrorMetrics(observedSeries, expectedSeries);
+        }
+        maseDenom = errors.getMaseDenom();
+        isInit = true;
+        return errors;
+    }
     
     // Computes the standard error metrics including MAE（or MAD）, sMAPE, MAPE, MASE.
     // 在不同统计公式下，计算两个点的误差度量
     public Float[] computeErrorMetrics(float expected, float actual) {
+        float[] buffer = new float[5];
+        computeErrorMetrics(expected, actual, buffer);
+        Float[] errors = new Float[5];
+        for (int i = 0; i < 5; i++) {
+            errors[i] = buffer[i];
+        }
+        return errors;
+    }
+
+    // Same as above, writes the errors into 'errors' by index (see indexToError)
+    // so that callers can reuse one buffer for all the points.
+    public void computeErrorMetrics(float expected, float actual, float[] errors) {
         float div = expected;
         if (expected == (float) 0.0) {
           div = (float) 0.0000000001;
@@ -124,12 +148,10 @@ public class AnomalyErrorStorage {
         float mapee = (expected == actual) ? (float) 0.0 : Math.abs((100 * ((actual / div) - 1)));
         
         // Store all errors.
-        Float[] errors = new Float[5];
         errors[0] = mapee;
         errors[1] = mae;
         errors[2] = smape;
         errors[3] = mape;
         errors[4] = mase;
-        return errors;
     }
 }
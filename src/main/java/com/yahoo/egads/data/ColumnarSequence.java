@@ -0,0 +1,236 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// Columnar storage for time series data. Times, values and logical indices
+// are kept in parallel primitive arrays, split into fixed-size chunks so that
+// appending never copies the data that is already stored. This is the store
+// behind TimeSeries.DataSequence, which adds the Entry view on top of it.
+
+package com.yahoo.egads.data;
+
+import java.io.Serializable;
+
+public class ColumnarSequence implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Each chunk holds 4096 points.
+    static final int CHUNK_SHIFT = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private long[][] times = new long[4][];
+    private float[][] values = new float[4][];
+    private long[][] logicalIndices = new long[4][];
+    private int chunks = 0;
+    private int size = 0;
+
+    public ColumnarSequence() {
+    }
+
+    public ColumnarSequence(long[] times, float[] values) throws Exception {
+        if (times.length != values.length) {
+            throw new Exception("Length mismatch!");
+        }
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0 && times[i] < times[i - 1]) {
+                throw new Exception("time=" + times[i] + " at index=" + i + " out of order");
+            }
+            add(times[i], values[i]);
+        }
+    }
+
+    // Copies the points of 'other', a chunk at a time.
+    public ColumnarSequence(ColumnarSequence other) {
+        int n = Math.max(4, other.chunks);
+        times = new long[n][];
+        values = new float[n][];
+        logicalIndices = new long[n][];
+        for (int c = 0; c < other.chunks; c++) {
+            times[c] = other.times[c].clone();
+            values[c] = other.values[c].clone();
+            logicalIndices[c] = other.logicalIndices[c].clone();
+        }
+        chunks = other.chunks;
+        size = other.size;
+    }
+
+    // Copies the points of a sequence.
+    public static ColumnarSequence of(TimeSeries.DataSequence data) {
+        return data.toColumnar();
+    }
+
+    // methods: data access ////////////////////////////////////////////////
+
+    public void add(long time, float value) {
+        add(time, value, 0);
+    }
+
+    public void add(long time, float value, long logicalIndex) {
+        int c = size >>> CHUNK_SHIFT;
+        if (c == chunks) {
+            grow();
+        }
+        int o = size & CHUNK_MASK;
+        times[c][o] = time;
+        values[c][o] = value;
+        logicalIndices[c][o] = logicalIndex;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Keeps the allocated chunks around for reuse.
+    public void clear() {
+        size = 0;
+        chunks = 0;
+    }
+
+    public long timeAt(int i) {
+        checkIndex(i);
+        return times[i >>> CHUNK_SHIFT][i & CHUNK_MASK];
+    }
+
+    public float valueAt(int i) {
+        checkIndex(i);
+        return values[i >>> CHUNK_SHIFT][i & CHUNK_MASK];
+    }
+
+    public long logicalIndexAt(int i) {
+        checkIndex(i);
+        return logicalIndices[i >>> CHUNK_SHIFT][i & CHUNK_MASK];
+    }
+
+    public void setValue(int i, float value) {
+        checkIndex(i);
+        values[i >>> CHUNK_SHIFT][i & CHUNK_MASK] = value;
+    }
+
+    void set(int i, long time, float value, long logicalIndex) {
+        checkIndex(i);
+        int c = i >>> CHUNK_SHIFT;
+        int o = i & CHUNK_MASK;
+        times[c][o] = time;
+        values[c][o] = value;
+        logicalIndices[c][o] = logicalIndex;
+    }
+
+    // Drops the points from 'newSize' on, keeping their chunks for reuse.
+    void truncate(int newSize) {
+        if (newSize < 0 || newSize > size) {
+            throw new IndexOutOfBoundsException("Index: " + newSize + ", Size: " + size);
+        }
+        size = newSize;
+        chunks = (newSize + CHUNK_MASK) >>> CHUNK_SHIFT;
+    }
+
+    public void setLogicalIndices(long firstTimeStamp, long period) {
+        for (int c = 0; c < chunks; c++) {
+            int n = Math.min(CHUNK_SIZE, size - (c << CHUNK_SHIFT));
+            long[] t = times[c];
+            long[] l = logicalIndices[c];
+            for (int o = 0; o < n; o++) {
+                l[o] = (t[o] - firstTimeStamp) / period;
+            }
+        }
+    }
+
+    // Bulk copies of the columns.
+    public float[] valuesAsFloatArray() {
+        float[] out = new float[size];
+        for (int c = 0, pos = 0; pos < size; c++) {
+            int n = Math.min(CHUNK_SIZE, size - pos);
+            System.arraycopy(values[c], 0, out, pos, n);
+            pos += n;
+        }
+        return out;
+    }
+
+    public long[] timesAsLongArray() {
+        long[] out = new long[size];
+        for (int c = 0, pos = 0; pos < size; c++) {
+            int n = Math.min(CHUNK_SIZE, size - pos);
+            System.arraycopy(times[c], 0, out, pos, n);
+            pos += n;
+        }
+        return out;
+    }
+
+    // Entry view of a single point. The returned entry is a copy since
+    // Entry exposes its fields directly; use setValue() to write back.
+    public TimeSeries.Entry entryAt(int i) {
+        TimeSeries.Entry e = new TimeSeries.Entry(timeAt(i), valueAt(i));
+        e.logicalIndex = logicalIndexAt(i);
+        return e;
+    }
+
+    // Copies the points into a sequence, no Entry is created until asked for.
+    public TimeSeries.DataSequence toDataSequence() {
+        return new TimeSeries.DataSequence(this);
+    }
+
+    // helpers ////////////////////////////////////////////////
+
+    private void grow() {
+        if (chunks == times.length) {
+            int n = times.length * 2;
+            long[][] t = new long[n][];
+            float[][] v = new float[n][];
+            long[][] l = new long[n][];
+            System.arraycopy(times, 0, t, 0, chunks);
+            System.arraycopy(values, 0, v, 0, chunks);
+            System.arraycopy(logicalIndices, 0, l, 0, chunks);
+            times = t;
+            values = v;
+            logicalIndices = l;
+        }
+        if (times[chunks] == null) {
+            times[chunks] = new long[CHUNK_SIZE];
+            values[chunks] = new float[CHUNK_SIZE];
+            logicalIndices[chunks] = new long[CHUNK_SIZE];
+        }
+        chunks++;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other_obj) {
+        if (!(other_obj instanceof ColumnarSequence)) {
+            return false;
+        }
+        ColumnarSequence other = (ColumnarSequence) other_obj;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (timeAt(i) != other.timeAt(i) || valueAt(i) != other.valueAt(i)
+                || logicalIndexAt(i) != other.logicalIndexAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = size;
+        for (int i = 0; i < size; i++) {
+            h = 31 * h + (int) (timeAt(i) ^ (timeAt(i) >>> 32));
+            h = 31 * h + Float.floatToIntBits(valueAt(i));
+        }
+        return h;
+    }
+}
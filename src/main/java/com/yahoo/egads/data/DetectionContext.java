@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// What the anomaly detection models compute from an (observed, expected)
+// pair: the value columns, the residuals, the error metrics and summary
+// stats. AnomalyDetector creates one per run and hands it to all of its
+// models, each value is computed the first time a model asks for it and
+// cached for the others. The getters are thread safe so that the models can
+// run in parallel over one context.
+
+package com.yahoo.egads.data;
+
+import com.yahoo.egads.data.TimeSeries.DataSequence;
+
+public class DetectionContext {
+
+    private final DataSequence observedSeries;
+    private final DataSequence expectedSeries;
+    private final ErrorMetrics errors;
+    private float[] residuals;
+    // {mean, sd} of the observed values and of the residuals
+    private double[] observedStats;
+    private double[] residualStats;
+
+    // Nothing is read from the sequences until a model asks for it.
+    public DetectionContext(DataSequence observedSeries, DataSequence expectedSeries) {
+        this.observedSeries = observedSeries;
+        this.expectedSeries = expectedSeries;
+        this.errors = new ErrorMetrics(observedSeries, expectedSeries);
+    }
+
+    // True if the context is the one of these very sequences.
+    public boolean isFor(DataSequence observedSeries, DataSequence expectedSeries) {
+        return errors.isFor(observedSeries, expectedSeries);
+    }
+
+    public DataSequence getObservedSeries() {
+        return observedSeries;
+    }
+
+    public DataSequence getExpectedSeries() {
+        return expectedSeries;
+    }
+
+    public int size() {
+        return errors.size();
+    }
+
+    // The arrays below are shared, they should not be changed.
+
+    public float[] observedValues() {
+        return errors.observed();
+    }
+
+    public float[] expectedValues() {
+        return errors.expected();
+    }
+
+    // observed - expected, per point.
+    public synchronized float[] residuals() {
+        if (residuals == null) {
+            float[] observed = observedValues();
+            float[] expected = expectedValues();
+            residuals = new float[observed.length];
+            for (int i = 0; i < observed.length; i++) {
+                residuals[i] = observed[i] - expected[i];
+            }
+        }
+        return residuals;
+    }
+
+    public ErrorMetrics errors() {
+        return errors;
+    }
+
+    public synchronized double observedMean() {
+        if (observedStats == null) {
+            observedStats = stats(observedValues());
+        }
+        return observedStats[0];
+    }
+
+    // Population standard deviation of the observed values.
+    public synchronized double observedSD() {
+        observedMean();
+        return observedStats[1];
+    }
+
+    public synchronized double residualMean() {
+        if (residualStats == null) {
+            residualStats = stats(residuals());
+        }
+        return residualStats[0];
+    }
+
+    // Population standard deviation of the residuals.
+    public synchronized double residualSD() {
+        residualMean();
+        return residualStats[1];
+    }
+
+    private static double[] stats(float[] values) {
+        double sum = 0;
+        for (float v : values) {
+            sum += v;
+        }
+        double mean = sum / values.length;
+        double squares = 0;
+        for (float v : values) {
+            squares += (v - mean) * (v - mean);
+        }
+        return new double[] {mean, Math.sqrt(squares / values.length)};
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// The points of a series the anomaly detection models report on: the
+// detection window of MAX_ANOMALY_TIME_AGO and DETECTION_WINDOW_START_TIME,
+// plus the last point when MAX_ANOMALY_TIME_AGO is 0. The window is a suffix
+// of the (time ordered) series, so it is found by a binary search on time
+// with a single clock reading, instead of one isDetectionWindowPoint() call
+// per point. DetectAnomalyProcessable resolves it once and hands it to the
+// ModelAdapter, which only forecasts these points, and to the models, which
+// only score them.
+
+package com.yahoo.egads.data;
+
+import java.util.Properties;
+
+import com.yahoo.egads.data.TimeSeries.DataSequence;
+
+public class DetectionRange {
+
+    // first point of the detection window
+    private final int windowFrom;
+    // number of points of the series
+    private final int size;
+    // MAX_ANOMALY_TIME_AGO is 0, the last point is reported too
+    private final boolean latest;
+
+    public DetectionRange(int windowFrom, int size, boolean latest) {
+        if (windowFrom < 0 || windowFrom > size) {
+            throw new IllegalArgumentException("windowFrom should be in [0, " + size + "]");
+        }
+        this.windowFrom = windowFrom;
+        this.size = size;
+        this.latest = latest;
+    }
+
+    // All the points of a series of 'size' points.
+    public static DetectionRange all(int size) {
+        return new DetectionRange(0, size, false);
+    }
+
+    // The range of the models of a config, the whole series if it has no MAX_ANOMALY_TIME_AGO.
+    public static DetectionRange of(DataSequence series, Properties config) {
+        if (config.getProperty("MAX_ANOMALY_TIME_AGO") == null) {
+            return all(series.size());
+        }
+        int maxHrsAgo = new Integer(config.getProperty("MAX_ANOMALY_TIME_AGO"));
+        long windowStart = 0;
+        if (config.getProperty("DETECTION_WINDOW_START_TIME") != null) {
+            windowStart = new Long(config.getProperty("DETECTION_WINDOW_START_TIME"));
+        }
+        return of(series, maxHrsAgo, windowStart);
+    }
+
+    public static DetectionRange of(DataSequence series, int maxHrsAgo, long windowStart) {
+        return of(series, maxHrsAgo, windowStart, System.currentTimeMillis() / 1000L);
+    }
+
+    // 'now' is the unix time in seconds the window of maxHrsAgo ends at.
+    public static DetectionRange of(DataSequence series, int maxHrsAgo, long windowStart, long now) {
+        int n = series.size();
+        if (n == 0) {
+            return new DetectionRange(0, 0, maxHrsAgo == 0);
+        }
+        long startTime = series.get(0).time;
+        // the first point in the window
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (inWindow(maxHrsAgo, windowStart, series.get(mid).time, startTime, now)) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return new DetectionRange(lo, n, maxHrsAgo == 0);
+    }
+
+    // The check of AnomalyDetectionModel.isDetectionWindowPoint() at the time 'now'.
+    public static boolean inWindow(int maxHrsAgo, long windowStart, long anomalyTime, long startTime, long now) {
+        // consider 'windowStart' if it is greater than or equal to first timestamp
+        if (windowStart >= startTime) {
+            return (anomalyTime - windowStart) > 0;
+        } else {
+            // use detection window as max hours specified
+            return ((now - anomalyTime) / 3600) < maxHrsAgo;
+        }
+    }
+
+    // First point of the detection window, size() if it is empty.
+    public int getWindowFrom() {
+        return windowFrom;
+    }
+
+    // First point reported on: the window, or the last point if it comes before.
+    public int getFrom() {
+        if (latest && size > 0) {
+            return Math.min(windowFrom, size - 1);
+        }
+        return windowFrom;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isLatest() {
+        return latest;
+    }
+
+    // True if the range is for a series of n points.
+    public boolean isFor(int n) {
+        return size == n;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getFrom() + ", " + size + ")";
+    }
+}
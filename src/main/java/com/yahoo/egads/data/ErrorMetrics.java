@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// Columnar error metrics between an observed and an expected series: one
+// float[] per metric, in the index order of AnomalyErrorStorage (mapee, mae,
+// smape, mape, mase). A metric is computed the first time it is asked for,
+// all the metrics asked for together in one pass over primitive arrays, with
+// the same float arithmetic as AnomalyErrorStorage.computeErrorMetrics().
+// One instance can be shared by the models of a detection run.
+
+package com.yahoo.egads.data;
+
+import com.yahoo.egads.data.TimeSeries.DataSequence;
+
+public class ErrorMetrics {
+
+    public static final int MAPEE = 0;
+    public static final int MAE = 1;
+    public static final int SMAPE = 2;
+    public static final int MAPE = 3;
+    public static final int MASE = 4;
+    public static final String[] NAMES = {"mapee", "mae", "smape", "mape", "mase"};
+
+    // The sequences the errors are computed from, null for arrays.
+    private final DataSequence observedSeries;
+    private final DataSequence expectedSeries;
+    private float[] observed;
+    private float[] expected;
+    private final int size;
+    private final float[][] errors = new float[NAMES.length][];
+    private float maseDenom;
+    private boolean hasMaseDenom = false;
+
+    // Nothing is read from the sequences until a metric is asked for.
+    public ErrorMetrics(DataSequence observedSeries, DataSequence expectedSeries) {
+        this.observedSeries = observedSeries;
+        this.expectedSeries = expectedSeries;
+        this.size = observedSeries.size();
+    }
+
+    public ErrorMetrics(float[] observed, float[] expected) {
+        if (expected.length < observed.length) {
+            throw new IllegalArgumentException("Expected " + observed.length + " expected values but got "
+                    + expected.length);
+        }
+        this.observedSeries = null;
+        this.expectedSeries = null;
+        this.observed = observed;
+        this.expected = expected;
+        this.size = observed.length;
+    }
+
+    // Index of an error name, -1 if unknown.
+    public static int index(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // True if the errors are the ones of these very sequences.
+    public boolean isFor(DataSequence observedSeries, DataSequence expectedSeries) {
+        return observedSeries != null && this.observedSeries == observedSeries
+                && this.expectedSeries == expectedSeries && observedSeries.size() == size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Mean absolute difference of consecutive observed values, the scale of MASE.
+    public synchronized float getMaseDenom() {
+        if (!hasMaseDenom) {
+            float[] observed = observed();
+            float denom = 0;
+            for (int i = 1; i < size; i++) {
+                denom += Math.abs(observed[i] - observed[i - 1]);
+            }
+            maseDenom = denom / (size - 1);
+            hasMaseDenom = true;
+        }
+        return maseDenom;
+    }
+
+    // The errors of a metric, one per point. The array is shared, it should not be changed.
+    public float[] get(int metric) {
+        compute(metric);
+        return errors[metric];
+    }
+
+    public float[] get(String name) {
+        int metric = index(name);
+        if (metric < 0) {
+            throw new IllegalArgumentException("Unknown error metric " + name);
+        }
+        return get(metric);
+    }
+
+    // The errors of a metric as the Float[] the AutoSensitivity methods take.
+    public Float[] boxed(int metric) {
+        float[] e = get(metric);
+        Float[] boxed = new Float[size];
+        for (int i = 0; i < size; i++) {
+            boxed[i] = e[i];
+        }
+        return boxed;
+    }
+
+    // Computes the metrics not computed yet among the given ones, all of them if none is given.
+    public synchronized void compute(int... metrics) {
+        boolean mapee = false;
+        boolean mae = false;
+        boolean smape = false;
+        boolean mape = false;
+        boolean mase = false;
+        if (metrics.length == 0) {
+            metrics = new int[] {MAPEE, MAE, SMAPE, MAPE, MASE};
+        }
+        for (int metric : metrics) {
+            if (errors[metric] != null) {
+                continue;
+            }
+            errors[metric] = new float[size];
+            mapee |= metric == MAPEE;
+            mae |= metric == MAE;
+            smape |= metric == SMAPE;
+            mape |= metric == MAPE;
+            mase |= metric == MASE;
+        }
+        if (!(mapee || mae || smape || mape || mase)) {
+            return;
+        }
+        float[] o = observed();
+        float[] x = expected();
+        float[] mapeeOut = errors[MAPEE];
+        float[] maeOut = errors[MAE];
+        float[] smapeOut = errors[SMAPE];
+        float[] mapeOut = errors[MAPE];
+        float[] maseOut = errors[MASE];
+        float scale = mase ? Math.abs(getMaseDenom()) : 0;
+        for (int i = 0; i < size; i++) {
+            float actual = o[i];
+            float exp = x[i];
+            float diff = Math.abs(actual - exp);
+            if (mapee) {
+                float div = exp == (float) 0.0 ? (float) 0.0000000001 : exp;
+                mapeeOut[i] = (exp == actual) ? (float) 0.0 : Math.abs((100 * ((actual / div) - 1)));
+            }
+            if (mae) {
+                maeOut[i] = diff;
+            }
+            if (smape) {
+                float sum = Math.abs(actual) + Math.abs(exp);
+                smapeOut[i] = (200 * diff) / (sum == 0 ? (float) 1.0 : (float) sum);
+            }
+            if (mape) {
+                mapeOut[i] = Math.abs(actual) == 0 ? (float) 0.0 : ((100 * diff) / (float) Math.abs(actual));
+            }
+            if (mase) {
+                maseOut[i] = scale == 0.0 ? (float) 0.0 : diff / scale;
+            }
+        }
+    }
+
+    // The observed values, extracted from the sequence once.
+    synchronized float[] observed() {
+        if (observed == null) {
+            observed = new float[size];
+            for (int i = 0; i < size; i++) {
+                observed[i] = observedSeries.get(i).value;
+            }
+        }
+        return observed;
+    }
+
+    // The expected values of the observed points, extracted from the sequence once.
+    synchronized float[] expected() {
+        if (expected == null) {
+            expected = new float[size];
+            for (int i = 0; i < size; i++) {
+                expected[i] = expectedSeries.get(i).value;
+            }
+        }
+        return expected;
+    }
+}
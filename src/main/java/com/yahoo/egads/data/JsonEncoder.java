@@ -14,8 +14,8 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
-import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import org.json.JSONArray;
 import org.json.JSONStringer;
 import org.json.JSONObject;
@@ -53,10 +53,10 @@ public class JsonEncoder {
                     json_out.key(f.getName());
                     ((JsonAble) value).toJson(json_out);
                     // if variable is an array... recurse on sub-objects
-                } else if (value instanceof ArrayList) {
+                } else if (value instanceof List) {
                     json_out.key(f.getName());
                     json_out.array();
-                    for (Object e : (ArrayList) value) {
+                    for (Object e : (List) value) {
                         toJson(e, json_out);
                     }
                     json_out.endArray();
@@ -104,10 +104,10 @@ public class JsonEncoder {
             } else if (member instanceof JsonAble) {
                 ((JsonAble) member).fromJson((JSONObject) value);
                 // if variable is an array... recurse on sub-objects
-            } else if (member instanceof ArrayList) {
-                // Depends on existance of ArrayList<T> template parameter, and T constructor with no arguments.
+            } else if (member instanceof List) {
+                // Depends on existance of List<T> template parameter, and T constructor with no arguments.
                 // May be better to use custom fromJson() in member class.
-                ArrayList memberArray = (ArrayList) member;
+                List memberArray = (List) member;
                 JSONArray jsonArray = (JSONArray) value;
 
                 // find array element constructor
@@ -124,7 +124,7 @@ public class JsonEncoder {
                 }
                 if (arrayType == null) {
                     throw new Exception(
-                            "could not find ArrayList element type for field 'key'");
+                            "could not find List element type for field 'key'");
                 }
                 Class elementClass = (Class) (arrayType
                         .getActualTypeArguments()[0]);
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// The config keys shared by the processing and the models, parsed and
+// checked once per Properties: a malformed value fails here, with the name
+// of its key, instead of in the constructor of every model built for every
+// metric. The keys a single model reads stay in getProperties().
+
+package com.yahoo.egads.data;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+public class ModelConfig {
+
+    private final Properties properties;
+    private final String opType;
+    private final String tsModel;
+    private final String adModel;
+    private final String output;
+    // -1 disabled, 0 auto detected from the first two points
+    private final long period;
+    // null when not in the config
+    private final Integer maxAnomalyTimeAgo;
+    private final Long detectionWindowStart;
+    private final String thresholdSpec;
+    private final Map<String, Float> threshold;
+    private final Float autoSensitivityAnomalyPcnt;
+    private final Float autoSensitivitySD;
+    private final boolean sketchAutoSensitivity;
+
+    public ModelConfig(Properties properties) {
+        this.properties = properties;
+        this.opType = properties.getProperty("OP_TYPE");
+        this.tsModel = properties.getProperty("TS_MODEL");
+        this.adModel = properties.getProperty("AD_MODEL");
+        this.output = properties.getProperty("OUTPUT");
+        Long p = parseLong(properties, "PERIOD");
+        this.period = p == null ? -1 : p;
+        Long hrs = parseLong(properties, "MAX_ANOMALY_TIME_AGO");
+        if (hrs != null && (hrs < Integer.MIN_VALUE || hrs > Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("MAX_ANOMALY_TIME_AGO should be an int");
+        }
+        this.maxAnomalyTimeAgo = hrs == null ? null : hrs.intValue();
+        this.detectionWindowStart = parseLong(properties, "DETECTION_WINDOW_START_TIME");
+        this.thresholdSpec = properties.getProperty("THRESHOLD");
+        this.threshold = Collections.unmodifiableMap(parseThreshold(thresholdSpec));
+        this.autoSensitivityAnomalyPcnt = parseFloat(properties, "AUTO_SENSITIVITY_ANOMALY_PCNT");
+        this.autoSensitivitySD = parseFloat(properties, "AUTO_SENSITIVITY_SD");
+        String engine = properties.getProperty("AUTO_SENSITIVITY_ENGINE");
+        if (engine != null && !engine.equals("EXACT") && !engine.equals("SKETCH")) {
+            throw new IllegalArgumentException("AUTO_SENSITIVITY_ENGINE should be EXACT or SKETCH");
+        }
+        this.sketchAutoSensitivity = "SKETCH".equals(engine);
+    }
+
+    // Parses a THRESHOLD config, e.g. mape#10,mase#15, an empty map if s is null.
+    public static Map<String, Float> parseThreshold(String s) {
+        Map<String, Float> map = new HashMap<String, Float>();
+        if (s == null) {
+            return map;
+        }
+        try {
+            for (String pair : s.split(",")) {
+                String[] keyValue = pair.split("#");
+                map.put(keyValue[0], Float.valueOf(keyValue[1]));
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("THRESHOLD PARSE ERROR");
+        }
+        return map;
+    }
+
+    private static Long parseLong(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " should be a number: " + value);
+        }
+    }
+
+    private static Float parseFloat(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Float.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " should be a number: " + value);
+        }
+    }
+
+    // The config this was parsed from, for the keys of a single model.
+    public Properties getProperties() {
+        return properties;
+    }
+
+    public String getOpType() {
+        return opType;
+    }
+
+    public String getTsModel() {
+        return tsModel;
+    }
+
+    public String getAdModel() {
+        return adModel;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public long getPeriod() {
+        return period;
+    }
+
+    // The period of a metric: PERIOD, or the time between its first two points if PERIOD is 0.
+    public long getPeriod(TimeSeries ts) {
+        if (period != 0) {
+            return period;
+        }
+        // TODO 算法改进，时序数据的周期性不应该被简单的计算为头两个时间的差值，只有一个点时也不应该被暴力指定为1
+        return ts.size() > 1 ? ts.data.get(1).time - ts.data.get(0).time : 1;
+    }
+
+    public boolean hasMaxAnomalyTimeAgo() {
+        return maxAnomalyTimeAgo != null;
+    }
+
+    public int getMaxAnomalyTimeAgo() {
+        if (maxAnomalyTimeAgo == null) {
+            throw new IllegalArgumentException("MAX_ANOMALY_TIME_AGO is NULL");
+        }
+        return maxAnomalyTimeAgo;
+    }
+
+    public long getDetectionWindowStart() {
+        if (detectionWindowStart == null) {
+            throw new IllegalArgumentException("DETECTION_WINDOW_START_TIME is NULL");
+        }
+        return detectionWindowStart;
+    }
+
+    public boolean hasThreshold() {
+        return thresholdSpec != null;
+    }
+
+    // A copy the model can add the auto sensitivity thresholds to.
+    public Map<String, Float> getThreshold() {
+        return new HashMap<String, Float>(threshold);
+    }
+
+    // null when not in the config.
+    public Float getAutoSensitivityAnomalyPcnt() {
+        return autoSensitivityAnomalyPcnt;
+    }
+
+    // null when not in the config.
+    public Float getAutoSensitivitySD() {
+        return autoSensitivitySD;
+    }
+
+    public boolean isSketchAutoSensitivity() {
+        return sketchAutoSensitivity;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// ModelSnapshot encodes a model as a self-describing, versioned binary record:
+//      int magic "EGMS", int format version, UTF class name,
+//      int codec version, int payload length, payload
+// A model class can register a Codec to be written in its own compact format,
+// tagged with the codec version so that later releases can still read it.
+// The EGADS models either register a codec or are registered as serialized,
+// and are then stored with Java serialization (codec version 0); writing
+// any other EGADS model fails instead of falling back to it. Models of other
+// jars without a codec are stored with Java serialization.
+
+package com.yahoo.egads.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ModelSnapshot {
+
+    public static final int MAGIC = 0x534d4745; // "EGMS"
+    public static final int FORMAT_VERSION = 1;
+    // codec version of the Java serialization fallback
+    public static final int JAVA_SERIALIZATION = 0;
+    // the EGADS models, which need a codec or to be registered as serialized
+    private static final String MODEL_PACKAGE = "com.yahoo.egads.models.";
+
+    // Binary encoding of one model class.
+    public interface Codec<T extends Model> {
+        // Version written with every model, > 0.
+        int version();
+
+        void write(T model, DataOutput out) throws IOException;
+
+        // Reads a model written by this or any earlier version of the codec.
+        T read(DataInput in, int version) throws IOException;
+    }
+
+    private static final ConcurrentHashMap<String, Codec<?>> codecs = new ConcurrentHashMap<String, Codec<?>>();
+    private static final ConcurrentHashMap<String, Boolean> serialized = new ConcurrentHashMap<String, Boolean>();
+
+    // Usually called from the static initializer of the model class, which
+    // runs before any of its snapshots is read.
+    public static <T extends Model> void register(Class<T> type, Codec<T> codec) {
+        if (codec.version() <= JAVA_SERIALIZATION) {
+            throw new IllegalArgumentException("codec version should be > 0");
+        }
+        codecs.put(type.getName(), codec);
+    }
+
+    // For the EGADS models that are stored with Java serialization on purpose.
+    public static <T extends Model> void registerSerialized(Class<T> type) {
+        serialized.put(type.getName(), Boolean.TRUE);
+    }
+
+    public static byte[] toBytes(Model m) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        write(m, new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    public static Model fromBytes(byte[] b, int offset, int length) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(b, offset, length)));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void write(Model m, DataOutputStream out) throws IOException {
+        String type = m.getClass().getName();
+        Codec<Model> codec = (Codec<Model>) codecs.get(type);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        int version;
+        if (codec != null) {
+            version = codec.version();
+            DataOutputStream payload = new DataOutputStream(bytes);
+            codec.write(m, payload);
+            payload.flush();
+        } else {
+            if (type.startsWith(MODEL_PACKAGE) && !serialized.containsKey(type)) {
+                throw new IOException("no codec for " + type);
+            }
+            version = JAVA_SERIALIZATION;
+            ObjectOutputStream payload = new ObjectOutputStream(bytes);
+            payload.writeObject(m);
+            payload.close();
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(type);
+        out.writeInt(version);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    public static Model read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a model snapshot");
+        }
+        int format = in.readInt();
+        if (format != FORMAT_VERSION) {
+            throw new IOException("unsupported model snapshot format " + format);
+        }
+        String type = in.readUTF();
+        int version = in.readInt();
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        if (version == JAVA_SERIALIZATION) {
+            ObjectInputStream o = new ObjectInputStream(new ByteArrayInputStream(payload));
+            try {
+                return (Model) o.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("unknown model class " + type, e);
+            } finally {
+                o.close();
+            }
+        }
+        Codec<?> codec = codecs.get(type);
+        if (codec == null) {
+            try {
+                // Loading the class registers its codec.
+                Class.forName(type);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("unknown model class " + type, e);
+            }
+            codec = codecs.get(type);
+        }
+        if (codec == null) {
+            throw new IOException("no codec for " + type);
+        }
+        if (version > codec.version()) {
+            throw new IOException(type + " snapshot version " + version + " is newer than " + codec.version());
+        }
+        return codec.read(new DataInputStream(new ByteArrayInputStream(payload)), version);
+    }
+
+    // Helpers for the codecs.
+
+    public static void writeInts(int[] a, DataOutput out) throws IOException {
+        out.writeInt(a.length);
+        for (int x : a) {
+            out.writeInt(x);
+        }
+    }
+
+    public static int[] readInts(DataInput in) throws IOException {
+        int[] a = new int[in.readInt()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = in.readInt();
+        }
+        return a;
+    }
+
+    public static void writeDoubles(double[] a, DataOutput out) throws IOException {
+        out.writeInt(a.length);
+        for (double x : a) {
+            out.writeDouble(x);
+        }
+    }
+
+    public static double[] readDoubles(DataInput in) throws IOException {
+        double[] a = new double[in.readInt()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = in.readDouble();
+        }
+        return a;
+    }
+
+    // A null string is written as false.
+    public static void writeString(String s, DataOutput out) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    // e.g. the THRESHOLD of an anomaly detection model.
+    public static void writeFloatMap(Map<String, Float> map, DataOutput out) throws IOException {
+        out.writeInt(map.size());
+        for (String key : new TreeSet<String>(map.keySet())) {
+            out.writeUTF(key);
+            out.writeFloat(map.get(key));
+        }
+    }
+
+    public static Map<String, Float> readFloatMap(DataInput in) throws IOException {
+        int n = in.readInt();
+        Map<String, Float> map = new HashMap<String, Float>();
+        for (int i = 0; i < n; i++) {
+            map.put(in.readUTF(), in.readFloat());
+        }
+        return map;
+    }
+
+    // The string properties, defaults included.
+    public static void writeProperties(Properties config, DataOutput out) throws IOException {
+        TreeSet<String> keys = new TreeSet<String>(config.stringPropertyNames());
+        out.writeInt(keys.size());
+        for (String key : keys) {
+            out.writeUTF(key);
+            out.writeUTF(config.getProperty(key));
+        }
+    }
+
+    public static Properties readProperties(DataInput in) throws IOException {
+        int n = in.readInt();
+        Properties config = new Properties();
+        for (int i = 0; i < n; i++) {
+            config.setProperty(in.readUTF(), in.readUTF());
+        }
+        return config;
+    }
+
+    // A null sequence is written as length -1.
+    public static void writeSequence(TimeSeries.DataSequence data, DataOutput out) throws IOException {
+        if (data == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(data.size());
+        for (int i = 0; i < data.size(); i++) {
+            out.writeLong(data.timeAt(i));
+            out.writeFloat(data.valueAt(i));
+            out.writeLong(data.logicalIndexAt(i));
+        }
+    }
+
+    public static TimeSeries.DataSequence readSequence(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            return null;
+        }
+        TimeSeries.DataSequence data = new TimeSeries.DataSequence(n);
+        for (int i = 0; i < n; i++) {
+            data.add(in.readLong(), in.readFloat(), in.readLong());
+        }
+        return data;
+    }
+}
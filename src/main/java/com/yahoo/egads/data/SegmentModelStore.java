@@ -0,0 +1,248 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// SegmentModelStore appends ModelSnapshot records to segment files
+// (segment-<n>.dat) and logs the segment, offset and length of each record
+// in an index file (index.dat); the last record of a tag wins. Writes are
+// buffered and reach the disk on flush(), close() or once FLUSH_BYTES are
+// pending, segments first so that the index never points past their end.
+// Opening a store only reads the index, a model is read from its segment when
+// it is retrieved. Overwritten records are not reclaimed.
+
+package com.yahoo.egads.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SegmentModelStore implements ModelStore, Closeable {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+    private static final int FLUSH_BYTES = 1 << 20;
+    private static final int INDEX_MAGIC = 0x58494745; // "EGIX"
+    private static final int INDEX_VERSION = 1;
+
+    private final File dir;
+    private final long segmentSize;
+    // tag -> {segment, offset, length}
+    private final HashMap<String, long[]> index = new HashMap<String, long[]>();
+    private final HashMap<Integer, RandomAccessFile> readers = new HashMap<Integer, RandomAccessFile>();
+
+    private DataOutputStream indexOut = null;
+    private DataOutputStream segmentOut = null;
+    private int segment = 0;
+    private long position = 0;
+    private int pending = 0;
+
+    public SegmentModelStore(String path) {
+        this(path, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public SegmentModelStore(String path, long segmentSize) {
+        this.dir = new File(path);
+        this.segmentSize = segmentSize;
+        dir.mkdirs();
+        try {
+            readIndex();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized boolean contains(String tag) {
+        return index.containsKey(tag);
+    }
+
+    @Override
+    public synchronized void storeModel(String tag, Model m) {
+        try {
+            byte[] record = ModelSnapshot.toBytes(m);
+            if (segmentOut == null || (position > 0 && position + record.length > segmentSize)) {
+                openSegment(segmentOut == null ? segment : segment + 1);
+            }
+            segmentOut.write(record);
+            long[] location = {segment, position, record.length};
+            position += record.length;
+            index.put(tag, location);
+            indexOut.writeUTF(tag);
+            indexOut.writeInt(segment);
+            indexOut.writeLong(location[1]);
+            indexOut.writeInt(record.length);
+            pending += record.length;
+            if (pending >= FLUSH_BYTES) {
+                flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Returns null for unknown tags.
+    @Override
+    public synchronized Model retrieveModel(String tag) {
+        long[] location = index.get(tag);
+        if (location == null) {
+            return null;
+        }
+        try {
+            int s = (int) location[0];
+            if (pending > 0 && s == segment) {
+                flush();
+            }
+            RandomAccessFile reader = readers.get(s);
+            if (reader == null) {
+                reader = new RandomAccessFile(segmentFile(s), "r");
+                readers.put(s, reader);
+            }
+            byte[] record = new byte[(int) location[2]];
+            reader.seek(location[1]);
+            reader.readFully(record);
+            return ModelSnapshot.fromBytes(record, 0, record.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("model " + tag, e);
+        }
+    }
+
+    public synchronized void flush() {
+        try {
+            if (segmentOut != null) {
+                segmentOut.flush();
+                indexOut.flush();
+            }
+            pending = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        try {
+            if (segmentOut != null) {
+                segmentOut.close();
+                indexOut.close();
+                segmentOut = null;
+                indexOut = null;
+            }
+            for (RandomAccessFile reader : readers.values()) {
+                reader.close();
+            }
+            readers.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // helpers ////////////////////////////////////////////////
+
+    private File segmentFile(int s) {
+        return new File(dir, String.format("segment-%06d.dat", s));
+    }
+
+    private void readIndex() throws IOException {
+        File file = new File(dir, "index.dat");
+        if (!file.exists() || file.length() == 0) {
+            return;
+        }
+        Map<Integer, Long> segmentLengths = new HashMap<Integer, Long>();
+        // length of the complete entries
+        long valid = 8;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException(file + ": not a model store index");
+            }
+            int version = in.readInt();
+            if (version != INDEX_VERSION) {
+                throw new IOException(file + ": unsupported index version " + version);
+            }
+            while (true) {
+                String tag;
+                long[] location;
+                try {
+                    tag = in.readUTF();
+                    location = new long[] {in.readInt(), in.readLong(), in.readInt()};
+                } catch (EOFException e) {
+                    // the end, or an entry cut short by a crash
+                    break;
+                }
+                int s = (int) location[0];
+                Long length = segmentLengths.get(s);
+                if (length == null) {
+                    length = segmentFile(s).length();
+                    segmentLengths.put(s, length);
+                }
+                if (location[1] + location[2] > length) {
+                    // the segment did not make it to the disk
+                    break;
+                }
+                index.put(tag, location);
+                segment = Math.max(segment, s);
+                valid += 2 + utfLength(tag) + 16;
+            }
+        } finally {
+            in.close();
+        }
+        if (valid < file.length()) {
+            // Drop the broken tail so that new entries can be appended.
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(valid);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    // Number of bytes DataOutput.writeUTF() writes for 's', without the length.
+    private static int utfLength(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            n += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF ? 2 : 3);
+        }
+        return n;
+    }
+
+    // Appends to segment s from now on.
+    private void openSegment(int s) throws IOException {
+        if (segmentOut != null) {
+            segmentOut.close();
+        }
+        if (indexOut == null) {
+            File file = new File(dir, "index.dat");
+            boolean fresh = !file.exists() || file.length() == 0;
+            indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+            if (fresh) {
+                indexOut.writeInt(INDEX_MAGIC);
+                indexOut.writeInt(INDEX_VERSION);
+            }
+        } else {
+            indexOut.flush();
+        }
+        File file = segmentFile(s);
+        segment = s;
+        position = file.length();
+        segmentOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+        pending = 0;
+    }
+}
@@ -8,8 +8,14 @@
 
 package com.yahoo.egads.data;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.RandomAccess;
 
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
@@ -65,9 +71,20 @@ public class TimeSeries implements JsonAble, Serializable {
     }
 
     @ToString
-    public static class DataSequence extends ArrayList<Entry> implements Serializable {
+    // The points are stored in the primitive chunks of a ColumnarSequence. An
+    // Entry is only created when get() asks for its point, and it is kept:
+    // get(i) keeps returning the same object and the writes to its fields are
+    // seen by the sequence, as with a list of entries. The primitive accessors
+    // and the bulk copies read the columns, except for the points that have
+    // an Entry.
+    public static class DataSequence extends AbstractList<Entry> implements RandomAccess, Serializable {
         private static final long serialVersionUID = 1L;
 
+        private transient ColumnarSequence columns = new ColumnarSequence();
+        // The entries of each chunk of the columns, null for a chunk that was
+        // never read as entries.
+        private transient Entry[][] entries = new Entry[4][];
+
         public DataSequence() {
             super();
         }
@@ -78,25 +95,26 @@ public class TimeSeries implements JsonAble, Serializable {
                 throw new Exception("The start time should be before the end time.");
             }
             for (long i = from; i <= to; i += period) {
-                this.add(new Entry(i, 0));
+                this.add(i, 0);
             }
         }
 
+        // The columns grow a chunk at a time, there is nothing to reserve.
         public DataSequence(int initialCapacity) {
-            super(initialCapacity);
+            super();
         }
 
         public DataSequence(float[] values) {
             super();
             for (int i = 0; i < values.length; ++i) {
-                this.add(new Entry(i, values[i]));
+                this.add(i, values[i]);
             }
         }
         
         public DataSequence(float value) {
 
             super();
-            this.add(new Entry(0, value));
+            this.add(0, value);
         }
 
         public DataSequence(Long[] times, Float[] values) throws Exception {
@@ -109,53 +127,287 @@ public class TimeSeries implements JsonAble, Serializable {
                 if (i > 0 && times[i] < times[i - 1]) {
                     throw new Exception("time=" + times[i] + " at index=" + i + " out of order");
                 }
-                this.add(new Entry(times[i], values[i]));
+                this.add(times[i], values[i]);
             }
         }
 
         public DataSequence(long time, float value) {
             super();
-            this.add(new Entry(time, value));
+            this.add(time, value);
+        }
+
+        // Copies the columns, without creating any Entry.
+        public DataSequence(ColumnarSequence columns) {
+            super();
+            this.columns = new ColumnarSequence(columns);
+        }
+
+        // methods: list of entries ////////////////////////////////////////////////
+
+        @Override
+        public int size() {
+            return columns.size();
+        }
+
+        @Override
+        public Entry get(int i) {
+            Entry e = entry(i);
+            if (e == null) {
+                e = columns.entryAt(i);
+                putEntry(i, e);
+            }
+            return e;
+        }
+
+        @Override
+        public Entry set(int i, Entry e) {
+            Entry old = get(i);
+            columns.set(i, e.time, e.value, e.logicalIndex);
+            putEntry(i, e);
+            return old;
+        }
+
+        @Override
+        public boolean add(Entry e) {
+            columns.add(e.time, e.value, e.logicalIndex);
+            putEntry(size() - 1, e);
+            modCount++;
+            return true;
+        }
+
+        @Override
+        public void add(int index, Entry e) {
+            int n = size();
+            if (index < 0 || index > n) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + n);
+            }
+            columns.add(0, 0);
+            for (int i = n; i > index; i--) {
+                move(i - 1, i);
+            }
+            columns.set(index, e.time, e.value, e.logicalIndex);
+            putEntry(index, e);
+            modCount++;
+        }
+
+        @Override
+        public Entry remove(int index) {
+            Entry old = get(index);
+            removeRange(index, index + 1);
+            return old;
+        }
+
+        @Override
+        protected void removeRange(int from, int to) {
+            int n = size();
+            for (int i = to; i < n; i++) {
+                move(i, i - (to - from));
+            }
+            for (int i = n - (to - from); i < n; i++) {
+                putEntry(i, null);
+            }
+            columns.truncate(n - (to - from));
+            modCount++;
+        }
+
+        @Override
+        public void clear() {
+            columns.clear();
+            entries = new Entry[4][];
+            modCount++;
+        }
+
+        // methods: primitive access ////////////////////////////////////////////////
+
+        // Appends a point without creating an Entry for it.
+        public void add(long time, float value) {
+            add(time, value, 0);
+        }
+
+        public void add(long time, float value, long logicalIndex) {
+            columns.add(time, value, logicalIndex);
+            modCount++;
+        }
+
+        public long timeAt(int i) {
+            Entry e = entry(i);
+            return e == null ? columns.timeAt(i) : e.time;
+        }
+
+        public float valueAt(int i) {
+            Entry e = entry(i);
+            return e == null ? columns.valueAt(i) : e.value;
+        }
+
+        public long logicalIndexAt(int i) {
+            Entry e = entry(i);
+            return e == null ? columns.logicalIndexAt(i) : e.logicalIndex;
         }
 
         public void setLogicalIndices(long firstTimeStamp, long period) {
-            for (TimeSeries.Entry entry : this) {
-                entry.logicalIndex = (entry.time - firstTimeStamp) / period;
+            columns.setLogicalIndices(firstTimeStamp, period);
+            for (Entry[] chunk : entries) {
+                if (chunk != null) {
+                    for (Entry e : chunk) {
+                        if (e != null) {
+                            e.logicalIndex = (e.time - firstTimeStamp) / period;
+                        }
+                    }
+                }
             }
         }
 
         public Float[] getValues() {
              Float[] fArray = new Float[this.size()];
              for (int i = 0; i < this.size(); i++) {
-                 fArray[i] = this.get(i).value;
+                 fArray[i] = this.valueAt(i);
               }
              return fArray;
         }
         
+        public float[] valuesAsFloatArray() {
+            float[] fArray = columns.valuesAsFloatArray();
+            for (int c = 0; c < entries.length; c++) {
+                if (entries[c] != null) {
+                    for (int o = 0; o < ColumnarSequence.CHUNK_SIZE; o++) {
+                        Entry e = entries[c][o];
+                        if (e != null) {
+                            fArray[(c << ColumnarSequence.CHUNK_SHIFT) + o] = e.value;
+                        }
+                    }
+                }
+            }
+            return fArray;
+        }
+
+        public long[] timesAsLongArray() {
+            long[] lArray = columns.timesAsLongArray();
+            for (int c = 0; c < entries.length; c++) {
+                if (entries[c] != null) {
+                    for (int o = 0; o < ColumnarSequence.CHUNK_SIZE; o++) {
+                        Entry e = entries[c][o];
+                        if (e != null) {
+                            lArray[(c << ColumnarSequence.CHUNK_SHIFT) + o] = e.time;
+                        }
+                    }
+                }
+            }
+            return lArray;
+        }
+
+        // Returns a columnar copy of this sequence.
+        public ColumnarSequence toColumnar() {
+            ColumnarSequence copy = new ColumnarSequence(columns);
+            for (int c = 0; c < entries.length; c++) {
+                if (entries[c] != null) {
+                    for (int o = 0; o < ColumnarSequence.CHUNK_SIZE; o++) {
+                        Entry e = entries[c][o];
+                        if (e != null) {
+                            copy.set((c << ColumnarSequence.CHUNK_SHIFT) + o, e.time, e.value, e.logicalIndex);
+                        }
+                    }
+                }
+            }
+            return copy;
+        }
+
         public Long[] getTimes() {
             Long[] lArray = new Long[this.size()];
             for (int i = 0; i < this.size(); i++) {
-                lArray[i] = (long) this.get(i).time;
+                lArray[i] = this.timeAt(i);
              }
             return lArray;
        }
         
         public void setTimeStamps(long firstTimeStamp, long period) {
-            for (TimeSeries.Entry entry : this) {
-                entry.time = entry.logicalIndex * period + firstTimeStamp;
+            for (int i = 0; i < this.size(); i++) {
+                Entry e = entry(i);
+                if (e != null) {
+                    e.time = e.logicalIndex * period + firstTimeStamp;
+                } else {
+                    long logicalIndex = columns.logicalIndexAt(i);
+                    columns.set(i, logicalIndex * period + firstTimeStamp, columns.valueAt(i), logicalIndex);
+                }
             }
         }
 
+        // Same as comparing the entries one by one.
+        @Override
         public boolean equals(Object other_obj) {
             if (!(other_obj instanceof DataSequence)) {
                 return false;
             }
             DataSequence other = (DataSequence) other_obj;
-            if (!super.equals(other)) {
+            if (size() != other.size()) {
                 return false;
             }
+            for (int i = 0; i < size(); i++) {
+                if (timeAt(i) != other.timeAt(i) || valueAt(i) != other.valueAt(i)
+                    || logicalIndexAt(i) != other.logicalIndexAt(i)) {
+                    return false;
+                }
+            }
             return true;
         }
+
+        @Override
+        public int hashCode() {
+            int h = size();
+            for (int i = 0; i < size(); i++) {
+                h = 31 * h + (int) (timeAt(i) ^ (timeAt(i) >>> 32));
+                h = 31 * h + Float.floatToIntBits(valueAt(i));
+            }
+            return h;
+        }
+
+        // helpers ////////////////////////////////////////////////
+
+        // The Entry of point i, null if it has none yet. The slots past the
+        // end are always null, so the columns check the index.
+        private Entry entry(int i) {
+            Entry[] chunk = (i >>> ColumnarSequence.CHUNK_SHIFT) < entries.length
+                            ? entries[i >>> ColumnarSequence.CHUNK_SHIFT] : null;
+            return chunk == null ? null : chunk[i & ColumnarSequence.CHUNK_MASK];
+        }
+
+        private void putEntry(int i, Entry e) {
+            int c = i >>> ColumnarSequence.CHUNK_SHIFT;
+            if (e == null && (c >= entries.length || entries[c] == null)) {
+                return;
+            }
+            if (c >= entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(c + 1, entries.length * 2));
+            }
+            if (entries[c] == null) {
+                entries[c] = new Entry[ColumnarSequence.CHUNK_SIZE];
+            }
+            entries[c][i & ColumnarSequence.CHUNK_MASK] = e;
+        }
+
+        private void move(int from, int to) {
+            columns.set(to, timeAt(from), valueAt(from), logicalIndexAt(from));
+            putEntry(to, entry(from));
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(size());
+            for (int i = 0; i < size(); i++) {
+                out.writeLong(timeAt(i));
+                out.writeFloat(valueAt(i));
+                out.writeLong(logicalIndexAt(i));
+            }
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            columns = new ColumnarSequence();
+            entries = new Entry[4][];
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                columns.add(in.readLong(), in.readFloat(), in.readLong());
+            }
+        }
     }
 
     // member data ////////////////////////////////////////////////
@@ -170,12 +422,12 @@ public class TimeSeries implements JsonAble, Serializable {
 
     public TimeSeries(float[] values) {
         for (int i = 0; i < values.length; ++i) {
-            data.add(new Entry(i, values[i]));
+            data.add(i, values[i]);
         }
     }
 
     public TimeSeries(float value) {
-        data.add(new Entry(0, value));
+        data.add(0, value);
     }
 
     public TimeSeries(long[] times, float[] values) throws Exception {
@@ -188,7 +440,7 @@ public class TimeSeries implements JsonAble, Serializable {
             if (i > 0 && times[i] < times[i - 1]) {
                 throw new Exception("time=" + times[i] + " at index=" + i + " out of order");
             }
-            data.add(new Entry(times[i], values[i]));
+            data.add(times[i], values[i]);
         }
     }
     
@@ -198,20 +450,20 @@ public class TimeSeries implements JsonAble, Serializable {
         
         for (int i = 0; i < data.size(); i += frequency) {
             Float aggr = (float) 0.0;
-            Long time = data.get(i).time;
+            Long time = data.timeAt(i);
             int count = 0;
             for (int j = i; j < Math.min(data.size(), (i + frequency)); j++) {
-                aggr += (float) data.get(j).value;
+                aggr += (float) data.valueAt(j);
                 count++;
             }
             aggr = aggr / (float) count;
-            ldata.add(new Entry(time, aggr));
+            ldata.add(time, aggr);
         }
         return ldata;
     }
 
     public TimeSeries(long time, float value) {
-        data.add(new Entry(time, value));
+        data.add(time, value);
     }
 
     // methods: data access ////////////////////////////////////////////////
@@ -220,7 +472,7 @@ public class TimeSeries implements JsonAble, Serializable {
         if (size() > 0 && time < lastTime()) {
             throw new Exception("time=" + time + " at index=" + size() + " out of order");
         }
-        data.add(new Entry(time, value));
+        data.add(time, value);
     }
 
     public int size() {
@@ -228,19 +480,19 @@ public class TimeSeries implements JsonAble, Serializable {
     }
 
     public long startTime() {
-        return data.get(0).time;
+        return data.timeAt(0);
     }
 
     public long lastTime() {
-        return data.get(data.size() - 1).time;
+        return data.timeAt(data.size() - 1);
     }
 
     public long time(int index) {
-        return data.get(index).time;
+        return data.timeAt(index);
     }
 
     public float value(int index) {
-        return data.get(index).value;
+        return data.valueAt(index);
     }
 
     public long // may return 0 if size < 2
@@ -5,11 +5,10 @@
  */
 package com.yahoo.egads.data;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
-import com.google.common.collect.Lists;
-
 /**
  * Class for holding a weighted value that can then be aggregated when stored
  * in a list using various functions.
@@ -76,29 +75,81 @@ public class WeightedValue implements Comparable<WeightedValue> {
      */
     public static double aggregate(final List<WeightedValue> values, 
             final String agg) {
-        if (agg == null || agg.isEmpty()) {
-            throw new IllegalArgumentException("Aggregator cannot be null or empty");
-        }
         if (values == null) {
             throw new IllegalArgumentException("Values cannot be null");
         }
-        if (values.isEmpty()) {
+        final double[] v = new double[values.size()];
+        final int[] w = new int[values.size()];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = values.get(i).value;
+            w[i] = values.get(i).weight;
+        }
+        return aggregate(v, w, v.length, agg);
+    }
+
+    /**
+     * Primitive form of {@link #drop(List, int, boolean)} for values and 
+     * weights held in parallel arrays, e.g. reused accumulators.
+     * @param values The values, the first count ones are used.
+     * @param weights The weights of the values.
+     * @param count The number of values.
+     * @param drop How many values to drop.
+     * @param highest Drop higher values == true or drop lower values == false.
+     * @return The number of values left.
+     */
+    public static int drop(final double[] values, final int[] weights, 
+            int count, final int drop, final boolean highest) {
+        for (int x = 0; x < drop; x++) {
+            if (count <= 1) {
+                break;
+            }
+            // the first of the highest or lowest values, as in Collections
+            int found = 0;
+            for (int i = 1; i < count; i++) {
+                final int c = Double.compare(values[i], values[found]);
+                if (highest ? c > 0 : c < 0) {
+                    found = i;
+                }
+            }
+            System.arraycopy(values, found + 1, values, found, count - found - 1);
+            System.arraycopy(weights, found + 1, weights, found, count - found - 1);
+            count--;
+        }
+        return count;
+    }
+
+    /**
+     * Primitive form of {@link #aggregate(List, String)} for values and 
+     * weights held in parallel arrays.
+     * @param values The values, the first count ones are aggregated.
+     * @param weights The weights of the values.
+     * @param count The number of values.
+     * @param agg A non-null or empty aggregator function to use.
+     * @return An aggregated value or NaN.
+     * @throws IllegalArgumentException if agg was null or empty or we had an 
+     * unimplemented agg function.
+     */
+    public static double aggregate(final double[] values, final int[] weights,
+            final int count, final String agg) {
+        if (agg == null || agg.isEmpty()) {
+            throw new IllegalArgumentException("Aggregator cannot be null or empty");
+        }
+        if (count < 1) {
             if (agg.equals("COUNT")) {
                 return 0;
             }
             return Double.NaN;
         }
-        
         // temps.
         int validCount = 0;
         double accumulator = 0;
         
         if (agg.equals("MAX")) {
             accumulator = Double.MIN_VALUE;
-            for (final WeightedValue v : values) {
-                if (Double.isFinite(v.value)) {
-                    if (v.value > accumulator) {
-                        accumulator = v.value;
+            for (int i = 0; i < count; i++) {
+                if (Double.isFinite(values[i])) {
+                    if (values[i] > accumulator) {
+                        accumulator = values[i];
                     }
                     ++validCount;
                 }
@@ -109,10 +160,10 @@ public class WeightedValue implements Comparable<WeightedValue> {
             return accumulator;
         } else if (agg.equals("MIN")) {
             accumulator = Double.MAX_VALUE;
-            for (final WeightedValue v : values) {
-                if (Double.isFinite(v.value)) {
-                    if (v.value < accumulator) {
-                        accumulator = v.value;
+            for (int i = 0; i < count; i++) {
+                if (Double.isFinite(values[i])) {
+                    if (values[i] < accumulator) {
+                        accumulator = values[i];
                     }
                     ++validCount;
                 }
@@ -123,29 +174,28 @@ public class WeightedValue implements Comparable<WeightedValue> {
             return accumulator;
         } else if (agg.equals("COUNT")) {
             int ctr = 0;
-            for (final WeightedValue v : values) {
-                if (Double.isFinite(v.value)) {
+            for (int i = 0; i < count; i++) {
+                if (Double.isFinite(values[i])) {
                     ++ctr;
                 }
             }
             return ctr;
         } else if (agg.equals("MEDIAN")) {
-            final List<Double> sorted = Lists.newArrayList();
-            for (final WeightedValue v : values) {
-                if (Double.isFinite(v.value)) {
-                    sorted.add(v.value);
-                    ++validCount;
+            final double[] sorted = new double[count];
+            for (int i = 0; i < count; i++) {
+                if (Double.isFinite(values[i])) {
+                    sorted[validCount++] = values[i];
                 }
             }
             if (validCount < 1) {
                 return Double.NaN;
             }
-            Collections.sort(sorted);
-            return sorted.get(sorted.size() / 2);
+            Arrays.sort(sorted, 0, validCount);
+            return sorted[validCount / 2];
         } else if (agg.equals("SUM")) {
-            for (final WeightedValue v : values) {
-                if (Double.isFinite(v.value)) {
-                    accumulator += v.value;
+            for (int i = 0; i < count; i++) {
+                if (Double.isFinite(values[i])) {
+                    accumulator += values[i];
                     ++validCount;
                 }
             }
@@ -154,9 +204,9 @@ public class WeightedValue implements Comparable<WeightedValue> {
             }
             return accumulator;
         } else if (agg.equals("AVG")) {
-            for (final WeightedValue v : values) {
-                if (Double.isFinite(v.value)) {
-                    accumulator += v.value;
+            for (int i = 0; i < count; i++) {
+                if (Double.isFinite(values[i])) {
+                    accumulator += values[i];
                     ++validCount;
                 }
             }
@@ -165,10 +215,10 @@ public class WeightedValue implements Comparable<WeightedValue> {
             }
             return accumulator / validCount;
         } else if (agg.equals("WAVG")) {
-            for (final WeightedValue v : values) {
-                if (Double.isFinite(v.value)) {
-                    accumulator += v.weight * v.value;
-                    validCount += v.weight;
+            for (int i = 0; i < count; i++) {
+                if (Double.isFinite(values[i])) {
+                    accumulator += weights[i] * values[i];
+                    validCount += weights[i];
                 }
             }
             if (validCount < 1) {
@@ -16,7 +16,11 @@ import org.json.JSONStringer;
 
 import com.yahoo.egads.data.Anomaly.Interval;
 import com.yahoo.egads.data.Anomaly.IntervalSequence;
+import com.yahoo.egads.data.DetectionRange;
+import com.yahoo.egads.data.ModelConfig;
+import com.yahoo.egads.data.ModelSnapshot;
 import com.yahoo.egads.data.TimeSeries.DataSequence;
+import com.yahoo.egads.utilities.KernelDensityWindow;
 import com.yahoo.egads.utilities.ListUtils;
 /**
  * AdaptiveKernelDensityChangePointDetector implements density-based algorithm for change point detection.
@@ -37,6 +41,9 @@ import com.yahoo.egads.utilities.ListUtils;
  * And finally for each continuous segment of the thresholded KL-divergence time-series, the index of the maximum value is reported as a 
  * change point.
  * 
+ * CHANGE_POINT_ENGINE selects how the windows are kept: RING_BUFFER (default) uses the primitive ring buffers of
+ * KernelDensityWindow, LINKED_LIST the original list based implementation. Both produce identical scores.
+ * 
  * @author amizadeh
  *
  */
@@ -44,6 +51,11 @@ import com.yahoo.egads.utilities.ListUtils;
 @Slf4j
 public class AdaptiveKernelDensityChangePointDetector extends AnomalyDetectionAbstractModel {
 
+    // Stored with Java serialization, with the windows and the change point search state.
+    static {
+        ModelSnapshot.registerSerialized(AdaptiveKernelDensityChangePointDetector.class);
+    }
+
     // buffering the residuals
     private LinkedList<Float> buffer = new LinkedList<Float>();
     // buffering the standard deviations
@@ -54,6 +66,10 @@ public class AdaptiveKernelDensityChangePointDetector extends AnomalyDetectionAb
     // buffering post-window kernel sums
     private LinkedList<Float> postKernelSum = new LinkedList<Float>();
 
+    // primitive ring buffer engine, replaces the lists above unless CHANGE_POINT_ENGINE is LINKED_LIST
+    private boolean ringBuffer = true;
+    private KernelDensityWindow window = null;
+
     // sum of residuals in the buffer
     private float sumBuffer = 0;
     // sum of squared residuals in the buffer
@@ -74,11 +90,33 @@ public class AdaptiveKernelDensityChangePointDetector extends AnomalyDetectionAb
     // Model name.
     private String modelName = "AdaptiveKernelDensityChangePointDetector";
 
+    // change point search state, kept between calls for the streaming mode
+    private float maxScore = Float.NEGATIVE_INFINITY;
+    private int maxIndex = -1;
+    private int counter = 0;
+    private int streamIndex = 0;
+    private long streamStart = -1;
+    // the change point flushed at the end of detect(), not to be reported twice
+    private int lastChangePoint = -1;
+    // the last POST_WINDOW_SIZE points, a change point lags its maximum score by that much
+    private long[] recentTime = null;
+    private float[] recentObserved = null;
+    private float[] recentExpected = null;
+    private float[] recentScore = null;
+    private float[] recentLevel = null;
+    // the change point candidate of the current maximum score
+    private Interval candidate = null;
+
     public AdaptiveKernelDensityChangePointDetector(Properties config) {
-        super(config);
+        this(new ModelConfig(config));
+    }
 
-        this.maxHrsAgo = new Integer(config.getProperty("MAX_ANOMALY_TIME_AGO"));
-        this.windowStart = new Long(config.getProperty("DETECTION_WINDOW_START_TIME"));
+    public AdaptiveKernelDensityChangePointDetector(ModelConfig modelConfig) {
+        super(modelConfig);
+
+        this.maxHrsAgo = modelConfig.getMaxAnomalyTimeAgo();
+        this.windowStart = modelConfig.getDetectionWindowStart();
+        Properties config = modelConfig.getProperties();
         if (config.getProperty("PRE_WINDOW_SIZE") == null) {
             throw new IllegalArgumentException("PRE_WINDOW_SIZE is NULL");
         }
@@ -95,6 +133,15 @@ public class AdaptiveKernelDensityChangePointDetector extends AnomalyDetectionAb
         } else {
             this.confidence = new Float(config.getProperty("CONFIDENCE"));
         }
+
+        if (config.getProperty("CHANGE_POINT_ENGINE") != null) {
+            String engine = config.getProperty("CHANGE_POINT_ENGINE");
+            if (engine.equals("LINKED_LIST")) {
+                this.ringBuffer = false;
+            } else if (!engine.equals("RING_BUFFER")) {
+                throw new IllegalArgumentException("CHANGE_POINT_ENGINE should be RING_BUFFER or LINKED_LIST");
+            }
+        }
     }
 
     @Override
@@ -124,12 +171,22 @@ public class AdaptiveKernelDensityChangePointDetector extends AnomalyDetectionAb
 
         this.preKernelSum.clear();
         this.postKernelSum.clear();
+        this.window = null;
 
         this.sumBuffer = 0;
         this.sqrSumBuffer = 0;
 
         this.score = null;
         this.level = null;
+
+        this.maxScore = Float.NEGATIVE_INFINITY;
+        this.maxIndex = -1;
+        this.counter = 0;
+        this.streamIndex = 0;
+        this.streamStart = -1;
+        this.lastChangePoint = -1;
+        this.recentTime = null;
+        this.candidate = null;
     }
 
     @Override
@@ -140,20 +197,23 @@ public class AdaptiveKernelDensityChangePointDetector extends AnomalyDetectionAb
 
     @Override
     public IntervalSequence detect(DataSequence observedSeries, DataSequence expectedSeries) throws Exception {
+        return detect(observedSeries, expectedSeries, DetectionRange.of(observedSeries, maxHrsAgo, windowStart));
+    }
+
+    // The change points are found on the whole series, the ones of the
+    // detection window are reported.
+    @Override
+    public IntervalSequence detect(DataSequence observedSeries, DataSequence expectedSeries, DetectionRange range)
+            throws Exception {
 
         if (observedSeries.size() != expectedSeries.size()) {
             throw new Exception("The observed time-series must have the same length as the expected time-series.");
         }
-        long unixTime = System.currentTimeMillis() / 1000L;
 
         IntervalSequence result = new IntervalSequence();
         int n = observedSeries.size();
-        float[] residuals = new float[n];
-
-        // Computing the residuals
-        for (int i = 0; i < n; ++i) {
-            residuals[i] = observedSeries.get(i).value - expectedSeries.get(i).value;
-        }
+        // The residuals, shared with the other models of the run
+        float[] residuals = context(observedSeries, expectedSeries).residuals();
 
         // Detecting change points
         ArrayList<Integer> changePoints =
@@ -184,7 +244,7 @@ public class AdaptiveKernelDensityChangePointDetector extends AnomalyDetectionAb
             }
         } else {
             for (int index : changePoints) {
-                if (isDetectionWindowPoint(maxHrsAgo, windowStart, observedSeries.get(index).time, observedSeries.get(0).time)) {
+                if (index >= range.getWindowFrom()) {
                     result.add(new Interval(observedSeries.get(index).time, index, new Float[] {score[index]},
                                     new Float[] {level[index]}, observedSeries.get(index).value,
                                     expectedSeries.get(index).value));
@@ -192,9 +252,61 @@ public class AdaptiveKernelDensityChangePointDetector extends AnomalyDetectionAb
             }
         }
 
+        // Keep the tail so that onPoint() can continue from here.
+        if (n > 0 && streamStart == -1) {
+            streamStart = observedSeries.get(0).time;
+        }
+        for (int i = Math.max(0, n - postWindowSize); i < n; ++i) {
+            remember(i, observedSeries.get(i).time, observedSeries.get(i).value, expectedSeries.get(i).value,
+                     score[i], level[i]);
+        }
+        candidate = null;
+
         return result;
     }
 
+    // Streaming detection. A change point is confirmed once the score drops after
+    // its maximum, so the returned interval refers to an earlier point.
+    @Override
+    public Interval onPoint(long time, float observed, float expected) throws Exception {
+        if (streamStart == -1) {
+            streamStart = time;
+        }
+        int i = streamIndex++;
+        float[] temp = computeKLScore(observed - expected, preWindowSize, postWindowSize, confidence);
+        remember(i, time, observed, expected, temp[0], temp[1]);
+
+        Interval found = null;
+        int index = nextChangePoint(i, temp[0], postWindowSize);
+        if (index >= 0 && index != lastChangePoint && candidate != null
+            && isDetectionWindowPoint(maxHrsAgo, windowStart, candidate.utime, streamStart)) {
+            found = candidate;
+        }
+        if (maxIndex == i) {
+            int c = i - postWindowSize + 1;
+            int slot = c % postWindowSize;
+            candidate = (c < 0) ? null : new Interval(recentTime[slot], c, new Float[] {recentScore[slot]},
+                            new Float[] {recentLevel[slot]}, recentObserved[slot], recentExpected[slot]);
+        }
+        return found;
+    }
+
+    private void remember(int i, long time, float observed, float expected, float sc, float lv) {
+        if (recentTime == null || recentTime.length != postWindowSize) {
+            recentTime = new long[postWindowSize];
+            recentObserved = new float[postWindowSize];
+            recentExpected = new float[postWindowSize];
+            recentScore = new float[postWindowSize];
+            recentLevel = new float[postWindowSize];
+        }
+        int slot = i % postWindowSize;
+        recentTime[slot] = time;
+        recentObserved[slot] = observed;
+        recentExpected[slot] = expected;
+        recentScore[slot] = sc;
+        recentLevel[slot] = lv;
+    }
+
     public ArrayList<Integer> detectChangePoints(float[] residuals, int preWindowSize, int postWindowSize,
                     float confidence) {
         int n = residuals.length;
@@ -202,40 +314,65 @@ public class AdaptiveKernelDensityChangePointDetector extends AnomalyDetectionAb
         level = new float[n];
         ArrayList<Integer> changePoints = new ArrayList<Integer>();
 
-        float maxScore = Float.NEGATIVE_INFINITY;
-        int maxIndex = -1;
-        float delta = 0.00000001F;
-        int counter = 0;
+        maxScore = Float.NEGATIVE_INFINITY;
+        maxIndex = -1;
+        counter = 0;
 
-        for (int i = 0; i < n; ++i, ++counter) {
+        for (int i = 0; i < n; ++i) {
             float[] temp = computeKLScore(residuals[i], preWindowSize, postWindowSize, confidence);
             score[i] = temp[0];
             level[i] = temp[1];
-            if (score[i] > delta) {
-                if (score[i] > maxScore) {
-                    maxScore = score[i];
-                    maxIndex = i;
-                }
-            } else if (score[i] < -delta) {
-                if (maxIndex >= 0) {
-                    if (counter - i + maxIndex > postWindowSize) {
-                        changePoints.add(maxIndex - postWindowSize + 1);
-                        counter = i - maxIndex;
-                    }
-                    maxScore = Float.NEGATIVE_INFINITY;
-                    maxIndex = -1;
-                }
+            int index = nextChangePoint(i, score[i], postWindowSize);
+            if (index >= 0) {
+                changePoints.add(index);
             }
         }
 
         if (maxIndex >= 0) {
-            changePoints.add(maxIndex - postWindowSize + 1);
+            lastChangePoint = maxIndex - postWindowSize + 1;
+            changePoints.add(lastChangePoint);
         }
+        streamIndex = n;
 
         return changePoints;
     }
 
+    // One step of the change point search over the KL scores: tracks the maximum of each
+    // positive segment and returns its change point once a negative score closes the
+    // segment, or -1.
+    private int nextChangePoint(int i, float sc, int postWindowSize) {
+        float delta = 0.00000001F;
+        int index = -1;
+        if (sc > delta) {
+            if (sc > maxScore) {
+                maxScore = sc;
+                maxIndex = i;
+            }
+        } else if (sc < -delta) {
+            if (maxIndex >= 0) {
+                if (counter - i + maxIndex > postWindowSize) {
+                    index = maxIndex - postWindowSize + 1;
+                    counter = i - maxIndex;
+                }
+                maxScore = Float.NEGATIVE_INFINITY;
+                maxIndex = -1;
+            }
+        }
+        counter++;
+        return index;
+    }
+
+    // Returns {KL score, level threshold} for the next residual. With the ring buffer engine the
+    // returned array is reused by the next call.
     protected float[] computeKLScore(float residual, int preWindowSize, int postWindowSize, float confidence) {
+        if (ringBuffer) {
+            if (window == null || window.getPreWindowSize() != preWindowSize
+                || window.getPostWindowSize() != postWindowSize || window.getConfidence() != confidence) {
+                window = new KernelDensityWindow(preWindowSize, postWindowSize, confidence);
+            }
+            return window.update(residual);
+        }
+
         float dKL = 0;
         float levelThreshold = 0;
         int len = buffer.size();
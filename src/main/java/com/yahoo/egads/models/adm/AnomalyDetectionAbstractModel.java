@@ -6,15 +6,24 @@
 
 package com.yahoo.egads.models.adm;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Properties;
 
 import lombok.extern.slf4j.Slf4j;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 import java.util.Map;
-import java.util.HashMap;
 
+import com.yahoo.egads.data.Anomaly;
+import com.yahoo.egads.data.DetectionContext;
+import com.yahoo.egads.data.DetectionRange;
 import com.yahoo.egads.data.JsonEncoder;
+import com.yahoo.egads.data.ModelConfig;
+import com.yahoo.egads.data.ModelSnapshot;
+import com.yahoo.egads.data.TimeSeries;
+import org.apache.commons.lang.NotImplementedException;
 
 @Slf4j
 public abstract class AnomalyDetectionAbstractModel implements AnomalyDetectionModel {
@@ -27,6 +36,14 @@ public abstract class AnomalyDetectionAbstractModel implements AnomalyDetectionM
      * 数据集中异常的期望百分比，比如，期待有百分之一的异常，默认值为百分之5
      */
     protected float amntAutoSensitivity = (float) 0.05;
+    /**
+     * AUTO_SENSITIVITY_ENGINE为SKETCH时，自动阈值由QuantileSketch计算
+     */
+    protected boolean sketchAutoSensitivity = false;
+    /**
+     * AnomalyDetector在一次检测中共享给所有模型的残差、误差指标等，可能为null
+     */
+    protected DetectionContext sharedContext;
     /**
      * 输出方式，如控制台，数据，GUI等
      */
@@ -81,46 +98,103 @@ public abstract class AnomalyDetectionAbstractModel implements AnomalyDetectionM
     
     // Parses the THRESHOLD config into a map.
     protected Map<String, Float> parseMap(String s) {
-        if (s == null) {
-            return new HashMap<String, Float>();
-        }
-        // 配置文件格式是这样的：mape#10,mase#15
-        String[] pairs = s.split(",");
-        Map<String, Float> myMap = new HashMap<String, Float>();
-        for (int i = 0; i < pairs.length; i++) {
-            String pair = pairs[i];
-            String[] keyValue = pair.split("#");
-            myMap.put(keyValue[0], Float.valueOf(keyValue[1]));
-        }
-        // Map的组成：配置文件中的mape#10，切割为mape------》10
-        return myMap;
+        // 配置文件格式是这样的：mape#10,mase#15，切割为mape------》10
+        return ModelConfig.parseThreshold(s);
     }
 
     // Force the user to define this constructor that acts as a
     // factory method.
     public AnomalyDetectionAbstractModel(Properties config) {
+        this(new ModelConfig(config));
+    }
+
+    // Same as above from a config parsed before, e.g. by the ModelRegistry.
+    public AnomalyDetectionAbstractModel(ModelConfig config) {
         // Set the assumed amount of anomaly in your data.
-        if (config.getProperty("AUTO_SENSITIVITY_ANOMALY_PCNT") != null) {
+        if (config.getAutoSensitivityAnomalyPcnt() != null) {
             // 数据集中异常的期望百分比
-            this.amntAutoSensitivity = new Float(config.getProperty("AUTO_SENSITIVITY_ANOMALY_PCNT"));
+            this.amntAutoSensitivity = config.getAutoSensitivityAnomalyPcnt();
         }
         // Set the standard deviation for auto sensitivity.
-        if (config.getProperty("AUTO_SENSITIVITY_SD") != null) {
+        if (config.getAutoSensitivitySD() != null) {
             // 聚类的标准差
-            this.sDAutoSensitivity = new Float(config.getProperty("AUTO_SENSITIVITY_SD"));
+            this.sDAutoSensitivity = config.getAutoSensitivitySD();
         }
-      	this.outputDest = config.getProperty("OUTPUT");
+        // Find the auto sensitivity thresholds on the sorted data (EXACT) or
+        // on a QuantileSketch of it (SKETCH).
+        this.sketchAutoSensitivity = config.isSketchAutoSensitivity();
+      	this.outputDest = config.getOutput();
+    }
+
+    // MAX_ANOMALY_TIME_AGO and DETECTION_WINDOW_START_TIME, which the
+    // constructors check, for the ModelSnapshot codecs of the subclasses.
+    protected static void writeWindow(int maxHrsAgo, long windowStart, DataOutput out) throws IOException {
+        out.writeInt(maxHrsAgo);
+        out.writeLong(windowStart);
+    }
+
+    // The config to build the model with.
+    protected static Properties readWindow(DataInput in) throws IOException {
+        Properties config = new Properties();
+        config.setProperty("MAX_ANOMALY_TIME_AGO", Integer.toString(in.readInt()));
+        config.setProperty("DETECTION_WINDOW_START_TIME", Long.toString(in.readLong()));
+        return config;
+    }
+
+    // Auto sensitivity and output config, for the same codecs.
+    protected void writeSensitivity(DataOutput out) throws IOException {
+        out.writeFloat(sDAutoSensitivity);
+        out.writeFloat(amntAutoSensitivity);
+        out.writeBoolean(sketchAutoSensitivity);
+        ModelSnapshot.writeString(outputDest, out);
+    }
+
+    protected void readSensitivity(DataInput in) throws IOException {
+        sDAutoSensitivity = in.readFloat();
+        amntAutoSensitivity = in.readFloat();
+        sketchAutoSensitivity = in.readBoolean();
+        outputDest = ModelSnapshot.readString(in);
+    }
+
+    // The context the AnomalyDetector shares with all of its models for a run.
+    public void setContext(DetectionContext context) {
+        this.sharedContext = context;
+    }
+
+    // The shared context when it is for these series, a new one otherwise.
+    protected DetectionContext context(TimeSeries.DataSequence observedSeries, TimeSeries.DataSequence expectedSeries) {
+        DetectionContext context = sharedContext;
+        if (context == null || !context.isFor(observedSeries, expectedSeries)) {
+            context = new DetectionContext(observedSeries, expectedSeries);
+        }
+        return context;
+    }
+
+    // Models that keep streaming state override this.
+    @Override
+    public Anomaly.Interval onPoint(long time, float observed, float expected) throws Exception {
+        throw new NotImplementedException(getModelName() + " does not support streaming.");
+    }
+
+    // Models that only look at the points of the range override this, the
+    // others detect on the whole series and keep the points of the range.
+    @Override
+    public Anomaly.IntervalSequence detect(TimeSeries.DataSequence observedSeries,
+                                           TimeSeries.DataSequence expectedSeries,
+                                           DetectionRange range) throws Exception {
+        return detect(observedSeries, expectedSeries);
+    }
+
+    @Override
+    public boolean isPointwise() {
+        return false;
     }
 
     @Override
     public boolean isDetectionWindowPoint(int maxHrsAgo, long windowStart, long anomalyTime, long startTime) {
-        long unixTime = System.currentTimeMillis() / 1000L;
-        // consider 'windowStart' if it is greater than or equal to first timestamp
-        if (windowStart >= startTime) { // 时间位置关系   startTime   ------》   windowStart    ------》   anomalyTime
-            return (anomalyTime - windowStart) > 0;
-        } else {
-            // use detection window as max hours specified
-            return ((unixTime - anomalyTime) / 3600/*anomalyTime 的单位是s*/) < maxHrsAgo; /*现在距离异常发生时间的最大窗口值*/
-        }
+        // 时间位置关系   startTime   ------》   windowStart    ------》   anomalyTime
+        // 否则：现在距离异常发生时间（单位s）的最大窗口值
+        return DetectionRange.inWindow(maxHrsAgo, windowStart, anomalyTime, startTime,
+                System.currentTimeMillis() / 1000L);
     }
 }
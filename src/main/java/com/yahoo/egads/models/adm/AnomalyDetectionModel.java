@@ -9,6 +9,7 @@
 package com.yahoo.egads.models.adm;
 
 import com.yahoo.egads.data.Anomaly;
+import com.yahoo.egads.data.DetectionRange;
 import com.yahoo.egads.data.TimeSeries;
 import com.yahoo.egads.data.Model;
 
@@ -35,4 +36,19 @@ public interface AnomalyDetectionModel extends Model {
     public Anomaly.IntervalSequence detect(
             TimeSeries.DataSequence observedSeries,
             TimeSeries.DataSequence expectedSeries) throws Exception;
+
+    // detect anomalies among the points of 'range' only, resolved once by the
+    // caller instead of per point.
+    public Anomaly.IntervalSequence detect(
+            TimeSeries.DataSequence observedSeries,
+            TimeSeries.DataSequence expectedSeries,
+            DetectionRange range) throws Exception;
+
+    // True if the model reads the expected values of the points of the range
+    // only, so that the points before it need not be forecast.
+    public boolean isPointwise();
+
+    // streaming detection: scores one new point against the state kept from
+    // tune() and previous calls. Returns the anomaly found at this call, or null.
+    public Anomaly.Interval onPoint(long time, float observed, float expected) throws Exception;
 }
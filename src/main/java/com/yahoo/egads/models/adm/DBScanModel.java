@@ -8,15 +8,21 @@
 
 package com.yahoo.egads.models.adm;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Properties;
 import java.util.Map;
-import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 
 import com.yahoo.egads.data.Anomaly.IntervalSequence;
 import com.yahoo.egads.data.Anomaly.Interval;
 import com.yahoo.egads.data.AnomalyErrorStorage;
+import com.yahoo.egads.data.DetectionRange;
+import com.yahoo.egads.data.ModelConfig;
+import com.yahoo.egads.data.ModelSnapshot;
+import com.yahoo.egads.data.ErrorMetrics;
 import com.yahoo.egads.data.TimeSeries.DataSequence;
 import com.yahoo.egads.utilities.DBSCANClusterer;
 
@@ -74,26 +80,83 @@ public class DBScanModel extends AnomalyDetectionAbstractModel {
      *  聚类所需的最小点数
      */
     private double eps = 500;
+    /**
+     * 邻域搜索方式：KD_TREE（默认）或 LINEAR
+     */
+    private DBSCANClusterer.NeighborSearch neighborSearch = DBSCANClusterer.NeighborSearch.KD_TREE;
+    /**
+     * 估计eps时最多计算的点对数，超过则随机抽样，0表示计算所有点对
+     */
+    private long epsSampleSize = 1000000;
+
+    static {
+        ModelSnapshot.register(DBScanModel.class, new SnapshotCodec());
+    }
+
+    // Binary snapshot format of the model, see ModelSnapshot.
+    private static class SnapshotCodec implements ModelSnapshot.Codec<DBScanModel> {
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(DBScanModel m, DataOutput out) throws IOException {
+            writeWindow(m.maxHrsAgo, m.windowStart, out);
+            out.writeUTF(m.neighborSearch.name());
+            out.writeLong(m.epsSampleSize);
+            ModelSnapshot.writeFloatMap(m.threshold, out);
+            out.writeFloat(m.anomalyErrorStorage.getMaseDenom());
+            // the clusterer is built again from the tuned eps and minPoints
+            out.writeBoolean(m.dbscanClusterer != null);
+            out.writeDouble(m.eps);
+            out.writeInt(m.minPoints);
+            m.writeSensitivity(out);
+        }
+
+        @Override
+        public DBScanModel read(DataInput in, int version) throws IOException {
+            Properties config = readWindow(in);
+            config.setProperty("DBSCAN_NEIGHBOR_SEARCH", in.readUTF());
+            config.setProperty("DBSCAN_EPS_SAMPLE_SIZE", Long.toString(in.readLong()));
+            DBScanModel m = new DBScanModel(config);
+            m.threshold = ModelSnapshot.readFloatMap(in);
+            m.anomalyErrorStorage.setMaseDenom(in.readFloat());
+            boolean tuned = in.readBoolean();
+            m.eps = in.readDouble();
+            m.minPoints = in.readInt();
+            if (tuned) {
+                m.dbscanClusterer = new DBSCANClusterer<IdentifiedDoublePoint>(m.eps, m.minPoints, m.neighborSearch);
+            }
+            m.readSensitivity(in);
+            return m;
+        }
+    }
     
     public DBScanModel(Properties config) {
+        this(new ModelConfig(config));
+    }
+
+    public DBScanModel(ModelConfig config) {
         // 父类中初始三个参数：聚类的标准差、数据集中异常的期望百分比、输出方式
         super(config);
        
-        if (config.getProperty("MAX_ANOMALY_TIME_AGO") == null) {
-            throw new IllegalArgumentException("MAX_ANOMALY_TIME_AGO is NULL");
-        }
         // 现在距离异常发生时间的最大窗口值，单位小时
-        this.maxHrsAgo = new Integer(config.getProperty("MAX_ANOMALY_TIME_AGO"));
+        this.maxHrsAgo = config.getMaxAnomalyTimeAgo();
         // 指定timeseries中的检测窗口开始时间
-        this.windowStart = new Long(config.getProperty("DETECTION_WINDOW_START_TIME"));
+        this.windowStart = config.getDetectionWindowStart();
 
         // 设定的阈值主要是针对 误差指标 的阈值，所以是k-v结构，k是误差指标名，v是误差指标的阈值
-        // 如果在没有在配置文件中设置，则是一个空map
-        this.threshold = parseMap(config.getProperty("THRESHOLD"));
-        // 如果配置文件中设定了阈值，但是解析出来的阈值Map为空，则抛出阈值解析错误异常
-        if (config.getProperty("THRESHOLD") != null && this.threshold.isEmpty() == true) {
-            throw new IllegalArgumentException("THRESHOLD PARSE ERROR");
-        } 
+        // 如果在没有在配置文件中设置，则是一个空map；解析错误在ModelConfig中抛出
+        this.threshold = config.getThreshold();
+
+        Properties properties = config.getProperties();
+        if (properties.getProperty("DBSCAN_NEIGHBOR_SEARCH") != null) {
+            this.neighborSearch = DBSCANClusterer.NeighborSearch.valueOf(properties.getProperty("DBSCAN_NEIGHBOR_SEARCH"));
+        }
+        if (properties.getProperty("DBSCAN_EPS_SAMPLE_SIZE") != null) {
+            this.epsSampleSize = new Long(properties.getProperty("DBSCAN_EPS_SAMPLE_SIZE"));
+        }
     }
 
     public void toJson(JSONStringer json_out) {
@@ -131,42 +194,32 @@ public class DBScanModel extends AnomalyDetectionAbstractModel {
                      DataSequence expectedSeries,
                      IntervalSequence anomalySequence) throws Exception {
         // Compute the time-series of errors.
-        HashMap<String, ArrayList<Float>> allErrors = anomalyErrorStorage.initAnomalyErrors(observedSeries, expectedSeries);
-        List<IdentifiedDoublePoint> points = new ArrayList<IdentifiedDoublePoint>();
-        EuclideanDistance ed = new EuclideanDistance();
+        List<IdentifiedDoublePoint> points = errorPoints(observedSeries, expectedSeries);
         int n = observedSeries.size();
         
-        for (int i = 0; i < n; i++) {
-            double[] d = new double[(anomalyErrorStorage.getIndexToError().keySet()).size()];
-           
-            for (int e = 0; e < (anomalyErrorStorage.getIndexToError().keySet()).size(); e++) {
-                 d[e] = allErrors.get(anomalyErrorStorage.getIndexToError().get(e)).get(i);
-            }
-            points.add(new IdentifiedDoublePoint(d, i));
-        }
-        
-        double sum = 0.0;
-        double count = 0.0;
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                sum += ed.compute(points.get(i).getPoint(), points.get(j).getPoint());
-                count++;
-            }
-        }
+        // 所有点对的平均距离，点数多时抽样估计
+        double meanDistance = DBSCANClusterer.meanDistance(points, new EuclideanDistance(), epsSampleSize, n);
         // 调谐的目的
-        eps = ((double) this.sDAutoSensitivity) * (sum / count);
+        eps = ((double) this.sDAutoSensitivity) * meanDistance;
         // 调谐目的
         minPoints = ((int) Math.ceil(((double) this.amntAutoSensitivity) * ((double) n)));
         // 调谐目的
-        dbscanClusterer = new DBSCANClusterer<IdentifiedDoublePoint>(eps, minPoints);
+        dbscanClusterer = new DBSCANClusterer<IdentifiedDoublePoint>(eps, minPoints, neighborSearch);
     }
   
     @Override
     public IntervalSequence detect(DataSequence observedSeries,
                                    DataSequence expectedSeries) throws Exception {
+        return detect(observedSeries, expectedSeries, DetectionRange.of(observedSeries, maxHrsAgo, windowStart));
+    }
+
+    // All the points are clustered, only the ones of the range are reported.
+    @Override
+    public IntervalSequence detect(DataSequence observedSeries,
+                                   DataSequence expectedSeries,
+                                   DetectionRange range) throws Exception {
         // 输出该时序数据的异常点组成的序列    IntervalSequence是List<Interval>
         IntervalSequence output = new IntervalSequence();
-        int n = observedSeries.size();
         // Get an array of thresholds.
         // anomalyErrorStorage（误差的阈值）在本类中初始化了，初始化的构造方法中存了5个元素
         // 如果配置文件中没指定误差阈值，则thresholdErrors是一个Empty Array
@@ -177,19 +230,8 @@ public class DBScanModel extends AnomalyDetectionAbstractModel {
         
         // Compute the time-series of errors. 计算时序数据中的异常
         // 形成k-v结构，k是5个误差指标名，v是observedSeries和expectedSeries之间每一个点 的 误差值 构成的序列
-        HashMap<String, ArrayList<Float>> allErrors = anomalyErrorStorage.initAnomalyErrors(observedSeries, expectedSeries);
-        List<IdentifiedDoublePoint> points = new ArrayList<IdentifiedDoublePoint>();
-        // 遍历观测数据
-        for (int i = 0; i < n; i++) {
-            // 按照误差统计指标的顺序存放，第i个点时的误差数据值
-            double[] d = new double[(anomalyErrorStorage.getIndexToError().keySet()).size()];
-           
-            for (int e = 0; e < (anomalyErrorStorage.getIndexToError().keySet()).size(); e++) {
-                 d[e] = allErrors.get(anomalyErrorStorage.getIndexToError().get(e)/*获取误差统计指标的名字*/).get(i)/*获取误差统计指标在第i个点时的值*/;
-            }
-            // 把第i个点（观测点和预测值点） 和 对应的五大误差统计指标值d[] 统一存储为一个Point，并放到points序列中
-            points.add(new IdentifiedDoublePoint(d, i));
-        }
+        // 每个点（观测点和预测值点） 和 对应的五大误差统计指标值d[] 统一存储为一个Point
+        List<IdentifiedDoublePoint> points = errorPoints(observedSeries, expectedSeries);
         // 对所有点的误差统计度量进行聚类，将异常的cluster返回回来，对于DBSCAN，anomalousClusters的大小为1
         // 聚到异常类的点的个数 == （观测值 != 预测值）的点的个数  (经过验证二者不相等，聚类的确起到了作用)
         List<Cluster<IdentifiedDoublePoint>> anomalousClusters = dbscanClusterer.cluster(points);
@@ -208,12 +250,7 @@ public class DBScanModel extends AnomalyDetectionAbstractModel {
                         + ", 观测值  OV:" + observedSeries.get(i).value + ", 期望值 EV:" + expectedSeries.get(i).value, i);
                 if (observedSeries.get(tempAnomalousPoint.getId()).value != expectedSeries.get(tempAnomalousPoint.getId()).value /*该异常点的观测值 不等于期望值*/
                         &&/*异常值要在检测窗口内*/
-                    (
-                            isDetectionWindowPoint/*true*/(maxHrsAgo/*现在距离异常发生时间的最大窗口值，单位小时*/, windowStart/*指定timeseries中的检测窗口开始时间， 系统默认是0*/,
-                                    observedSeries.get(tempAnomalousPoint.getId()).time/*当前点的时间*/, observedSeries.get(0).time/*时序的起始时间*/)
-                                    ||
-                                    (maxHrsAgo == 0/*false*/ && tempAnomalousPoint.getId() == (n - 1)/*该异常点是观测时序的最后一个点*/)
-                    )
+                    tempAnomalousPoint.getId() >= range.getFrom()/*检测窗口内，或MAX_ANOMALY_TIME_AGO为0时的最后一个点*/
                 )
                 {
                     output.add(new Interval(observedSeries.get(tempAnomalousPoint.getId()).time/*观测时间*/,
@@ -228,4 +265,23 @@ public class DBScanModel extends AnomalyDetectionAbstractModel {
         log.info("&&&&&&&&&&&& 异常类中所含点的个数：{}, 经过窗口检测后所含有异常点的个数：{}", anomalousClusters.get(0).getPoints().size(), output.size());
         return output;
     }
+
+    // The points to cluster: the errors of each point, in the index order of
+    // anomalyErrorStorage, with the index of the point as id.
+    private List<IdentifiedDoublePoint> errorPoints(DataSequence observedSeries, DataSequence expectedSeries) {
+        ErrorMetrics allErrors = anomalyErrorStorage.initErrorMetrics(observedSeries, expectedSeries,
+                context(observedSeries, expectedSeries).errors());
+        allErrors.compute();
+        int n = allErrors.size();
+        int metrics = ErrorMetrics.NAMES.length;
+        List<IdentifiedDoublePoint> points = new ArrayList<IdentifiedDoublePoint>(n);
+        for (int i = 0; i < n; i++) {
+            double[] d = new double[metrics];
+            for (int e = 0; e < metrics; e++) {
+                d[e] = allErrors.get(e)[i];
+            }
+            points.add(new IdentifiedDoublePoint(d, i));
+        }
+        return points;
+    }
 }
@@ -8,15 +8,21 @@
 
 package com.yahoo.egads.models.adm;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Properties;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.ArrayList;
 import com.yahoo.egads.data.Anomaly.IntervalSequence;
 import com.yahoo.egads.data.Anomaly.Interval;
+import com.yahoo.egads.data.DetectionRange;
+import com.yahoo.egads.data.ModelConfig;
+import com.yahoo.egads.data.ModelSnapshot;
 import com.yahoo.egads.data.AnomalyErrorStorage;
+import com.yahoo.egads.data.ErrorMetrics;
 import com.yahoo.egads.data.TimeSeries.DataSequence;
 import com.yahoo.egads.utilities.AutoSensitivity;
+import com.yahoo.egads.utilities.QuantileSketch;
 
 import lombok.extern.slf4j.Slf4j;
 import org.json.JSONObject;
@@ -33,22 +39,48 @@ public class ExtremeLowDensityModel extends AnomalyDetectionAbstractModel {
     // modelName.
     public String modelName = "ExtremeLowDensityModel";
     public AnomalyErrorStorage aes = new AnomalyErrorStorage();
+
+    static {
+        ModelSnapshot.register(ExtremeLowDensityModel.class, new SnapshotCodec());
+    }
+
+    // Binary snapshot format of the model, see ModelSnapshot.
+    private static class SnapshotCodec implements ModelSnapshot.Codec<ExtremeLowDensityModel> {
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(ExtremeLowDensityModel m, DataOutput out) throws IOException {
+            writeWindow(m.maxHrsAgo, m.windowStart, out);
+            ModelSnapshot.writeFloatMap(m.threshold, out);
+            out.writeFloat(m.aes.getMaseDenom());
+            m.writeSensitivity(out);
+        }
+
+        @Override
+        public ExtremeLowDensityModel read(DataInput in, int version) throws IOException {
+            ExtremeLowDensityModel m = new ExtremeLowDensityModel(readWindow(in));
+            m.threshold = ModelSnapshot.readFloatMap(in);
+            m.aes.setMaseDenom(in.readFloat());
+            m.readSensitivity(in);
+            return m;
+        }
+    }
     
     public ExtremeLowDensityModel(Properties config) {
+        this(new ModelConfig(config));
+    }
+
+    public ExtremeLowDensityModel(ModelConfig config) {
         super(config);
         
-        if (config.getProperty("MAX_ANOMALY_TIME_AGO") == null) {
-            throw new IllegalArgumentException("MAX_ANOMALY_TIME_AGO is NULL");
-        }
-        this.maxHrsAgo = new Integer(config.getProperty("MAX_ANOMALY_TIME_AGO"));
+        this.maxHrsAgo = config.getMaxAnomalyTimeAgo();
 
-        this.windowStart = new Long(config.getProperty("DETECTION_WINDOW_START_TIME"));
+        this.windowStart = config.getDetectionWindowStart();
 
-        this.threshold = parseMap(config.getProperty("THRESHOLD"));
-            
-        if (config.getProperty("THRESHOLD") != null && this.threshold.isEmpty() == true) {
-            throw new IllegalArgumentException("THRESHOLD PARSE ERROR");
-        } 
+        this.threshold = config.getThreshold();
     }
     
     public void toJson(JSONStringer json_out) {
@@ -78,14 +110,20 @@ public class ExtremeLowDensityModel extends AnomalyDetectionAbstractModel {
                      DataSequence expectedSeries,
                      IntervalSequence anomalySequence) throws Exception {
         // Compute the time-series of errors.
-        HashMap<String, ArrayList<Float>> allErrors = aes.initAnomalyErrors(observedSeries, expectedSeries);
+        ErrorMetrics allErrors = aes.initErrorMetrics(observedSeries, expectedSeries,
+                context(observedSeries, expectedSeries).errors());
         
         for (int i = 0; i < (aes.getIndexToError().keySet()).size(); i++) {
             // Add a new error metric if the error metric has not been
             // defined by the user.
             if (!threshold.containsKey(aes.getIndexToError().get(i))) {
-                Float[] fArray = (allErrors.get(aes.getIndexToError().get(i))).toArray(new Float[(allErrors.get(aes.getIndexToError().get(i))).size()]);
-                threshold.put(aes.getIndexToError().get(i), AutoSensitivity.getLowDensitySensitivity(fArray, sDAutoSensitivity, amntAutoSensitivity));
+                if (sketchAutoSensitivity) {
+                    QuantileSketch sketch = new QuantileSketch();
+                    sketch.add(allErrors.get(i));
+                    threshold.put(aes.getIndexToError().get(i), AutoSensitivity.getLowDensitySensitivity(sketch, sDAutoSensitivity, amntAutoSensitivity));
+                    continue;
+                }
+                threshold.put(aes.getIndexToError().get(i), AutoSensitivity.getLowDensitySensitivity(allErrors.get(i), sDAutoSensitivity, amntAutoSensitivity));
             }
         }
     }
@@ -107,6 +145,19 @@ public class ExtremeLowDensityModel extends AnomalyDetectionAbstractModel {
     @Override
     public IntervalSequence detect(DataSequence observedSeries,
                                    DataSequence expectedSeries) throws Exception {
+        return detect(observedSeries, expectedSeries, DetectionRange.of(observedSeries, maxHrsAgo, windowStart));
+    }
+
+    @Override
+    public boolean isPointwise() {
+        return true;
+    }
+
+    // Only the points of the range are scored.
+    @Override
+    public IntervalSequence detect(DataSequence observedSeries,
+                                   DataSequence expectedSeries,
+                                   DetectionRange range) throws Exception {
 
         // At detection time, the anomaly thresholds shouldn't all be 0.
         Float threshSum = (float) 0.0;
@@ -123,14 +174,12 @@ public class ExtremeLowDensityModel extends AnomalyDetectionAbstractModel {
         IntervalSequence output = new IntervalSequence();
         int n = observedSeries.size();
        
-        for (int i = 0; i < n; i++) {
+        for (int i = range.getFrom(); i < n; i++) {
             Float[] errors = aes.computeErrorMetrics(expectedSeries.get(i).value, observedSeries.get(i).value);
             log.info("TS:" + observedSeries.get(i).time + ",E:" + arrayF2S(errors) + ",TE:" + arrayF2S(thresholdErrors) + ",OV:" + observedSeries.get(i).value + ",EV:" + expectedSeries.get(i).value);
 			if (observedSeries.get(i).value != expectedSeries.get(i).value &&
 						threshSum > (float) 0.0 &&
-						isAnomaly(errors, threshold) == true &&
-                        (isDetectionWindowPoint(maxHrsAgo, windowStart, observedSeries.get(i).time, observedSeries.get(0).time) ||
-						(maxHrsAgo == 0 && i == (n - 1)))) {
+						isAnomaly(errors, threshold) == true) {
 				    output.add(new Interval(observedSeries.get(i).time,
 				    	i,
                         errors,
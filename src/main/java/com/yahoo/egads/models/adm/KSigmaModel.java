@@ -8,16 +8,22 @@
 
 package com.yahoo.egads.models.adm;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Properties;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import com.yahoo.egads.data.Anomaly.IntervalSequence;
 import com.yahoo.egads.data.Anomaly.Interval;
 import com.yahoo.egads.data.TimeSeries.DataSequence;
 import com.yahoo.egads.utilities.AutoSensitivity;
 import com.yahoo.egads.data.AnomalyErrorStorage;
+import com.yahoo.egads.data.DetectionRange;
+import com.yahoo.egads.data.ModelConfig;
+import com.yahoo.egads.data.ModelSnapshot;
+import com.yahoo.egads.data.ErrorMetrics;
 
 import com.yahoo.egads.utilities.StatisticsUtils;
 import lombok.extern.slf4j.Slf4j;
@@ -38,22 +44,66 @@ public class KSigmaModel extends AnomalyDetectionAbstractModel {
     // modelName.
     public String modelName = "KSigmaModel";
     public AnomalyErrorStorage anomalyErrorStorage = new AnomalyErrorStorage();
+    // Streaming state: first time stamp and index of the next point.
+    private long streamStart = -1;
+    private int streamIndex = 0;
+
+    // Thresholds resolved once per tune() so that the per-point path does not
+    // touch the map or allocate: slotThreshold[i] is the absolute threshold of
+    // error i (NaN when it has none, which never votes), thresholdErrors is the
+    // boxed copy reported with anomalies.
+    private transient boolean thresholdsResolved = false;
+    private transient float[] slotThreshold;
+    private transient Float[] thresholdErrors;
+    private transient float threshSum;
+    // Reused error buffer.
+    private transient float[] errorBuffer;
+
+    static {
+        ModelSnapshot.register(KSigmaModel.class, new SnapshotCodec());
+    }
+
+    // Binary snapshot format of the model, see ModelSnapshot.
+    private static class SnapshotCodec implements ModelSnapshot.Codec<KSigmaModel> {
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(KSigmaModel m, DataOutput out) throws IOException {
+            writeWindow(m.maxHrsAgo, m.windowStart, out);
+            ModelSnapshot.writeFloatMap(m.threshold, out);
+            out.writeFloat(m.anomalyErrorStorage.getMaseDenom());
+            out.writeLong(m.streamStart);
+            out.writeInt(m.streamIndex);
+            m.writeSensitivity(out);
+        }
+
+        @Override
+        public KSigmaModel read(DataInput in, int version) throws IOException {
+            KSigmaModel m = new KSigmaModel(readWindow(in));
+            m.threshold = ModelSnapshot.readFloatMap(in);
+            m.anomalyErrorStorage.setMaseDenom(in.readFloat());
+            m.streamStart = in.readLong();
+            m.streamIndex = in.readInt();
+            m.readSensitivity(in);
+            return m;
+        }
+    }
     
     public KSigmaModel(Properties config) {
+        this(new ModelConfig(config));
+    }
+
+    public KSigmaModel(ModelConfig config) {
         super(config);
         
-        if (config.getProperty("MAX_ANOMALY_TIME_AGO") == null) {
-            throw new IllegalArgumentException("MAX_ANOMALY_TIME_AGO is NULL");
-        }
-        this.maxHrsAgo = new Integer(config.getProperty("MAX_ANOMALY_TIME_AGO"));
+        this.maxHrsAgo = config.getMaxAnomalyTimeAgo();
 
-        this.windowStart = new Long(config.getProperty("DETECTION_WINDOW_START_TIME"));
+        this.windowStart = config.getDetectionWindowStart();
 
-        this.threshold = parseMap(config.getProperty("THRESHOLD"));
-            
-        if (config.getProperty("THRESHOLD") != null && this.threshold.isEmpty() == true) {
-            throw new IllegalArgumentException("THRESHOLD PARSE ERROR");
-        } 
+        this.threshold = config.getThreshold();
     }
 
     public void toJson(JSONStringer json_out) {
@@ -75,24 +125,73 @@ public class KSigmaModel extends AnomalyDetectionAbstractModel {
 
     @Override
     public void reset() {
-        // At this point, reset does nothing.
+        streamStart = -1;
+        streamIndex = 0;
     }
 
     @Override
     public void tune(DataSequence observedSeries, DataSequence expectedSeries,
             IntervalSequence anomalySequence) throws Exception {
-        HashMap<String, ArrayList<Float>> allErrors = anomalyErrorStorage.initAnomalyErrors(observedSeries, expectedSeries);
+        ErrorMetrics allErrors = anomalyErrorStorage.initErrorMetrics(observedSeries, expectedSeries,
+                context(observedSeries, expectedSeries).errors());
+        if (observedSeries.size() > 0) {
+            streamStart = observedSeries.get(0).time;
+        }
+        streamIndex = observedSeries.size();
 
         for (int i = 0; i < (anomalyErrorStorage.getIndexToError().keySet()).size(); i++) {
             // Add a new error metric if the error metric has not been
             // defined by the user.
             if (!threshold.containsKey(anomalyErrorStorage.getIndexToError().get(i)/*误差指标名*/)/*配置文件中 没有 设置的误差指标阈值*/) {
-                Float[] fArray/*误差指标 的 值序Array列*/ = (allErrors.get(anomalyErrorStorage.getIndexToError().get(i)/*误差指标名*/)/*误差指标 的 值序List列*/).toArray(new Float[(allErrors.get(anomalyErrorStorage.getIndexToError().get(i)/*误差指标名*/)/*误差指标 的 值序List列*/).size()]);
+                Float[] fArray/*误差指标 的 值序Array列*/ = allErrors.boxed(i);
                 //threshold.put(anomalyErrorStorage.getIndexToError().get(i)/*误差指标名*/, /*返回指标的阈值*/AutoSensitivity.getKSigmaSensitivity(fArray, sDAutoSensitivity/*聚类的标准差*/));
                 threshold.put(anomalyErrorStorage.getIndexToError().get(i)/*误差指标名*/, /*返回指标的阈值*/StatisticsUtils.getThreshold(fArray));
 
             }
         }
+        thresholdsResolved = false;
+    }
+
+    // Pre-resolves the threshold map into slot arrays.
+    private void resolveThresholds() {
+        if (thresholdsResolved) {
+            return;
+        }
+        int slots = anomalyErrorStorage.getErrorToIndex().size();
+        // At detection time, the anomaly thresholds shouldn't all be 0.
+        float sum = (float) 0.0;
+        Float[] boxed = new Float[slots];
+        float[] slot = new float[slots];
+        Arrays.fill(slot, Float.NaN);
+        for (Map.Entry<String, Float> entry : this.threshold.entrySet()) {
+            sum += Math.abs(entry.getValue());
+            int index = anomalyErrorStorage.getErrorToIndex().get(entry.getKey());
+            boxed[index] = Math.abs(entry.getValue());
+            slot[index] = Math.abs(entry.getValue());
+        }
+        threshSum = sum;
+        thresholdErrors = boxed;
+        slotThreshold = slot;
+        errorBuffer = new float[slots];
+        thresholdsResolved = true;
+    }
+
+    // Primitive version of isAnomaly: true when any error reaches its threshold.
+    private boolean isAnomaly(float[] errors) {
+        for (int i = 0; i < slotThreshold.length; i++) {
+            if (Math.abs(errors[i]) >= slotThreshold[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Float[] box(float[] errors) {
+        Float[] out = new Float[errors.length];
+        for (int i = 0; i < errors.length; i++) {
+            out[i] = errors[i];
+        }
+        return out;
     }
 
     // Returns true this point is identified as a potential anomaly.
@@ -132,41 +231,64 @@ public class KSigmaModel extends AnomalyDetectionAbstractModel {
     @Override
     public IntervalSequence detect(DataSequence observedSeries,
             DataSequence expectedSeries) throws Exception {
-        
-        // At detection time, the anomaly thresholds shouldn't all be 0.
-        // 读阈值进行累加
-        Float threshSum = (float) 0.0;
-        for (Map.Entry<String, Float> entry : this.threshold.entrySet()) {
-            threshSum += Math.abs(entry.getValue());
-        }
-        
-        // Get an array of thresholds.
-        // 存储所有的阈值
-        Float[] thresholdErrors = new Float[anomalyErrorStorage.getErrorToIndex().size()];
-        for (Map.Entry<String, Float> entry : this.threshold.entrySet()) {
-            thresholdErrors[anomalyErrorStorage.getErrorToIndex().get(entry.getKey())] = Math.abs(entry.getValue());
-        }
+        return detect(observedSeries, expectedSeries, DetectionRange.of(observedSeries, maxHrsAgo, windowStart));
+    }
+
+    @Override
+    public boolean isPointwise() {
+        return true;
+    }
+
+    // Only the points of the range are scored.
+    @Override
+    public IntervalSequence detect(DataSequence observedSeries,
+            DataSequence expectedSeries, DetectionRange range) throws Exception {
+        // 读阈值进行累加, 存储所有的阈值
+        resolveThresholds();
+        float[] errors = errorBuffer;
         
         IntervalSequence output = new IntervalSequence();
         int n = observedSeries.size();
         
-        for (int i = 0; i < n; i++) {
+        for (int i = range.getFrom(); i < n; i++) {
+            float observed = observedSeries.get(i).value;
+            float expected = expectedSeries.get(i).value;
             // 计算统计的误差数据，5个值
-            Float[] errors = anomalyErrorStorage.computeErrorMetrics(expectedSeries.get(i).value, observedSeries.get(i).value);
-            log.info("TS:" + observedSeries.get(i).time + ",E:" + arrayF2S(errors) + ",TE:" + arrayF2S(thresholdErrors) + ",OV:" + observedSeries.get(i).value + ",EV:" + expectedSeries.get(i).value);
-            if (observedSeries.get(i).value != expectedSeries.get(i).value/*观测值和预期值不一样的不一定是异常*/ &&
+            anomalyErrorStorage.computeErrorMetrics(expected, observed, errors);
+            if (log.isDebugEnabled()) {
+                log.debug("TS:" + observedSeries.get(i).time + ",E:" + arrayF2S(box(errors)) + ",TE:" + arrayF2S(thresholdErrors) + ",OV:" + observed + ",EV:" + expected);
+            }
+            if (observed != expected/*观测值和预期值不一样的不一定是异常*/ &&
                 threshSum > (float) 0.0 &&
-                isAnomaly(errors, threshold/*系统阈值的误差阈值， 5个值*/)/*最关键的阈值检测代码*/ == true &&
-                (isDetectionWindowPoint(maxHrsAgo, windowStart, observedSeries.get(i).time, observedSeries.get(0).time) ||
-                (maxHrsAgo == 0 && i == (n - 1)))) {
+                isAnomaly(errors)/*最关键的阈值检测代码*/ == true) {
                 output.add(new Interval(observedSeries.get(i).time,
                 		                i,
-                                        errors,
+                                        box(errors),
                                         thresholdErrors,
-                                        observedSeries.get(i).value,
-                                        expectedSeries.get(i).value));
+                                        observed,
+                                        expected));
             }
         }
         return output;
     }
+
+    // Scores a single point with the thresholds and MASE scale found by tune().
+    // Every streamed point is the latest one, so MAX_ANOMALY_TIME_AGO 0 accepts it.
+    @Override
+    public Interval onPoint(long time, float observed, float expected) throws Exception {
+        if (streamStart == -1) {
+            streamStart = time;
+        }
+        int index = streamIndex++;
+
+        resolveThresholds();
+        anomalyErrorStorage.computeErrorMetrics(expected, observed, errorBuffer);
+        if (observed != expected &&
+            threshSum > (float) 0.0 &&
+            isAnomaly(errorBuffer) == true &&
+            (maxHrsAgo == 0 || isDetectionWindowPoint(maxHrsAgo, windowStart, time, streamStart))) {
+            return new Interval(time, index, box(errorBuffer), thresholdErrors, observed, expected);
+        }
+        return null;
+    }
 }
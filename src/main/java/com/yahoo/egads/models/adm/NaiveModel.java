@@ -10,10 +10,16 @@
 
 package com.yahoo.egads.models.adm;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Properties;
 
 import com.yahoo.egads.data.Anomaly.IntervalSequence;
 import com.yahoo.egads.data.Anomaly.Interval;
+import com.yahoo.egads.data.DetectionRange;
+import com.yahoo.egads.data.ModelConfig;
+import com.yahoo.egads.data.ModelSnapshot;
 import com.yahoo.egads.data.TimeSeries.DataSequence;
 import java.util.Map;
 import java.util.ArrayList;
@@ -38,25 +44,58 @@ public class NaiveModel extends AnomalyDetectionAbstractModel {
     public static String modelName = "NaiveModel";
     public AnomalyErrorStorage aes = new AnomalyErrorStorage();
 
+    static {
+        ModelSnapshot.register(NaiveModel.class, new SnapshotCodec());
+    }
+
+    // Binary snapshot format of the model, see ModelSnapshot.
+    private static class SnapshotCodec implements ModelSnapshot.Codec<NaiveModel> {
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(NaiveModel m, DataOutput out) throws IOException {
+            writeWindow(m.maxHrsAgo, m.windowStart, out);
+            out.writeFloat(m.window_size);
+            ModelSnapshot.writeFloatMap(m.threshold, out);
+            out.writeFloat(m.aes.getMaseDenom());
+            m.writeSensitivity(out);
+        }
+
+        @Override
+        public NaiveModel read(DataInput in, int version) throws IOException {
+            Properties config = readWindow(in);
+            config.setProperty("WINDOW_SIZE", Float.toString(in.readFloat()));
+            Map<String, Float> threshold = ModelSnapshot.readFloatMap(in);
+            // checked by the constructor, the map read replaces it
+            config.setProperty("THRESHOLD", "mape#0");
+            NaiveModel m = new NaiveModel(config);
+            m.threshold = threshold;
+            m.aes.setMaseDenom(in.readFloat());
+            m.readSensitivity(in);
+            return m;
+        }
+    }
+
     public NaiveModel(Properties config) {
+        this(new ModelConfig(config));
+    }
+
+    public NaiveModel(ModelConfig config) {
         super(config);
 
-        if (config.getProperty("MAX_ANOMALY_TIME_AGO") == null) {
-            throw new IllegalArgumentException("MAX_ANOMALY_TIME_AGO is NULL");
-        }
-        this.maxHrsAgo = new Integer(config.getProperty("MAX_ANOMALY_TIME_AGO"));
-        this.windowStart = new Long(config.getProperty("DETECTION_WINDOW_START_TIME"));
-        if (config.getProperty("WINDOW_SIZE") == null) {
+        this.maxHrsAgo = config.getMaxAnomalyTimeAgo();
+        this.windowStart = config.getDetectionWindowStart();
+        if (config.getProperties().getProperty("WINDOW_SIZE") == null) {
             throw new IllegalArgumentException("WINDOW_SIZE is NULL");
         }
-        this.window_size = new Float(config.getProperty("WINDOW_SIZE"));
-        if (config.getProperty("THRESHOLD") == null) {
+        this.window_size = new Float(config.getProperties().getProperty("WINDOW_SIZE"));
+        if (!config.hasThreshold()) {
         	throw new IllegalArgumentException("THRESHOLD is NULL");
         }
-        this.threshold = parseMap(config.getProperty("THRESHOLD"));
-        if (config.getProperty("THRESHOLD") != null && this.threshold.isEmpty() == true) {
-            throw new IllegalArgumentException("THRESHOLD PARSE ERROR");
-        } 
+        this.threshold = config.getThreshold();
     }
     
     public void toJson(JSONStringer json_out) {
@@ -103,6 +142,14 @@ public class NaiveModel extends AnomalyDetectionAbstractModel {
     @Override
     public IntervalSequence detect(DataSequence observedSeries,
             DataSequence expectedSeries) throws Exception {
+        return detect(observedSeries, expectedSeries, DetectionRange.of(observedSeries, maxHrsAgo, windowStart));
+    }
+
+    // The running min/max still go over the whole series, only the points
+    // of the detection window are reported.
+    @Override
+    public IntervalSequence detect(DataSequence observedSeries,
+            DataSequence expectedSeries, DetectionRange range) throws Exception {
         
         // Get an array of thresholds.
         Float[] thresholdErrors = new Float[aes.getErrorToIndex().size()];
@@ -170,7 +217,7 @@ public class NaiveModel extends AnomalyDetectionAbstractModel {
                 }
                 
                 if (isAnomaly(errors, threshold) == true && actualAnomaly == true && anomaly == 1 &&
-                    (isDetectionWindowPoint(maxHrsAgo, windowStart, observedSeries.get(anomalyIndex).time, observedSeries.get(0).time) ||
+                    (anomalyIndex >= range.getWindowFrom() ||
         						(maxHrsAgo == 0 && i == (n - 1)))) {
                 	anomaly = 0;
                     log.info("TS:" + observedSeries.get(anomalyIndex).time + ",E:" + arrayF2S(errors) + ",TH:" + arrayF2S(thresholdErrors) + ",OV:" + observedSeries.get(anomalyIndex).value + ",EV:" + expected[i]);
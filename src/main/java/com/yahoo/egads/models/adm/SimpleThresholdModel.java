@@ -8,13 +8,20 @@
 
 package com.yahoo.egads.models.adm;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Properties;
 
 import com.yahoo.egads.data.Anomaly.IntervalSequence;
 import com.yahoo.egads.data.Anomaly.Interval;
+import com.yahoo.egads.data.DetectionRange;
+import com.yahoo.egads.data.ModelConfig;
+import com.yahoo.egads.data.ModelSnapshot;
 import com.yahoo.egads.data.TimeSeries;
 import com.yahoo.egads.data.TimeSeries.DataSequence;
 import com.yahoo.egads.utilities.AutoSensitivity;
+import com.yahoo.egads.utilities.QuantileSketch;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -31,18 +38,56 @@ public class SimpleThresholdModel extends AnomalyDetectionAbstractModel {
     // Model name.
     private String modelName = "SimpleThresholdModel";
     private String simpleThrType = "AdaptiveKSigmaSensitivity";
+    // Streaming state: first time stamp and index of the next point.
+    private long streamStart = -1;
+    private int streamIndex = 0;
+
+    static {
+        ModelSnapshot.register(SimpleThresholdModel.class, new SnapshotCodec());
+    }
+
+    // Binary snapshot format of the model, see ModelSnapshot.
+    private static class SnapshotCodec implements ModelSnapshot.Codec<SimpleThresholdModel> {
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(SimpleThresholdModel m, DataOutput out) throws IOException {
+            writeWindow(m.maxHrsAgo, m.windowStart, out);
+            out.writeUTF(m.simpleThrType);
+            ModelSnapshot.writeFloatMap(m.threshold, out);
+            out.writeLong(m.streamStart);
+            out.writeInt(m.streamIndex);
+            m.writeSensitivity(out);
+        }
+
+        @Override
+        public SimpleThresholdModel read(DataInput in, int version) throws IOException {
+            Properties config = readWindow(in);
+            config.setProperty("SIMPLE_THRESHOLD_TYPE", in.readUTF());
+            SimpleThresholdModel m = new SimpleThresholdModel(config);
+            m.threshold = ModelSnapshot.readFloatMap(in);
+            m.streamStart = in.readLong();
+            m.streamIndex = in.readInt();
+            m.readSensitivity(in);
+            return m;
+        }
+    }
 
     public SimpleThresholdModel(Properties config) {
+        this(new ModelConfig(config));
+    }
+
+    public SimpleThresholdModel(ModelConfig config) {
         super(config);
         
-        this.threshold = parseMap(config.getProperty("THRESHOLD"));
-        this.maxHrsAgo = new Integer(config.getProperty("MAX_ANOMALY_TIME_AGO"));
-        this.windowStart = new Long(config.getProperty("DETECTION_WINDOW_START_TIME"));
-        if (config.getProperty("THRESHOLD") != null && this.threshold.isEmpty() == true) {
-            throw new IllegalArgumentException("THRESHOLD PARSE ERROR");
-        } 
-        if (config.getProperty("SIMPLE_THRESHOLD_TYPE") != null) {
-            simpleThrType = config.getProperty("SIMPLE_THRESHOLD_TYPE");
+        this.threshold = config.getThreshold();
+        this.maxHrsAgo = config.getMaxAnomalyTimeAgo();
+        this.windowStart = config.getDetectionWindowStart();
+        if (config.getProperties().getProperty("SIMPLE_THRESHOLD_TYPE") != null) {
+            simpleThrType = config.getProperties().getProperty("SIMPLE_THRESHOLD_TYPE");
         }
     }
 
@@ -65,13 +110,23 @@ public class SimpleThresholdModel extends AnomalyDetectionAbstractModel {
 
     @Override
     public void reset() {
+        streamStart = -1;
+        streamIndex = 0;
     }
 
     @Override
     public void tune(DataSequence observedSeries, DataSequence expectedSeries,
             IntervalSequence anomalySequence) throws Exception {  
         Float thr[] = null;
-        if (simpleThrType.equals("AdaptiveKSigmaSensitivity")) {
+        if (sketchAutoSensitivity) {
+            QuantileSketch sketch = new QuantileSketch();
+            sketch.add(context(observedSeries, expectedSeries).observedValues());
+            if (simpleThrType.equals("AdaptiveKSigmaSensitivity")) {
+                thr = AutoSensitivity.getAdaptiveKSigmaSensitivity(sketch, amntAutoSensitivity);
+            } else {
+                thr = AutoSensitivity.getAdaptiveMaxMinSigmaSensitivity(sketch, amntAutoSensitivity, sDAutoSensitivity);
+            }
+        } else if (simpleThrType.equals("AdaptiveKSigmaSensitivity")) {
             thr = AutoSensitivity.getAdaptiveKSigmaSensitivity(observedSeries.getValues(), amntAutoSensitivity); 
         } else {
     	    thr = AutoSensitivity.getAdaptiveMaxMinSigmaSensitivity(observedSeries.getValues(), amntAutoSensitivity, sDAutoSensitivity); 
@@ -82,19 +137,34 @@ public class SimpleThresholdModel extends AnomalyDetectionAbstractModel {
         if (!threshold.containsKey("min")) {
             threshold.put("min", thr[1]);
         }
+        if (observedSeries.size() > 0) {
+            streamStart = observedSeries.get(0).time;
+        }
+        streamIndex = observedSeries.size();
     }
 
     @Override
     public IntervalSequence detect(DataSequence observedSeries,
             DataSequence expectedSeries) throws Exception {
+        return detect(observedSeries, expectedSeries, DetectionRange.of(observedSeries, maxHrsAgo, windowStart));
+    }
+
+    @Override
+    public boolean isPointwise() {
+        return true;
+    }
+
+    // Only the points of the range are checked.
+    @Override
+    public IntervalSequence detect(DataSequence observedSeries,
+            DataSequence expectedSeries, DetectionRange range) throws Exception {
         IntervalSequence output = new IntervalSequence();
         Float[] thr = new Float[] {threshold.get("max"), threshold.get("min")};
         int n = observedSeries.size();
-        for (int i = 0; i < n; i++) {
+        for (int i = range.getFrom(); i < n; i++) {
             TimeSeries.Entry entry = observedSeries.get(i);
             
-            if (((thr[0] != null && entry.value >= thr[0]) || (thr[1] != null && entry.value <= thr[1])) &&
-                (isDetectionWindowPoint(maxHrsAgo, windowStart, entry.time, observedSeries.get(0).time) || (maxHrsAgo == 0 && i == (n - 1)))) {
+            if ((thr[0] != null && entry.value >= thr[0]) || (thr[1] != null && entry.value <= thr[1])) {
                 if (thr[0] != null && entry.value >= thr[0]) {
                     output.add(new Interval(entry.time, i, null, thr, entry.value, thr[0]));
                 } else {
@@ -105,4 +175,22 @@ public class SimpleThresholdModel extends AnomalyDetectionAbstractModel {
 
         return output;
     }
+
+    // Checks a single point against the max/min thresholds found by tune().
+    @Override
+    public Interval onPoint(long time, float observed, float expected) throws Exception {
+        if (streamStart == -1) {
+            streamStart = time;
+        }
+        int index = streamIndex++;
+        Float[] thr = new Float[] {threshold.get("max"), threshold.get("min")};
+        if (((thr[0] != null && observed >= thr[0]) || (thr[1] != null && observed <= thr[1])) &&
+            (maxHrsAgo == 0 || isDetectionWindowPoint(maxHrsAgo, windowStart, time, streamStart))) {
+            if (thr[0] != null && observed >= thr[0]) {
+                return new Interval(time, index, null, thr, observed, thr[0]);
+            }
+            return new Interval(time, index, null, thr, observed, thr[1]);
+        }
+        return null;
+    }
 }
@@ -23,92 +23,200 @@
 package com.yahoo.egads.models.tsmm;
 
 import com.yahoo.egads.data.*;
+import org.apache.commons.lang.NotImplementedException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 // Picks the best model from the available EGADS models.
+//
+// Config:
+//      AUTO_FORECAST_CANDIDATES  comma separated model names to pick from, all ten
+//                                forecasting models by default.
+//      AUTO_FORECAST_THREADS     number of candidates trained at once; 1 (default) trains
+//                                them in the calling thread, 0 uses one thread per core.
+//                                The models share one pool per thread count.
+//      AUTO_FORECAST_PRUNE       0 (default) trains every candidate on the whole series.
+//                                A factor f >= 1 feeds the series to the candidates an
+//                                eighth at a time, each one updating its model and errors
+//                                with the new points, and stops the ones whose MAD so far
+//                                is above f times the best one.
 public class AutoForecastModel extends TimeSeriesAbstractModel {
+    public static final String[] DEFAULT_CANDIDATES = {
+        "OlympicModel", "MovingAverageModel", "MultipleLinearRegressionModel", "NaiveForecastingModel",
+        "PolynomialRegressionModel", "RegressionModel", "SimpleExponentialSmoothingModel",
+        "TripleExponentialSmoothingModel", "WeightedMovingAverageModel", "DoubleExponentialSmoothingModel"
+    };
+
+    // Receives the training time of every candidate. 'points' is the number of
+    // points it has learned after the run, 'pruned' is set when it was stopped
+    // there.
+    // Always called from the thread calling train().
+    public interface MetricsListener {
+        void onCandidate(String modelName, int points, long nanos, boolean pruned);
+    }
+
+    static {
+        ModelSnapshot.register(AutoForecastModel.class, new SnapshotCodec());
+    }
+
+    // The candidate pools by number of threads, shared by all the models, e.g.
+    // the ones of the metrics of a pipeline. Their threads are daemons.
+    private static final ConcurrentHashMap<Integer, ExecutorService> POOLS =
+        new ConcurrentHashMap<Integer, ExecutorService>();
+
+    // Binary snapshot format of the model, see ModelSnapshot: the config and
+    // the snapshot of the best model.
+    private static class SnapshotCodec implements ModelSnapshot.Codec<AutoForecastModel> {
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(AutoForecastModel m, DataOutput out) throws IOException {
+            ModelSnapshot.writeProperties(m.p, out);
+            m.writeErrors(out);
+            out.writeBoolean(m.myModel != null);
+            if (m.myModel != null) {
+                byte[] b = ModelSnapshot.toBytes(m.myModel);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+        }
+
+        @Override
+        public AutoForecastModel read(DataInput in, int version) throws IOException {
+            AutoForecastModel m = new AutoForecastModel(ModelSnapshot.readProperties(in));
+            m.readErrors(in);
+            if (in.readBoolean()) {
+                byte[] b = new byte[in.readInt()];
+                in.readFully(b);
+                m.myModel = (TimeSeriesAbstractModel) ModelSnapshot.fromBytes(b, 0, b.length);
+            }
+            return m;
+        }
+    }
+
     // Stores the properties file to init other models.
     private Properties p;
     
     // Stores the model.
     private TimeSeriesAbstractModel myModel = null;
 
+    private String[] candidates = DEFAULT_CANDIDATES;
+    private int threads = 1;
+    private double pruneFactor = 0;
+    private MetricsListener metricsListener = null;
+
     public AutoForecastModel(Properties config) {
         super(config);
         modelName = "AutoForecastModel";
         this.p = config;
+
+        if (config.getProperty("AUTO_FORECAST_CANDIDATES") != null) {
+            candidates = config.getProperty("AUTO_FORECAST_CANDIDATES").trim().split("\\s*,\\s*");
+            for (String name : candidates) {
+                // fails on unknown names
+                create(name);
+            }
+        }
+        if (config.getProperty("AUTO_FORECAST_THREADS") != null) {
+            threads = new Integer(config.getProperty("AUTO_FORECAST_THREADS"));
+            if (threads < 0) {
+                throw new IllegalArgumentException("AUTO_FORECAST_THREADS should be >= 0");
+            }
+            if (threads == 0) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+        }
+        if (config.getProperty("AUTO_FORECAST_PRUNE") != null) {
+            pruneFactor = new Double(config.getProperty("AUTO_FORECAST_PRUNE"));
+            if (pruneFactor != 0 && !(pruneFactor >= 1)) {
+                throw new IllegalArgumentException("AUTO_FORECAST_PRUNE should be 0 or >= 1");
+            }
+        }
+    }
+
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    public TimeSeriesAbstractModel getBestModel() {
+        return myModel;
     }
 
     public void reset() {
         // At this point, reset does nothing.
     }
     
-    public void train(TimeSeries.DataSequence data) {
-        // Init all.
-        OlympicModel olympModel = new OlympicModel(p);
-        MovingAverageModel movingAvg = new MovingAverageModel(p);
-        MultipleLinearRegressionModel mlReg = new MultipleLinearRegressionModel(p);
-        NaiveForecastingModel naive = new NaiveForecastingModel(p);
-        PolynomialRegressionModel poly = new PolynomialRegressionModel(p);
-        RegressionModel regr = new RegressionModel(p);
-        SimpleExponentialSmoothingModel simpleExp = new SimpleExponentialSmoothingModel(p);
-        TripleExponentialSmoothingModel tripleExp = new TripleExponentialSmoothingModel(p);
-        WeightedMovingAverageModel weightAvg = new WeightedMovingAverageModel(p);
-        DoubleExponentialSmoothingModel doubleExp = new DoubleExponentialSmoothingModel(p);
-        
-        // Train all.
-        olympModel.train(data);
-        movingAvg.train(data);
-        mlReg.train(data);
-        naive.train(data);
-        poly.train(data);
-        regr.train(data);
-        simpleExp.train(data);
-        tripleExp.train(data);
-        weightAvg.train(data);
-        doubleExp.train(data);
-        
-        // Pick best.
-        if (betterThan(olympModel, myModel)) {
-            myModel = olympModel;
-        }
-        if (betterThan(movingAvg, myModel)) {
-            myModel = movingAvg;
-        }
-        if (betterThan(mlReg, myModel)) {
-            myModel = mlReg;
-        }
-        if (betterThan(naive, myModel)) {
-            myModel = naive;
-        }
-        if (betterThan(poly, myModel)) {
-            myModel = poly;
-        }
-        if (betterThan(regr, myModel)) {
-            myModel = regr;
+    public void train(TimeSeries.DataSequence data) throws Exception {
+        myModel = null;
+        int n = data.size();
+        List<Candidate> remaining = new ArrayList<Candidate>();
+        for (String name : candidates) {
+            remaining.add(new Candidate(name));
         }
-        if (betterThan(simpleExp, myModel)) {
-            myModel = simpleExp;
-        }
-        if (betterThan(tripleExp, myModel)) {
-            myModel = tripleExp;
-        }
-        if (betterThan(weightAvg, myModel)) {
-            myModel = weightAvg;
+        ExecutorService pool = threads > 1 && remaining.size() > 1 ? pool(threads) : null;
+
+        // Feed the series an eighth at a time, stopping the candidates far behind the best one.
+        if (pruneFactor > 0) {
+            for (int step = 1; step < 8; step++) {
+                int points = step * n / 8;
+                if (points < 2 || remaining.size() < 2) {
+                    continue;
+                }
+                advanceAll(remaining, data, points, false, pool);
+                double best = Double.POSITIVE_INFINITY;
+                for (Candidate c : remaining) {
+                    if (c.model != null && c.model.getMAD() >= 0) {
+                        best = Math.min(best, c.model.getMAD());
+                    }
+                }
+                List<Candidate> kept = new ArrayList<Candidate>();
+                for (Candidate c : remaining) {
+                    // Candidates that could not be scored yet are kept.
+                    boolean pruned = c.model != null && c.model.getMAD() > pruneFactor * best;
+                    if (!pruned) {
+                        kept.add(c);
+                    }
+                    report(c.name, points, c.nanos, pruned);
+                }
+                remaining = kept;
+            }
         }
-        if (betterThan(doubleExp, myModel)) {
-            myModel = doubleExp;
+
+        // The rest learn the end of the series, the best is picked in candidate order.
+        advanceAll(remaining, data, n, true, pool);
+        for (Candidate c : remaining) {
+            report(c.name, n, c.nanos, false);
+            if (betterThan(c.model, myModel)) {
+                myModel = c.model;
+            }
         }
-        
+
         initForecastErrors(myModel, data);
        
         logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
     }
 
+    // The best model is picked on the whole series, the new points could
+    // change the pick, so the caller retrains instead.
     public void update(TimeSeries.DataSequence data) {
-
+        throw new NotImplementedException(getModelName() + " does not support update.");
     }
 
     public String getModelName() {
@@ -119,6 +227,11 @@ public class AutoForecastModel extends TimeSeriesAbstractModel {
         myModel.predict(sequence);        
     }
 
+    @Override
+    public void predict(TimeSeries.DataSequence sequence, int from, int to) throws Exception {
+        myModel.predict(sequence, from, to);
+    }
+
     public void toJson(JSONStringer json_out) {
 
     }
@@ -126,4 +239,134 @@ public class AutoForecastModel extends TimeSeriesAbstractModel {
     public void fromJson(JSONObject json_obj) {
 
     }
+
+    // methods: candidates ////////////////////////////////////////////////
+
+    private TimeSeriesAbstractModel create(String name) {
+        switch (name) {
+            case "OlympicModel":
+                return new OlympicModel(p);
+            case "MovingAverageModel":
+                return new MovingAverageModel(p);
+            case "MultipleLinearRegressionModel":
+                return new MultipleLinearRegressionModel(p);
+            case "NaiveForecastingModel":
+                return new NaiveForecastingModel(p);
+            case "PolynomialRegressionModel":
+                return new PolynomialRegressionModel(p);
+            case "RegressionModel":
+                return new RegressionModel(p);
+            case "SimpleExponentialSmoothingModel":
+                return new SimpleExponentialSmoothingModel(p);
+            case "TripleExponentialSmoothingModel":
+                return new TripleExponentialSmoothingModel(p);
+            case "WeightedMovingAverageModel":
+                return new WeightedMovingAverageModel(p);
+            case "DoubleExponentialSmoothingModel":
+                return new DoubleExponentialSmoothingModel(p);
+            default:
+                throw new IllegalArgumentException("Unknown AUTO_FORECAST_CANDIDATES model " + name);
+        }
+    }
+
+    // A candidate and the points of the series its model has learned.
+    private static class Candidate {
+        final String name;
+        TimeSeriesAbstractModel model = null;
+        int points = 0;
+        // time of the last run
+        long nanos = 0;
+
+        Candidate(String name) {
+            this.name = name;
+        }
+    }
+
+    private static ExecutorService pool(int threads) {
+        ExecutorService pool = POOLS.get(threads);
+        if (pool == null) {
+            ExecutorService created = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "auto-forecast");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            pool = POOLS.putIfAbsent(threads, created);
+            if (pool == null) {
+                pool = created;
+            } else {
+                created.shutdown();
+            }
+        }
+        return pool;
+    }
+
+    // Brings every candidate to the first 'points' points of 'data', which all
+    // of them share and only read: a trained model learns the new points with
+    // update(), the others are trained on the prefix. A failed run fails the
+    // call when 'required' is set, and leaves the candidate untrained otherwise.
+    private void advanceAll(List<Candidate> candidates, final TimeSeries.DataSequence data, final int points,
+                            final boolean required, ExecutorService pool) throws Exception {
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final Candidate c : candidates) {
+            Callable<Void> task = new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    long start = System.nanoTime();
+                    try {
+                        if (c.model == null) {
+                            TimeSeriesAbstractModel model = create(c.name);
+                            model.train(points == data.size() ? data : slice(data, 0, points));
+                            c.model = model;
+                        } else if (points > c.points) {
+                            c.model.update(slice(data, c.points, points));
+                        }
+                        c.points = points;
+                    } catch (Exception e) {
+                        // a model that failed half way is trained again
+                        c.model = null;
+                        c.points = 0;
+                        if (required) {
+                            throw e;
+                        }
+                        logger.debug(c.name + " could not be trained on " + points + " points: " + e);
+                    } finally {
+                        c.nanos = System.nanoTime() - start;
+                    }
+                    return null;
+                }
+            };
+            if (pool == null) {
+                task.call();
+            } else {
+                futures.add(pool.submit(task));
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void report(String name, int points, long nanos, boolean pruned) {
+        logger.debug(name + "\t" + points + "\t" + (nanos / 1000) + "us" + (pruned ? "\tpruned" : ""));
+        if (metricsListener != null) {
+            metricsListener.onCandidate(name, points, nanos, pruned);
+        }
+    }
+
+    // The entries [from, to) of 'data', sharing the entries.
+    private static TimeSeries.DataSequence slice(TimeSeries.DataSequence data, int from, int to) {
+        TimeSeries.DataSequence part = new TimeSeries.DataSequence(to - from);
+        part.addAll(data.subList(from, to));
+        return part;
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+package com.yahoo.egads.models.tsmm;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The epoch second boundaries read by {@link OlympicModel2#train}, computed
+ * once per time zone, model start, interval, window size, window distance and
+ * window counts. The boundaries come from the same ZonedDateTime arithmetic
+ * as the windows of the model, so they follow DST changes, and models of
+ * many metrics with the same config share one index through {@link #of}.
+ * <p>
+ * For each future window p, the index holds the model timestamps, the start
+ * of each past window i and the end of each of its intervals.
+ */
+final class CalendarIndex {
+    /** Indices kept for reuse, the least recently used is dropped first. */
+    private static final int CACHED = 64;
+    private static final Map<String, CalendarIndex> CACHE =
+            new LinkedHashMap<String, CalendarIndex>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                final Map.Entry<String, CalendarIndex> eldest) {
+            return size() > CACHED;
+        }
+    };
+
+    private final int pastWindows;
+    /** Model timestamps of each future window. */
+    private final long[][] modelTimes;
+    /** Start of past window i of future window p at p * pastWindows + i. */
+    private final long[] seeks;
+    /** Ends of the intervals of past window i of future window p. */
+    private final long[][] ends;
+
+    private CalendarIndex(final OlympicModel2 m) {
+        pastWindows = m.pastWindows;
+        modelTimes = new long[m.futureWindows][];
+        seeks = new long[m.futureWindows * pastWindows];
+        ends = new long[m.futureWindows * pastWindows][];
+
+        final ZonedDateTime start = Instant.ofEpochSecond(m.modelStartEpoch)
+                .atZone(m.zone);
+        long[] times = new long[16];
+        for (int p = 0; p < m.futureWindows; p++) {
+            ZonedDateTime model_ts = p == 0 ? start : start.plus(
+                    (m.windowDistanceInterval * p),
+                    m.windowDistanceIntervalUnits);
+            final long end = model_ts.plus(m.windowSize, m.windowUnits)
+                    .toEpochSecond();
+            int count = 0;
+            do {
+                if (count == times.length) {
+                    times = Arrays.copyOf(times, count * 2);
+                }
+                times[count++] = model_ts.toEpochSecond();
+                model_ts = model_ts.plus(m.interval, m.intervalUnits);
+            } while (model_ts.toEpochSecond() <= end);
+            modelTimes[p] = Arrays.copyOf(times, count);
+
+            final ZonedDateTime base = Instant.ofEpochSecond(times[0])
+                    .atZone(m.zone);
+            for (int i = 0; i < pastWindows; i++) {
+                ZonedDateTime window = base.minus(
+                        (m.windowDistanceInterval * (pastWindows - i)),
+                        m.windowDistanceIntervalUnits);
+                seeks[p * pastWindows + i] = window.toEpochSecond();
+                final long[] interval_ends = new long[count];
+                for (int s = 0; s < count; s++) {
+                    window = window.plus(m.interval, m.intervalUnits);
+                    interval_ends[s] = window.toEpochSecond();
+                }
+                ends[p * pastWindows + i] = interval_ends;
+            }
+        }
+    }
+
+    /**
+     * @param model A model to index.
+     * @return The index for the config of the model, shared with the other
+     * models of the same config.
+     */
+    static CalendarIndex of(final OlympicModel2 model) {
+        final String key = key(model.zone, model.modelStartEpoch,
+                model.interval, model.intervalUnits, model.windowSize,
+                model.windowUnits, model.windowDistanceInterval,
+                model.windowDistanceIntervalUnits, model.pastWindows,
+                model.futureWindows);
+        synchronized (CACHE) {
+            CalendarIndex index = CACHE.get(key);
+            if (index == null) {
+                index = new CalendarIndex(model);
+                CACHE.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    private static String key(final ZoneId zone, final long start,
+            final long interval, final ChronoUnit intervalUnits,
+            final long windowSize, final ChronoUnit windowUnits,
+            final long distance, final ChronoUnit distanceUnits,
+            final int pastWindows, final int futureWindows) {
+        return zone.getId() + "/" + start + "/" + interval + intervalUnits
+                + "/" + windowSize + windowUnits + "/" + distance
+                + distanceUnits + "/" + pastWindows + "/" + futureWindows;
+    }
+
+    /** @return The model timestamps of future window p. */
+    long[] modelTimes(final int p) {
+        return modelTimes[p];
+    }
+
+    /** @return The start of past window i of future window p. */
+    long seek(final int p, final int i) {
+        return seeks[p * pastWindows + i];
+    }
+
+    /** @return The ends of the intervals of past window i of future window
+     * p, one per model timestamp. */
+    long[] ends(final int p, final int i) {
+        return ends[p * pastWindows + i];
+    }
+}
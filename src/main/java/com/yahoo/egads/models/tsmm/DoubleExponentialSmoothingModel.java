@@ -26,55 +26,113 @@ import com.yahoo.egads.data.*;
 import com.yahoo.egads.data.TimeSeries.Entry;
 import org.json.JSONObject;
 import org.json.JSONStringer;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Properties;
-import net.sourceforge.openforecast.DataSet;
-import net.sourceforge.openforecast.ForecastingModel;
-import net.sourceforge.openforecast.DataPoint;
-import net.sourceforge.openforecast.Observation;
-import java.util.*;
 
 // Double exponential smoothing - also known as Holt exponential smoothing - is a refinement of the popular simple
 // exponential smoothing model but adds another component which takes into account any trend in the data.
 public class DoubleExponentialSmoothingModel extends TimeSeriesAbstractModel {
     // methods ////////////////////////////////////////////////
 
-    // The model that will be used for forecasting.
-    private ForecastingModel forecaster;
-    
+    static {
+        ModelSnapshot.register(DoubleExponentialSmoothingModel.class, new ReplayCodec<DoubleExponentialSmoothingModel>(DoubleExponentialSmoothingModel::new));
+    }
+
     // Stores the historical values.
     private TimeSeries.DataSequence data;
 
+    // Smoothing constants.
+    private double alpha = 0.75;
+    private double gamma = 0.1;
+
+    // The smoothed value and slope of each historical value, kept up to date
+    // point by point with the recurrences below, and the errors of t >= 2 made
+    // with F(t-1) + b(t-1), as OpenForecast computes them.
+    private double[] forecast = new double[0];
+    private double[] slope = new double[0];
+    private ErrorSums errors = new ErrorSums();
+
+    // Streaming state: the last smoothed value and slope.
+    private boolean streamInit = false;
+    private double lastForecast;
+    private double lastSlope;
+
+    // The original OpenForecast model, with FORECAST_ENGINE OPENFORECAST.
+    private OpenForecastEngine openForecast = null;
+
     public DoubleExponentialSmoothingModel(Properties config) {
         super(config);
         modelName = "DoubleExponentialSmoothingModel";
+        if (openForecastEngine(config)) {
+            final double a = alpha;
+            final double g = gamma;
+            openForecast = new OpenForecastEngine(n -> new net.sourceforge.openforecast.models.DoubleExponentialSmoothingModel(a, g));
+        }
     }
 
     public void reset() {
         // At this point, reset does nothing.
     }
     
+    @Override
+    protected TimeSeries.DataSequence trainedData() {
+        return data;
+    }
+
     public void train(TimeSeries.DataSequence data) {
-        this.data = data;
-        int n = data.size();
-        DataPoint dp = null;
-        DataSet observedData = new DataSet();
-        for (int i = 0; i < n; i++) {
-            dp = new Observation(data.get(i).value);
-            dp.setIndependentValue("x", i);
-            observedData.add(dp);
+        if (openForecast != null) {
+            this.data = openForecast.train(data);
+            streamInit = false;
+            initForecastErrors(openForecast.forecaster(), data);
+            return;
         }
-        observedData.setTimeVariable("x"); 
-        
-        // TODO: Make weights configurable.
-        forecaster = new net.sourceforge.openforecast.models.DoubleExponentialSmoothingModel(0.75, 0.1);
-        forecaster.init(observedData);
-        initForecastErrors(forecaster, data);
-        
-        logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
+        requirePoints(data, 2);
+        this.data = new TimeSeries.DataSequence(data.size());
+        forecast = new double[data.size()];
+        slope = new double[data.size()];
+        errors.clear();
+        append(data);
     }
    
+    // Smooths the new points only.
     public void update(TimeSeries.DataSequence data) {
+        if (openForecast != null) {
+            this.data = openForecast.update(data);
+            streamInit = false;
+            initForecastErrors(openForecast.forecaster(), this.data);
+            return;
+        }
+        if (this.data == null) {
+            train(data);
+            return;
+        }
+        append(data);
+    }
 
+    private void append(TimeSeries.DataSequence points) {
+        for (TimeSeries.Entry e : points) {
+            int t = data.size();
+            double y = e.value;
+            forecast = ensureCapacity(forecast, t + 1);
+            slope = ensureCapacity(slope, t + 1);
+            if (t < 2) {
+                forecast[t] = y;
+                if (t == 1) {
+                    slope[t] = y - (double) data.get(0).value;
+                }
+            } else {
+                errors.add(forecast[t - 1] + slope[t - 1], y);
+                forecast[t] = alpha * y + (1.0 - alpha) * (forecast[t - 1] + slope[t - 1]);
+                slope[t] = gamma * (forecast[t] - forecast[t - 1]) + (1.0 - gamma) * slope[t - 1];
+            }
+            data.add(e);
+        }
+        streamInit = false;
+        initForecastErrors(errors);
+        
+        logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
     }
 
     public String getModelName() {
@@ -82,28 +140,64 @@ public class DoubleExponentialSmoothingModel extends TimeSeriesAbstractModel {
     }
 
     public void predict(TimeSeries.DataSequence sequence) throws Exception {
-          int n = data.size();
-          DataSet requiredDataPoints = new DataSet();
-          DataPoint dp;
+        predict(sequence, 0, data.size());
+    }
 
-          for (int count = 0; count < n; count++) {
-              dp = new Observation(0.0);
-              dp.setIndependentValue("x", count);
-              requiredDataPoints.add(dp);
+    // Sets the points in [from, to), all of them with the OpenForecast engine.
+    @Override
+    public void predict(TimeSeries.DataSequence sequence, int from, int to) throws Exception {
+          if (openForecast != null) {
+              openForecast.predict(sequence);
+              return;
           }
-          forecaster.forecast(requiredDataPoints);
-
-          // Output the results
-          Iterator<DataPoint> it = requiredDataPoints.iterator();
-          int i = 0;
-          while (it.hasNext()) {
-              DataPoint pnt = ((DataPoint) it.next());
-              logger.info(data.get(i).time + "," + data.get(i).value + "," + pnt.getDependentValue());
-              sequence.set(i, (new Entry(data.get(i).time, (float) pnt.getDependentValue())));
-              i++;
+          int n = data.size();
+          for (int i = from; i < to && i < n; i++) {
+              if (logger.isDebugEnabled()) {
+                  logger.debug("{},{},{}", data.get(i).time, data.get(i).value, forecast[i]);
+              }
+              sequence.set(i, (new Entry(data.get(i).time, (float) forecast[i])));
           }
     }
 
+    // Same recurrences as the forecaster:
+    // F(t) = alpha * y(t) + (1 - alpha) * (F(t-1) + b(t-1))
+    // b(t) = gamma * (F(t) - F(t-1)) + (1 - gamma) * b(t-1), with F(1) = y(1) and b(1) = y(1) - y(0).
+    public float onPoint(long time, float value) throws Exception {
+        if (!streamInit) {
+            if (data == null || data.size() < 2) {
+                throw new Exception("The model needs to be trained on at least 2 points before streaming.");
+            }
+            lastForecast = data.get(1).value;
+            lastSlope = (double) data.get(1).value - (double) data.get(0).value;
+            for (int i = 2; i < data.size(); i++) {
+                step(data.get(i).value);
+            }
+            streamInit = true;
+        }
+        return (float) step(value);
+    }
+
+    private double step(double value) {
+        double forecast = alpha * value + (1.0 - alpha) * (lastForecast + lastSlope);
+        lastSlope = gamma * (forecast - lastForecast) + (1.0 - gamma) * lastSlope;
+        lastForecast = forecast;
+        return forecast;
+    }
+
+    @Override
+    protected void writeStreamState(DataOutput out) throws IOException {
+        out.writeBoolean(streamInit);
+        out.writeDouble(lastForecast);
+        out.writeDouble(lastSlope);
+    }
+
+    @Override
+    protected void readStreamState(DataInput in) throws IOException {
+        streamInit = in.readBoolean();
+        lastForecast = in.readDouble();
+        lastSlope = in.readDouble();
+    }
+
     public void toJson(JSONStringer json_out) {
 
     }
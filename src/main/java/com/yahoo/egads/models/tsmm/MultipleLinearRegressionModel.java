@@ -27,54 +27,101 @@ import com.yahoo.egads.data.TimeSeries.Entry;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 import java.util.Properties;
-import net.sourceforge.openforecast.DataSet;
-import net.sourceforge.openforecast.ForecastingModel;
-import net.sourceforge.openforecast.DataPoint;
-import net.sourceforge.openforecast.Observation;
-import java.util.*;
 
 // Implements a multiple variable linear regression model using the variables named in the constructor as
 // the independent variables, or the variables passed into one of the init methods.
 public class MultipleLinearRegressionModel extends TimeSeriesAbstractModel {
     // methods ////////////////////////////////////////////////
 
-    // The model that will be used for forecasting.
-    private ForecastingModel forecaster;
-    
+    static {
+        ModelSnapshot.register(MultipleLinearRegressionModel.class, new ReplayCodec<MultipleLinearRegressionModel>(MultipleLinearRegressionModel::new));
+    }
+
     // Stores the historical values.
     private TimeSeries.DataSequence data;
 
+    // TODO: Make configurable.
+    // Running sums of the normal equations of the fit of y against the index
+    // x, the only variable: rows and columns are (1, x) and the last column y.
+    private double[][] a = new double[2][3];
+    private double intercept;
+    private double coefficient;
+
+    // The original OpenForecast model, with FORECAST_ENGINE OPENFORECAST.
+    private OpenForecastEngine openForecast = null;
+
     public MultipleLinearRegressionModel(Properties config) {
         super(config);
         modelName = "MultipleLinearRegressionModel";
+        if (openForecastEngine(config)) {
+            openForecast = new OpenForecastEngine(n -> new net.sourceforge.openforecast.models.MultipleLinearRegressionModel());
+        }
     }
 
     public void reset() {
         // At this point, reset does nothing.
     }
     
+    @Override
+    protected TimeSeries.DataSequence trainedData() {
+        return data;
+    }
+
     public void train(TimeSeries.DataSequence data) {
-        this.data = data;
-        int n = data.size();
-        DataPoint dp = null;
-        DataSet observedData = new DataSet();
-        for (int i = 0; i < n; i++) {
-            dp = new Observation(data.get(i).value);
-            dp.setIndependentValue("x", i);
-            observedData.add(dp);
+        if (openForecast != null) {
+            this.data = openForecast.train(data);
+            initForecastErrors(openForecast.forecaster(), data);
+            return;
         }
-        observedData.setTimeVariable("x"); 
-        
-        // TODO: Make configurable.
-        forecaster = new net.sourceforge.openforecast.models.MultipleLinearRegressionModel();
-        forecaster.init(observedData);
-        initForecastErrors(forecaster, data);
+        requirePoints(data, 2);
+        this.data = new TimeSeries.DataSequence(data.size());
+        a = new double[2][3];
+        append(data);
+    }
+
+    // Adds the new points to the sums and solves again, the errors of the new
+    // fit still need a pass over all the points.
+    public void update(TimeSeries.DataSequence data) {
+        if (openForecast != null) {
+            this.data = openForecast.update(data);
+            initForecastErrors(openForecast.forecaster(), this.data);
+            return;
+        }
+        if (this.data == null) {
+            train(data);
+            return;
+        }
+        append(data);
+    }
+
+    private void append(TimeSeries.DataSequence points) {
+        for (TimeSeries.Entry e : points) {
+            double x = data.size();
+            double y = e.value;
+            double[] v = {1.0, x, y};
+            for (int row = 0; row < 2; row++) {
+                for (int col = 0; col < 3; col++) {
+                    a[row][col] = a[row][col] + v[row] * v[col];
+                }
+            }
+            data.add(e);
+        }
+        double[] coeff = gaussElimination(new double[][] {a[0].clone(), a[1].clone()});
+        intercept = coeff[0];
+        coefficient = coeff[1];
+        ErrorSums errors = new ErrorSums();
+        for (int i = 0; i < data.size(); i++) {
+            errors.add(forecast(i), data.get(i).value);
+        }
+        initForecastErrors(errors);
         
         logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
     }
-  
-    public void update(TimeSeries.DataSequence data) {
 
+    private double forecast(double x) {
+        double forecastValue = intercept;
+        forecastValue += coefficient * x;
+        return forecastValue;
     }
 
     public String getModelName() {
@@ -82,25 +129,23 @@ public class MultipleLinearRegressionModel extends TimeSeriesAbstractModel {
     }
 
     public void predict(TimeSeries.DataSequence sequence) throws Exception {
-          int n = data.size();
-          DataSet requiredDataPoints = new DataSet();
-          DataPoint dp;
+        predict(sequence, 0, data.size());
+    }
 
-          for (int count = 0; count < n; count++) {
-              dp = new Observation(0.0);
-              dp.setIndependentValue("x", count);
-              requiredDataPoints.add(dp);
+    // Sets the points in [from, to), all of them with the OpenForecast engine.
+    @Override
+    public void predict(TimeSeries.DataSequence sequence, int from, int to) throws Exception {
+          if (openForecast != null) {
+              openForecast.predict(sequence);
+              return;
           }
-          forecaster.forecast(requiredDataPoints);
-
-          // Output the results
-          Iterator<DataPoint> it = requiredDataPoints.iterator();
-          int i = 0;
-          while (it.hasNext()) {
-              DataPoint pnt = ((DataPoint) it.next());
-              logger.info(data.get(i).time + "," + data.get(i).value + "," + pnt.getDependentValue());
-              sequence.set(i, (new Entry(data.get(i).time, (float) pnt.getDependentValue())));
-              i++;
+          int n = data.size();
+          for (int i = from; i < to && i < n; i++) {
+              double f = forecast(i);
+              if (logger.isDebugEnabled()) {
+                  logger.debug("{},{},{}", data.get(i).time, data.get(i).value, f);
+              }
+              sequence.set(i, (new Entry(data.get(i).time, (float) f)));
           }
     }
 
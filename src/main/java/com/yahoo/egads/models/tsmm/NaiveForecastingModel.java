@@ -14,52 +14,87 @@ import com.yahoo.egads.data.TimeSeries.Entry;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 import java.util.Properties;
-import net.sourceforge.openforecast.DataSet;
-import net.sourceforge.openforecast.ForecastingModel;
-import net.sourceforge.openforecast.DataPoint;
-import net.sourceforge.openforecast.Observation;
-import java.util.*;
 
 // A naive forecasting model is a special case of the moving average forecasting model where the number of periods used for smoothing is 1.
 public class NaiveForecastingModel extends TimeSeriesAbstractModel {
     // methods ////////////////////////////////////////////////
 
-    // The model that will be used for forecasting.
-    private ForecastingModel forecaster;
-    
+    static {
+        ModelSnapshot.register(NaiveForecastingModel.class, new ReplayCodec<NaiveForecastingModel>(NaiveForecastingModel::new));
+    }
+
     // Stores the historical values.
     private TimeSeries.DataSequence data;
 
+    // The forecast of each historical value, kept up to date point by point:
+    // F(0) = y(0), F(t) = y(t-1), with the errors of t >= 1, as OpenForecast
+    // computes them.
+    private double[] forecast = new double[0];
+    private ErrorSums errors = new ErrorSums();
+
+    // The original OpenForecast model, with FORECAST_ENGINE OPENFORECAST.
+    private OpenForecastEngine openForecast = null;
+
     public NaiveForecastingModel(Properties config) {
         super(config);
         modelName = "NaiveForecastingModel";
+        if (openForecastEngine(config)) {
+            openForecast = new OpenForecastEngine(n -> new net.sourceforge.openforecast.models.NaiveForecastingModel());
+        }
     }
 
     public void reset() {
         // At this point, reset does nothing.
     }
       
+    @Override
+    protected TimeSeries.DataSequence trainedData() {
+        return data;
+    }
+
     public void train(TimeSeries.DataSequence data) {
-        this.data = data;
-        int n = data.size();
-        DataPoint dp = null;
-        DataSet observedData = new DataSet();
-        for (int i = 0; i < n; i++) {
-            dp = new Observation(data.get(i).value);
-            dp.setIndependentValue("x", i);
-            observedData.add(dp);
+        if (openForecast != null) {
+            this.data = openForecast.train(data);
+            initForecastErrors(openForecast.forecaster(), data);
+            return;
         }
-        observedData.setTimeVariable("x"); 
-        
-        forecaster = new net.sourceforge.openforecast.models.NaiveForecastingModel();
-        forecaster.init(observedData);
-        initForecastErrors(forecaster, data);
-        
-        logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
+        requirePoints(data, 1);
+        this.data = new TimeSeries.DataSequence(data.size());
+        forecast = new double[data.size()];
+        errors.clear();
+        append(data);
     }
 
+    // Learns the new points only.
     public void update(TimeSeries.DataSequence data) {
+        if (openForecast != null) {
+            this.data = openForecast.update(data);
+            initForecastErrors(openForecast.forecaster(), this.data);
+            return;
+        }
+        if (this.data == null) {
+            train(data);
+            return;
+        }
+        append(data);
+    }
 
+    private void append(TimeSeries.DataSequence points) {
+        for (TimeSeries.Entry e : points) {
+            int t = data.size();
+            double y = e.value;
+            forecast = ensureCapacity(forecast, t + 1);
+            if (t == 0) {
+                forecast[t] = y;
+            } else {
+                forecast[t] = data.get(t - 1).value;
+                errors.add(forecast[t], y);
+            }
+            data.add(e);
+        }
+        initForecastErrors(errors);
+        
+        logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
     }
 
     public String getModelName() {
@@ -67,25 +102,22 @@ public class NaiveForecastingModel extends TimeSeriesAbstractModel {
     }
 
     public void predict(TimeSeries.DataSequence sequence) throws Exception {
-          int n = data.size();
-          DataSet requiredDataPoints = new DataSet();
-          DataPoint dp;
+        predict(sequence, 0, data.size());
+    }
 
-          for (int count = 0; count < n; count++) {
-              dp = new Observation(0.0);
-              dp.setIndependentValue("x", count);
-              requiredDataPoints.add(dp);
+    // Sets the points in [from, to), all of them with the OpenForecast engine.
+    @Override
+    public void predict(TimeSeries.DataSequence sequence, int from, int to) throws Exception {
+          if (openForecast != null) {
+              openForecast.predict(sequence);
+              return;
           }
-          forecaster.forecast(requiredDataPoints);
-
-          // Output the results
-          Iterator<DataPoint> it = requiredDataPoints.iterator();
-          int i = 0;
-          while (it.hasNext()) {
-              DataPoint pnt = ((DataPoint) it.next());
-              logger.info(data.get(i).time + "," + data.get(i).value + "," + pnt.getDependentValue());
-              sequence.set(i, (new Entry(data.get(i).time, (float) pnt.getDependentValue())));
-              i++;
+          int n = data.size();
+          for (int i = from; i < to && i < n; i++) {
+              if (logger.isDebugEnabled()) {
+                  logger.debug("{},{},{}", data.get(i).time, data.get(i).value, forecast[i]);
+              }
+              sequence.set(i, (new Entry(data.get(i).time, (float) forecast[i])));
           }
     }
 
@@ -20,6 +20,10 @@ import com.yahoo.egads.utilities.FileUtils;
 public class NullModel extends TimeSeriesAbstractModel {
     // methods ////////////////////////////////////////////////
 
+    static {
+        ModelSnapshot.register(NullModel.class, new ReplayCodec<NullModel>(NullModel::new));
+    }
+
 	private static final long serialVersionUID = 1L;
         private TimeSeries.DataSequence data = null;
 
@@ -31,11 +35,25 @@ public class NullModel extends TimeSeriesAbstractModel {
         // At this point, reset does nothing.
     }
 
+    @Override
+    protected TimeSeries.DataSequence trainedData() {
+        return data;
+    }
+
     public void train(TimeSeries.DataSequence data) {
         this.data = data;
     }
 
     public void update(TimeSeries.DataSequence data) {
+        if (this.data == null) {
+            train(data);
+            return;
+        }
+        // the trained series may be the caller's, keep it as it is
+        TimeSeries.DataSequence all = new TimeSeries.DataSequence(this.data.size() + data.size());
+        all.addAll(this.data);
+        all.addAll(data);
+        this.data = all;
     }
 
     public String getModelName() {
@@ -43,10 +61,18 @@ public class NullModel extends TimeSeriesAbstractModel {
     }
     
     public void predict(TimeSeries.DataSequence sequence) throws Exception {
+        predict(sequence, 0, data.size());
+    }
+
+    // Sets the points in [from, to) only.
+    @Override
+    public void predict(TimeSeries.DataSequence sequence, int from, int to) throws Exception {
         int n = data.size();
-        for (int i = 0; i < n; i++) {
+        for (int i = from; i < to && i < n; i++) {
             sequence.set(i, (new Entry(data.get(i).time, (long) 0.0)));
-            logger.info(data.get(i).time + "," + data.get(i).value + "," + data.get(i).value);
+            if (logger.isDebugEnabled()) {
+                logger.debug("{},{},{}", data.get(i).time, data.get(i).value, data.get(i).value);
+            }
         }
     }
 }
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+package com.yahoo.egads.models.tsmm;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.math3.util.Pair;
+
+import com.yahoo.egads.data.ColumnarSequence;
+import com.yahoo.egads.data.TimeSeries.DataSequence;
+import com.yahoo.egads.data.WeightedValue;
+
+/**
+ * Trains the {@link OlympicModel2} of many metrics with the same config in
+ * one pass over the {@link CalendarIndex}. The metrics must be time aligned,
+ * i.e. have a value at each of the same timestamps, so that the seeking and
+ * the interval boundaries are computed once for all of them. The values are
+ * read from one primitive column per metric and aggregated in primitive
+ * arrays, the resulting models are the same as the ones of
+ * {@link OlympicModel2#train} on each metric.
+ */
+public class OlympicBatchTrainer {
+
+    /** The config of the models. */
+    protected final Properties config;
+
+    /** Holds the parsed config. */
+    protected final OlympicModel2 prototype;
+
+    /**
+     * Default Ctor
+     * @param config The OlympicModel2 config of all of the metrics.
+     * @throws IllegalArgumentException if a required property is missing.
+     */
+    public OlympicBatchTrainer(final Properties config) {
+        this.config = config;
+        prototype = new OlympicModel2(config);
+    }
+
+    /**
+     * Trains the models of time aligned series, which the models keep as
+     * their history.
+     * @param series A non-empty list of series with the same timestamps.
+     * @return The trained models, in the order of the series.
+     * @throws IllegalArgumentException if the series were empty or not
+     * aligned.
+     */
+    public OlympicModel2[] train(final List<DataSequence> series) {
+        if (series == null || series.isEmpty()) {
+            throw new IllegalArgumentException("No series to train on.");
+        }
+        final long[] times = series.get(0).timesAsLongArray();
+        final float[][] values = new float[series.size()][];
+        for (int m = 0; m < values.length; m++) {
+            final DataSequence data = series.get(m);
+            if (!aligned(times, data)) {
+                throw new IllegalArgumentException("Series " + m
+                        + " is not aligned with the first one.");
+            }
+            values[m] = data.valuesAsFloatArray();
+        }
+        return train(times, values, series.toArray(new DataSequence[0]));
+    }
+
+    /**
+     * Trains the models of time aligned columnar series.
+     * @param series A non-empty array of series with the same timestamps.
+     * @return The trained models, in the order of the series.
+     * @throws IllegalArgumentException if the series were empty or not
+     * aligned.
+     */
+    public OlympicModel2[] train(final ColumnarSequence[] series) {
+        if (series == null || series.length == 0) {
+            throw new IllegalArgumentException("No series to train on.");
+        }
+        final long[] times = series[0].timesAsLongArray();
+        final float[][] values = new float[series.length][];
+        for (int m = 0; m < values.length; m++) {
+            if (m > 0 && !aligned(times, series[m])) {
+                throw new IllegalArgumentException("Series " + m
+                        + " is not aligned with the first one.");
+            }
+            values[m] = series[m].valuesAsFloatArray();
+        }
+        return train(times, values, null);
+    }
+
+    /**
+     * Trains the models of series sharing one time column. The models keep
+     * the columns as their history, so they should not be changed.
+     * @param times The timestamps of all of the series, in Unix epoch seconds
+     * and in increasing order.
+     * @param values One column of values per series.
+     * @return The trained models, in the order of the value columns.
+     * @throws IllegalArgumentException if the times were empty or a column
+     * did not have one value per timestamp.
+     */
+    public OlympicModel2[] train(final long[] times, final float[][] values) {
+        return train(times, values, null);
+    }
+
+    /**
+     * @param histories The sequences the models keep as their history,
+     * kept as columns until an update if null.
+     */
+    protected OlympicModel2[] train(final long[] times, final float[][] values,
+            final DataSequence[] histories) {
+        final int size = times.length;
+        if (size < 1) {
+            throw new IllegalArgumentException(
+                    "DataSequence cannot be null or empty.");
+        }
+        for (final float[] column : values) {
+            if (column.length != size) {
+                throw new IllegalArgumentException("Expected " + size
+                        + " values per series but got " + column.length);
+            }
+        }
+
+        final CalendarIndex calendar = CalendarIndex.of(prototype);
+        final OlympicModel2[] models = new OlympicModel2[values.length];
+        for (int m = 0; m < models.length; m++) {
+            models[m] = new OlympicModel2(config);
+            models[m].calendar = calendar;
+            if (histories != null) {
+                models[m].history = copy(histories[m]);
+            } else {
+                models[m].historyTimes = times;
+                models[m].historyValues = values[m];
+            }
+        }
+
+        final int pastWindows = prototype.pastWindows;
+        final int[] indices = new int[pastWindows];
+        final long[][] ends = new long[pastWindows][];
+        // the points of each window in the interval, from[i] < 0 if none
+        final int[] from = new int[pastWindows];
+        final int[] to = new int[pastWindows];
+        final double[] accumulator = new double[pastWindows];
+        final int[] weights = new int[pastWindows];
+
+        for (int p = 0; p < prototype.futureWindows; p++) {
+            for (int i = 0; i < pastWindows; i++) {
+                indices[i] = seek(times, calendar.seek(p, i));
+                ends[i] = calendar.ends(p, i);
+            }
+            final long[] model_times = calendar.modelTimes(p);
+            for (int s = 0; s < model_times.length; s++) {
+                for (int i = 0; i < pastWindows; i++) {
+                    if (indices[i] < 0 || indices[i] >= size) {
+                        from[i] = -1;
+                        continue;
+                    }
+                    from[i] = indices[i];
+                    final long interval_end = ends[i][s];
+                    while (indices[i] < size && times[indices[i]] < interval_end) {
+                        indices[i]++;
+                    }
+                    to[i] = indices[i];
+                }
+
+                final Long model_ts = model_times[s];
+                for (int m = 0; m < models.length; m++) {
+                    final float[] column = values[m];
+                    int count = 0;
+                    for (int i = 0; i < pastWindows; i++) {
+                        if (from[i] < 0) {
+                            continue;
+                        }
+                        double sum = 0;
+                        int n = 0;
+                        for (int x = from[i]; x < to[i]; x++) {
+                            final double v = column[x];
+                            if (Double.isFinite(v)) {
+                                sum += v;
+                                n++;
+                            }
+                        }
+                        if (n > 0) {
+                            accumulator[count] = sum / n;
+                            weights[count] = i + 1;
+                            count++;
+                        }
+                    }
+                    count = drop(accumulator, weights, count);
+                    models[m].model.add(new Pair<Long, Double>(model_ts,
+                            WeightedValue.aggregate(accumulator, weights, count,
+                                    prototype.windowAggregator)));
+                }
+            }
+        }
+        return models;
+    }
+
+    /** Drops the highest and lowest values in the order of OlympicModel2. */
+    private int drop(final double[] accumulator, final int[] weights,
+            int count) {
+        final int drop_highest = prototype.drop_highest;
+        final int drop_lowest = prototype.drop_lowest;
+        if (drop_lowest > 0 || drop_highest > 0) {
+            if (drop_highest > drop_lowest) {
+                count = WeightedValue.drop(accumulator, weights, count,
+                        drop_highest, true);
+                count = WeightedValue.drop(accumulator, weights, count,
+                        drop_lowest, false);
+            } else {
+                count = WeightedValue.drop(accumulator, weights, count,
+                        drop_lowest, false);
+                count = WeightedValue.drop(accumulator, weights, count,
+                        drop_highest, true);
+            }
+        }
+        return count;
+    }
+
+    private static boolean aligned(final long[] times, final DataSequence data) {
+        if (data.size() != times.length) {
+            return false;
+        }
+        for (int i = 0; i < times.length; i++) {
+            if (data.timeAt(i) != times[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean aligned(final long[] times,
+            final ColumnarSequence data) {
+        if (data.size() != times.length) {
+            return false;
+        }
+        for (int i = 0; i < times.length; i++) {
+            if (data.timeAt(i) != times[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static DataSequence copy(final DataSequence data) {
+        final DataSequence history = new DataSequence(data.size());
+        history.addAll(data);
+        return history;
+    }
+
+    /** Binary search for the first time at or after seek_time, -1 if none. */
+    private static int seek(final long[] times, final long seek_time) {
+        int low = 0;
+        int high = times.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (times[mid] < seek_time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < times.length ? low : -1;
+    }
+}
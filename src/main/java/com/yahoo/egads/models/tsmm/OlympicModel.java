@@ -12,17 +12,70 @@ package com.yahoo.egads.models.tsmm;
 import com.yahoo.egads.data.*;
 import com.yahoo.egads.data.TimeSeries.Entry;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Properties;
 import java.util.ArrayList;
 import java.util.Collections;
 
 import com.yahoo.egads.utilities.FileUtils;
+import com.yahoo.egads.utilities.LaggedTrimmedMean;
 
 public class OlympicModel extends TimeSeriesAbstractModel {
     // methods ////////////////////////////////////////////////
 
 	private static final long serialVersionUID = 1L;
 
+    static {
+        ModelSnapshot.register(OlympicModel.class, new SnapshotCodec());
+    }
+
+    // Binary snapshot format of the model, see ModelSnapshot.
+    private static class SnapshotCodec implements ModelSnapshot.Codec<OlympicModel> {
+        @Override
+        public int version() {
+            // 2: listEngine
+            return 2;
+        }
+
+        @Override
+        public void write(OlympicModel m, DataOutput out) throws IOException {
+            out.writeInt(m.numWeeks);
+            out.writeInt(m.numToDrop);
+            out.writeBoolean(m.listEngine);
+            ModelSnapshot.writeInts(m.timeShifts, out);
+            ModelSnapshot.writeInts(m.baseWindows, out);
+            m.writeErrors(out);
+            ModelSnapshot.writeSequence(m.data, out);
+            out.writeInt(m.model.size());
+            for (Float f : m.model) {
+                out.writeFloat(f);
+            }
+        }
+
+        @Override
+        public OlympicModel read(DataInput in, int version) throws IOException {
+            Properties config = new Properties();
+            config.setProperty("NUM_WEEKS", Integer.toString(in.readInt()));
+            config.setProperty("NUM_TO_DROP", Integer.toString(in.readInt()));
+            config.setProperty("TIME_SHIFTS", "0");
+            config.setProperty("BASE_WINDOWS", "0");
+            OlympicModel m = new OlympicModel(config);
+            m.listEngine = version >= 2 && in.readBoolean();
+            m.timeShifts = ModelSnapshot.readInts(in);
+            m.baseWindows = ModelSnapshot.readInts(in);
+            m.readErrors(in);
+            m.data = ModelSnapshot.readSequence(in);
+            int n = in.readInt();
+            m.model = new ArrayList<Float>(n);
+            for (int i = 0; i < n; i++) {
+                m.model.add(in.readFloat());
+            }
+            return m;
+        }
+    }
+
 	public int getNumWeeks() {
 		return numWeeks;
 	}
@@ -62,6 +115,9 @@ public class OlympicModel extends TimeSeriesAbstractModel {
     
     // The actual model that stores the expectations.
     protected ArrayList<Float> model;
+    // OLYMPIC_ENGINE LIST: the original ArrayList based computeExpected(),
+    // instead of one LaggedTrimmedMean pass per base window.
+    private boolean listEngine = false;
     
     public OlympicModel(Properties config) {
         super(config);
@@ -84,10 +140,20 @@ public class OlympicModel extends TimeSeriesAbstractModel {
         this.timeShifts = FileUtils.splitInts(config.getProperty("TIME_SHIFTS"));
         this.baseWindows = FileUtils.splitInts(config.getProperty("BASE_WINDOWS"));
         model = new ArrayList<Float>();
+
+        if (config.getProperty("OLYMPIC_ENGINE") != null) {
+            String engine = config.getProperty("OLYMPIC_ENGINE");
+            if (engine.equals("LIST")) {
+                this.listEngine = true;
+            } else if (!engine.equals("TRIMMED_MEAN")) {
+                throw new IllegalArgumentException("OLYMPIC_ENGINE should be TRIMMED_MEAN or LIST");
+            }
+        }
     }
 
     public void reset() {
-        // At this point, reset does nothing.
+        model.clear();
+        data = null;
     }
 
     public void train(TimeSeries.DataSequence data) {
@@ -97,45 +163,26 @@ public class OlympicModel extends TimeSeriesAbstractModel {
         
         java.util.Arrays.sort(baseWindows);
         java.util.Arrays.sort(timeShifts);
-        float precision = (float) 0.000001;
-        
-        for (int i = 0; i < n; i++) {
-            float baseVal = Float.POSITIVE_INFINITY;
-            float tmpbase = (float) 0.0;
-            
-            // Cannot compute the expected value if the time-series
-            // is too short preventing us form getting the reference
-            // window.
-            if ((i - baseWindows[0]) < 0) {
-                model.add(data.get(i).value);
-                continue;
+
+        // The estimate of a point only depends on the point and the base
+        // window, so each one is computed once and looked up by all the time
+        // shifts that land on it.
+        float[][] expected = null;
+        if (!listEngine) {
+            float[] values = new float[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = data.get(i).value;
             }
-            
-            // Attempt to shift the time-series.
+            LaggedTrimmedMean engine = new LaggedTrimmedMean(numWeeks, numToDrop, dynamicParameters == 1);
+            expected = new float[baseWindows.length][];
             for (int w = 0; w < baseWindows.length; w++) {
-                for (int j = 0; j < timeShifts.length; j++) {
-                    if (timeShifts[j] == 0) {
-                        tmpbase = computeExpected(i, baseWindows[w]);
-                        if ((Math.abs(tmpbase - data.get(i).value) - Math.abs(baseVal - data.get(i).value)) < precision) {
-                            baseVal = tmpbase;
-                        }
-                    } else {
-                        if (i + timeShifts[j] < n) {
-                            tmpbase = computeExpected(i + timeShifts[j], baseWindows[w]);
-                            if ((Math.abs(tmpbase - data.get(i).value) - Math.abs(baseVal - data.get(i).value)) < precision) {
-                                baseVal = tmpbase;
-                            }
-                        }
-                        if (i - timeShifts[j] >= 0) {
-                            tmpbase = computeExpected(i - timeShifts[j], baseWindows[w]);
-                            if ((Math.abs(tmpbase - data.get(i).value) - Math.abs(baseVal - data.get(i).value)) < precision) {
-                                baseVal = tmpbase;
-                            }
-                        }
-                    }
-                }
+                expected[w] = engine.compute(values, baseWindows[w]);
             }
-            model.add(baseVal);
+        }
+
+        model.clear();
+        for (int i = 0; i < n; i++) {
+            model.add(estimate(expected, i, n));
         }
         
         initForecastErrors(model, data);
@@ -143,14 +190,87 @@ public class OlympicModel extends TimeSeriesAbstractModel {
         logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
     }
 
+    // Learns the new points. The estimates of the old points do not change,
+    // except for the last ones whose time-shifted estimates now fall inside
+    // the series, so only those and the new points are computed.
     public void update(TimeSeries.DataSequence data) {
+        if (this.data == null) {
+            train(data);
+            return;
+        }
+        if (data.size() == 0) {
+            return;
+        }
+        // the trained series may be the caller's, keep it as it is
+        int old = this.data.size();
+        TimeSeries.DataSequence all = new TimeSeries.DataSequence(old + data.size());
+        all.addAll(this.data);
+        all.addAll(data);
+        this.data = all;
 
+        int n = all.size();
+        java.util.Arrays.sort(timeShifts);
+        int from = Math.max(0, old - Math.max(0, timeShifts[timeShifts.length - 1]));
+        while (model.size() > from) {
+            model.remove(model.size() - 1);
+        }
+        for (int i = from; i < n; i++) {
+            model.add(estimate(null, i, n));
+        }
+
+        initForecastErrors(model, all);
     }
 
     public String getModelName() {
         return "OlympicModel";
     }
 
+    // The estimate of point i of the n in data, the closest to its value of
+    // the time-shifted estimates of every base window.
+    private float estimate(float[][] expected, int i, int n) {
+        float baseVal = Float.POSITIVE_INFINITY;
+        float tmpbase = (float) 0.0;
+        float precision = (float) 0.000001;
+
+        // Cannot compute the expected value if the time-series
+        // is too short preventing us form getting the reference
+        // window.
+        if ((i - baseWindows[0]) < 0) {
+            return data.get(i).value;
+        }
+
+        // Attempt to shift the time-series.
+        for (int w = 0; w < baseWindows.length; w++) {
+            for (int j = 0; j < timeShifts.length; j++) {
+                if (timeShifts[j] == 0) {
+                    tmpbase = expected(expected, i, w);
+                    if ((Math.abs(tmpbase - data.get(i).value) - Math.abs(baseVal - data.get(i).value)) < precision) {
+                        baseVal = tmpbase;
+                    }
+                } else {
+                    if (i + timeShifts[j] < n) {
+                        tmpbase = expected(expected, i + timeShifts[j], w);
+                        if ((Math.abs(tmpbase - data.get(i).value) - Math.abs(baseVal - data.get(i).value)) < precision) {
+                            baseVal = tmpbase;
+                        }
+                    }
+                    if (i - timeShifts[j] >= 0) {
+                        tmpbase = expected(expected, i - timeShifts[j], w);
+                        if ((Math.abs(tmpbase - data.get(i).value) - Math.abs(baseVal - data.get(i).value)) < precision) {
+                            baseVal = tmpbase;
+                        }
+                    }
+                }
+            }
+        }
+        return baseVal;
+    }
+
+    // The estimate of point i for base window w, precomputed or with the list engine.
+    private float expected(float[][] expected, int i, int w) {
+        return expected == null ? computeExpected(i, baseWindows[w]) : expected[w][i];
+    }
+
     private Float sum(ArrayList<Float> list) {
         float sum = 0;
         for (float i : list) {
@@ -200,10 +320,18 @@ public class OlympicModel extends TimeSeriesAbstractModel {
     }
     
     public void predict(TimeSeries.DataSequence sequence) throws Exception {
+        predict(sequence, 0, data.size());
+    }
+
+    // Sets the points in [from, to) only.
+    @Override
+    public void predict(TimeSeries.DataSequence sequence, int from, int to) throws Exception {
         int n = data.size();
-        for (int i = 0; i < n; i++) {
+        for (int i = from; i < to && i < n; i++) {
             sequence.set(i, (new Entry(data.get(i).time, model.get(i))));
-            logger.info(data.get(i).time + "," + data.get(i).value + "," + model.get(i));
+            if (logger.isDebugEnabled()) {
+                logger.debug("{},{},{}", data.get(i).time, data.get(i).value, model.get(i));
+            }
         }
     }
 
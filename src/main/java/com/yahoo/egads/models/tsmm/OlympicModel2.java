@@ -12,12 +12,12 @@ import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Properties;
 
-import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.math3.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.yahoo.egads.data.TimeSeries.Entry;
+import com.yahoo.egads.data.ModelSnapshot;
 import com.yahoo.egads.data.WeightedValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
@@ -100,6 +100,11 @@ public class OlympicModel2 extends TimeSeriesAbstractModel {
     /** Auto generated UID. */
     private static final long serialVersionUID = 4322074416636265537L;
 
+    // Stored with Java serialization.
+    static {
+        ModelSnapshot.registerSerialized(OlympicModel2.class);
+    }
+
     /** The width of the prediction window, e.g. 1 day. */
     protected final long windowSize;
     protected final ChronoUnit windowUnits;
@@ -145,6 +150,19 @@ public class OlympicModel2 extends TimeSeriesAbstractModel {
     
     /** An array of indices into the DataSequence object when training. */
     protected final int[] indices;
+    
+    /** The window boundaries, shared with the models of the same config. */
+    protected transient CalendarIndex calendar;
+    
+    /** The points the model was trained and updated with, to retrain on 
+     * when an update brings points that fall in the windows. */
+    protected DataSequence history;
+
+    /** The history of a model from {@link OlympicBatchTrainer} as columns,
+     * the times shared with the other models of the batch, until an update
+     * needs it as entries. */
+    protected long[] historyTimes;
+    protected float[] historyValues;
 
     /**
      * Default Ctor
@@ -239,91 +257,133 @@ public class OlympicModel2 extends TimeSeriesAbstractModel {
     
     @Override
     public void train(final DataSequence data) throws Exception {
-        initializeIndices(data, modelStartEpoch);
+        if (data == null || data.size() < 1) {
+            throw new IllegalArgumentException(
+                    "DataSequence cannot be null or empty.");
+        }
+        if (data != history) {
+            history = new DataSequence(data.size());
+            history.addAll(data);
+            historyTimes = null;
+            historyValues = null;
+        }
+        if (calendar == null) {
+            calendar = CalendarIndex.of(this);
+        }
         
-        final long size = data.size();
-        ZonedDateTime model_ts = Instant.ofEpochSecond(modelStartEpoch)
-                .atZone(zone);
-        ZonedDateTime end_ts = model_ts.plus(windowSize, windowUnits);
-        int prediction_index = 0;
-        final List<WeightedValue> accumulator = Lists.newArrayList();
+        final int size = data.size();
+        // the averages of the windows and their weights at a model timestamp
+        final double[] values = new double[pastWindows];
+        final int[] weights = new int[pastWindows];
+        final long[][] ends = new long[pastWindows][];
         
-        // start the loop and break once we've filled the model.
-        while (true) {
-            accumulator.clear();
-            for (int i = 0; i < windowTimes.length; i++) {
-                if (indices[i] < 0 || indices[i] >= size) {
-                    continue;
-                }
-                
-                // advance
-                windowTimes[i] = windowTimes[i].plus(interval,
-                        intervalUnits);
-                long interval_end = windowTimes[i].toEpochSecond();
-                final List<Double> doubles = Lists.newArrayList();
-                long first_ts = -1;
-                while (indices[i] < size
-                        && data.get(indices[i]).time < interval_end) {
-                    if (Double.isFinite(data.get(indices[i]).value)) {
-                        doubles.add((double) data.get(indices[i]).value);
-                    }
-                    if (first_ts < 0) {
-                        first_ts = data.get(indices[i]).time;
+        for (int p = 0; p < futureWindows; p++) {
+            for (int i = 0; i < pastWindows; i++) {
+                indices[i] = seek(data, calendar.seek(p, i));
+                ends[i] = calendar.ends(p, i);
+            }
+            final long[] times = calendar.modelTimes(p);
+            for (int s = 0; s < times.length; s++) {
+                int count = 0;
+                for (int i = 0; i < pastWindows; i++) {
+                    if (indices[i] < 0 || indices[i] >= size) {
+                        continue;
                     }
-                    indices[i]++;
-                }
-
-                if (!doubles.isEmpty()) {
-                    // TODO - for DST if we jumped back then we may have a
-                    // period
-                    // with more than we expect. In that case, depending on the
-                    // aggregator, we may need to use only part of the data.
-                    // TODO - potentially other aggregations.
+                    
+                    final long interval_end = ends[i][s];
                     double sum = 0;
-                    for (final Double v : doubles) {
-                        sum += v;
+                    int n = 0;
+                    while (indices[i] < size
+                            && data.get(indices[i]).time < interval_end) {
+                        final double v = data.get(indices[i]).value;
+                        if (Double.isFinite(v)) {
+                            sum += v;
+                            n++;
+                        }
+                        indices[i]++;
                     }
-                    accumulator.add(
-                            new WeightedValue((sum / doubles.size()), i + 1));
-                }
-            }
 
-            if (drop_lowest > 0 || drop_highest > 0) {
-                if (drop_highest > drop_lowest) {
-                    WeightedValue.drop(accumulator, drop_highest, true);
-                    WeightedValue.drop(accumulator, drop_lowest, false);
-                } else {
-                    WeightedValue.drop(accumulator, drop_lowest, false);
-                    WeightedValue.drop(accumulator, drop_highest, true);
+                    if (n > 0) {
+                        // TODO - for DST if we jumped back then we may have a
+                        // period
+                        // with more than we expect. In that case, depending on 
+                        // the aggregator, we may need to use only part of the 
+                        // data.
+                        // TODO - potentially other aggregations.
+                        values[count] = sum / n;
+                        weights[count] = i + 1;
+                        count++;
+                    }
                 }
-            }
-            
-            model.add(new Pair<Long, Double>(model_ts.toEpochSecond(),
-                    WeightedValue.aggregate(accumulator, windowAggregator)));
 
-            model_ts = model_ts.plus(interval, intervalUnits);
-            if (model_ts.toEpochSecond() > end_ts.toEpochSecond()) {
-                prediction_index++;
-                if (prediction_index >= futureWindows) {
-                    break;
-                }
-                model_ts = Instant.ofEpochSecond(modelStartEpoch).atZone(zone);
-                model_ts = model_ts.plus(
-                        (windowDistanceInterval * prediction_index), 
-                        windowDistanceIntervalUnits);
-                end_ts = model_ts.plus(windowSize, windowUnits);
-                for (int i = 0; i < windowTimes.length; i++) {
-                    windowTimes[i] = null;
-                    indices[i] = 0;
+                if (drop_lowest > 0 || drop_highest > 0) {
+                    if (drop_highest > drop_lowest) {
+                        count = WeightedValue.drop(values, weights, count, 
+                                drop_highest, true);
+                        count = WeightedValue.drop(values, weights, count, 
+                                drop_lowest, false);
+                    } else {
+                        count = WeightedValue.drop(values, weights, count, 
+                                drop_lowest, false);
+                        count = WeightedValue.drop(values, weights, count, 
+                                drop_highest, true);
+                    }
                 }
-                initializeIndices(data, model_ts.toEpochSecond());
+                
+                model.add(new Pair<Long, Double>(times[s], WeightedValue
+                        .aggregate(values, weights, count, windowAggregator)));
             }
         }
     }
 
+    /**
+     * Adds the new points to the model. The windows only read points before
+     * {@link #coverEnd()}, so later points, the usual case, leave the model as
+     * it is. Otherwise the model is trained again on all of the points.
+     * @param data The points after the ones the model has seen.
+     * @throws IllegalStateException if the model was not trained.
+     */
     @Override
     public void update(final DataSequence data) throws Exception {
-        throw new NotImplementedException();
+        if (history == null && historyTimes != null) {
+            history = new DataSequence(historyTimes.length);
+            for (int i = 0; i < historyTimes.length; i++) {
+                history.add(new Entry(historyTimes[i], historyValues[i]));
+            }
+            historyTimes = null;
+            historyValues = null;
+        }
+        if (history == null) {
+            throw new IllegalStateException("Model was empty. 'train()' may "
+                    + "not have been called.");
+        }
+        final long end = coverEnd();
+        boolean covered = false;
+        for (final Entry e : data) {
+            history.add(e);
+            if (e.time < end) {
+                covered = true;
+            }
+        }
+        if (covered) {
+            reset();
+            train(history);
+        }
+    }
+    
+    /**
+     * @return The end of the data read by the windows of the last future 
+     * window, in Unix epoch seconds, with an extra interval for DST changes.
+     */
+    @VisibleForTesting
+    long coverEnd() {
+        return Instant.ofEpochSecond(modelStartEpoch).atZone(zone)
+                .plus(windowDistanceInterval * (futureWindows - 1),
+                        windowDistanceIntervalUnits)
+                .minus(windowDistanceInterval, windowDistanceIntervalUnits)
+                .plus(windowSize, windowUnits)
+                .plus(interval * 2, intervalUnits)
+                .toEpochSecond();
     }
 
     @Override
@@ -386,35 +446,35 @@ public class OlympicModel2 extends TimeSeriesAbstractModel {
                     windowDistanceIntervalUnits);
             final long seek_time = seek.toEpochSecond();
 
-            // cut down on iterations by dividing the data idx
-            int idx = data.size() / (pastWindows - i);
-            if (idx >= data.size()) {
-                idx = data.size() - 1;
-            }
-
-            if (data.get(idx).time == seek_time) {
-                // woot, found it!
-            } else if (data.get(idx).time < seek_time) {
-                while (idx < data.size() && data.get(idx).time < seek_time) {
-                    idx++;
-                }
-            } else {
-                while (idx > 0 && data.get(idx - 1).time >= seek_time) {
-                    idx--;
-                }
-            }
-
-            // reset to avoid OOB exceptions.
-            if (idx >= data.size()) {
-                idx = -1;
-            }
             windowTimes[i] = seek;
-            indices[i] = idx;
+            indices[i] = seek(data, seek_time);
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Initializing index: " + i + " to " + idx + " at " 
+                LOG.debug("Initializing index: " + i + " to " + indices[i] + " at " 
                         + seek);
             }
         }
     }
+    
+    /**
+     * Binary search for the first point at or after the given time.
+     * @param data A non-null data sequence sorted by time.
+     * @param seek_time A Unix epoch timestamp in seconds.
+     * @return The index of the point or -1 if all of the points are before
+     * the time.
+     */
+    @VisibleForTesting
+    static int seek(final DataSequence data, final long seek_time) {
+        int low = 0;
+        int high = data.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (data.get(mid).time < seek_time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < data.size() ? low : -1;
+    }
 
 }
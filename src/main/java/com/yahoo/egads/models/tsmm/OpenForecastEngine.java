@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// The original OpenForecast path of the forecasting models, used with
+// FORECAST_ENGINE OPENFORECAST: one Observation per point with the index as
+// the independent variable "x". OpenForecast models can not learn new points,
+// update() retrains on all of them. The forecaster is not serializable, it is
+// built again from the points after a model is read back.
+
+package com.yahoo.egads.models.tsmm;
+
+import java.io.Serializable;
+import java.util.Iterator;
+
+import com.yahoo.egads.data.TimeSeries;
+import net.sourceforge.openforecast.DataPoint;
+import net.sourceforge.openforecast.DataSet;
+import net.sourceforge.openforecast.ForecastingModel;
+import net.sourceforge.openforecast.Observation;
+
+class OpenForecastEngine implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Creates the OpenForecast model for n points.
+    interface Factory extends Serializable {
+        ForecastingModel create(int n);
+    }
+
+    private final Factory factory;
+    // > 1 for the seasonal models
+    private final int periodsPerYear;
+    // Stores the historical values.
+    private final TimeSeries.DataSequence data = new TimeSeries.DataSequence();
+    private transient ForecastingModel forecaster;
+
+    OpenForecastEngine(Factory factory) {
+        this(factory, 0);
+    }
+
+    OpenForecastEngine(Factory factory, int periodsPerYear) {
+        this.factory = factory;
+        this.periodsPerYear = periodsPerYear;
+    }
+
+    // Returns the points, which the engine keeps.
+    TimeSeries.DataSequence train(TimeSeries.DataSequence points) {
+        data.clear();
+        return update(points);
+    }
+
+    TimeSeries.DataSequence update(TimeSeries.DataSequence points) {
+        data.addAll(points);
+        forecaster = null;
+        forecaster();
+        return data;
+    }
+
+    ForecastingModel forecaster() {
+        if (forecaster == null) {
+            int n = data.size();
+            DataPoint dp = null;
+            DataSet observedData = new DataSet();
+            for (int i = 0; i < n; i++) {
+                dp = new Observation(data.get(i).value);
+                dp.setIndependentValue("x", i);
+                observedData.add(dp);
+            }
+            observedData.setTimeVariable("x");
+            if (periodsPerYear > 1) {
+                observedData.setPeriodsPerYear(periodsPerYear);
+            }
+            ForecastingModel f = factory.create(n);
+            f.init(observedData);
+            forecaster = f;
+        }
+        return forecaster;
+    }
+
+    void predict(TimeSeries.DataSequence sequence) {
+        int n = data.size();
+        DataSet requiredDataPoints = new DataSet();
+        DataPoint dp;
+
+        for (int count = 0; count < n; count++) {
+            dp = new Observation(0.0);
+            dp.setIndependentValue("x", count);
+            requiredDataPoints.add(dp);
+        }
+        forecaster().forecast(requiredDataPoints);
+
+        // Output the results
+        Iterator<DataPoint> it = requiredDataPoints.iterator();
+        int i = 0;
+        while (it.hasNext()) {
+            DataPoint pnt = ((DataPoint) it.next());
+            if (TimeSeriesAbstractModel.logger.isDebugEnabled()) {
+                TimeSeriesAbstractModel.logger.debug("{},{},{}", data.get(i).time, data.get(i).value, pnt.getDependentValue());
+            }
+            sequence.set(i, (new TimeSeries.Entry(data.get(i).time, (float) pnt.getDependentValue())));
+            i++;
+        }
+    }
+}
@@ -27,53 +27,106 @@ import com.yahoo.egads.data.TimeSeries.Entry;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 import java.util.Properties;
-import net.sourceforge.openforecast.DataSet;
-import net.sourceforge.openforecast.ForecastingModel;
-import net.sourceforge.openforecast.DataPoint;
-import net.sourceforge.openforecast.Observation;
-import java.util.*;
 
 // Implements a single variable polynomial regression model using the variable named in the constructor as the independent variable.
 public class PolynomialRegressionModel extends TimeSeriesAbstractModel {
     // methods ////////////////////////////////////////////////
 
-    // The model that will be used for forecasting.
-    private ForecastingModel forecaster;
-    
+    static {
+        ModelSnapshot.register(PolynomialRegressionModel.class, new ReplayCodec<PolynomialRegressionModel>(PolynomialRegressionModel::new));
+    }
+
     // Stores the historical values.
     private TimeSeries.DataSequence data;
 
+    // TODO: Make degrees configurable.
+    private static final int order = 3;
+
+    // Running sums of the normal equations of the fit, a[i][j] = sum(x^(i+j))
+    // and a[i][order] = sum(y * x^i), where x is the index.
+    private double[][] a = new double[order][order + 1];
+    private double[] coefficient;
+
+    // The original OpenForecast model, with FORECAST_ENGINE OPENFORECAST.
+    private OpenForecastEngine openForecast = null;
+
     public PolynomialRegressionModel(Properties config) {
         super(config);
         modelName = "PolynomialRegressionModel";
+        if (openForecastEngine(config)) {
+            openForecast = new OpenForecastEngine(n -> new net.sourceforge.openforecast.models.PolynomialRegressionModel("x", order));
+        }
     }
 
     public void reset() {
         // At this point, reset does nothing.
     }
     
+    @Override
+    protected TimeSeries.DataSequence trainedData() {
+        return data;
+    }
+
     public void train(TimeSeries.DataSequence data) {
-        this.data = data;
-        int n = data.size();
-        DataPoint dp = null;
-        DataSet observedData = new DataSet();
-        for (int i = 0; i < n; i++) {
-            dp = new Observation(data.get(i).value);
-            dp.setIndependentValue("x", i);
-            observedData.add(dp);
+        if (openForecast != null) {
+            this.data = openForecast.train(data);
+            initForecastErrors(openForecast.forecaster(), data);
+            return;
         }
-        observedData.setTimeVariable("x"); 
-        
-        // TODO: Make degrees configurable.
-        forecaster = new net.sourceforge.openforecast.models.PolynomialRegressionModel("x", 3);
-        forecaster.init(observedData);
-        initForecastErrors(forecaster, data);
-        
-        logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
+        // one point per coefficient, the system is singular with fewer
+        requirePoints(data, order);
+        this.data = new TimeSeries.DataSequence(data.size());
+        a = new double[order][order + 1];
+        append(data);
     }
 
+    // Adds the new points to the sums and solves again, the errors of the new
+    // fit still need a pass over all the points.
     public void update(TimeSeries.DataSequence data) {
+        if (openForecast != null) {
+            this.data = openForecast.update(data);
+            initForecastErrors(openForecast.forecaster(), this.data);
+            return;
+        }
+        if (this.data == null) {
+            train(data);
+            return;
+        }
+        append(data);
+    }
 
+    private void append(TimeSeries.DataSequence points) {
+        for (TimeSeries.Entry e : points) {
+            double x = data.size();
+            double y = e.value;
+            for (int i = 0; i < order; i++) {
+                for (int j = 0; j < order; j++) {
+                    a[i][j] = a[i][j] + Math.pow(x, i + j);
+                }
+                a[i][order] = a[i][order] + y * Math.pow(x, i);
+            }
+            data.add(e);
+        }
+        double[][] copy = new double[order][];
+        for (int i = 0; i < order; i++) {
+            copy[i] = a[i].clone();
+        }
+        coefficient = gaussElimination(copy);
+        ErrorSums errors = new ErrorSums();
+        for (int i = 0; i < data.size(); i++) {
+            errors.add(forecast(i), data.get(i).value);
+        }
+        initForecastErrors(errors);
+        
+        logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
+    }
+
+    private double forecast(double x) {
+        double forecastValue = 0.0;
+        for (int i = 0; i < order; i++) {
+            forecastValue += coefficient[i] * Math.pow(x, i);
+        }
+        return forecastValue;
     }
 
     public String getModelName() {
@@ -81,25 +134,23 @@ public class PolynomialRegressionModel extends TimeSeriesAbstractModel {
     }
 
     public void predict(TimeSeries.DataSequence sequence) throws Exception {
-          int n = data.size();
-          DataSet requiredDataPoints = new DataSet();
-          DataPoint dp;
+        predict(sequence, 0, data.size());
+    }
 
-          for (int count = 0; count < n; count++) {
-              dp = new Observation(0.0);
-              dp.setIndependentValue("x", count);
-              requiredDataPoints.add(dp);
+    // Sets the points in [from, to), all of them with the OpenForecast engine.
+    @Override
+    public void predict(TimeSeries.DataSequence sequence, int from, int to) throws Exception {
+          if (openForecast != null) {
+              openForecast.predict(sequence);
+              return;
           }
-          forecaster.forecast(requiredDataPoints);
-
-          // Output the results
-          Iterator<DataPoint> it = requiredDataPoints.iterator();
-          int i = 0;
-          while (it.hasNext()) {
-              DataPoint pnt = ((DataPoint) it.next());
-              logger.info(data.get(i).time + "," + data.get(i).value + "," + pnt.getDependentValue());
-              sequence.set(i, (new Entry(data.get(i).time, (float) pnt.getDependentValue())));
-              i++;
+          int n = data.size();
+          for (int i = from; i < to && i < n; i++) {
+              double f = forecast(i);
+              if (logger.isDebugEnabled()) {
+                  logger.debug("{},{},{}", data.get(i).time, data.get(i).value, f);
+              }
+              sequence.set(i, (new Entry(data.get(i).time, (float) f)));
           }
     }
 
@@ -27,52 +27,103 @@ import com.yahoo.egads.data.TimeSeries.Entry;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 import java.util.Properties;
-import net.sourceforge.openforecast.DataSet;
-import net.sourceforge.openforecast.ForecastingModel;
-import net.sourceforge.openforecast.DataPoint;
-import net.sourceforge.openforecast.Observation;
-import java.util.*;
 
 // Implements a single variable linear regression model using the variable named in the constructor as the independent variable.
 public class RegressionModel extends TimeSeriesAbstractModel {
     // methods ////////////////////////////////////////////////
 
-    // The model that will be used for forecasting.
-    private ForecastingModel forecaster;
-    
+    static {
+        ModelSnapshot.register(RegressionModel.class, new ReplayCodec<RegressionModel>(RegressionModel::new));
+    }
+
     // Stores the historical values.
     private TimeSeries.DataSequence data;
 
+    // Running sums of the least squares fit of y against the index x.
+    private double sumX = 0.0;
+    private double sumY = 0.0;
+    private double sumXX = 0.0;
+    private double sumXY = 0.0;
+
+    private double slope;
+    private double intercept;
+
+    // The original OpenForecast model, with FORECAST_ENGINE OPENFORECAST.
+    private OpenForecastEngine openForecast = null;
+
     public RegressionModel(Properties config) {
         super(config);
         modelName = "RegressionModel";
+        if (openForecastEngine(config)) {
+            openForecast = new OpenForecastEngine(n -> new net.sourceforge.openforecast.models.RegressionModel("x"));
+        }
     }
 
     public void reset() {
         // At this point, reset does nothing.
     }
     
+    @Override
+    protected TimeSeries.DataSequence trainedData() {
+        return data;
+    }
+
     public void train(TimeSeries.DataSequence data) {
-        this.data = data;
-        int n = data.size();
-        DataPoint dp = null;
-        DataSet observedData = new DataSet();
-        for (int i = 0; i < n; i++) {
-            dp = new Observation(data.get(i).value);
-            dp.setIndependentValue("x", i);
-            observedData.add(dp);
+        if (openForecast != null) {
+            this.data = openForecast.train(data);
+            initForecastErrors(openForecast.forecaster(), data);
+            return;
         }
-        observedData.setTimeVariable("x"); 
-        
-        forecaster = new net.sourceforge.openforecast.models.RegressionModel("x");
-        forecaster.init(observedData);
-        initForecastErrors(forecaster, data);
-        
-        logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
+        requirePoints(data, 2);
+        this.data = new TimeSeries.DataSequence(data.size());
+        sumX = 0.0;
+        sumY = 0.0;
+        sumXX = 0.0;
+        sumXY = 0.0;
+        append(data);
     }
 
+    // Adds the new points to the sums and solves again, the errors of the new
+    // fit still need a pass over all the points.
     public void update(TimeSeries.DataSequence data) {
+        if (openForecast != null) {
+            this.data = openForecast.update(data);
+            initForecastErrors(openForecast.forecaster(), this.data);
+            return;
+        }
+        if (this.data == null) {
+            train(data);
+            return;
+        }
+        append(data);
+    }
+
+    private void append(TimeSeries.DataSequence points) {
+        for (TimeSeries.Entry e : points) {
+            double x = data.size();
+            double y = e.value;
+            sumX += x;
+            sumY += y;
+            sumXX += x * x;
+            sumXY += x * y;
+            data.add(e);
+        }
+        double n = data.size();
+        double xMean = sumX / n;
+        double yMean = sumY / n;
+        slope = (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+        intercept = yMean - slope * xMean;
+        ErrorSums errors = new ErrorSums();
+        for (int i = 0; i < data.size(); i++) {
+            errors.add(forecast(i), data.get(i).value);
+        }
+        initForecastErrors(errors);
+        
+        logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
+    }
 
+    private double forecast(double x) {
+        return intercept + slope * x;
     }
 
     public String getModelName() {
@@ -80,25 +131,23 @@ public class RegressionModel extends TimeSeriesAbstractModel {
     }
 
     public void predict(TimeSeries.DataSequence sequence) throws Exception {
-          int n = data.size();
-          DataSet requiredDataPoints = new DataSet();
-          DataPoint dp;
+        predict(sequence, 0, data.size());
+    }
 
-          for (int count = 0; count < n; count++) {
-              dp = new Observation(0.0);
-              dp.setIndependentValue("x", count);
-              requiredDataPoints.add(dp);
+    // Sets the points in [from, to), all of them with the OpenForecast engine.
+    @Override
+    public void predict(TimeSeries.DataSequence sequence, int from, int to) throws Exception {
+          if (openForecast != null) {
+              openForecast.predict(sequence);
+              return;
           }
-          forecaster.forecast(requiredDataPoints);
-
-          // Output the results
-          Iterator<DataPoint> it = requiredDataPoints.iterator();
-          int i = 0;
-          while (it.hasNext()) {
-              DataPoint pnt = ((DataPoint) it.next());
-              logger.info(data.get(i).time + "," + data.get(i).value + "," + pnt.getDependentValue());
-              sequence.set(i, (new Entry(data.get(i).time, (float) pnt.getDependentValue())));
-              i++;
+          int n = data.size();
+          for (int i = from; i < to && i < n; i++) {
+              double f = forecast(i);
+              if (logger.isDebugEnabled()) {
+                  logger.debug("{},{},{}", data.get(i).time, data.get(i).value, f);
+              }
+              sequence.set(i, (new Entry(data.get(i).time, (float) f)));
           }
     }
 
@@ -13,54 +13,103 @@ import com.yahoo.egads.data.*;
 import com.yahoo.egads.data.TimeSeries.Entry;
 import org.json.JSONObject;
 import org.json.JSONStringer;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Properties;
-import net.sourceforge.openforecast.DataSet;
-import net.sourceforge.openforecast.ForecastingModel;
-import net.sourceforge.openforecast.DataPoint;
-import net.sourceforge.openforecast.Observation;
-import java.util.*;
 
 // A simple exponential smoothing forecast model is a very popular model used to produce a smoothed Time Series.
 public class SimpleExponentialSmoothingModel extends TimeSeriesAbstractModel {
     // methods ////////////////////////////////////////////////
 
-    // The model that will be used for forecasting.
-    private ForecastingModel forecaster;
-    
+    static {
+        ModelSnapshot.register(SimpleExponentialSmoothingModel.class, new ReplayCodec<SimpleExponentialSmoothingModel>(SimpleExponentialSmoothingModel::new));
+    }
+
     // Stores the historical values.
     private TimeSeries.DataSequence data;
 
+    // Smoothing constant.
+    private double alpha = 0.75;
+
+    // The forecast of each historical value, kept up to date point by point:
+    // F(0) = y(0), F(t) = alpha * y(t-1) + (1 - alpha) * F(t-1),
+    // with the errors of t >= 1, as OpenForecast computes them.
+    private double[] forecast = new double[0];
+    private ErrorSums errors = new ErrorSums();
+
+    // Streaming state: the last value and the forecast made for it.
+    private boolean streamInit = false;
+    private double lastValue;
+    private double lastForecast;
+
+    // The original OpenForecast model, with FORECAST_ENGINE OPENFORECAST.
+    private OpenForecastEngine openForecast = null;
+
     public SimpleExponentialSmoothingModel(Properties config) {
         super(config);
         modelName = "SimpleExponentialSmoothingModel";
+        if (openForecastEngine(config)) {
+            final double a = alpha;
+            openForecast = new OpenForecastEngine(n -> new net.sourceforge.openforecast.models.SimpleExponentialSmoothingModel(a));
+        }
     }
 
     public void reset() {
         // At this point, reset does nothing.
     }
     
+    @Override
+    protected TimeSeries.DataSequence trainedData() {
+        return data;
+    }
+
     public void train(TimeSeries.DataSequence data) {
-        this.data = data;
-        int n = data.size();
-        DataPoint dp = null;
-        DataSet observedData = new DataSet();
-        for (int i = 0; i < n; i++) {
-            dp = new Observation(data.get(i).value);
-            dp.setIndependentValue("x", i);
-            observedData.add(dp);
+        if (openForecast != null) {
+            this.data = openForecast.train(data);
+            streamInit = false;
+            initForecastErrors(openForecast.forecaster(), data);
+            return;
         }
-        observedData.setTimeVariable("x"); 
-        
-        // TODO: Make weights configurable.
-        forecaster = new net.sourceforge.openforecast.models.SimpleExponentialSmoothingModel(0.75);
-        forecaster.init(observedData);
-        initForecastErrors(forecaster, data);
-        
-        logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
+        requirePoints(data, 1);
+        this.data = new TimeSeries.DataSequence(data.size());
+        forecast = new double[data.size()];
+        errors.clear();
+        append(data);
     }
 
+    // Smooths the new points only.
     public void update(TimeSeries.DataSequence data) {
+        if (openForecast != null) {
+            this.data = openForecast.update(data);
+            streamInit = false;
+            initForecastErrors(openForecast.forecaster(), this.data);
+            return;
+        }
+        if (this.data == null) {
+            train(data);
+            return;
+        }
+        append(data);
+    }
 
+    private void append(TimeSeries.DataSequence points) {
+        for (TimeSeries.Entry e : points) {
+            int t = data.size();
+            double y = e.value;
+            forecast = ensureCapacity(forecast, t + 1);
+            if (t == 0) {
+                forecast[t] = y;
+            } else {
+                forecast[t] = alpha * data.get(t - 1).value + (1.0 - alpha) * forecast[t - 1];
+                errors.add(forecast[t], y);
+            }
+            data.add(e);
+        }
+        streamInit = false;
+        initForecastErrors(errors);
+        
+        logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
     }
 
     public String getModelName() {
@@ -68,28 +117,59 @@ public class SimpleExponentialSmoothingModel extends TimeSeriesAbstractModel {
     }
 
     public void predict(TimeSeries.DataSequence sequence) throws Exception {
-          int n = data.size();
-          DataSet requiredDataPoints = new DataSet();
-          DataPoint dp;
+        predict(sequence, 0, data.size());
+    }
 
-          for (int count = 0; count < n; count++) {
-              dp = new Observation(0.0);
-              dp.setIndependentValue("x", count);
-              requiredDataPoints.add(dp);
+    // Sets the points in [from, to), all of them with the OpenForecast engine.
+    @Override
+    public void predict(TimeSeries.DataSequence sequence, int from, int to) throws Exception {
+          if (openForecast != null) {
+              openForecast.predict(sequence);
+              return;
           }
-          forecaster.forecast(requiredDataPoints);
-
-          // Output the results
-          Iterator<DataPoint> it = requiredDataPoints.iterator();
-          int i = 0;
-          while (it.hasNext()) {
-              DataPoint pnt = ((DataPoint) it.next());
-              logger.info(data.get(i).time + "," + data.get(i).value + "," + pnt.getDependentValue());
-              sequence.set(i, (new Entry(data.get(i).time, (float) pnt.getDependentValue())));
-              i++;
+          int n = data.size();
+          for (int i = from; i < to && i < n; i++) {
+              if (logger.isDebugEnabled()) {
+                  logger.debug("{},{},{}", data.get(i).time, data.get(i).value, forecast[i]);
+              }
+              sequence.set(i, (new Entry(data.get(i).time, (float) forecast[i])));
           }
     }
 
+    // F(t) = alpha * y(t-1) + (1 - alpha) * F(t-1), same recurrence as the forecaster.
+    public float onPoint(long time, float value) throws Exception {
+        if (!streamInit) {
+            if (data == null || data.size() == 0) {
+                throw new Exception("The model needs to be trained before streaming.");
+            }
+            lastValue = data.get(0).value;
+            lastForecast = lastValue;
+            for (int i = 1; i < data.size(); i++) {
+                lastForecast = alpha * lastValue + (1.0 - alpha) * lastForecast;
+                lastValue = data.get(i).value;
+            }
+            streamInit = true;
+        }
+        double forecast = alpha * lastValue + (1.0 - alpha) * lastForecast;
+        lastValue = value;
+        lastForecast = forecast;
+        return (float) forecast;
+    }
+
+    @Override
+    protected void writeStreamState(DataOutput out) throws IOException {
+        out.writeBoolean(streamInit);
+        out.writeDouble(lastValue);
+        out.writeDouble(lastForecast);
+    }
+
+    @Override
+    protected void readStreamState(DataInput in) throws IOException {
+        streamInit = in.readBoolean();
+        lastValue = in.readDouble();
+        lastForecast = in.readDouble();
+    }
+
     public void toJson(JSONStringer json_out) {
 
     }
@@ -11,8 +11,10 @@ import java.util.Hashtable;
 
 import com.yahoo.egads.data.TimeSeries.Entry;
 import com.yahoo.egads.data.TimeSeries.DataSequence;
+import com.yahoo.egads.data.ModelSnapshot;
 import com.yahoo.egads.utilities.SpectralMethods;
 import com.yahoo.egads.utilities.SpectralMethods.FilteringMethod;
+import com.yahoo.egads.utilities.SubspaceTracker;
 
 /**
  * SpectralSmoother implements the smoothing technique based on the Singular Value Decomposition (SVD) of the input time-series' Hankel matrix.
@@ -26,6 +28,12 @@ import com.yahoo.egads.utilities.SpectralMethods.FilteringMethod;
  *          Refer to utilities/SpectralMethods.java documentation for more details.
  *      3. 'FILTERING_PARAM' determines the tuning parameter for the specified filtering method.
  *          Refer to utilities/SpectralMethods.java documentation for more details.  
+ *      4. 'SSA_ENGINE' SVD (default) runs the full SVD of the Hankel matrix, FAST the lag-covariance and FFT based
+ *          SpectralMethods.fastFilter(), which gives the same result up to rounding errors. INCREMENTAL trains like
+ *          FAST, then update() smooths the new points one by one with a utilities/SubspaceTracker instead of
+ *          filtering the given data again.
+ *      5. 'SSA_RETENTION' the number of logical indices kept in the model behind the newest one, older ones predict 0.
+ *          Unlimited by default, except with SSA_ENGINE INCREMENTAL where it defaults to the number of training points.
  *          
  * @author amizadeh
  *
@@ -33,10 +41,26 @@ import com.yahoo.egads.utilities.SpectralMethods.FilteringMethod;
 
 public class SpectralSmoother extends TimeSeriesAbstractModel {
 
+    // Stored with Java serialization, with the SubspaceTracker of INCREMENTAL.
+    static {
+        ModelSnapshot.registerSerialized(SpectralSmoother.class);
+    }
+
     protected Hashtable<Long, Float> map = new Hashtable<Long, Float>();
     protected int windowSize;
     protected FilteringMethod method;
     protected double methodParameter;
+    protected boolean fast;
+    protected boolean incremental;
+    protected long retention;
+    // retention in effect, 0 for unlimited
+    protected long horizon;
+    // INCREMENTAL: the tracker, the logical indices of its last windowSize points and the newest one
+    protected SubspaceTracker tracker = null;
+    protected long[] recent;
+    protected long newest = Long.MIN_VALUE;
+    // smallest logical index that may still be in the map
+    protected long oldest = Long.MAX_VALUE;
 
     public SpectralSmoother(Properties config) {
         super(config);
@@ -83,31 +107,123 @@ public class SpectralSmoother extends TimeSeriesAbstractModel {
         } else {
             this.methodParameter = new Double(config.getProperty("FILTERING_PARAM"));
         }
+
+        String engine = config.getProperty("SSA_ENGINE", "SVD");
+        if (!engine.equals("SVD") && !engine.equals("FAST") && !engine.equals("INCREMENTAL")) {
+            throw new IllegalArgumentException("SSA_ENGINE should be SVD, FAST or INCREMENTAL");
+        }
+        this.incremental = engine.equals("INCREMENTAL");
+        this.fast = incremental || engine.equals("FAST");
+        this.retention = config.getProperty("SSA_RETENTION") == null ? 0 : new Long(config.getProperty("SSA_RETENTION"));
+        if (retention < 0) {
+            throw new IllegalArgumentException("SSA_RETENTION should be >= 0");
+        }
+        this.horizon = retention;
+    }
+
+    protected DataSequence filter(DataSequence data) {
+        if (fast) {
+            return SpectralMethods.fastFilter(data, windowSize, method, methodParameter);
+        }
+        return SpectralMethods.mFilter(data, windowSize, method, methodParameter);
     }
 
     @Override
     public void reset() {
         map.clear();
+        tracker = null;
+        recent = null;
+        newest = Long.MIN_VALUE;
+        oldest = Long.MAX_VALUE;
     }
 
     @Override
     public void train(DataSequence data) throws Exception {
         this.reset();
-        DataSequence smoothedData = SpectralMethods.mFilter(data, windowSize, method, methodParameter);
+        DataSequence smoothedData = filter(data);
 
         for (Entry e : smoothedData) {
-            map.put(e.logicalIndex, e.value);
+            put(e.logicalIndex, e.value);
         }
+
+        if (incremental) {
+            int n = data.size();
+            double[] x = new double[n];
+            double[] smoothed = new double[n];
+            for (int i = 0; i < n; ++i) {
+                x[i] = data.get(i).value;
+                smoothed[i] = smoothedData.get(i).value;
+            }
+            tracker = new SubspaceTracker(x, smoothed, windowSize, method, methodParameter);
+            recent = new long[windowSize];
+            for (int i = Math.max(0, n - windowSize); i < n; ++i) {
+                recent[i % windowSize] = data.get(i).logicalIndex;
+            }
+            horizon = (retention == 0) ? n : retention;
+        }
+        trim();
     }
 
     @Override
     public void update(DataSequence data) throws Exception {
+        if (!incremental) {
+            DataSequence smoothedData = filter(data);
+
+            for (Entry e : smoothedData) {
+                put(e.logicalIndex, e.value);
+            }
+            trim();
+            return;
+        }
 
-        DataSequence smoothedData = SpectralMethods.mFilter(data, windowSize, method, methodParameter);
+        if (tracker == null) {
+            train(data);
+            return;
+        }
 
-        for (Entry e : smoothedData) {
-            map.put(e.logicalIndex, e.value);
+        // the points the model has already seen are skipped
+        int added = 0;
+        for (Entry e : data) {
+            if (e.logicalIndex <= newest) {
+                continue;
+            }
+            // the oldest point of the window gets no more rows
+            int slot = (int) (tracker.getPoints() % windowSize);
+            if (tracker.getPoints() >= windowSize) {
+                map.put(recent[slot], (float) tracker.smoothed(windowSize - 1));
+            }
+            tracker.add(e.value);
+            recent[slot] = e.logicalIndex;
+            newest = e.logicalIndex;
+            added++;
+        }
+        for (int lag = 0; added > 0 && lag < windowSize; ++lag) {
+            map.put(recent[(int) ((tracker.getPoints() - 1 - lag) % windowSize)], (float) tracker.smoothed(lag));
+        }
+        trim();
+    }
+
+    // Keeps the newest logical index, as the map only grows with it.
+    protected void put(long logicalIndex, float value) {
+        map.put(logicalIndex, value);
+        newest = Math.max(newest, logicalIndex);
+        oldest = Math.min(oldest, logicalIndex);
+    }
+
+    // Drops the logical indices past the retention horizon.
+    protected void trim() {
+        if (horizon == 0 || newest - oldest < horizon) {
+            return;
+        }
+        long cutoff = newest - horizon + 1;
+        if (cutoff - oldest > map.size()) {
+            map.keySet().removeIf(i -> i < cutoff);
+        } else {
+            for (long i = oldest; i < cutoff; ++i) {
+                map.remove(i);
+            }
         }
+        oldest = cutoff;
     }
 
     @Override
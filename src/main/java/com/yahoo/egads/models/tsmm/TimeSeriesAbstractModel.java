@@ -6,7 +6,13 @@
 
 package com.yahoo.egads.models.tsmm;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Properties;
+import java.util.function.Function;
 
 import org.json.JSONObject;
 import org.json.JSONStringer;
@@ -16,6 +22,7 @@ import com.yahoo.egads.data.*;
 import java.util.ArrayList;
 
 import net.sourceforge.openforecast.ForecastingModel;
+import org.apache.commons.lang.NotImplementedException;
 
 import com.yahoo.egads.data.JsonEncoder;
 
@@ -35,6 +42,8 @@ public abstract class TimeSeriesAbstractModel implements TimeSeriesModel {
 
     protected boolean errorsInit = false;
     protected int dynamicParameters = 0;
+    // FORECAST_ENGINE of the config, null when not set.
+    protected String forecastEngine;
 
     public String getModelName() {
 		return modelName;
@@ -44,6 +53,13 @@ public abstract class TimeSeriesAbstractModel implements TimeSeriesModel {
     	return "Forecast";
     }
     
+    // Models that forecast each point on its own override this, the others
+    // predict the whole sequence.
+    @Override
+    public void predict(TimeSeries.DataSequence sequence, int from, int to) throws Exception {
+        predict(sequence);
+    }
+
     @Override
     public void toJson(JSONStringer json_out) throws Exception {
         JsonEncoder.toJson(this, json_out);
@@ -59,7 +75,106 @@ public abstract class TimeSeriesAbstractModel implements TimeSeriesModel {
         if (config.getProperty("DYNAMIC_PARAMETERS") != null) {
             this.dynamicParameters = new Integer(config.getProperty("DYNAMIC_PARAMETERS"));
         }
+        this.forecastEngine = config.getProperty("FORECAST_ENGINE");
+
+    }
+
+    // FORECAST_ENGINE selects how the OpenForecast based models compute:
+    // NATIVE (default) with their own primitive state, OPENFORECAST with the
+    // original OpenForecast models. Both give the same forecasts.
+    protected static boolean openForecastEngine(Properties config) {
+        String engine = config.getProperty("FORECAST_ENGINE");
+        if (engine == null || engine.equals("NATIVE")) {
+            return false;
+        } else if (engine.equals("OPENFORECAST")) {
+            return true;
+        }
+        throw new IllegalArgumentException("FORECAST_ENGINE should be NATIVE or OPENFORECAST");
+    }
+
+    // Models that keep streaming state override this.
+    public float onPoint(long time, float value) throws Exception {
+        throw new NotImplementedException(getModelName() + " does not support streaming.");
+    }
+
+    // Binary snapshot format of the models rebuilt from their points, see
+    // ModelSnapshot: FORECAST_ENGINE, DYNAMIC_PARAMETERS, the points the model
+    // has learned and its streaming state. Training a model on the points
+    // gives the same model as the updates that brought them.
+    protected static class ReplayCodec<T extends TimeSeriesAbstractModel> implements ModelSnapshot.Codec<T> {
+        // Builds the untrained model of a config.
+        private final Function<Properties, T> factory;
+
+        protected ReplayCodec(Function<Properties, T> factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(T m, DataOutput out) throws IOException {
+            ModelSnapshot.writeString(m.forecastEngine, out);
+            out.writeInt(m.dynamicParameters);
+            ModelSnapshot.writeSequence(m.trainedData(), out);
+            m.writeStreamState(out);
+        }
+
+        @Override
+        public T read(DataInput in, int version) throws IOException {
+            Properties config = new Properties();
+            String engine = ModelSnapshot.readString(in);
+            if (engine != null) {
+                config.setProperty("FORECAST_ENGINE", engine);
+            }
+            config.setProperty("DYNAMIC_PARAMETERS", Integer.toString(in.readInt()));
+            T m = factory.apply(config);
+            TimeSeries.DataSequence data = ModelSnapshot.readSequence(in);
+            if (data != null) {
+                try {
+                    m.train(data);
+                } catch (Exception e) {
+                    throw new IOException("cannot train " + m.getModelName() + " again", e);
+                }
+            }
+            m.readStreamState(in);
+            return m;
+        }
+    }
+
+    // The points learned so far, null when untrained, for the ReplayCodec.
+    protected TimeSeries.DataSequence trainedData() {
+        throw new NotImplementedException(getModelName() + " does not support snapshots.");
+    }
+
+    // Models that keep streaming state override these.
+    protected void writeStreamState(DataOutput out) throws IOException {
+    }
+
+    protected void readStreamState(DataInput in) throws IOException {
+    }
+
+    // Accuracy stats for the ModelSnapshot codecs of the subclasses.
+    protected void writeErrors(DataOutput out) throws IOException {
+        out.writeBoolean(errorsInit);
+        out.writeDouble(bias);
+        out.writeDouble(mad);
+        out.writeDouble(mape);
+        out.writeDouble(mse);
+        out.writeDouble(sae);
+        out.writeInt(dynamicParameters);
+    }
 
+    protected void readErrors(DataInput in) throws IOException {
+        errorsInit = in.readBoolean();
+        bias = in.readDouble();
+        mad = in.readDouble();
+        mape = in.readDouble();
+        mse = in.readDouble();
+        sae = in.readDouble();
+        dynamicParameters = in.readInt();
     }
 
     // 1 when absolute value of error1 is smaller than the absolute value of error2
@@ -130,6 +245,90 @@ public abstract class TimeSeriesAbstractModel implements TimeSeriesModel {
         errorsInit = true;
     }
 
+    // Running sums of the forecast errors, accumulated in the same order and
+    // arithmetic as the OpenForecast models, so that a model can add the errors
+    // of new points without going over the old ones again.
+    protected static class ErrorSums implements Serializable {
+        private static final long serialVersionUID = 1L;
+        double sumErr = 0.0;
+        double sumAbsErr = 0.0;
+        double sumAbsPercentErr = 0.0;
+        double sumErrSquared = 0.0;
+        int n = 0;
+
+        void clear() {
+            sumErr = 0.0;
+            sumAbsErr = 0.0;
+            sumAbsPercentErr = 0.0;
+            sumErrSquared = 0.0;
+            n = 0;
+        }
+
+        void add(double forecast, double actual) {
+            double error = forecast - actual;
+            sumErr += error;
+            sumAbsErr += Math.abs(error);
+            sumAbsPercentErr += Math.abs(error / actual);
+            sumErrSquared += error * error;
+            n++;
+        }
+    }
+
+    /*
+     * Errors of the points added to the sums so far.
+     */
+    protected void initForecastErrors(ErrorSums sums) {
+        this.bias = sums.sumErr / sums.n;
+        this.mad = sums.sumAbsErr / sums.n;
+        this.mape = sums.sumAbsPercentErr / sums.n;
+        this.mse = sums.sumErrSquared / sums.n;
+        this.sae = sums.sumAbsErr;
+        errorsInit = true;
+    }
+
+    // Like the time based OpenForecast models, which need at least two
+    // points to find the time interval.
+    protected static void requirePoints(TimeSeries.DataSequence data, int min) {
+        if (data.size() < Math.max(min, 2)) {
+            throw new IllegalArgumentException("Data set too small. Need " + Math.max(min, 2) + " data points, but only "
+                                               + data.size() + " passed to train.");
+        }
+    }
+
+    // Room for at least n values, growing by half.
+    protected static double[] ensureCapacity(double[] a, int n) {
+        if (a.length >= n) {
+            return a;
+        }
+        return Arrays.copyOf(a, Math.max(n, a.length + (a.length >> 1)));
+    }
+
+    // Solves the linear system of the augmented matrix a (n rows, n + 1
+    // columns) by Gaussian elimination without pivoting, as OpenForecast does.
+    // Overwrites a.
+    protected static double[] gaussElimination(double[][] a) {
+        int n = a.length;
+        for (int k = 0; k < n - 1; k++) {
+            for (int i = k + 1; i < n; i++) {
+                double qt = a[i][k] / a[k][k];
+                for (int j = k + 1; j < n + 1; j++) {
+                    a[i][j] = a[i][j] - qt * a[k][j];
+                }
+                a[i][k] = 0.0;
+            }
+        }
+        double[] x = new double[n];
+        x[n - 1] = a[n - 1][n] / a[n - 1][n - 1];
+        for (int k = n - 2; k >= 0; k--) {
+            double sum = 0.0;
+            for (int j = k + 1; j < n; j++) {
+                sum += a[k][j] * x[j];
+            }
+            x[k] = (a[k][n] - sum) / a[k][k];
+        }
+        return x;
+    }
+
     /**
      * Initializes all errors given the model.
      */
@@ -29,4 +29,13 @@ public interface TimeSeriesModel extends Model {
      */
     // predicts the values of the time series specified by the 'time' fields of the sequence and sets the 'value' fields of the sequence
     public abstract void predict(TimeSeries.DataSequence sequence) throws Exception;
+
+    // same as predict(sequence) for the entries [from, to) of the sequence, the
+    // others may be left as they are. Used when only a detection window is scored.
+    public abstract void predict(TimeSeries.DataSequence sequence, int from, int to) throws Exception;
+
+    // Streaming mode: returns the value the model expects for the point following the
+    // trained data, then folds 'value' into the model state so that the next call
+    // continues from it. Each call costs O(1) (or O(window)) regardless of history length.
+    public abstract float onPoint(long time, float value) throws Exception;
 }
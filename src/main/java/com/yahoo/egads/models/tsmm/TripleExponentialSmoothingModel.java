@@ -27,12 +27,10 @@ import com.yahoo.egads.data.TimeSeries.Entry;
 import lombok.extern.slf4j.Slf4j;
 import org.json.JSONObject;
 import org.json.JSONStringer;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Properties;
-import net.sourceforge.openforecast.DataSet;
-import net.sourceforge.openforecast.ForecastingModel;
-import net.sourceforge.openforecast.DataPoint;
-import net.sourceforge.openforecast.Observation;
-import java.util.*;
 
 // Triple exponential smoothing - also known as the Winters method - is a refinement of the popular double exponential
 // smoothing model but adds another component which takes into account any seasonality - or periodicity - in the data.
@@ -40,44 +38,163 @@ import java.util.*;
 public class TripleExponentialSmoothingModel extends TimeSeriesAbstractModel {
     // methods ////////////////////////////////////////////////
 
-    // The model that will be used for forecasting.
-    private ForecastingModel forecaster;
-    
+    static {
+        ModelSnapshot.register(TripleExponentialSmoothingModel.class, new ReplayCodec<TripleExponentialSmoothingModel>(TripleExponentialSmoothingModel::new));
+    }
+
     // Stores the historical values.
     private TimeSeries.DataSequence data;
 
+    // Smoothing constants and season length.
+    private double alpha = 0.75;
+    private double beta = 0.001;
+    private double gamma = 0.001;
+    private int periodsPerYear = 12;
+
+    // Base, trend, seasonal index and forecast of each historical value from
+    // the second year on, kept up to date point by point with the recurrences
+    // of onPoint(), and the errors of t >= 2p made with F(t-1) + trend(t-1),
+    // as OpenForecast computes them. Like OpenForecast, the forecasts of
+    // 1 <= t <= p extrapolate from the last point, see predict().
+    private double[] base = new double[0];
+    private double[] trend = new double[0];
+    private double[] season = new double[0];
+    private double[] forecast = new double[0];
+    private ErrorSums errors = new ErrorSums();
+
+    // Streaming state: base and trend of the last point, and the seasonal
+    // indices of the last year, where streamSeason[t % periodsPerYear] is the index at t.
+    private boolean streamInit = false;
+    private double lastBase;
+    private double lastTrend;
+    private double[] streamSeason;
+    private int streamTime;
+
+    // The original OpenForecast model, with FORECAST_ENGINE OPENFORECAST.
+    private OpenForecastEngine openForecast = null;
+
     public TripleExponentialSmoothingModel(Properties config) {
         super(config);
         modelName = "TripleExponentialSmoothingModel";
+        if (openForecastEngine(config)) {
+            final double a = alpha;
+            final double b = beta;
+            final double g = gamma;
+            openForecast = new OpenForecastEngine(n -> new net.sourceforge.openforecast.models.TripleExponentialSmoothingModel(a, b, g), periodsPerYear);
+        }
     }
 
     public void reset() {
         // At this point, reset does nothing.
     }
     
+    @Override
+    protected TimeSeries.DataSequence trainedData() {
+        return data;
+    }
+
     public void train(TimeSeries.DataSequence data) {
-        this.data = data;
-        int n = data.size();
-        DataPoint dp = null;
-        DataSet observedData = new DataSet();
-        for (int i = 0; i < n; i++) {
-            dp = new Observation(data.get(i).value);
-            dp.setIndependentValue("x", i);
-            observedData.add(dp);
+        if (openForecast != null) {
+            this.data = openForecast.train(data);
+            streamInit = false;
+            initForecastErrors(openForecast.forecaster(), data);
+            return;
         }
-        observedData.setTimeVariable("x"); 
-        observedData.setPeriodsPerYear(12);
-        
-        // TODO: Make weights configurable.
-        forecaster = new net.sourceforge.openforecast.models.TripleExponentialSmoothingModel(0.75, 0.001, 0.001);
-        forecaster.init(observedData);
-        initForecastErrors(forecaster, data);
-        
-        logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
+        int p = periodsPerYear;
+        if (data.size() < 2 * p) {
+            throw new IllegalArgumentException("TripleExponentialSmoothing models require a minimum of a full two years of data to initialize the model.");
+        }
+        this.data = new TimeSeries.DataSequence(data.size());
+        base = new double[data.size()];
+        trend = new double[data.size()];
+        season = new double[data.size()];
+        forecast = new double[data.size()];
+        errors.clear();
+
+        double initialTrend = 0.0;
+        for (int i = 0; i < p; i++) {
+            initialTrend -= data.get(i).value;
+        }
+        double year2Average = 0.0;
+        for (int i = p; i < 2 * p; i++) {
+            initialTrend += data.get(i).value;
+            year2Average += data.get(i).value;
+        }
+        initialTrend /= (double) p;
+        initialTrend /= (double) p;
+        year2Average /= (double) p;
+
+        double[] yearlyAverage = new double[2];
+        for (int year = 0; year < 2; year++) {
+            double sum = 0.0;
+            for (int i = 0; i < p; i++) {
+                sum += data.get(year * p + i).value;
+            }
+            yearlyAverage[year] = sum / (double) p;
+        }
+        double[] index = new double[p];
+        for (int year = 0; year < 2; year++) {
+            for (int i = 0; i < p; i++) {
+                index[i] = index[i] + data.get(year * p + i).value / yearlyAverage[year] / 2.0;
+            }
+        }
+
+        for (int t = 0; t < 2 * p; t++) {
+            trend[t] = initialTrend;
+            if (t >= p) {
+                base[t] = year2Average + ((double) (t + 1 - p) - (double) (p + 1) / 2.0) * initialTrend;
+                season[t] = index[t - p];
+            }
+            if (t == 0) {
+                forecast[t] = data.get(0).value;
+            } else if (t > p) {
+                forecast[t] = (base[t - 1] + trend[t - 1]) * season[t];
+            }
+            this.data.add(data.get(t));
+        }
+        TimeSeries.DataSequence rest = new TimeSeries.DataSequence(data.size() - 2 * p);
+        for (int t = 2 * p; t < data.size(); t++) {
+            rest.add(data.get(t));
+        }
+        append(rest);
     }
 
+    // Smooths the new points only.
     public void update(TimeSeries.DataSequence data) {
+        if (openForecast != null) {
+            this.data = openForecast.update(data);
+            streamInit = false;
+            initForecastErrors(openForecast.forecaster(), this.data);
+            return;
+        }
+        if (this.data == null) {
+            train(data);
+            return;
+        }
+        append(data);
+    }
 
+    private void append(TimeSeries.DataSequence points) {
+        int p = periodsPerYear;
+        for (TimeSeries.Entry e : points) {
+            int t = data.size();
+            double y = e.value;
+            base = ensureCapacity(base, t + 1);
+            trend = ensureCapacity(trend, t + 1);
+            season = ensureCapacity(season, t + 1);
+            forecast = ensureCapacity(forecast, t + 1);
+            errors.add(forecast[t - 1] + trend[t - 1], y);
+            double si = season[t - p];
+            forecast[t] = (base[t - 1] + trend[t - 1]) * si;
+            base[t] = alpha * (y / si) + (1.0 - alpha) * (base[t - 1] + trend[t - 1]);
+            trend[t] = beta * (base[t] - base[t - 1]) + (1.0 - beta) * trend[t - 1];
+            season[t] = gamma * (y / forecast[t]) + (1.0 - gamma) * si;
+            data.add(e);
+        }
+        streamInit = false;
+        initForecastErrors(errors);
+        
+        logger.debug(getBias() + "\t" + getMAD() + "\t" + getMAPE() + "\t" + getMSE() + "\t" + getSAE() + "\t" + 0 + "\t" + 0);
     }
     
     public String getModelName() {
@@ -85,28 +202,115 @@ public class TripleExponentialSmoothingModel extends TimeSeriesAbstractModel {
     }
 
     public void predict(TimeSeries.DataSequence sequence) throws Exception {
-          int n = data.size();
-          DataSet requiredDataPoints = new DataSet();
-          DataPoint dp;
+        predict(sequence, 0, data.size());
+    }
 
-          for (int count = 0; count < n; count++) {
-              dp = new Observation(0.0);
-              dp.setIndependentValue("x", count);
-              requiredDataPoints.add(dp);
+    // Sets the points in [from, to), all of them with the OpenForecast engine.
+    @Override
+    public void predict(TimeSeries.DataSequence sequence, int from, int to) throws Exception {
+          if (openForecast != null) {
+              openForecast.predict(sequence);
+              return;
           }
-          forecaster.forecast(requiredDataPoints);
-
-          // Output the results
-          Iterator<DataPoint> it = requiredDataPoints.iterator();
-          int i = 0;
-          while (it.hasNext()) {
-              DataPoint pnt = ((DataPoint) it.next());
-              log.info(">>>>>预测 >>  " + "time: " + data.get(i).time + "," + "value: " + data.get(i).value + "," + "predict val: " + pnt.getDependentValue());
-              sequence.set(i, (new Entry(data.get(i).time, (float) pnt.getDependentValue())));
-              i++;
+          int n = data.size();
+          int p = periodsPerYear;
+          for (int i = from; i < to && i < n; i++) {
+              double f = forecast[i];
+              if (i >= 1 && i <= p) {
+                  // no base before the second year, extrapolated from the last point
+                  f = (base[n - 1] + (double) (i - (n - 1)) * trend[n - 2]) * season[i < p ? i + p : p];
+              }
+              if (log.isDebugEnabled()) {
+                  log.debug("{},{},{}", data.get(i).time, data.get(i).value, f);
+              }
+              sequence.set(i, (new Entry(data.get(i).time, (float) f)));
           }
     }
 
+    // Replays the forecaster's recurrences over the training data, with the same
+    // two-year initialization of base, trend and seasonal indices:
+    // F(t) = (base(t-1) + trend(t-1)) * si(t-p)
+    // base(t) = alpha * y(t) / si(t-p) + (1 - alpha) * (base(t-1) + trend(t-1))
+    // trend(t) = beta * (base(t) - base(t-1)) + (1 - beta) * trend(t-1)
+    // si(t) = gamma * y(t) / F(t) + (1 - gamma) * si(t-p)
+    public float onPoint(long time, float value) throws Exception {
+        if (!streamInit) {
+            int p = periodsPerYear;
+            if (data == null || data.size() < 2 * p) {
+                throw new Exception("The model needs to be trained on at least " + (2 * p) + " points before streaming.");
+            }
+            double trend = 0.0;
+            for (int i = 0; i < p; i++) {
+                trend -= data.get(i).value;
+            }
+            double year2Average = 0.0;
+            for (int i = p; i < 2 * p; i++) {
+                trend += data.get(i).value;
+                year2Average += data.get(i).value;
+            }
+            trend /= (double) p;
+            trend /= (double) p;
+            year2Average /= (double) p;
+
+            double[] yearlyAverage = new double[2];
+            for (int year = 0; year < 2; year++) {
+                double sum = 0.0;
+                for (int i = 0; i < p; i++) {
+                    sum += data.get(year * p + i).value;
+                }
+                yearlyAverage[year] = sum / (double) p;
+            }
+            streamSeason = new double[p];
+            for (int year = 0; year < 2; year++) {
+                for (int i = 0; i < p; i++) {
+                    streamSeason[i] = streamSeason[i] + data.get(year * p + i).value / yearlyAverage[year] / 2.0;
+                }
+            }
+            lastTrend = trend;
+            lastBase = year2Average + ((double) p - (double) (p + 1) / 2.0) * trend;
+            streamTime = 2 * p;
+            for (int i = 2 * p; i < data.size(); i++) {
+                step(data.get(i).value);
+            }
+            streamInit = true;
+        }
+        return (float) step(value);
+    }
+
+    private double step(double value) {
+        int slot = streamTime % periodsPerYear;
+        double si = streamSeason[slot];
+        double forecast = (lastBase + lastTrend) * si;
+        double base = alpha * (value / si) + (1.0 - alpha) * (lastBase + lastTrend);
+        lastTrend = beta * (base - lastBase) + (1.0 - beta) * lastTrend;
+        lastBase = base;
+        streamSeason[slot] = gamma * (value / forecast) + (1.0 - gamma) * si;
+        streamTime++;
+        return forecast;
+    }
+
+    @Override
+    protected void writeStreamState(DataOutput out) throws IOException {
+        out.writeBoolean(streamInit);
+        if (streamInit) {
+            out.writeDouble(lastBase);
+            out.writeDouble(lastTrend);
+            ModelSnapshot.writeDoubles(streamSeason, out);
+            out.writeInt(streamTime);
+        }
+    }
+
+    @Override
+    protected void readStreamState(DataInput in) throws IOException {
+        streamInit = in.readBoolean();
+        if (streamInit) {
+            lastBase = in.readDouble();
+            lastTrend = in.readDouble();
+            streamSeason = ModelSnapshot.readDoubles(in);
+            streamTime = in.readInt();
+        }
+    }
+
     public void toJson(JSONStringer json_out) {
 
     }
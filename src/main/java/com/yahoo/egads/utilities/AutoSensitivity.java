@@ -8,61 +8,69 @@
 // using the bootstrapping framework.
 
 package com.yahoo.egads.utilities;
-import java.util.ArrayList;
-import org.apache.commons.lang.ArrayUtils;
 import java.util.Arrays;
-import java.util.Collections;
 
 public class AutoSensitivity {
 	static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager.getLogger(AutoSensitivity.class.getName());
     // Computes sensitivity based on the density distribution.
     // Assumes that anomalies constitute at most 5% of the data.
     public static Float getLowDensitySensitivity(Float[] data, float sDAutoSensitivy, float amntAutoSensitivity) {
-        Float toReturn = Float.POSITIVE_INFINITY;
-        Arrays.sort(data, Collections.reverseOrder());
-        while (data.length > 0) {     
-        	
-            ArrayList<Float> fData = new ArrayList<Float>();
-            fData.add(data[0]);
-            data = ((Float[]) ArrayUtils.remove(data, 0));
-            
-            Float centroid = (float) fData.get(0);
-            Float maxDelta = (float) sDAutoSensitivy * StatsUtils.getSD(data, StatsUtils.getMean(data));
-            
-            logger.debug("AutoSensitivity: Adding: " + fData.get(0) + " SD: " + maxDelta);
-            
-            // Add points while it's in the same cluster or not part of the other cluster.
-            String localDebug = null;
-            while (data.length > 0 &&
-                   (centroid - data[0]) <= ((float) (maxDelta))) {
-            	float maxDeltaInit = maxDelta;
-                fData.add(data[0]);
-                data = ((Float[]) ArrayUtils.remove(data, 0));
-                Float[] tmp = new Float[fData.size()];
-                tmp = fData.toArray(tmp);
-                centroid = StatsUtils.getMean(tmp);
-                
-                if (data.length > 0) {
-                    Float sdOtherCluster = (float) StatsUtils.getSD(data, StatsUtils.getMean(data));
-                    maxDelta = sDAutoSensitivy * sdOtherCluster;
-                    logger.debug("AutoSensitivity: Adding: " + data[0] + " SD: " + maxDeltaInit + " SD': " + maxDelta);
-                }
-            }
-            if (data.length > 0) {
-                logger.debug("AutoSensitivity: Next Point I would have added is " + data[0]);
-            }
-                        
-            if (((double) fData.size() / (double) data.length) > amntAutoSensitivity) {
-                // Cannot do anomaly detection.
-                logger.debug("AutoSensitivity: Returning " + toReturn + " data size: " + data.length + " fData.size: " + fData.size());
-                return toReturn;
-            }
+        float[] values = new float[data.length];
+        for (int i = 0; i < data.length; i++) {
+            values[i] = data[i];
+        }
+        return lowDensitySensitivity(values, sDAutoSensitivy, amntAutoSensitivity);
+    }
+
+    // Same as above on primitive data, which is not changed.
+    public static Float getLowDensitySensitivity(float[] data, float sDAutoSensitivy, float amntAutoSensitivity) {
+        return lowDensitySensitivity(data.clone(), sDAutoSensitivy, amntAutoSensitivity);
+    }
+
+    // A cluster grows from the highest point down while the next point is
+    // within sDAutoSensitivy SDs of the other points from its centroid. The
+    // data is sorted once: the other points are always the lowest ones, so
+    // their mean and SD come from prefix moments of the sorted data, and the
+    // centroid from a running sum of the cluster. 'data' is sorted in place.
+    private static Float lowDensitySensitivity(float[] data, float sDAutoSensitivy, float amntAutoSensitivity) {
+        int n = data.length;
+        if (n == 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        Arrays.sort(data);
+        // moments of data[0..i), shifted by the mean for precision
+        double shift = 0;
+        for (float v : data) {
+            shift += v;
+        }
+        shift /= n;
+        double[] sums = new double[n + 1];
+        double[] squares = new double[n + 1];
+        for (int i = 0; i < n; i++) {
+            double d = data[i] - shift;
+            sums[i + 1] = sums[i] + d;
+            squares[i + 1] = squares[i] + d * d;
+        }
 
-            toReturn = fData.get(fData.size() - 1);
-            logger.debug("AutoSensitivity: Updating toReturn:  " + toReturn + " SD: " + maxDelta);
-            return toReturn;
+        // data[rest..n) is the cluster, data[0..rest) the other points
+        int rest = n - 1;
+        double clusterSum = data[rest];
+        float centroid = data[rest];
+        float maxDelta = sDAutoSensitivy * (float) sd(rest, sums[rest], squares[rest]);
+        while (rest > 0 && (centroid - data[rest - 1]) <= maxDelta) {
+            rest--;
+            clusterSum += data[rest];
+            centroid = (float) (clusterSum / (n - rest));
+            if (rest > 0) {
+                maxDelta = sDAutoSensitivy * (float) sd(rest, sums[rest], squares[rest]);
+            }
         }
-        return toReturn;
+        logger.debug("AutoSensitivity: cluster size: " + (n - rest) + " data size: " + rest);
+        if (((double) (n - rest) / (double) rest) > amntAutoSensitivity) {
+            // Cannot do anomaly detection.
+            return Float.POSITIVE_INFINITY;
+        }
+        return data[rest];
     }
 
     /**
@@ -157,6 +165,126 @@ public class AutoSensitivity {
         return ret; 
    }
 
+    // The methods below take a QuantileSketch of the data instead of the data:
+    // the sketch can be kept up to date point by point and merged across
+    // shards, and the thresholds are found on its sorted items, within the
+    // error bounds of the sketch, rather than by sorting and rescanning.
+
+    // Same as getKSigmaSensitivity(), the mean and SD of a sketch are exact.
+    public static Float getKSigmaSensitivity(QuantileSketch sketch, float sDAutoSensitivity) {
+        return (float) (sketch.mean() + sketch.sd() * sDAutoSensitivity);
+    }
+
+    // Same as getAdaptiveKSigmaSensitivity() on the data of the sketch.
+    public static Float[] getAdaptiveKSigmaSensitivity(QuantileSketch sketch, float amntAutoSens) {
+        float mean = (float) sketch.mean();
+        float sd = (float) sketch.sd();
+        if (sd == (float) 0.0) {
+            sd = (float) 1.0;
+        }
+        float n = sketch.count();
+        Float max = null;
+        Float min = null;
+        float k = 1;
+        float thresh = mean + Math.abs(sd * k);
+        while (sketch.countAtLeast(thresh) / n > amntAutoSens) {
+            k += 1;
+            thresh = mean + Math.abs(sd * k);
+        }
+        max = thresh;
+        k = 1;
+        thresh = mean - Math.abs(sd * k);
+        while (sketch.rank(thresh) / n > amntAutoSens) {
+            k += 1;
+            thresh = mean - Math.abs(sd * k);
+        }
+        min = thresh;
+        return new Float[]{max, min};
+    }
+
+    // Same as getAdaptiveMaxMinSigmaSensitivity() on the data of the sketch,
+    // stepping through its sorted items instead of the sorted data.
+    public static Float[] getAdaptiveMaxMinSigmaSensitivity(QuantileSketch sketch, float amntAutoSens, float k) {
+        float sd = (float) sketch.sd();
+        if (sd == (float) 0.0) {
+            sd = (float) 1.0;
+        }
+        float n = sketch.count();
+        int items = sketch.items();
+        Float max = null;
+        Float min = null;
+        for (int i = 0; i < items; i++) {
+            float thresh = (float) sketch.item(i) + Math.abs(sd * k);
+            if (sketch.rank(thresh) / n > amntAutoSens) {
+                break;
+            }
+            min = thresh;
+        }
+        for (int i = items - 1; i >= 0; i--) {
+            float thresh = (float) sketch.item(i) - Math.abs(sd * k);
+            if (sketch.countAtLeast(thresh) / n > amntAutoSens) {
+                break;
+            }
+            max = thresh;
+        }
+        return new Float[]{max, min};
+    }
+
+    // Same as getLowDensitySensitivity() on the data of the sketch: the
+    // cluster grows from the highest item down, the SD of the other points
+    // is kept from the moments of the sketch minus those of the cluster.
+    public static Float getLowDensitySensitivity(QuantileSketch sketch, float sDAutoSensitivy, float amntAutoSensitivity) {
+        int i = sketch.items() - 1;
+        if (i < 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        double restCount = sketch.count();
+        double restSum = sketch.mean() * restCount;
+        double restSquares = (sketch.sd() * sketch.sd() + sketch.mean() * sketch.mean()) * restCount;
+
+        double value = sketch.item(i);
+        double w = sketch.weight(i);
+        double clusterCount = w;
+        double clusterSum = value * w;
+        restCount -= w;
+        restSum -= value * w;
+        restSquares -= value * value * w;
+        double centroid = value;
+        double maxDelta = sDAutoSensitivy * sd(restCount, restSum, restSquares);
+        float last = (float) value;
+        i--;
+        while (i >= 0 && (centroid - sketch.item(i)) <= maxDelta) {
+            value = sketch.item(i);
+            w = sketch.weight(i);
+            clusterCount += w;
+            clusterSum += value * w;
+            restCount -= w;
+            restSum -= value * w;
+            restSquares -= value * value * w;
+            centroid = clusterSum / clusterCount;
+            last = (float) value;
+            i--;
+            if (i >= 0) {
+                maxDelta = sDAutoSensitivy * sd(restCount, restSum, restSquares);
+            }
+        }
+        logger.debug("AutoSensitivity: cluster size: " + clusterCount + " data size: " + restCount);
+        if (clusterCount / restCount > amntAutoSensitivity) {
+            // Cannot do anomaly detection.
+            return Float.POSITIVE_INFINITY;
+        }
+        return last;
+    }
+
+    // Population SD from a count, sum and sum of squares.
+    private static double sd(double count, double sum, double squares) {
+        if (count <= 0) {
+            return Double.NaN;
+        }
+        double mean = sum / count;
+        return Math.sqrt(Math.max(squares / count - mean * mean, 0));
+    }
+
     private static int howManyGreater(Float[] data, Float value) {
         int numgreater = 0;
         for (Float f : data) {
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.utilities;
+
+// Class that implements EGADS binary file input processing.
+
+import com.yahoo.egads.control.AnomalyPrinter;
+import com.yahoo.egads.control.PipelineExecutor;
+import java.util.Properties;
+import com.yahoo.egads.data.TimeSeries;
+
+public class BinaryInputProcessor implements InputProcessor {
+
+    private String file = null;
+
+    public BinaryInputProcessor(String file) {
+        this.file = file;
+    }
+
+    public void processInput(Properties properties) throws Exception {
+        Integer aggregation = 1;
+        if (properties.getProperty("AGGREGATION") != null) {
+            aggregation = new Integer(properties.getProperty("AGGREGATION"));
+        }
+        BinaryTimeSeriesReader reader = new BinaryTimeSeriesReader(this.file);
+        // 每次只物化一个时间序列，其余的仍留在映射文件中
+        PipelineExecutor executor = new PipelineExecutor(properties, new AnomalyPrinter(properties));
+        try {
+            for (int i = 0; i < reader.size(); i++) {
+                TimeSeries ts = reader.get(i).toTimeSeries();
+                // Handle aggregation.
+                if (aggregation > 1) {
+                    ts.data = ts.aggregate(aggregation);
+                    ts.meta.name += "_aggr_" + aggregation;
+                }
+                executor.submit(ts);
+            }
+        } finally {
+            executor.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// Reads the binary columnar time-series files written by BinaryTimeSeriesWriter.
+// Every metric is memory mapped on its own, so files larger than 2GB are fine
+// as long as each metric is smaller, and nothing is read until it is accessed.
+//
+// Layout, little endian:
+//      header      int magic "EGTS", int version, int metric count, int reserved
+//      directory   per metric: long block offset, int point count, int reserved
+//      blocks      per metric, 8 byte aligned:
+//                      int name length, UTF-8 name, padding to 8 bytes,
+//                      long first timestamp,
+//                      int[count] timestamp deltas (the first one is 0),
+//                      float[count] values
+
+package com.yahoo.egads.utilities;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.yahoo.egads.data.TimeSeries;
+
+public class BinaryTimeSeriesReader {
+
+    public static final int MAGIC = 0x53544745; // "EGTS"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int DIRECTORY_ENTRY_SIZE = 16;
+
+    // Read-only view of one metric, backed by the mapped file.
+    public static class Metric {
+        private final String fileName;
+        private final String name;
+        private final int size;
+        private final ByteBuffer buffer;
+        private final long firstTime;
+        private final int deltasOffset;
+        private final int valuesOffset;
+        // decoded on first use, the deltas only allow sequential access
+        private long[] times = null;
+
+        private Metric(String fileName, ByteBuffer buffer, int size) throws IOException {
+            this.fileName = fileName;
+            this.buffer = buffer;
+            this.size = size;
+            int nameLength = buffer.getInt(0);
+            if (nameLength < 0 || 4 + nameLength > buffer.capacity()) {
+                throw new IOException(fileName + ": corrupt metric block");
+            }
+            byte[] bytes = new byte[nameLength];
+            ByteBuffer b = buffer.duplicate();
+            b.position(4);
+            b.get(bytes);
+            this.name = new String(bytes, StandardCharsets.UTF_8);
+            int timeOffset = align(4 + nameLength);
+            this.firstTime = buffer.getLong(timeOffset);
+            this.deltasOffset = timeOffset + 8;
+            this.valuesOffset = deltasOffset + 4 * size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public float valueAt(int i) {
+            checkIndex(i);
+            return buffer.getFloat(valuesOffset + 4 * i);
+        }
+
+        public long timeAt(int i) {
+            checkIndex(i);
+            return times()[i];
+        }
+
+        // Bulk copies of the columns.
+        public float[] valuesAsFloatArray() {
+            float[] out = new float[size];
+            ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            b.position(valuesOffset);
+            b.asFloatBuffer().get(out);
+            return out;
+        }
+
+        public long[] timesAsLongArray() {
+            return times().clone();
+        }
+
+        // Materializes the metric for the processing pipeline.
+        public TimeSeries toTimeSeries() {
+            long[] t = times();
+            TimeSeries ts = new TimeSeries();
+            ts.meta.fileName = fileName;
+            ts.meta.name = name;
+            ts.data = new TimeSeries.DataSequence(size);
+            for (int i = 0; i < size; i++) {
+                ts.data.add(t[i], buffer.getFloat(valuesOffset + 4 * i));
+            }
+            return ts;
+        }
+
+        private synchronized long[] times() {
+            if (times == null) {
+                long[] t = new long[size];
+                long time = firstTime;
+                for (int i = 0; i < size; i++) {
+                    time += buffer.getInt(deltasOffset + 4 * i);
+                    t[i] = time;
+                }
+                times = t;
+            }
+            return times;
+        }
+
+        private void checkIndex(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+            }
+        }
+    }
+
+    private final String file;
+    private final Metric[] metrics;
+
+    public BinaryTimeSeriesReader(String file) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException(file + ": not a binary time-series file");
+            }
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(file + ": not a binary time-series file");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException(file + ": unsupported version " + header.getInt(4));
+            }
+            int count = header.getInt(8);
+            if (count < 0 || HEADER_SIZE + (long) count * DIRECTORY_ENTRY_SIZE > length) {
+                throw new IOException(file + ": corrupt header");
+            }
+            ByteBuffer directory = map(channel, HEADER_SIZE, count * DIRECTORY_ENTRY_SIZE);
+            metrics = new Metric[count];
+            for (int m = 0; m < count; m++) {
+                long offset = directory.getLong(m * DIRECTORY_ENTRY_SIZE);
+                int size = directory.getInt(m * DIRECTORY_ENTRY_SIZE + 8);
+                long end = m + 1 < count ? directory.getLong((m + 1) * DIRECTORY_ENTRY_SIZE) : length;
+                if (size < 0 || offset < HEADER_SIZE || end > length || end - offset < 8L * size + 16
+                    || end - offset > Integer.MAX_VALUE) {
+                    throw new IOException(file + ": corrupt directory entry " + m);
+                }
+                // The mapping stays valid after the channel is closed.
+                metrics[m] = new Metric(file, map(channel, offset, end - offset), size);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public int size() {
+        return metrics.length;
+    }
+
+    public Metric get(int i) {
+        return metrics[i];
+    }
+
+    // helpers ////////////////////////////////////////////////
+
+    static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// Writes time-series in the binary columnar format read by BinaryTimeSeriesReader,
+// and converts CSV input files into it:
+//      java com.yahoo.egads.utilities.BinaryTimeSeriesWriter input.csv output.bin [config.ini]
+// FILL_MISSING from the config is applied while converting, AGGREGATION is left
+// to the reader side (INPUT BINARY) as it is for CSV.
+
+package com.yahoo.egads.utilities;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+
+import com.yahoo.egads.data.TimeSeries;
+
+public class BinaryTimeSeriesWriter {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java BinaryTimeSeriesWriter input.csv output.bin [config.ini]");
+            System.exit(1);
+        }
+        Properties config = new Properties();
+        if (args.length > 2) {
+            InputStream is = new FileInputStream(args[2]);
+            try {
+                config.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        convert(args[0], args[1], config);
+    }
+
+    // Converts a CSV file as read by FileUtils.createTimeSeries().
+    public static void convert(String csvFile, String binaryFile, Properties config) throws IOException {
+        Properties p = new Properties();
+        p.putAll(config);
+        p.remove("AGGREGATION");
+        write(FileUtils.createTimeSeries(csvFile, p), binaryFile);
+    }
+
+    public static void write(List<TimeSeries> metrics, String file) throws IOException {
+        int count = metrics.size();
+        byte[][] names = new byte[count][];
+        long[] offsets = new long[count];
+        long offset = BinaryTimeSeriesReader.HEADER_SIZE + (long) count * BinaryTimeSeriesReader.DIRECTORY_ENTRY_SIZE;
+        for (int m = 0; m < count; m++) {
+            String name = metrics.get(m).meta.name;
+            names[m] = (name == null ? "" : name).getBytes(StandardCharsets.UTF_8);
+            offsets[m] = offset;
+            offset += blockSize(names[m].length, metrics.get(m).size());
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer head = ByteBuffer.allocate(BinaryTimeSeriesReader.HEADER_SIZE
+                                                  + count * BinaryTimeSeriesReader.DIRECTORY_ENTRY_SIZE);
+            head.order(ByteOrder.LITTLE_ENDIAN);
+            head.putInt(BinaryTimeSeriesReader.MAGIC);
+            head.putInt(BinaryTimeSeriesReader.VERSION);
+            head.putInt(count);
+            head.putInt(0);
+            for (int m = 0; m < count; m++) {
+                head.putLong(offsets[m]);
+                head.putInt(metrics.get(m).size());
+                head.putInt(0);
+            }
+            head.flip();
+            writeFully(channel, head);
+
+            for (int m = 0; m < count; m++) {
+                writeFully(channel, block(names[m], metrics.get(m).data));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    // helpers ////////////////////////////////////////////////
+
+    private static long blockSize(int nameLength, int size) {
+        return BinaryTimeSeriesReader.align(4 + nameLength) + 8 + 8L * size;
+    }
+
+    private static ByteBuffer block(byte[] name, TimeSeries.DataSequence data) throws IOException {
+        int size = data.size();
+        long length = blockSize(name.length, size);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("metric with " + size + " points is too large");
+        }
+        ByteBuffer b = ByteBuffer.allocate((int) length);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(name.length);
+        b.put(name);
+        b.position(BinaryTimeSeriesReader.align(4 + name.length));
+        long first = size == 0 ? 0 : data.get(0).time;
+        b.putLong(first);
+        long prev = first;
+        for (int i = 0; i < size; i++) {
+            long delta = data.get(i).time - prev;
+            if (delta != (int) delta) {
+                throw new IOException("time gap of " + delta + " at index=" + i + " does not fit the format");
+            }
+            b.putInt((int) delta);
+            prev = data.get(i).time;
+        }
+        for (int i = 0; i < size; i++) {
+            b.putFloat(data.get(i).value);
+        }
+        b.flip();
+        return b;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+}
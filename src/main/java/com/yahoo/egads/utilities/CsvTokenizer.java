@@ -0,0 +1,283 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// CsvTokenizer splits a byte channel into lines and comma separated fields
+// without creating a String per line or per field. Lines end at \n, \r or \r\n
+// like BufferedReader.readLine(), and the fields of a line are the ones
+// line.split(",") would return, trailing empty fields dropped. Numbers are
+// parsed straight from the bytes; anything the fast path does not handle
+// exactly falls back to Double.parseDouble() / Float.parseFloat(), so the
+// results and errors are the same as parsing the field as a String.
+
+package com.yahoo.egads.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+public class CsvTokenizer {
+
+    // Powers of ten that are exact doubles.
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final ReadableByteChannel channel;
+    private final Charset charset;
+    private byte[] buf;
+    private int limit = 0;
+    private int pos = 0;
+    private boolean eof = false;
+    // the last line ended with \r, skip a following \n
+    private boolean skipLineFeed = false;
+
+    // current line and its fields
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    private int fields = 0;
+
+    // result of the last scan()
+    private boolean negative;
+    private long mantissa;
+    private int exponent;
+
+    public CsvTokenizer(ReadableByteChannel channel, int bufferSize) {
+        this(channel, bufferSize, Charset.defaultCharset());
+    }
+
+    // 'charset' is used for the fields returned as Strings.
+    public CsvTokenizer(ReadableByteChannel channel, int bufferSize, Charset charset) {
+        this.channel = channel;
+        this.charset = charset;
+        this.buf = new byte[Math.max(bufferSize, 16)];
+    }
+
+    // Moves to the next line, returns false at the end of the input.
+    public boolean nextLine() throws IOException {
+        if (skipLineFeed) {
+            if (pos == limit && !eof) {
+                fill();
+            }
+            if (pos < limit && buf[pos] == '\n') {
+                pos++;
+            }
+            skipLineFeed = false;
+        }
+        int scan = pos;
+        while (true) {
+            for (int k = scan; k < limit; k++) {
+                byte c = buf[k];
+                if (c == '\n' || c == '\r') {
+                    setLine(pos, k);
+                    pos = k + 1;
+                    if (c == '\r') {
+                        if (pos < limit) {
+                            if (buf[pos] == '\n') {
+                                pos++;
+                            }
+                        } else {
+                            skipLineFeed = true;
+                        }
+                    }
+                    return true;
+                }
+            }
+            if (eof) {
+                if (pos < limit) {
+                    setLine(pos, limit);
+                    pos = limit;
+                    return true;
+                }
+                return false;
+            }
+            scan = limit - pos;
+            fill();
+        }
+    }
+
+    // Number of fields of the current line.
+    public int fieldCount() {
+        return fields;
+    }
+
+    public String line() {
+        return new String(buf, lineStart, lineEnd - lineStart, charset);
+    }
+
+    public String field(int i) {
+        checkField(i);
+        return new String(buf, fieldStart[i], fieldEnd[i] - fieldStart[i], charset);
+    }
+
+    // Same as Double.parseDouble(field(i)).
+    public double parseDouble(int i) {
+        checkField(i);
+        if (scan(fieldStart[i], fieldEnd[i])) {
+            double d = toDouble();
+            if (!Double.isNaN(d)) {
+                return d;
+            }
+        }
+        return Double.parseDouble(field(i));
+    }
+
+    // Same as Float.parseFloat(field(i)).
+    public float parseFloat(int i) {
+        checkField(i);
+        if (scan(fieldStart[i], fieldEnd[i])) {
+            double d = toDouble();
+            if (d == 0) {
+                return (float) d;
+            }
+            // Rounding the double again is exact unless it lands on the middle
+            // of two floats, or outside of the normal float range.
+            double a = Math.abs(d);
+            if (a >= Float.MIN_NORMAL && a <= Float.MAX_VALUE
+                && (Double.doubleToRawLongBits(d) & 0x1FFFFFFFL) != 0x10000000L) {
+                return (float) d;
+            }
+        }
+        return Float.parseFloat(field(i));
+    }
+
+    // helpers ////////////////////////////////////////////////
+
+    private void setLine(int start, int end) {
+        lineStart = start;
+        lineEnd = end;
+        int n = 0;
+        int from = start;
+        for (int k = start; k <= end; k++) {
+            if (k == end || buf[k] == ',') {
+                if (n == fieldStart.length) {
+                    fieldStart = Arrays.copyOf(fieldStart, 2 * n);
+                    fieldEnd = Arrays.copyOf(fieldEnd, 2 * n);
+                }
+                fieldStart[n] = from;
+                fieldEnd[n] = k;
+                n++;
+                from = k + 1;
+            }
+        }
+        // String.split() keeps a line without separator as is and drops trailing empty fields otherwise.
+        if (n > 1) {
+            while (n > 0 && fieldStart[n - 1] == fieldEnd[n - 1]) {
+                n--;
+            }
+        }
+        fields = n;
+    }
+
+    // Keeps the unread bytes, growing the buffer for long lines, and reads more.
+    private void fill() throws IOException {
+        int remaining = limit - pos;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, remaining);
+        } else if (remaining == buf.length) {
+            buf = Arrays.copyOf(buf, 2 * buf.length);
+        }
+        pos = 0;
+        limit = remaining;
+        int n = channel.read(ByteBuffer.wrap(buf, limit, buf.length - limit));
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+    // Reads [sign] digits [. digits] [e [sign] digits] with at most 15 significant
+    // digits. Returns false for anything else, which is left to the JDK parsers.
+    private boolean scan(int from, int to) {
+        int i = from;
+        negative = false;
+        if (i < to && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            i++;
+        }
+        long m = 0;
+        int e = 0;
+        int digits = 0;
+        boolean any = false;
+        boolean point = false;
+        for (; i < to; i++) {
+            byte c = buf[i];
+            if (c >= '0' && c <= '9') {
+                if (m != 0 || c != '0') {
+                    if (++digits > 15) {
+                        return false;
+                    }
+                }
+                m = m * 10 + (c - '0');
+                if (point) {
+                    e--;
+                }
+                any = true;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!any) {
+            return false;
+        }
+        if (i < to && (buf[i] == 'e' || buf[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (buf[i] == '-' || buf[i] == '+')) {
+                negativeExponent = buf[i] == '-';
+                i++;
+            }
+            int x = 0;
+            int xDigits = 0;
+            for (; i < to && buf[i] >= '0' && buf[i] <= '9'; i++) {
+                if (++xDigits > 3) {
+                    return false;
+                }
+                x = x * 10 + (buf[i] - '0');
+            }
+            if (xDigits == 0) {
+                return false;
+            }
+            e += negativeExponent ? -x : x;
+        }
+        if (i != to) {
+            return false;
+        }
+        mantissa = m;
+        exponent = e;
+        return true;
+    }
+
+    // The correctly rounded value of the last scan(), NaN if that needs the slow path.
+    private double toDouble() {
+        double d;
+        if (mantissa == 0) {
+            d = 0;
+        } else if (exponent == 0) {
+            d = mantissa;
+        } else if (exponent > 0 && exponent < POWERS_OF_TEN.length) {
+            d = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            d = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return Double.NaN;
+        }
+        return negative ? -d : d;
+    }
+
+    private void checkField(int i) {
+        if (i < 0 || i >= fields) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+    }
+}
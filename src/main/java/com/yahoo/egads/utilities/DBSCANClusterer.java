@@ -20,16 +20,21 @@ package com.yahoo.egads.utilities;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.math3.exception.NotPositiveException;
 import org.apache.commons.math3.exception.NullArgumentException;
+import org.apache.commons.math3.ml.distance.ChebyshevDistance;
 import org.apache.commons.math3.ml.distance.DistanceMeasure;
 import org.apache.commons.math3.ml.distance.EuclideanDistance;
+import org.apache.commons.math3.ml.distance.ManhattanDistance;
 import org.apache.commons.math3.util.MathUtils;
 import org.apache.commons.math3.ml.clustering.Clusterable;
 import org.apache.commons.math3.ml.clustering.Cluster;
@@ -53,6 +58,11 @@ import org.apache.commons.math3.ml.clustering.Clusterer;
  *   <li>eps: the distance that defines the ε-neighborhood of a point
  *   <li>minPoints: the minimum number of density-connected points required to form a cluster
  * </ul>
+ * <p>
+ * The ε-neighborhoods are found either by a linear scan over all points or with a
+ * {@link KDTree} built once per call to {@code cluster}, see {@link NeighborSearch}.
+ * Both return the neighbors in the order of the input collection, so the clusters
+ * are identical.
  *
  * @param <T> type of the points to cluster
  * @see <a href="http://en.wikipedia.org/wiki/DBSCAN">DBSCAN (wikipedia)</a>
@@ -72,6 +82,34 @@ public class DBSCANClusterer<T extends Clusterable> extends Clusterer<T> {
     // 聚类所需的最小点数
     private final int                 minPts;
  
+    /** How the ε-neighborhoods are searched. */
+    private final NeighborSearch      neighborSearch;
+ 
+    /** Neighbor search strategies. */
+    public enum NeighborSearch {
+        /** Compares every point with every other point, O(n) per query. */
+        LINEAR,
+        /** Prunes with a k-d tree. Only for the Euclidean, Manhattan and Chebyshev distances. */
+        KD_TREE
+    }
+ 
+    /** KD_TREE state of the current cluster() call. */
+    private KDTree tree = null;
+    private List<T> treePoints = null;
+    /** First index and number of occurrences of each point. */
+    private Map<T, int[]> treeIndex = null;
+    private int[] candidates = null;
+    private int found = 0;
+ 
+    /** Collects the tree candidates. */
+    private final KDTree.Visitor collector = new KDTree.Visitor() {
+        @Override
+        public boolean visit(int index, double[] coordinates, int offset) {
+            candidates[found++] = index;
+            return true;
+        }
+    };
+ 
     /** Status of a point during the clustering process. */
     private enum PointStatus {
         /** The point has is considered to be noise. */
@@ -105,6 +143,35 @@ public class DBSCANClusterer<T extends Clusterable> extends Clusterer<T> {
      */
     public DBSCANClusterer(final double eps, final int minPts, final DistanceMeasure measure)
         throws NotPositiveException {
+        this(eps, minPts, measure, NeighborSearch.LINEAR);
+    }
+ 
+    /**
+     * Creates a new instance of a DBSCANClusterer using the euclidean distance.
+     *
+     * @param eps maximum radius of the neighborhood to be considered
+     * @param minPts minimum number of points needed for a cluster
+     * @param neighborSearch how the neighborhoods are searched
+     * @throws NotPositiveException if {@code eps < 0.0} or {@code minPts < 0}
+     */
+    public DBSCANClusterer(final double eps, final int minPts, final NeighborSearch neighborSearch)
+        throws NotPositiveException {
+        this(eps, minPts, new EuclideanDistance(), neighborSearch);
+    }
+ 
+    /**
+     * Creates a new instance of a DBSCANClusterer.
+     *
+     * @param eps maximum radius of the neighborhood to be considered
+     * @param minPts minimum number of points needed for a cluster
+     * @param measure the distance measure to use
+     * @param neighborSearch how the neighborhoods are searched
+     * @throws NotPositiveException if {@code eps < 0.0} or {@code minPts < 0}
+     * @throws IllegalArgumentException if KD_TREE is used with a measure it cannot prune for
+     */
+    public DBSCANClusterer(final double eps, final int minPts, final DistanceMeasure measure,
+                           final NeighborSearch neighborSearch)
+        throws NotPositiveException {
         // 初始化父类的距离度量算法，因为本类继承了父类的distance方法
         super(measure);
  
@@ -114,8 +181,14 @@ public class DBSCANClusterer<T extends Clusterable> extends Clusterer<T> {
         if (minPts < 0) {
             throw new NotPositiveException(minPts);
         }
+        // The tree prunes on single coordinates, which never exceed these distances.
+        if (neighborSearch == NeighborSearch.KD_TREE && !(measure instanceof EuclideanDistance
+            || measure instanceof ManhattanDistance || measure instanceof ChebyshevDistance)) {
+            throw new IllegalArgumentException("KD_TREE does not support " + measure.getClass().getSimpleName());
+        }
         this.eps = eps;
         this.minPts = minPts;
+        this.neighborSearch = neighborSearch;
     }
  
     /**
@@ -134,6 +207,48 @@ public class DBSCANClusterer<T extends Clusterable> extends Clusterer<T> {
         return minPts;
     }
  
+    /**
+     * Returns the neighbor search strategy.
+     * @return the neighbor search strategy
+     */
+    public NeighborSearch getNeighborSearch() {
+        return neighborSearch;
+    }
+ 
+    /**
+     * Returns the mean distance over all the ordered pairs of points, self pairs included.
+     * When there are more than {@code samplePairs} pairs (and {@code samplePairs > 0}) the
+     * mean is estimated from {@code samplePairs} pairs drawn uniformly at random instead.
+     *
+     * @param points the points
+     * @param measure the distance measure to use
+     * @param samplePairs maximum number of pairs to compute, 0 for all of them
+     * @param seed seed of the pair sampling
+     * @return the (estimated) mean distance
+     */
+    public static double meanDistance(final List<? extends Clusterable> points, final DistanceMeasure measure,
+                                      final long samplePairs, final long seed) {
+        int n = points.size();
+        double sum = 0.0;
+        double count = 0.0;
+        if (samplePairs <= 0 || (long) n * n <= samplePairs) {
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    sum += measure.compute(points.get(i).getPoint(), points.get(j).getPoint());
+                    count++;
+                }
+            }
+        } else {
+            Random random = new Random(seed);
+            for (long k = 0; k < samplePairs; k++) {
+                sum += measure.compute(points.get(random.nextInt(n)).getPoint(),
+                                       points.get(random.nextInt(n)).getPoint());
+                count++;
+            }
+        }
+        return sum / count;
+    }
+ 
     /**
      * Performs DBSCAN cluster analysis.
      * points里面的每一个point，存放了点在时序数据的中索引和点对应的误差统计数据集合d[]
@@ -153,21 +268,26 @@ public class DBSCANClusterer<T extends Clusterable> extends Clusterer<T> {
         // 所有的异常点聚到一起
         final Cluster<T> anomalyCluster = new Cluster<T>();
         final Map<Clusterable, PointStatus> visited = new HashMap<Clusterable, PointStatus>();
+        buildIndex(points);
 
-        // 遍历所有的误差统计数据点
-        for (final T point : points) {
-            if (visited.get(point) != null) {
-                continue;
-            }
-            final List<T> neighbors = getNeighbors(point, points);
-            if (neighbors.size() >= minPts) { // 核心点
-                // DBSCAN does not care about center points
-                final Cluster<T> cluster = new Cluster<T>(); // 这个cluster变量用于记录点并返回
-                clusters.add(/*返回上边这个final cluster*/expandCluster(cluster, point/*点本身*/, neighbors/*点的邻居*/, points, visited/*访问记录*/));
-            } else { // 非核心点
-                visited.put(point, PointStatus.NOISE);
-                anomalyCluster.addPoint(point);
+        try {
+            // 遍历所有的误差统计数据点
+            for (final T point : points) {
+                if (visited.get(point) != null) {
+                    continue;
+                }
+                final List<T> neighbors = getCoreNeighbors(point, points);
+                if (neighbors.size() >= minPts) { // 核心点
+                    // DBSCAN does not care about center points
+                    final Cluster<T> cluster = new Cluster<T>(); // 这个cluster变量用于记录点并返回
+                    clusters.add(/*返回上边这个final cluster*/expandCluster(cluster, point/*点本身*/, neighbors/*点的邻居*/, points, visited/*访问记录*/));
+                } else { // 非核心点
+                    visited.put(point, PointStatus.NOISE);
+                    anomalyCluster.addPoint(point);
+                }
             }
+        } finally {
+            releaseIndex();
         }
         anomalousClusters.add(anomalyCluster);
         return anomalousClusters;
@@ -184,22 +304,27 @@ public class DBSCANClusterer<T extends Clusterable> extends Clusterer<T> {
         // 所有的异常点聚到一起
         final Cluster<T> anomalyCluster = new Cluster<T>();
         final Map<Clusterable, PointStatus> visited = new HashMap<Clusterable, PointStatus>();
+        buildIndex(points);
 
-        // 遍历所有的误差统计数据点
-        for (final T point : points) {
-            if (visited.get(point) != null) {
-                continue;
-            } // 重集合Points中抽取一个未处理的点
-            final List<T> neighbors = getNeighbors(point, points); // 寻找可达的点
-            if (neighbors.size() /*邻居个数*/ >= minPts) { // 如果可达点的个数大于最小聚类点个数，则这个该点为 核心点，然后point+neiberhoods组成一个簇
-                // DBSCAN does not care about center points
-                final Cluster<T> cluster = new Cluster<T>();
-                clusters.add(expandCluster(cluster, point, neighbors, points, visited));
-                total += cluster.getPoints().size();
-            } else {
-                visited.put(point, PointStatus.NOISE);
-                anomalyCluster.addPoint(point);
+        try {
+            // 遍历所有的误差统计数据点
+            for (final T point : points) {
+                if (visited.get(point) != null) {
+                    continue;
+                } // 重集合Points中抽取一个未处理的点
+                final List<T> neighbors = getCoreNeighbors(point, points); // 寻找可达的点
+                if (neighbors.size() /*邻居个数*/ >= minPts) { // 如果可达点的个数大于最小聚类点个数，则这个该点为 核心点，然后point+neiberhoods组成一个簇
+                    // DBSCAN does not care about center points
+                    final Cluster<T> cluster = new Cluster<T>();
+                    clusters.add(expandCluster(cluster, point, neighbors, points, visited));
+                    total += cluster.getPoints().size();
+                } else {
+                    visited.put(point, PointStatus.NOISE);
+                    anomalyCluster.addPoint(point);
+                }
             }
+        } finally {
+            releaseIndex();
         }
         anomalousClusters.add(anomalyCluster);
         total += anomalyCluster.getPoints().size();
@@ -233,15 +358,26 @@ public class DBSCANClusterer<T extends Clusterable> extends Clusterer<T> {
         visited.put(point, PointStatus.PART_OF_CLUSTER);
  
         List<T> seeds = new ArrayList<T>(neighbors);
+        final Set<T> seedSet = new HashSet<T>(seeds);
+        deactivate(point);
+        for (final T seed : seeds) {
+            deactivate(seed);
+        }
         int index = 0;
         while (index < seeds.size()) { // 遍历所有的邻居
             final T current = seeds.get(index); // 获取一个邻居点
             PointStatus pStatus = visited.get(current); // 设置访问标记
             // only check non-visited points
             if (pStatus == null) {
-                final List<T> currentNeighbors = getNeighbors(current, points);
-                if (currentNeighbors.size() >= minPts) {
-                    seeds = merge(seeds, currentNeighbors);
+                if (tree != null) {
+                    if (countNeighbors(current) >= minPts) {
+                        mergeNeighbors(current, seeds, seedSet);
+                    }
+                } else {
+                    final List<T> currentNeighbors = getNeighbors(current, points);
+                    if (currentNeighbors.size() >= minPts) {
+                        seeds = merge(seeds, seedSet, currentNeighbors);
+                    }
                 }
             }
  
@@ -265,6 +401,17 @@ public class DBSCANClusterer<T extends Clusterable> extends Clusterer<T> {
      */
     private List<T> getNeighbors(final T point, final Collection<T> points) {
         final List<T> neighbors = new ArrayList<T>();
+        if (tree != null) {
+            // candidates in input order, then the same test as below
+            int count = collect(point, false);
+            for (int i = 0; i < count; i++) {
+                final T neighbor = treePoints.get(candidates[i]);
+                if (point != neighbor && distance(neighbor, point) <= eps) {
+                    neighbors.add(neighbor);
+                }
+            }
+            return neighbors;
+        }
         for (final T neighbor/*邻居节点也是point类型*/ : points) {
             // 距离度量，计算误差统计指标数组之间的距离
             if (point != neighbor/*除开自己*/ && distance(neighbor, point) <= eps) {
@@ -274,20 +421,143 @@ public class DBSCANClusterer<T extends Clusterable> extends Clusterer<T> {
         return neighbors;
     }
  
+    /**
+     * Same as {@link #getNeighbors} for core points. With KD_TREE the neighbors of the
+     * other points are only counted and an empty list is returned.
+     *
+     * @param point the point to look for
+     * @param points possible neighbors
+     * @return the List of neighbors
+     */
+    private List<T> getCoreNeighbors(final T point, final Collection<T> points) {
+        if (tree != null && countNeighbors(point) < minPts) {
+            return new ArrayList<T>();
+        }
+        return getNeighbors(point, points);
+    }
+ 
+    /**
+     * Counts the neighbors of a point with the tree, stops counting at minPts.
+     *
+     * @param point the point to look for
+     * @return the number of neighbors if less than minPts, else at least minPts
+     */
+    private int countNeighbors(final T point) {
+        // the tree counts the point itself too, unless a coordinate is infinite (or NaN)
+        final int[] entry = treeIndex.get(point);
+        int self = 0;
+        if (entry != null && isFinite(point.getPoint())) {
+            self = entry[1];
+        }
+        return tree.count(point.getPoint(), eps, getDistanceMeasure(), minPts + self) - self;
+    }
+ 
+    private static boolean isFinite(final double[] point) {
+        for (final double x : point) {
+            if (Double.isNaN(x) || Double.isInfinite(x)) {
+                return false;
+            }
+        }
+        return true;
+    }
+ 
+    /**
+     * Collects the tree candidates of a point into {@code candidates}, in input order.
+     *
+     * @param point the point to look for
+     * @param activeOnly whether to skip the inactive points
+     * @return the number of candidates
+     */
+    private int collect(final T point, final boolean activeOnly) {
+        found = 0;
+        tree.search(point.getPoint(), eps, activeOnly, collector);
+        Arrays.sort(candidates, 0, found);
+        return found;
+    }
+ 
+    /**
+     * Tree version of {@code merge(seeds, seedSet, getNeighbors(point, points))}. The
+     * points that are seeds of this or of an earlier cluster are inactive: the former
+     * are in {@code seedSet} already, the latter are part of a cluster and so would be
+     * skipped as seeds anyway.
+     *
+     * @param point the point whose neighbors to merge
+     * @param seeds the seeds of the cluster
+     * @param seedSet the items of the seeds
+     */
+    private void mergeNeighbors(final T point, final List<T> seeds, final Set<T> seedSet) {
+        final int count = collect(point, true);
+        final int size = seeds.size();
+        for (int i = 0; i < count; i++) {
+            final T neighbor = treePoints.get(candidates[i]);
+            if (point != neighbor && distance(neighbor, point) <= eps && !seedSet.contains(neighbor)) {
+                seeds.add(neighbor);
+            }
+        }
+        for (int i = size; i < seeds.size(); i++) {
+            seedSet.add(seeds.get(i));
+            deactivate(seeds.get(i));
+        }
+    }
+ 
+    private void deactivate(final T point) {
+        if (tree != null) {
+            final int[] entry = treeIndex.get(point);
+            if (entry != null) {
+                tree.deactivate(entry[0]);
+            }
+        }
+    }
+ 
+    /**
+     * Builds the k-d tree over the points for the KD_TREE search.
+     *
+     * @param points the data set
+     */
+    private void buildIndex(final Collection<T> points) {
+        // An infinite radius does not prune anything.
+        if (neighborSearch != NeighborSearch.KD_TREE || Double.isInfinite(eps) || Double.isNaN(eps)) {
+            return;
+        }
+        treePoints = new ArrayList<T>(points);
+        treeIndex = new IdentityHashMap<T, int[]>();
+        double[][] coordinates = new double[treePoints.size()][];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = treePoints.get(i).getPoint();
+            final int[] entry = treeIndex.get(treePoints.get(i));
+            if (entry == null) {
+                treeIndex.put(treePoints.get(i), new int[] {i, 1});
+            } else {
+                entry[1]++;
+            }
+        }
+        tree = new KDTree(coordinates);
+        candidates = new int[tree.size()];
+    }
+
+    private void releaseIndex() {
+        tree = null;
+        treePoints = null;
+        treeIndex = null;
+        candidates = null;
+    }
+
     /**
      * Merges two lists together.
      *
      * @param one first list
+     * @param oneSet the items of the first list, updated after the merge
      * @param two second list
      * @return merged lists
      */
-    private List<T> merge(final List<T> one, final List<T> two) {
-        final Set<T> oneSet = new HashSet<T>(one);
+    private List<T> merge(final List<T> one, final Set<T> oneSet, final List<T> two) {
+        final int size = one.size();
         for (T item : two) {
             if (!oneSet.contains(item)) {
                 one.add(item);
             }
         }
+        oneSet.addAll(one.subList(size, one.size()));
         return one;
     }
 }
\ No newline at end of file
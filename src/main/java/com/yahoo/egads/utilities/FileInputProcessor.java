@@ -8,13 +8,15 @@ package com.yahoo.egads.utilities;
 
 // Class that implements EGADS file input processing.
 
-import com.yahoo.egads.control.ProcessableObject;
-import com.yahoo.egads.control.ProcessableObjectFactory;
+import com.yahoo.egads.control.AnomalyPrinter;
+import com.yahoo.egads.control.PipelineExecutor;
 import java.util.Properties;
 import com.yahoo.egads.data.TimeSeries;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 @Slf4j
 public class FileInputProcessor implements InputProcessor {
@@ -33,12 +35,25 @@ public class FileInputProcessor implements InputProcessor {
      */
     public void processInput(Properties properties) throws Exception {
         // 建立时序模型(time, value)，多个属性会有多个时序模型放入到List中
-        ArrayList<TimeSeries> metrics = com.yahoo.egads.utilities.FileUtils
-                .createTimeSeries(this.file, properties);
+        // 多个文件用路径分隔符隔开，CSV_READ_THREADS > 1 时并行读取
+        int threads = 1;
+        if (properties.getProperty("CSV_READ_THREADS") != null) {
+            threads = new Integer(properties.getProperty("CSV_READ_THREADS"));
+        }
+        ArrayList<TimeSeries> metrics = new ArrayList<TimeSeries>();
+        for (ArrayList<TimeSeries> fileMetrics : FileUtils.createTimeSeries(
+                        Arrays.asList(this.file.split(File.pathSeparator)), properties, threads)) {
+            metrics.addAll(fileMetrics);
+        }
         // 循环处理每一个时间序列（也就是循环处理每一个属性数据）
-        for (TimeSeries ts : metrics) {
-            ProcessableObject po = ProcessableObjectFactory.create(ts, properties);
-            po.process();
+        // PIPELINE_THREADS > 1 时并行处理
+        PipelineExecutor executor = new PipelineExecutor(properties, new AnomalyPrinter(properties));
+        try {
+            for (TimeSeries ts : metrics) {
+                executor.submit(ts);
+            }
+        } finally {
+            executor.close();
         }
     }
 }
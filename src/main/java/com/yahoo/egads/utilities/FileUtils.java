@@ -9,33 +9,96 @@
 
 package com.yahoo.egads.utilities;
 
+import com.yahoo.egads.data.ColumnarSequence;
 import com.yahoo.egads.data.TimeSeries;
 import lombok.extern.slf4j.Slf4j;
 import org.python.antlr.ast.If;
 
 import java.util.StringTokenizer;
 import java.util.ArrayList;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.util.List;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @Slf4j
 public class FileUtils {
     
+    // Size of the read buffer of the CSV tokenizer.
+    private static final int CSV_BUFFER_SIZE = 1 << 20;
+
     // Creates a time-series from a file.
     public static ArrayList<TimeSeries> createTimeSeries(String csv_file, Properties config) {
-        // Input file which needs to be parsed
-        BufferedReader fileReader = null;
         // 从文件提取 raw data后的 Output，Output中的每一个TimeSeries，是由 raw data中的列构成的
         ArrayList<TimeSeries> output = new ArrayList<TimeSeries>();
+        log.debug("从{}处读取数据", csv_file);
+        FileChannel channel = null;
+        try {
+            // Create the file reader.
+            channel = FileChannel.open(Paths.get(csv_file), StandardOpenOption.READ);
+            readTimeSeries(new CsvTokenizer(channel, CSV_BUFFER_SIZE), csv_file, config, output);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return output;
+    }
 
-        // Delimiter used in CSV file
-        final String delimiter = ",";
+    // Creates the time-series of several files, reading up to 'threads' of them at once.
+    // Returns the time-series of each file in the order of 'csv_files'.
+    public static List<ArrayList<TimeSeries>> createTimeSeries(List<String> csv_files, final Properties config,
+                                                               int threads) throws Exception {
+        List<ArrayList<TimeSeries>> output = new ArrayList<ArrayList<TimeSeries>>();
+        if (threads <= 1 || csv_files.size() <= 1) {
+            for (String csv_file : csv_files) {
+                output.add(createTimeSeries(csv_file, config));
+            }
+            return output;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, csv_files.size()));
+        try {
+            List<Future<ArrayList<TimeSeries>>> futures = new ArrayList<Future<ArrayList<TimeSeries>>>();
+            for (final String csv_file : csv_files) {
+                futures.add(pool.submit(new Callable<ArrayList<TimeSeries>>() {
+                    @Override
+                    public ArrayList<TimeSeries> call() {
+                        return createTimeSeries(csv_file, config);
+                    }
+                }));
+            }
+            for (Future<ArrayList<TimeSeries>> future : futures) {
+                output.add(future.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return output;
+    }
+
+    // Reads the CSV lines into 'output'. The first line whose first field is numeric or
+    // "timestamp" names the columns, unless it is numeric itself. Parsing stops at the
+    // first malformed line, keeping what was read so far.
+    static void readTimeSeries(CsvTokenizer csv, String csv_file, Properties config,
+                               ArrayList<TimeSeries> output) throws Exception {
         // 记录数据的采样时间间隔
-        Long interval = null;
+        long interval = 0;
+        boolean hasInterval = false;
         // 时序数据的前一个时间
-        Long prevTimestamp = null;
+        long prevTimestamp = 0;
+        boolean hasPrevTimestamp = false;
 //        Denotes how much should the time-series be aggregated by.
 //        If set to 1 or less, this setting is ignored.
         Integer aggregation = 1;
@@ -47,41 +110,31 @@ public class FileUtils {
         if (config.getProperty("AGGREGATION") != null) {
             aggregation = new Integer(config.getProperty("AGGREGATION"));
         }
+        // 每一列的数据先放在列存中，最后再生成TimeSeries
+        ArrayList<ColumnarSequence> columns = new ArrayList<ColumnarSequence>();
         try {
-            String line = "";
-            // Create the file reader.
-            log.debug("从{}处读取数据", csv_file);
-            fileReader = new BufferedReader(new FileReader(csv_file));
-
             // Read the file line by line
             // 第一行数据是标题而不是数据，所以要进行特殊处理
             boolean firstLine = true;
-            while ((line = fileReader.readLine()) != null) {
-                log.debug("读取到的数据:{}", line);
-                // Get all tokens available in line.
-                String[] tokens = line.split(delimiter);
-                // 时序数据的时间戳
-                Long curTimestamp = null;
-                
-                // Check for the case where there is more than one line preceding the data
-                // 跳过不是数据的行
-                if (firstLine == true) {
+            while (csv.nextLine()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("读取到的数据:{}", csv.line());
+                }
+                if (firstLine) {
+                    // Check for the case where there is more than one line preceding the data
+                    // 跳过不是数据的行
+                    String[] tokens = csv.line().split(",");
                     if (!isNumeric(tokens[0]) && tokens[0].equals("timestamp") == false) {
                         continue;
                     }
-                }
-                if (firstLine == false && tokens.length > 1) {
-                    curTimestamp = (new Double(tokens[0])).longValue();
-                }
-                // 获取每一行数据的第二列，及以后的列
-                for (int i = 1; i < tokens.length; i++) {
-                    // Assume that the first line contains the column names.
-                    if (firstLine) { // 首行处理方式
+                    // 获取每一行数据的第二列，及以后的列
+                    for (int i = 1; i < tokens.length; i++) {
                         // 初始化时序对象（这个对象对应一列，也就是对应一个属性），设置文件名
                         TimeSeries ts = new TimeSeries();
                         ts.meta.fileName = csv_file;
                         // 输入数据的每一个属性列会被归结为一个TimeSeries
                         output.add(ts);
+                        columns.add(new ColumnarSequence());
                         // 如果是列头，就设置属性名字
                         if (isNumeric(tokens[i]) == false) { // Just in case there's a numeric column heading
                             ts.meta.name = tokens[i];
@@ -89,60 +142,79 @@ public class FileUtils {
                             // 如果数据列没有名字，那么系统来自定义名字
                             ts.meta.name = "metric_" + i;
                             // 如果不是列头，就对当前的ts对象设置数据
-                            output.get(i - 1).append((new Double(tokens[0])).longValue()/*时间戳*/,
-                                    new Float(tokens[i])/*值*/);
+                            append(columns.get(i - 1), (new Double(tokens[0])).longValue()/*时间戳*/,
+                                   new Float(tokens[i])/*值*/);
                         }
-                    } else { // 其他行处理方式
-                        // A naive missing data handler. 数据缺失控制器，仅在fillMissing参数为true时，有效
-                        if (interval != null && prevTimestamp != null && interval > 0 && fillMissing == true) {
-                            if ((curTimestamp - prevTimestamp) != interval) { // 当前时间和之前一个时间的时间间隔不一致，则进行数据填充
-                                // 计算缺失的时间段
-                                int missingValues = (int) ((curTimestamp - prevTimestamp) / interval);
-                                
-                                Long curTimestampToFill = prevTimestamp + interval;
-                                for (int j = (missingValues - 1); j > 0; j--) { // 填充缺失时间段内的数据
-                                    Float valToFill =  new Float(tokens[i]); // 缺失值和现有值保持一致 或 把挨着缺失时间段的现有时间段的值向前移动来填补
-                                    if (output.get(i - 1).size() >= missingValues) {
-                                        valToFill = output.get(i - 1).data.get(output.get(i - 1).size() - missingValues).value;
-                                    }
-                                    // 填充missing数据
-                                    output.get(i - 1).append(curTimestampToFill, valToFill);
-                                    curTimestampToFill += interval;
+                    }
+                    firstLine = false;
+                    continue;
+                }
+
+                int n = csv.fieldCount();
+                // 时序数据的时间戳
+                long curTimestamp = 0;
+                if (n > 1) {
+                    curTimestamp = (long) csv.parseDouble(0);
+                }
+                for (int i = 1; i < n; i++) {
+                    if (i > columns.size()) {
+                        throw new IndexOutOfBoundsException("line with " + n + " fields, header has "
+                                                            + (columns.size() + 1));
+                    }
+                    ColumnarSequence column = columns.get(i - 1);
+                    float value = csv.parseFloat(i);
+                    // A naive missing data handler. 数据缺失控制器，仅在fillMissing参数为true时，有效
+                    if (hasInterval && hasPrevTimestamp && interval > 0 && fillMissing == true) {
+                        if ((curTimestamp - prevTimestamp) != interval) { // 当前时间和之前一个时间的时间间隔不一致，则进行数据填充
+                            // 计算缺失的时间段
+                            int missingValues = (int) ((curTimestamp - prevTimestamp) / interval);
+
+                            long curTimestampToFill = prevTimestamp + interval;
+                            for (int j = (missingValues - 1); j > 0; j--) { // 填充缺失时间段内的数据
+                                float valToFill = value; // 缺失值和现有值保持一致 或 把挨着缺失时间段的现有时间段的值向前移动来填补
+                                if (column.size() >= missingValues) {
+                                    valToFill = column.valueAt(column.size() - missingValues);
                                 }
+                                // 填充missing数据
+                                append(column, curTimestampToFill, valToFill);
+                                curTimestampToFill += interval;
                             }
                         }
-                        // Infer interval. 指定时间错的时间间隔
-                        if (interval == null && prevTimestamp != null) {
-                            interval = curTimestamp - new Long(prevTimestamp);
-                        }
-
-                        // 对当前的ts对象设置数据
-                        output.get(i - 1).append(curTimestamp,
-                                new Float(tokens[i]));
                     }
+                    // Infer interval. 指定时间错的时间间隔
+                    if (!hasInterval && hasPrevTimestamp) {
+                        interval = curTimestamp - prevTimestamp;
+                        hasInterval = true;
+                    }
+
+                    // 对当前的列设置数据
+                    append(column, curTimestamp, value);
                 }
-                if (firstLine == false) {
-                    prevTimestamp = curTimestamp;
-                }
-                firstLine = false;
+                // A line without values resets the previous time-stamp.
+                prevTimestamp = curTimestamp;
+                hasPrevTimestamp = n > 1;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         } finally {
-            try {
-                fileReader.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            for (int i = 0; i < columns.size(); i++) {
+                output.get(i).data = new TimeSeries.DataSequence(columns.get(i));
             }
-        }
-        // Handle aggregation.
-        if (aggregation > 1) {
-            for (TimeSeries t : output) {
-                t.data = t.aggregate(aggregation);
-                t.meta.name += "_aggr_" + aggregation;
+            // Handle aggregation.
+            if (aggregation > 1) {
+                for (TimeSeries t : output) {
+                    t.data = t.aggregate(aggregation);
+                    t.meta.name += "_aggr_" + aggregation;
+                }
             }
         }
-        return output;
+    }
+
+    // Same check as TimeSeries.append().
+    private static void append(ColumnarSequence column, long time, float value) throws Exception {
+        int size = column.size();
+        if (size > 0 && time < column.timeAt(size - 1)) {
+            throw new Exception("time=" + time + " at index=" + size + " out of order");
+        }
+        column.add(time, value);
     }
         
     // Checks if the string is numeric.
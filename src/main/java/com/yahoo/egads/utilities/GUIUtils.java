@@ -50,8 +50,8 @@ import java.util.ArrayList;
 import com.yahoo.egads.data.Anomaly.IntervalSequence;
 import com.yahoo.egads.data.Anomaly.Interval;
 import java.awt.Color;
-import java.util.HashMap;
 import com.yahoo.egads.data.AnomalyErrorStorage;
+import com.yahoo.egads.data.ErrorMetrics;
 import java.util.Properties;
 import javax.swing.JFrame;
 
@@ -126,7 +126,7 @@ public class GUIUtils extends ApplicationFrame {
      */
     public void addAnomalyTS(CombinedDomainXYPlot plot, DataSequence observedSeries, DataSequence expectedSeries) {
         // Compute the time-series of errors.
-        HashMap<String, ArrayList<Float>> allErrors = anomalyErrorStorage.initAnomalyErrors(observedSeries, expectedSeries);
+        ErrorMetrics allErrors = anomalyErrorStorage.initErrorMetrics(observedSeries, expectedSeries, null);
         Float sDAutoSensitivity = (float) 0.0;
         Float amntAutoSensitivity = (float) 0.0;
         // Denotes the expected % of anomalies
@@ -140,7 +140,7 @@ public class GUIUtils extends ApplicationFrame {
 
         String errorDebug = "";
         for (int i = 0; i < (anomalyErrorStorage.getIndexToError().keySet()).size(); i++) {
-            Float[] fArray = (allErrors.get(anomalyErrorStorage.getIndexToError().get(i))).toArray(new Float[(allErrors.get(anomalyErrorStorage.getIndexToError().get(i))).size()]);
+            Float[] fArray = allErrors.boxed(i);
             XYDataset data1 = createDataset(fArray, anomalyErrorStorage.getIndexToError().get(i));
             XYItemRenderer renderer1 = new StandardXYItemRenderer();
             NumberAxis rangeAxis1 = new NumberAxis(anomalyErrorStorage.getIndexToError().get(i));
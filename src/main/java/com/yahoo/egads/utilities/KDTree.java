@@ -0,0 +1,304 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// KDTree is a static k-d tree over a fixed set of points used for the
+// eps-neighborhood queries of DBSCAN. The tree is kept implicitly in a
+// permutation of the point indices: the node of a range [lo, hi) splits at
+// its middle element, everything left of it is <= and everything right of it
+// is >= the middle element on the split axis. Points can be deactivated so
+// that searches restricted to the active points skip them, and skip whole
+// subtrees without any active point left.
+
+package com.yahoo.egads.utilities;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.ml.distance.DistanceMeasure;
+
+public class KDTree {
+
+    // Ranges up to this size are scanned instead of split further.
+    private static final int LEAF_SIZE = 8;
+
+    private final double[][] points;
+    private final int dimension;
+    // point indices in tree order
+    private final int[] index;
+    // coordinates in tree order, point at position p starts at p * dimension
+    private final double[] coordinates;
+    // split axis of the node whose middle element is at this position
+    private final int[] axis;
+    // bounding box of the node whose middle element is at position p, at p * dimension
+    private final double[] lower;
+    private final double[] upper;
+    // number of active points under the node whose middle element is at this position
+    private final int[] activeCount;
+    // tree position of each point, -1 for the points left out
+    private final int[] position;
+    // active flag by tree position
+    private final boolean[] active;
+    private final int size;
+    // single point buffer for the distance computations
+    private final double[] scratch;
+
+    // Receives the points found by a search.
+    public interface Visitor {
+        // Called with the index of every point in the box, whose coordinates are the
+        // 'coordinates' from 'offset' on. Returns false to stop the search.
+        boolean visit(int index, double[] coordinates, int offset);
+    }
+
+    // Builds the tree over 'points', which are referenced, not copied. Points with a
+    // NaN coordinate are left out since they are not within any distance of anything.
+    public KDTree(double[][] points) {
+        this.points = points;
+        this.dimension = points.length == 0 ? 0 : points[0].length;
+        int[] valid = new int[points.length];
+        int n = 0;
+        for (int i = 0; i < points.length; i++) {
+            if (points[i].length != dimension) {
+                throw new IllegalArgumentException("point " + i + " has dimension " + points[i].length
+                                                   + ", expected " + dimension);
+            }
+            if (!hasNaN(points[i])) {
+                valid[n++] = i;
+            }
+        }
+        this.size = n;
+        this.index = valid;
+        this.axis = new int[n];
+        this.lower = new double[n * dimension];
+        this.upper = new double[n * dimension];
+        this.activeCount = new int[n];
+        this.active = new boolean[n];
+        this.scratch = new double[dimension];
+        build(0, n);
+        this.coordinates = new double[n * dimension];
+        this.position = new int[points.length];
+        Arrays.fill(position, -1);
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(points[index[i]], 0, coordinates, i * dimension, dimension);
+            position[index[i]] = i;
+            active[i] = true;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Visits the points within 'radius' of 'query' along every axis, in no particular
+    // order, until the visitor returns false. This is a superset of the points within
+    // 'radius' under any Minkowski distance. Returns false if the search was stopped.
+    public boolean search(double[] query, double radius, boolean activeOnly, Visitor visitor) {
+        return search(query, radius, activeOnly, visitor, 0, size);
+    }
+
+    // Counts the points p with measure.compute(p, query) <= radius, stopping once 'limit'
+    // is reached. 'measure' has to be a Minkowski distance (Euclidean, Manhattan or
+    // Chebyshev): a whole node is counted without visiting its points when the farthest
+    // corner of its bounding box is within 'radius'. The computed distances are monotone
+    // in each coordinate difference, so this gives the same count as testing every point.
+    public int count(double[] query, double radius, DistanceMeasure measure, int limit) {
+        return count(query, radius, measure, limit, 0, 0, size);
+    }
+
+    // Excludes point i from the searches restricted to the active points.
+    public void deactivate(int i) {
+        int pos = position[i];
+        if (pos < 0 || !active[pos]) {
+            return;
+        }
+        active[pos] = false;
+        int lo = 0;
+        int hi = size;
+        while (hi - lo > LEAF_SIZE) {
+            int mid = (lo + hi) >>> 1;
+            activeCount[mid]--;
+            if (pos == mid) {
+                break;
+            } else if (pos < mid) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+    }
+
+    public boolean isActive(int i) {
+        return position[i] >= 0 && active[position[i]];
+    }
+
+    // methods: tree ////////////////////////////////////////////////
+
+    private void build(int lo, int hi) {
+        if (hi - lo <= LEAF_SIZE) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int a = widestAxis(lo, hi, mid * dimension);
+        select(lo, hi - 1, mid, a);
+        axis[mid] = a;
+        activeCount[mid] = hi - lo;
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    private boolean search(double[] query, double radius, boolean activeOnly, Visitor visitor, int lo, int hi) {
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i++) {
+                if ((!activeOnly || active[i]) && inBox(query, i, radius)
+                    && !visitor.visit(index[i], coordinates, i * dimension)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        int mid = (lo + hi) >>> 1;
+        if ((activeOnly && activeCount[mid] == 0) || !intersects(query, radius, mid * dimension)) {
+            return true;
+        }
+        int a = axis[mid];
+        double split = coordinates[mid * dimension + a];
+        if ((!activeOnly || active[mid]) && inBox(query, mid, radius)
+            && !visitor.visit(index[mid], coordinates, mid * dimension)) {
+            return false;
+        }
+        if (query[a] - radius <= split && !search(query, radius, activeOnly, visitor, lo, mid)) {
+            return false;
+        }
+        if (query[a] + radius >= split && !search(query, radius, activeOnly, visitor, mid + 1, hi)) {
+            return false;
+        }
+        return true;
+    }
+
+    private int count(double[] query, double radius, DistanceMeasure measure, int limit, int found, int lo, int hi) {
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi && found < limit; i++) {
+                if (inBox(query, i, radius) && within(query, radius, measure, i)) {
+                    found++;
+                }
+            }
+            return found;
+        }
+        int mid = (lo + hi) >>> 1;
+        int box = mid * dimension;
+        if (!intersects(query, radius, box)) {
+            return found;
+        }
+        for (int k = 0; k < dimension; k++) {
+            double l = lower[box + k];
+            double u = upper[box + k];
+            scratch[k] = Math.abs(l - query[k]) >= Math.abs(u - query[k]) ? l : u;
+        }
+        if (measure.compute(scratch, query) <= radius) {
+            return found + (hi - lo);
+        }
+        if (inBox(query, mid, radius) && within(query, radius, measure, mid)) {
+            found++;
+        }
+        int a = axis[mid];
+        double split = coordinates[box + a];
+        if (found < limit && query[a] - radius <= split) {
+            found = count(query, radius, measure, limit, found, lo, mid);
+        }
+        if (found < limit && query[a] + radius >= split) {
+            found = count(query, radius, measure, limit, found, mid + 1, hi);
+        }
+        return found;
+    }
+
+    // helpers ////////////////////////////////////////////////
+
+    private boolean within(double[] query, double radius, DistanceMeasure measure, int pos) {
+        System.arraycopy(coordinates, pos * dimension, scratch, 0, dimension);
+        return measure.compute(scratch, query) <= radius;
+    }
+
+    private static boolean hasNaN(double[] p) {
+        for (double x : p) {
+            if (Double.isNaN(x)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean inBox(double[] query, int pos, double radius) {
+        int p = pos * dimension;
+        for (int k = 0; k < dimension; k++) {
+            // written so that a NaN difference fails as well
+            if (!(Math.abs(query[k] - coordinates[p + k]) <= radius)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean intersects(double[] query, double radius, int box) {
+        for (int k = 0; k < dimension; k++) {
+            if (query[k] + radius < lower[box + k] || query[k] - radius > upper[box + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Stores the bounding box of [lo, hi) at 'box' and returns its widest axis.
+    private int widestAxis(int lo, int hi, int box) {
+        int best = 0;
+        double bestSpread = -1;
+        for (int k = 0; k < dimension; k++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++) {
+                double x = points[index[i]][k];
+                min = Math.min(min, x);
+                max = Math.max(max, x);
+            }
+            lower[box + k] = min;
+            upper[box + k] = max;
+            double spread = max - min;
+            if (spread > bestSpread) {
+                best = k;
+                bestSpread = spread;
+            }
+        }
+        return best;
+    }
+
+    // Quickselect on index[lo..hi] so that position k holds the k-th smallest point on axis a.
+    private void select(int lo, int hi, int k, int a) {
+        while (hi > lo) {
+            double pivot = points[index[(lo + hi) >>> 1]][a];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (points[index[i]][a] < pivot) {
+                    i++;
+                }
+                while (points[index[j]][a] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int t = index[i];
+                    index[i] = index[j];
+                    index[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// KernelDensityWindow keeps the sliding pre/post windows of the adaptive kernel
+// density change point detector in primitive ring buffers and updates the kernel
+// sums in place. It computes the same KL score and level set as the LinkedList
+// based AdaptiveKernelDensityChangePointDetector.computeKLScore(): every float
+// operation is done in the same order and precision, so the results are
+// bit-identical, only without the per point allocations.
+
+package com.yahoo.egads.utilities;
+
+import java.util.Arrays;
+
+public class KernelDensityWindow {
+
+    private static final double SQRT_2PI = Math.sqrt(2 * Math.PI);
+    private static final float EPS = 1e-10F;
+
+    private final int preWindowSize;
+    private final int postWindowSize;
+    private final int capacity;
+    private final float confidence;
+
+    // Ring buffers sharing one head, logical index j lives at slot (head + j) % capacity.
+    // residuals
+    private final float[] buffer;
+    // standard deviations
+    private final float[] sdBuffer;
+    // pre-window and post-window kernel sums
+    private final float[] preKernelSum;
+    private final float[] postKernelSum;
+    // 2 * sd^2 and sd * sqrt(2 * PI) of each slot, the kernel denominators
+    private final double[] twoVar;
+    private final double[] norm;
+    private int head = 0;
+    private int size = 0;
+
+    // sum of residuals in the buffer
+    private float sumBuffer = 0;
+    // sum of squared residuals in the buffer
+    private float sqrSumBuffer = 0;
+
+    // scratch space for the level set quantile
+    private final float[] levels;
+    // {KL score, level threshold} of the last point, reused between calls
+    private final float[] result = new float[2];
+
+    public KernelDensityWindow(int preWindowSize, int postWindowSize, float confidence) {
+        if (preWindowSize < 1 || postWindowSize < 1) {
+            throw new IllegalArgumentException("PRE_WINDOW_SIZE and POST_WINDOW_SIZE should be > 0");
+        }
+        this.preWindowSize = preWindowSize;
+        this.postWindowSize = postWindowSize;
+        this.capacity = preWindowSize + postWindowSize;
+        this.confidence = confidence;
+        buffer = new float[capacity];
+        sdBuffer = new float[capacity];
+        preKernelSum = new float[capacity];
+        postKernelSum = new float[capacity];
+        twoVar = new double[capacity];
+        norm = new double[capacity];
+        levels = new float[preWindowSize];
+    }
+
+    public int getPreWindowSize() {
+        return preWindowSize;
+    }
+
+    public int getPostWindowSize() {
+        return postWindowSize;
+    }
+
+    public float getConfidence() {
+        return confidence;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+        sumBuffer = 0;
+        sqrSumBuffer = 0;
+    }
+
+    // Adds the next residual and returns {KL score, level threshold}. Both are 0
+    // until the windows are full. The returned array is overwritten by the next call.
+    public float[] update(float residual) {
+        float dKL = 0;
+        float levelThreshold = 0;
+        int len = size;
+
+        if (len < preWindowSize) {
+            // Filling the pre-window
+            int s = slot(len);
+            buffer[s] = residual;
+            postKernelSum[s] = 0F;
+            size++;
+
+            if (len == (preWindowSize - 1)) {
+                int n = preWindowSize;
+                float sum = 0;
+                float sqrSum = 0;
+                for (int j = 0; j < n; ++j) {
+                    sum += buffer[slot(j)];
+                }
+                for (int j = 0; j < n; ++j) {
+                    float f = buffer[slot(j)];
+                    sqrSum += (f * f);
+                }
+                sumBuffer = sum;
+                sqrSumBuffer = sqrSum;
+                float temp = sd(n);
+                for (int j = 0; j < n; ++j) {
+                    setSd(slot(j), temp);
+                }
+                for (int j = 0; j < n; ++j) {
+                    preKernelSum[slot(j)] = kernelSubSum(buffer[slot(j)], 0, n - 1);
+                }
+            }
+        } else if (len < capacity) {
+            // Filling the post-window
+            sumBuffer = sumBuffer + residual;
+            sqrSumBuffer = sqrSumBuffer + residual * residual;
+            float temp = sd(len + 1);
+            int s = slot(len);
+            setSd(s, temp);
+
+            double tv = 2 * Math.pow(temp, 2);
+            double nm = temp * SQRT_2PI;
+            for (int j = 0; j < len; ++j) {
+                int t = slot(j);
+                postKernelSum[t] = kernel(buffer[t], residual, tv, nm) + postKernelSum[t];
+            }
+            buffer[s] = residual;
+            size++;
+            preKernelSum[s] = kernelSubSum(residual, 0, preWindowSize - 1);
+            postKernelSum[s] = kernelSubSum(residual, preWindowSize, len);
+        } else {
+            // updating the pre-stats
+            int first = slot(0);
+            int mid = slot(preWindowSize);
+            float firstValue = buffer[first];
+            float midValue = buffer[mid];
+            double firstTwoVar = twoVar[first];
+            double firstNorm = norm[first];
+            double midTwoVar = twoVar[mid];
+            double midNorm = norm[mid];
+            for (int j = 0; j < capacity; ++j) {
+                int t = slot(j);
+                float x = buffer[t];
+                preKernelSum[t] = preKernelSum[t] - kernel(x, firstValue, firstTwoVar, firstNorm);
+                preKernelSum[t] = kernel(x, midValue, midTwoVar, midNorm) + preKernelSum[t];
+            }
+
+            // Computing the new sd
+            sumBuffer += (residual - firstValue);
+            sqrSumBuffer += (residual * residual - Math.pow(firstValue, 2));
+            float temp = sd(len);
+
+            // updating the post-stats
+            double tv = 2 * Math.pow(temp, 2);
+            double nm = temp * SQRT_2PI;
+            for (int j = 0; j < capacity; ++j) {
+                int t = slot(j);
+                float x = buffer[t];
+                postKernelSum[t] = postKernelSum[t] - kernel(x, midValue, midTwoVar, midNorm);
+                postKernelSum[t] = kernel(x, residual, tv, nm) + postKernelSum[t];
+            }
+
+            // updating the window, the oldest slot becomes the newest one
+            head = first + 1 == capacity ? 0 : first + 1;
+            buffer[first] = residual;
+            setSd(first, temp);
+            preKernelSum[first] = kernelSubSum(residual, 0, preWindowSize - 1);
+            postKernelSum[first] = kernelSubSum(residual, preWindowSize, capacity - 1);
+
+            float sumLogPre = 0;
+            float sumLogPost = 0;
+            float sumLogSd = 0;
+            for (int j = preWindowSize; j < capacity; ++j) {
+                int t = slot(j);
+                sumLogPre += Math.log(Math.max(preKernelSum[t], EPS));
+                sumLogPost += Math.log(Math.max(postKernelSum[t], EPS));
+                sumLogSd += Math.log(sdBuffer[t]);
+            }
+
+            float scale = 1.0F / preWindowSize;
+            for (int j = 0; j < preWindowSize; ++j) {
+                levels[j] = preKernelSum[slot(j)] * scale;
+            }
+            float levelSet = quantile(levels, 1 - confidence);
+            levelThreshold = (float) (-Math.log(levelSet) - Math.log(2 * Math.PI) / 2 - sumLogSd / postWindowSize);
+
+            // computing the KL-divergence
+            dKL = (float) ((sumLogPost - sumLogPre + Math.log(preWindowSize / postWindowSize)) / postWindowSize
+                           + Math.log(levelSet * SQRT_2PI) + sumLogSd / postWindowSize);
+        }
+
+        result[0] = dKL;
+        result[1] = levelThreshold;
+        return result;
+    }
+
+    // helpers ////////////////////////////////////////////////
+
+    private int slot(int j) {
+        int s = head + j;
+        return s >= capacity ? s - capacity : s;
+    }
+
+    private float sd(int n) {
+        return (float) Math.max(1e-5, Math.sqrt(2 * (n * sqrSumBuffer - sumBuffer * sumBuffer) / (n * (n - 1))));
+    }
+
+    private void setSd(int s, float sd) {
+        sdBuffer[s] = sd;
+        twoVar[s] = 2 * Math.pow(sd, 2);
+        norm[s] = sd * SQRT_2PI;
+    }
+
+    // Gaussian kernel rounded to float, as ListUtils.kernelQ does.
+    private static float kernel(float x, float m, double twoVar, double norm) {
+        return (float) (Math.exp(-Math.pow(x - m, 2) / twoVar) / norm);
+    }
+
+    // Same as ListUtils.kernelSubSum over the logical indices from..to.
+    private float kernelSubSum(float x, int from, int to) {
+        float res = 0;
+        for (int j = from; j <= to; ++j) {
+            int t = slot(j);
+            res += Math.exp(-Math.pow(x - buffer[t], 2) / twoVar[t]) / norm[t];
+        }
+        return res;
+    }
+
+    // Same as ListUtils.quantile, sorts Q in place.
+    private static float quantile(float[] Q, float probability) {
+        Arrays.sort(Q);
+        int n = Q.length;
+
+        float index = (n - 1) * probability;
+        int lo = (int) Math.floor(index);
+        int hi = (int) Math.ceil(index);
+        float h = index - lo;
+        return (1 - h) * Q[lo] + h * Q[hi];
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// LaggedTrimmedMean computes the olympic estimate of OlympicModel: the mean of
+// the values one, two, ... numWeeks lags before a point, without the numToDrop
+// lowest and highest ones. The lagged values go into a primitive per-thread
+// scratch buffer, sorted in place by insertion (there are only numWeeks of
+// them), and the dynamic parameters early stop is checked on a running sum
+// while they are collected. The floats are added in the same order as the
+// ArrayList based OlympicModel.computeExpected(), so the estimates are
+// bit-identical.
+
+package com.yahoo.egads.utilities;
+
+public class LaggedTrimmedMean {
+
+    private static final float PRECISION = (float) 0.000001;
+
+    private static final ThreadLocal<float[]> SCRATCH = new ThreadLocal<float[]>() {
+        @Override
+        protected float[] initialValue() {
+            return new float[16];
+        }
+    };
+
+    private final int numWeeks;
+    private final int numToDrop;
+    // Stop collecting lagged values once one moves the mean away from the point.
+    private final boolean dynamic;
+
+    public LaggedTrimmedMean(int numWeeks, int numToDrop, boolean dynamic) {
+        this.numWeeks = numWeeks;
+        this.numToDrop = numToDrop;
+        this.dynamic = dynamic;
+    }
+
+    // The estimate of every point for one lag, +Infinity for the points
+    // less than one lag from the start.
+    public float[] compute(float[] values, int lag) {
+        float[] out = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            out[i] = compute(values, i, lag);
+        }
+        return out;
+    }
+
+    // The estimate of point i.
+    public float compute(float[] values, int i, int lag) {
+        if (i - lag < 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float[] vals = scratch();
+        float current = values[i];
+        float sum = 0;
+        int count = 0;
+        for (int j = 1; j <= numWeeks && i - lag * j >= 0; j++) {
+            float lastWeeksVal = values[i - lag * j];
+            if (dynamic && count > 0) {
+                float withNewVal = (sum + lastWeeksVal) / (count + 1);
+                float withoutNewVal = sum / count;
+                if ((Math.abs(withNewVal - current) - Math.abs(withoutNewVal - current)) > PRECISION) {
+                    break;
+                }
+            }
+            // insertion, in the order of Float.compareTo() as Collections.sort()
+            int k = count - 1;
+            while (k >= 0 && Float.compare(vals[k], lastWeeksVal) > 0) {
+                vals[k + 1] = vals[k];
+                k--;
+            }
+            vals[k + 1] = lastWeeksVal;
+            sum = sum + lastWeeksVal;
+            count++;
+        }
+
+        int from = 0;
+        int to = count;
+        if (count > 2 * numToDrop) {
+            from = numToDrop;
+            to = count - numToDrop;
+        }
+        float trimmed = 0;
+        for (int k = from; k < to; k++) {
+            trimmed = trimmed + vals[k];
+        }
+        return trimmed / (to - from);
+    }
+
+    private float[] scratch() {
+        float[] vals = SCRATCH.get();
+        if (vals.length < numWeeks) {
+            vals = new float[numWeeks];
+            SCRATCH.set(vals);
+        }
+        return vals;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+// SortedDBSCANClusterer clusters one-dimensional points the way
+// DBSCANClusterer does, with the same eps and minPts, but from the sorted
+// values instead of neighborhood queries: the values are sorted once, the
+// neighbors of every value are counted with two pointers, and the clusters
+// are the runs of core values less than eps apart. O(n log n) for the sort,
+// no Clusterable map.
+//
+// DBSCANClusterer keeps its visited points in a map keyed by the point
+// values, so it decides per value and in input order: a value is reported as
+// noise when it is not core and its first point comes before the first core
+// point of every cluster within eps of it. The same rule is applied here.
+
+package com.yahoo.egads.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.math3.ml.clustering.Cluster;
+import org.apache.commons.math3.ml.clustering.Clusterable;
+
+public class SortedDBSCANClusterer<T extends Clusterable> {
+
+    // Label of the points reported as noise.
+    public static final int NOISE = -1;
+
+    private final double eps;
+    private final int minPts;
+
+    // Same parameters as DBSCANClusterer, the Euclidean, Manhattan and Chebyshev
+    // distances are all |a - b| in one dimension.
+    public SortedDBSCANClusterer(double eps, int minPts) {
+        if (!(eps >= 0) || Double.isInfinite(eps)) {
+            throw new IllegalArgumentException("eps should be finite and >= 0");
+        }
+        if (minPts < 0) {
+            throw new IllegalArgumentException("minPts should be >= 0");
+        }
+        this.eps = eps;
+        this.minPts = minPts;
+    }
+
+    // True if every point has exactly one coordinate.
+    public static boolean isOneDimensional(Collection<? extends Clusterable> points) {
+        for (Clusterable point : points) {
+            if (point.getPoint().length != 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Same as DBSCANClusterer.cluster(): a single cluster with the points
+    // reported as noise, the first point of each noise value, in input order.
+    // An object listed twice counts as two points.
+    public List<Cluster<T>> cluster(Collection<T> points) {
+        List<T> list = new ArrayList<T>(points);
+        double[] values = new double[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            double[] point = list.get(i).getPoint();
+            if (point.length != 1) {
+                throw new IllegalArgumentException("SortedDBSCANClusterer only clusters one-dimensional points");
+            }
+            values[i] = point[0];
+        }
+        double[] distinct = distinct(values);
+        int[] ids = valueIds(values, distinct);
+        int[] labels = labels(values, distinct, ids);
+        Cluster<T> noise = new Cluster<T>();
+        boolean[] reported = new boolean[distinct.length];
+        for (int i = 0; i < values.length; i++) {
+            if (labels[i] == NOISE && !reported[ids[i]]) {
+                reported[ids[i]] = true;
+                noise.addPoint(list.get(i));
+            }
+        }
+        List<Cluster<T>> clusters = new ArrayList<Cluster<T>>();
+        clusters.add(noise);
+        return clusters;
+    }
+
+    // The cluster of each value, numbered in the order DBSCANClusterer finds
+    // them, or NOISE for all the points of a value it reports as noise. A
+    // noise value that a later cluster reaches is labelled NOISE only.
+    public int[] labels(double[] values) {
+        double[] distinct = distinct(values);
+        return labels(values, distinct, valueIds(values, distinct));
+    }
+
+    private int[] labels(double[] values, double[] distinct, int[] ids) {
+        int n = values.length;
+        int m = distinct.length;
+        // number of points and first point of each value
+        int[] counts = new int[m];
+        int[] first = new int[m];
+        Arrays.fill(first, -1);
+        for (int i = 0; i < n; i++) {
+            counts[ids[i]]++;
+            if (first[ids[i]] < 0) {
+                first[ids[i]] = i;
+            }
+        }
+        // the finite values are distinct[from..to), the infinities and NaN are
+        // nobody's neighbors for a finite eps
+        int from = 0;
+        while (from < m && distinct[from] == Double.NEGATIVE_INFINITY) {
+            from++;
+        }
+        int to = m;
+        while (to > from && !(distinct[to - 1] < Double.POSITIVE_INFINITY)) {
+            to--;
+        }
+        int[] cumulative = new int[m + 1];
+        for (int d = 0; d < m; d++) {
+            cumulative[d + 1] = cumulative[d] + counts[d];
+        }
+
+        // core values, the other points within eps, without the point itself
+        boolean[] core = new boolean[m];
+        int lo = from;
+        int hi = from;
+        for (int d = 0; d < m; d++) {
+            if (d < from || d >= to) {
+                core[d] = minPts == 0;
+                continue;
+            }
+            while (!(Math.abs(distinct[d] - distinct[lo]) <= eps)) {
+                lo++;
+            }
+            if (hi < d) {
+                hi = d;
+            }
+            while (hi + 1 < to && Math.abs(distinct[hi + 1] - distinct[d]) <= eps) {
+                hi++;
+            }
+            core[d] = cumulative[hi + 1] - cumulative[lo] - 1 >= minPts;
+        }
+
+        // components: runs of core values less than eps apart, each non-finite core value alone
+        int[] component = new int[m];
+        int components = 0;
+        int previous = -1;
+        for (int d = 0; d < m; d++) {
+            if (!core[d]) {
+                continue;
+            }
+            if (previous < 0 || d >= to || previous < from
+                || !(Math.abs(distinct[d] - distinct[previous]) <= eps)) {
+                components++;
+            }
+            component[d] = components - 1;
+            previous = d;
+        }
+        // the clusters in the order their first core point comes
+        int[] start = new int[components];
+        int[] number = new int[components];
+        Arrays.fill(number, -1);
+        int clusters = 0;
+        for (int i = 0; i < n; i++) {
+            int d = ids[i];
+            if (core[d] && number[component[d]] < 0) {
+                number[component[d]] = clusters++;
+                start[component[d]] = i;
+            }
+        }
+
+        // each other value goes to the first cluster within eps, or is noise
+        // if its first point comes before
+        int[] above = new int[m];
+        int next = to;
+        for (int d = to - 1; d >= from; d--) {
+            above[d] = next;
+            if (core[d]) {
+                next = d;
+            }
+        }
+        int[] label = new int[m];
+        int below = -1;
+        for (int d = 0; d < m; d++) {
+            if (core[d]) {
+                label[d] = number[component[d]];
+                below = d;
+                continue;
+            }
+            label[d] = NOISE;
+            if (d < from || d >= to) {
+                continue;
+            }
+            int owner = -1;
+            if (below >= from && Math.abs(distinct[d] - distinct[below]) <= eps) {
+                owner = component[below];
+            }
+            if (above[d] < to && Math.abs(distinct[above[d]] - distinct[d]) <= eps
+                && (owner < 0 || start[component[above[d]]] < start[owner])) {
+                owner = component[above[d]];
+            }
+            if (owner >= 0 && start[owner] < first[d]) {
+                label[d] = number[owner];
+            }
+        }
+
+        int[] labels = new int[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = label[ids[i]];
+        }
+        return labels;
+    }
+
+    // The distinct values in sorted order, told apart by their bits like the
+    // DoublePoint map keys of DBSCANClusterer.
+    private static double[] distinct(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int m = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (m == 0 || Double.compare(sorted[i], sorted[m - 1]) != 0) {
+                sorted[m++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, m);
+    }
+
+    private static int[] valueIds(double[] values, double[] distinct) {
+        int[] ids = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ids[i] = Arrays.binarySearch(distinct, values[i]);
+        }
+        return ids;
+    }
+}
@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 
 import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.math3.linear.EigenDecomposition;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.SingularValueDecomposition;
@@ -40,6 +41,9 @@ import com.yahoo.egads.data.TimeSeries;
  *         'methodParameter' and then filters out all the singular-values smaller than that singular-value. (Default 'methodParameter' = 0.1)
  *      6. 'GAP_RATIO' is similar to 'EIGEN_RATIO' except that the eigen gap to the largest (first) singular value ratio is used 
  *          instead of the direct ratio of each singular value to the largest (first) singular value. (Default 'methodParameter' = 0.01)
+ *
+ * fastFilter() is a faster equivalent of mFilter() for a single time-series which never builds the Hankel matrix: the spectrum
+ * comes from the eigenvalues of the windowSize x windowSize lag-covariance matrix and the reconstruction uses FFT convolutions.
  *      
  *        
  * @author amizadeh
@@ -117,20 +121,13 @@ public class SpectralMethods {
         return 2 * sumcumsum / variances.length - 1;
     }
 
-    public static RealMatrix mFilter(RealMatrix data, int windowSize, FilteringMethod method, double methodParameter) {
-
-        int n = data.getRowDimension();
-        int m = data.getColumnDimension();
-        int k = n - windowSize + 1;
+    // Index of the smallest singular value kept by the filtering method,
+    // singularValues being sorted in decreasing order.
+    protected static int selectRank(double[] singularValues, FilteringMethod method, double methodParameter) {
         int i = 0, ind = 0;
         double[] temp;
         double sum = 0;
 
-        RealMatrix hankelMat = SpectralMethods.createHankelMatrix(data, windowSize);
-        SingularValueDecomposition svd = new SingularValueDecomposition(hankelMat);
-
-        double[] singularValues = svd.getSingularValues();
-
         switch (method) {
             case VARIANCE:
                 temp = new double[singularValues.length - 1];
@@ -272,7 +269,22 @@ public class SpectralMethods {
                 break;
         }
 
-        ind = Math.max(0, Math.min(ind, singularValues.length - 1));
+        return Math.max(0, Math.min(ind, singularValues.length - 1));
+    }
+
+    public static RealMatrix mFilter(RealMatrix data, int windowSize, FilteringMethod method, double methodParameter) {
+
+        int n = data.getRowDimension();
+        int m = data.getColumnDimension();
+        int k = n - windowSize + 1;
+        int i = 0, ind = 0;
+
+        RealMatrix hankelMat = SpectralMethods.createHankelMatrix(data, windowSize);
+        SingularValueDecomposition svd = new SingularValueDecomposition(hankelMat);
+
+        double[] singularValues = svd.getSingularValues();
+        ind = SpectralMethods.selectRank(singularValues, method, methodParameter);
+
         RealMatrix truncatedHankelMatrix = MatrixUtils.createRealMatrix(k, m * windowSize);
         RealMatrix mU = svd.getU();
         RealMatrix mVT = svd.getVT();
@@ -310,4 +322,200 @@ public class SpectralMethods {
 
         return result;
     }
+
+    // The windowSize x windowSize lag-covariance matrix C = H'H of the Hankel matrix H of x.
+    protected static double[][] lagCovariance(double[] x, int windowSize) {
+
+        int n = x.length;
+        int k = n - windowSize + 1;
+        int size = Integer.highestOneBit(Math.max(n + windowSize, 2) - 1) << 1;
+
+        // C[0][b] = sum_{i < k} x[i] x[i + b], the correlation of the first k points with x
+        double[] xRe = Arrays.copyOf(x, size);
+        double[] xIm = new double[size];
+        fft(xRe, xIm, false);
+        double[] re = new double[size];
+        double[] im = new double[size];
+        System.arraycopy(x, 0, re, 0, k);
+        fft(re, im, false);
+        for (int f = 0; f < size; ++f) {
+            double r = re[f] * xRe[f] + im[f] * xIm[f];
+            im[f] = re[f] * xIm[f] - im[f] * xRe[f];
+            re[f] = r;
+        }
+        fft(re, im, true);
+
+        // C[a + 1][b + 1] = C[a][b] - x[a] x[b] + x[a + k] x[b + k]
+        double[][] cov = new double[windowSize][windowSize];
+        for (int b = 0; b < windowSize; ++b) {
+            cov[0][b] = re[b];
+            cov[b][0] = re[b];
+        }
+        for (int a = 1; a < windowSize; ++a) {
+            for (int b = a; b < windowSize; ++b) {
+                cov[a][b] = cov[a - 1][b - 1] - x[a - 1] * x[b - 1] + x[a - 1 + k] * x[b - 1 + k];
+                cov[b][a] = cov[a][b];
+            }
+        }
+        return cov;
+    }
+
+    // Indices of the values in decreasing order of the values.
+    protected static Integer[] descending(final double[] values) {
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(values[o2], values[o1]);
+            }
+        });
+        return order;
+    }
+
+    // Fast path of mFilter() for a single series x of length n, with k = n - windowSize + 1 rows in its Hankel matrix H.
+    // The filtering methods need the whole spectrum, so instead of a truncated SVD of H the singular values and the right
+    // singular vectors come from the eigen decomposition of the windowSize x windowSize lag-covariance matrix C = H'H, in
+    // O(n log n + windowSize^3). Component i adds (H v_i) v_i' to the truncated matrix, and the anti-diagonal sums of that
+    // rank-1 matrix are the convolution of H v_i with v_i, so both products are FFT convolutions of O(n log n).
+    public static double[] fastFilter(double[] x, int windowSize, FilteringMethod method, double methodParameter) {
+
+        int n = x.length;
+        int k = n - windowSize + 1;
+        if (windowSize < 1 || k < 1) {
+            throw new IllegalArgumentException("WINDOW_SIZE should be between 1 and " + n);
+        }
+
+        int size = Integer.highestOneBit(Math.max(n + windowSize, 2) - 1) << 1;
+        double[] xRe = Arrays.copyOf(x, size);
+        double[] xIm = new double[size];
+        fft(xRe, xIm, false);
+
+        EigenDecomposition eigen = new EigenDecomposition(MatrixUtils.createRealMatrix(lagCovariance(x, windowSize)));
+        double[] eigenValues = eigen.getRealEigenvalues();
+        Integer[] order = descending(eigenValues);
+
+        // H has min(k, windowSize) singular values
+        double[] singularValues = new double[Math.min(k, windowSize)];
+        for (int i = 0; i < singularValues.length; ++i) {
+            singularValues[i] = Math.sqrt(Math.max(eigenValues[order[i]], 0));
+        }
+        int ind = SpectralMethods.selectRank(singularValues, method, methodParameter);
+
+        double[] re = new double[size];
+        double[] im = new double[size];
+        double[] sumRe = new double[size];
+        double[] sumIm = new double[size];
+        double[] vRe = new double[size];
+        double[] vIm = new double[size];
+        for (int i = 0; i <= ind; ++i) {
+            double[] v = eigen.getEigenvector(order[i]).toArray();
+
+            // (H v)[r] = sum_j x[r + j] v[j], the convolution of x with v reversed shifted by windowSize - 1
+            Arrays.fill(re, 0);
+            Arrays.fill(im, 0);
+            for (int j = 0; j < windowSize; ++j) {
+                re[windowSize - 1 - j] = v[j];
+            }
+            fft(re, im, false);
+            for (int f = 0; f < size; ++f) {
+                double r = re[f] * xRe[f] - im[f] * xIm[f];
+                im[f] = re[f] * xIm[f] + im[f] * xRe[f];
+                re[f] = r;
+            }
+            fft(re, im, true);
+            System.arraycopy(re, windowSize - 1, re, 0, k);
+            Arrays.fill(re, k, size, 0);
+            Arrays.fill(im, 0);
+            fft(re, im, false);
+
+            Arrays.fill(vRe, 0);
+            Arrays.fill(vIm, 0);
+            System.arraycopy(v, 0, vRe, 0, windowSize);
+            fft(vRe, vIm, false);
+
+            // the convolutions of all of the components are summed before the inverse transform
+            for (int f = 0; f < size; ++f) {
+                sumRe[f] += re[f] * vRe[f] - im[f] * vIm[f];
+                sumIm[f] += re[f] * vIm[f] + im[f] * vRe[f];
+            }
+        }
+        fft(sumRe, sumIm, true);
+
+        // anti-diagonal t of the k x windowSize matrix has min(t + 1, k, windowSize, n - t) entries
+        double[] result = new double[n];
+        int l = Math.min(k, windowSize);
+        for (int t = 0; t < n; ++t) {
+            result[t] = sumRe[t] / Math.min(Math.min(t + 1, n - t), l);
+        }
+        return result;
+    }
+
+    public static TimeSeries.DataSequence fastFilter(TimeSeries.DataSequence data, int windowSize,
+                    FilteringMethod method, double methodParameter) {
+
+        double[] x = new double[data.size()];
+        for (int i = 0; i < x.length; ++i) {
+            x[i] = data.get(i).value;
+        }
+
+        double[] smoothed = SpectralMethods.fastFilter(x, windowSize, method, methodParameter);
+
+        TimeSeries.DataSequence result = new TimeSeries.DataSequence();
+        for (int i = 0; i < x.length; ++i) {
+            TimeSeries.Entry eCopy = new TimeSeries.Entry(data.get(i));
+            eCopy.value = (float) smoothed[i];
+            result.add(eCopy);
+        }
+
+        return result;
+    }
+
+    // In place radix-2 FFT, re.length being a power of 2. The inverse transform is scaled by 1 / re.length.
+    protected static void fft(double[] re, double[] im, boolean inverse) {
+        int n = re.length;
+        for (int i = 1, j = 0; i < n; ++i) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int len = 2; len <= n; len <<= 1) {
+            double angle = 2 * Math.PI / len * (inverse ? 1 : -1);
+            double wRe = Math.cos(angle), wIm = Math.sin(angle);
+            int half = len >> 1;
+            for (int i = 0; i < n; i += len) {
+                double uRe = 1, uIm = 0;
+                for (int j = 0; j < half; ++j) {
+                    int a = i + j, b = a + half;
+                    double tRe = re[b] * uRe - im[b] * uIm;
+                    double tIm = re[b] * uIm + im[b] * uRe;
+                    re[b] = re[a] - tRe;
+                    im[b] = im[a] - tIm;
+                    re[a] += tRe;
+                    im[a] += tIm;
+                    double r = uRe * wRe - uIm * wIm;
+                    uIm = uRe * wIm + uIm * wRe;
+                    uRe = r;
+                }
+            }
+        }
+        if (inverse) {
+            for (int i = 0; i < n; ++i) {
+                re[i] /= n;
+                im[i] /= n;
+            }
+        }
+    }
 }
@@ -60,40 +60,55 @@ public class StatisticsUtils {
             float r = AutoSensitivity.getKSigmaSensitivity(array, 3/*聚类的标准差*/);
             return r;
         } else if (SWITCH == 1) { // DBSCAN模型
-            // 将Array转为数据点
-            List<IdentifiedDoublePoint> points = Lists.newArrayList();
-            for (int i = 0; i < array.length; i++) {
-                double[] temp = new double[1];
-                temp[0] = array[i];
-                IdentifiedDoublePoint point = new IdentifiedDoublePoint(temp, i);
-                points.add(point);
-            }
-            DBSCANClusterer dbscanClusterer = new DBSCANClusterer(2/*聚类的领域半径*/, 2/*聚类的最小点*/);
-            long start = System.currentTimeMillis();
-            List<Cluster<IdentifiedDoublePoint>> clusters = dbscanClusterer.cluster_getClusters_MY(points, 0);
-            Cluster<IdentifiedDoublePoint> anomalyCluster = (Cluster) dbscanClusterer.cluster_getClusters_MY(points, 1).get(0);
-            log.info("DBSCAN聚类{}个点，cost:{}ms", points.size(), (System.currentTimeMillis() - start));
+            return getDBSCANThreshold(array);
+        }
+        return 0;
+    }
 
-            List<Float> newArr = Lists.newArrayList();
-            for (int i = 0; i < array.length; i++) {
-                boolean isSame = false;
-                for (int j = 0; j < anomalyCluster.getPoints().size(); j++) {
-                    IdentifiedDoublePoint temP = anomalyCluster.getPoints().get(j);
-                    double val = temP.getPoint()[0];
-                    if (val == array[i]) {
-                        isSame = true;
-                        break;
-                    }
-                }
-                if (!isSame) {
-                    newArr.add(array[i]);
-                }
+    // KSigma threshold of the values DBSCAN (eps 2, minPts 2) does not report
+    // as noise. One-dimensional points are clustered from the sorted values by
+    // SortedDBSCANClusterer, which gives the same noise as DBSCANClusterer.
+    public static float getDBSCANThreshold(Float[] array) {
+        // 将Array转为数据点
+        List<IdentifiedDoublePoint> points = Lists.newArrayList();
+        for (int i = 0; i < array.length; i++) {
+            double[] temp = new double[1];
+            temp[0] = array[i];
+            IdentifiedDoublePoint point = new IdentifiedDoublePoint(temp, i);
+            points.add(point);
+        }
+        long start = System.currentTimeMillis();
+        Cluster<IdentifiedDoublePoint> anomalyCluster;
+        if (SortedDBSCANClusterer.isOneDimensional(points)) {
+            anomalyCluster = new SortedDBSCANClusterer<IdentifiedDoublePoint>(2, 2).cluster(points).get(0);
+        } else {
+            DBSCANClusterer<IdentifiedDoublePoint> dbscanClusterer = new DBSCANClusterer<IdentifiedDoublePoint>(2/*聚类的领域半径*/, 2/*聚类的最小点*/,
+                    DBSCANClusterer.NeighborSearch.KD_TREE);
+            // 只用到噪声点，聚一次即可
+            anomalyCluster = dbscanClusterer.cluster_getClusters_MY(points, 1).get(0);
+        }
+        log.info("DBSCAN聚类{}个点，cost:{}ms", points.size(), (System.currentTimeMillis() - start));
+
+        // the values equal to a noise value, -0.0 == 0.0 and NaN is never equal
+        double[] noise = new double[anomalyCluster.getPoints().size()];
+        int count = 0;
+        for (IdentifiedDoublePoint p : anomalyCluster.getPoints()) {
+            double val = p.getPoint()[0];
+            if (!Double.isNaN(val)) {
+                noise[count++] = val == 0 ? 0.0 : val;
             }
-           Float[] nnnn = newArr.toArray(new Float[0]);
-//            return Float.valueOf(String.valueOf(clusters.get(clusters.size() - 1).getPoints().get(0).getPoint()[0]));
-            float r = AutoSensitivity.getKSigmaSensitivity(nnnn, 3/*聚类的标准差*/);
-            return r;
         }
-        return 0;
+        noise = Arrays.copyOf(noise, count);
+        Arrays.sort(noise);
+        List<Float> newArr = Lists.newArrayList();
+        for (int i = 0; i < array.length; i++) {
+            double val = array[i];
+            if (Double.isNaN(val) || Arrays.binarySearch(noise, val == 0 ? 0.0 : val) < 0) {
+                newArr.add(array[i]);
+            }
+        }
+        Float[] nnnn = newArr.toArray(new Float[0]);
+        float r = AutoSensitivity.getKSigmaSensitivity(nnnn, 3/*聚类的标准差*/);
+        return r;
     }
 }
@@ -8,8 +8,8 @@ package com.yahoo.egads.utilities;
 
 // Class that implements EGADS STDIN input processor.
 
-import com.yahoo.egads.control.ProcessableObject;
-import com.yahoo.egads.control.ProcessableObjectFactory;
+import com.yahoo.egads.control.AnomalyPrinter;
+import com.yahoo.egads.control.PipelineExecutor;
 import java.util.Properties;
 import java.io.*;
 import java.util.ArrayList;
@@ -24,13 +24,19 @@ public class StdinProcessor implements InputProcessor {
         if (p.getProperty("AGGREGATION") != null) {
           aggr = new Integer(p.getProperty("AGGREGATION"));
         }
-        while ((s = in.readLine()) != null && s.length() != 0) {
-            // Parse the time-series.
-            ArrayList<TimeSeries> metrics = createTimeSeries(s, aggr);
-            for (TimeSeries ts : metrics) {
-                ProcessableObject po = ProcessableObjectFactory.create(ts, p);
-                po.process();
+        // submit() blocks once the pipeline is full, so we stop reading
+        // input until the workers catch up.
+        PipelineExecutor executor = new PipelineExecutor(p, new AnomalyPrinter(p));
+        try {
+            while ((s = in.readLine()) != null && s.length() != 0) {
+                // Parse the time-series.
+                ArrayList<TimeSeries> metrics = createTimeSeries(s, aggr);
+                for (TimeSeries ts : metrics) {
+                    executor.submit(ts);
+                }
             }
+        } finally {
+            executor.close();
         }
     }
     
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.utilities;
+
+import java.io.Serializable;
+
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+
+/**
+ * SubspaceTracker smooths a time-series point by point with a rank-k subspace of its Hankel rows, the streaming
+ * counterpart of SpectralMethods.fastFilter().
+ *
+ * The subspace is initialized from the spectrum of the training points, k being the rank the filtering method keeps.
+ * Each new point adds the Hankel row of the last windowSize points, which updates the subspace by Projection
+ * Approximation Subspace Tracking (PAST, B. Yang, 1995) with the forgetting factor 1 - 1 / (number of Hankel rows at
+ * training), so that the subspace follows a trailing window of the same length. The projection of the row on the
+ * subspace is then averaged into the anti-diagonals of the last windowSize points. A point costs O(windowSize * k).
+ */
+public class SubspaceTracker implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int windowSize;
+    private final int rank;
+    private final double beta;
+    // windowSize x rank basis, row major
+    private final double[] w;
+    // rank x rank inverse correlation of the projections, row major
+    private final double[] p;
+    // the last windowSize points, their anti-diagonal sums and counts, point t in slot t % windowSize
+    private final double[] values;
+    private final double[] sums;
+    private final int[] counts;
+    private long points;
+
+    // buffers
+    private transient double[] row;
+    private transient double[] y;
+    private transient double[] h;
+
+    // x are the training points and smoothed their filtered values.
+    public SubspaceTracker(double[] x, double[] smoothed, int windowSize, SpectralMethods.FilteringMethod method,
+                    double methodParameter) {
+        int n = x.length;
+        int k = n - windowSize + 1;
+        if (windowSize < 1 || k < 1) {
+            throw new IllegalArgumentException("WINDOW_SIZE should be between 1 and " + n);
+        }
+
+        EigenDecomposition eigen =
+                        new EigenDecomposition(MatrixUtils.createRealMatrix(SpectralMethods.lagCovariance(x, windowSize)));
+        double[] eigenValues = eigen.getRealEigenvalues();
+        Integer[] order = SpectralMethods.descending(eigenValues);
+        double[] singularValues = new double[Math.min(k, windowSize)];
+        for (int i = 0; i < singularValues.length; ++i) {
+            singularValues[i] = Math.sqrt(Math.max(eigenValues[order[i]], 0));
+        }
+
+        this.windowSize = windowSize;
+        this.rank = SpectralMethods.selectRank(singularValues, method, methodParameter) + 1;
+        this.beta = 1 - 1.0 / Math.max(k, 2);
+        this.w = new double[windowSize * rank];
+        this.p = new double[rank * rank];
+        double floor = Math.max(eigenValues[order[0]], 1) * 1e-12;
+        for (int c = 0; c < rank; ++c) {
+            double[] v = eigen.getEigenvector(order[c]).toArray();
+            for (int j = 0; j < windowSize; ++j) {
+                w[j * rank + c] = v[j];
+            }
+            p[c * rank + c] = 1 / Math.max(eigenValues[order[c]], floor);
+        }
+
+        // the last points keep the anti-diagonal averages of the training
+        this.values = new double[windowSize];
+        this.sums = new double[windowSize];
+        this.counts = new int[windowSize];
+        int l = Math.min(k, windowSize);
+        for (int t = Math.max(0, n - windowSize); t < n; ++t) {
+            int slot = t % windowSize;
+            values[slot] = x[t];
+            counts[slot] = Math.min(Math.min(t + 1, n - t), l);
+            sums[slot] = smoothed[t] * counts[slot];
+        }
+        this.points = n;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    // Dimension of the tracked subspace.
+    public int getRank() {
+        return rank;
+    }
+
+    // Number of points seen, training included.
+    public long getPoints() {
+        return points;
+    }
+
+    // Adds the next point.
+    public void add(double value) {
+        if (row == null) {
+            row = new double[windowSize];
+            y = new double[rank];
+            h = new double[rank];
+        }
+
+        // the oldest point leaves the window
+        int slot = (int) (points % windowSize);
+        values[slot] = value;
+        sums[slot] = 0;
+        counts[slot] = 0;
+        points++;
+        for (int j = 0; j < windowSize; ++j) {
+            row[j] = values[(int) ((points - windowSize + j) % windowSize)];
+        }
+
+        // PAST: y = W'x, h = Py, g = h / (beta + y'h), P = (P - gh') / beta, W = W + (x - Wy)g'
+        project(row, y);
+        double yh = beta;
+        for (int a = 0; a < rank; ++a) {
+            double s = 0;
+            for (int b = 0; b < rank; ++b) {
+                s += p[a * rank + b] * y[b];
+            }
+            h[a] = s;
+            yh += y[a] * s;
+        }
+        for (int a = 0; a < rank; ++a) {
+            for (int b = a; b < rank; ++b) {
+                double v = (p[a * rank + b] - h[a] * h[b] / yh) / beta;
+                p[a * rank + b] = v;
+                p[b * rank + a] = v;
+            }
+        }
+        for (int j = 0; j < windowSize; ++j) {
+            double e = row[j];
+            for (int c = 0; c < rank; ++c) {
+                e -= w[j * rank + c] * y[c];
+            }
+            e /= yh;
+            for (int c = 0; c < rank; ++c) {
+                w[j * rank + c] += e * h[c];
+            }
+        }
+
+        // the projection W W'x of the row goes to the anti-diagonals of its points
+        project(row, y);
+        for (int j = 0; j < windowSize; ++j) {
+            double s = 0;
+            for (int c = 0; c < rank; ++c) {
+                s += w[j * rank + c] * y[c];
+            }
+            int i = (int) ((points - windowSize + j) % windowSize);
+            sums[i] += s;
+            counts[i]++;
+        }
+    }
+
+    // Smoothed value of the point 'lag' points before the last one, lag < windowSize.
+    public double smoothed(int lag) {
+        int i = (int) ((points - 1 - lag) % windowSize);
+        return counts[i] == 0 ? values[i] : sums[i] / counts[i];
+    }
+
+    private void project(double[] x, double[] out) {
+        for (int c = 0; c < rank; ++c) {
+            out[c] = 0;
+        }
+        for (int j = 0; j < windowSize; ++j) {
+            for (int c = 0; c < rank; ++c) {
+                out[c] += w[j * rank + c] * x[j];
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ import com.yahoo.egads.models.tsmm.*;
 import com.yahoo.egads.utilities.*;
 import com.yahoo.egads.data.*;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.io.FileInputStream;
 import java.io.InputStream;
@@ -49,6 +50,96 @@ public class TestAutoForecast {
        Assert.assertEquals(verifyResults(sequence, metrics.get(0).data), true);
     }
     
+    private static Properties config() throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        return p;
+    }
+
+    // Picks a model and records the training runs as name@points[-pruned].
+    private static AutoForecastModel train(Properties p, TimeSeries.DataSequence data, final List<String> runs,
+                                           final long[] nanos) throws Exception {
+        AutoForecastModel model = new AutoForecastModel(p);
+        model.setMetricsListener(new AutoForecastModel.MetricsListener() {
+            @Override
+            public void onCandidate(String modelName, int points, long time, boolean pruned) {
+                runs.add(modelName + "@" + points + (pruned ? "-pruned" : ""));
+                nanos[0] += time;
+            }
+        });
+        model.train(data);
+        return model;
+    }
+
+    @Test
+    public void testParallelCandidates() throws Exception {
+        Properties p = config();
+        TimeSeries.DataSequence data = com.yahoo.egads.utilities.FileUtils
+                .createTimeSeries("src/test/resources/sample_input.csv", p).get(0).data;
+        List<String> serialRuns = new ArrayList<String>();
+        long[] serialNanos = new long[1];
+        long start = System.nanoTime();
+        AutoForecastModel serial = train(p, data, serialRuns, serialNanos);
+        long serialTime = System.nanoTime() - start;
+        Assert.assertEquals(serialRuns.size(), AutoForecastModel.DEFAULT_CANDIDATES.length);
+
+        p.setProperty("AUTO_FORECAST_THREADS", "0");
+        List<String> parallelRuns = new ArrayList<String>();
+        long[] parallelNanos = new long[1];
+        start = System.nanoTime();
+        AutoForecastModel parallel = train(p, data, parallelRuns, parallelNanos);
+        long parallelTime = System.nanoTime() - start;
+        Assert.assertEquals(parallelRuns, serialRuns);
+        Assert.assertEquals(parallel.getBestModel().getModelName(), serial.getBestModel().getModelName());
+        Assert.assertEquals(parallel.getMAD(), serial.getMAD());
+        Assert.assertEquals(parallel.getMSE(), serial.getMSE());
+
+        p.setProperty("AUTO_FORECAST_PRUNE", "2");
+        List<String> prunedRuns = new ArrayList<String>();
+        long[] prunedNanos = new long[1];
+        start = System.nanoTime();
+        AutoForecastModel pruned = train(p, data, prunedRuns, prunedNanos);
+        long prunedTime = System.nanoTime() - start;
+        Assert.assertTrue(prunedRuns.contains(serial.getBestModel().getModelName() + "@" + data.size()));
+        Assert.assertEquals(pruned.getBestModel().getModelName(), serial.getBestModel().getModelName());
+        Assert.assertEquals(pruned.getMAD(), serial.getMAD());
+        // A candidate stops once pruned.
+        for (int i = 0; i < prunedRuns.size(); i++) {
+            if (prunedRuns.get(i).endsWith("-pruned")) {
+                String name = prunedRuns.get(i).substring(0, prunedRuns.get(i).indexOf('@') + 1);
+                for (String later : prunedRuns.subList(i + 1, prunedRuns.size())) {
+                    Assert.assertFalse(later.startsWith(name), later);
+                }
+            }
+        }
+        System.out.print("\n auto forecast: serial " + (serialTime / 1000000) + "ms, parallel "
+                         + (parallelTime / 1000000) + "ms, parallel pruned " + (prunedTime / 1000000)
+                         + "ms " + prunedRuns);
+    }
+
+    @Test
+    public void testCandidates() throws Exception {
+        Properties p = config();
+        p.setProperty("AUTO_FORECAST_CANDIDATES", "NaiveForecastingModel, MovingAverageModel");
+        TimeSeries.DataSequence data = com.yahoo.egads.utilities.FileUtils
+                .createTimeSeries("src/test/resources/sample_input.csv", p).get(0).data;
+        List<String> runs = new ArrayList<String>();
+        AutoForecastModel model = train(p, data, runs, new long[1]);
+        Assert.assertEquals(runs.size(), 2);
+        Assert.assertEquals(runs.get(0), "NaiveForecastingModel@" + data.size());
+        Assert.assertEquals(runs.get(1), "MovingAverageModel@" + data.size());
+        String best = model.getBestModel().getModelName();
+        Assert.assertTrue(best.equals("NaiveForecastingModel") || best.equals("MovingAverageModel"), best);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownCandidate() throws Exception {
+        Properties p = config();
+        p.setProperty("AUTO_FORECAST_CANDIDATES", "OlympicModel,NoSuchModel");
+        new AutoForecastModel(p);
+    }
+
     // Verifies that the two time-series are identical.
     private boolean verifyResults (TimeSeries.DataSequence computed, TimeSeries.DataSequence actual) {
          int n = computed.size();
@@ -7,7 +7,11 @@
 package com.yahoo.egads;
 
 import com.yahoo.egads.utilities.AutoSensitivity;
+import com.yahoo.egads.utilities.StatsUtils;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import org.apache.commons.lang.ArrayUtils;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 import java.util.Random;
@@ -44,4 +48,116 @@ public class TestAutoSensitivity {
         threashold = AutoSensitivity.getLowDensitySensitivity(fArray, 1, 1);
         Assert.assertTrue(threashold > 5000000);
     }
+
+    // The sort-once sweep finds the same threshold as the original
+    // implementation below, on random data of all shapes and sizes.
+    @Test
+    public void testLowDensitySameAsOriginal() throws Exception {
+        Random r = new Random(1);
+        for (int t = 0; t < 2000; t++) {
+            int shape = r.nextInt(4);
+            Float[] data = lowDensityData(r, 1 + r.nextInt(t < 100 ? 5 : 600), shape);
+            float sd = new float[] {0.5F, 1, 2, 3}[r.nextInt(4)];
+            float amnt = new float[] {0.01F, 0.05F, 0.2F, 1}[r.nextInt(4)];
+            Float expected;
+            if (shape == OFFSET) {
+                // The float sums of the original lose the spread of the data
+                // under its offset, the sweep does not: same threshold as the
+                // original on the data without the offset, which is exact.
+                Float[] shifted = new Float[data.length];
+                for (int i = 0; i < data.length; i++) {
+                    shifted[i] = data[i] - 1000;
+                }
+                expected = originalLowDensitySensitivity(shifted, sd, amnt) + 1000;
+            } else {
+                expected = originalLowDensitySensitivity(data.clone(), sd, amnt);
+            }
+            Float[] copy = data.clone();
+            Assert.assertEquals(AutoSensitivity.getLowDensitySensitivity(data, sd, amnt), expected, "trial " + t);
+            // the data is left as is
+            Assert.assertEquals(data, copy);
+            float[] values = new float[data.length];
+            for (int i = 0; i < data.length; i++) {
+                values[i] = data[i];
+            }
+            Assert.assertEquals(AutoSensitivity.getLowDensitySensitivity(values, sd, amnt), expected, "trial " + t);
+        }
+    }
+
+    // Time to find the threshold of 100k points with the original
+    // implementation and the sweep, -Degads.points sets the number of points.
+    @Test
+    public void testLowDensitySpeed() throws Exception {
+        int n = Integer.parseInt(System.getProperty("egads.points", "100000"));
+        Random r = new Random(2);
+        Float[] data = new Float[n];
+        for (int i = 0; i < n; i++) {
+            // bulk and a 1% tail
+            data[i] = (float) (r.nextInt(100) == 0 ? 20 + 10 * r.nextDouble() : Math.abs(r.nextGaussian()));
+        }
+        // warm up
+        AutoSensitivity.getLowDensitySensitivity(data.clone(), 3, 0.05F);
+
+        long begin = System.nanoTime();
+        Float sweep = AutoSensitivity.getLowDensitySensitivity(data.clone(), 3, 0.05F);
+        long sweeping = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        Float original = originalLowDensitySensitivity(data.clone(), 3, 0.05F);
+        long quadratic = System.nanoTime() - begin;
+        Assert.assertEquals(sweep, original);
+        System.out.print("\n Low density threshold of " + n + " points: sweep " + (sweeping / 1000000)
+                + "ms, original " + (quadratic / 1000000) + "ms (" + sweep + ")");
+    }
+
+    private static final int OFFSET = 3;
+
+    private static Float[] lowDensityData(Random r, int n, int shape) {
+        Float[] data = new Float[n];
+        for (int i = 0; i < n; i++) {
+            double v;
+            if (shape == 0) {
+                // bulk and a sparse high tail
+                v = r.nextInt(50) == 0 ? 20 + 10 * r.nextDouble() : Math.abs(r.nextGaussian());
+            } else if (shape == 1) {
+                v = Math.exp(2 * r.nextGaussian());
+            } else if (shape == 2) {
+                // ties and zeros
+                v = r.nextInt(5);
+            } else {
+                v = 1000 + r.nextDouble();
+            }
+            data[i] = (float) v;
+        }
+        return data;
+    }
+
+    // The original implementation of getLowDensitySensitivity().
+    private static Float originalLowDensitySensitivity(Float[] data, float sDAutoSensitivy, float amntAutoSensitivity) {
+        Float toReturn = Float.POSITIVE_INFINITY;
+        Arrays.sort(data, Collections.reverseOrder());
+        while (data.length > 0) {
+            ArrayList<Float> fData = new ArrayList<Float>();
+            fData.add(data[0]);
+            data = ((Float[]) ArrayUtils.remove(data, 0));
+            Float centroid = (float) fData.get(0);
+            Float maxDelta = (float) sDAutoSensitivy * StatsUtils.getSD(data, StatsUtils.getMean(data));
+            while (data.length > 0 && (centroid - data[0]) <= ((float) (maxDelta))) {
+                fData.add(data[0]);
+                data = ((Float[]) ArrayUtils.remove(data, 0));
+                Float[] tmp = new Float[fData.size()];
+                tmp = fData.toArray(tmp);
+                centroid = StatsUtils.getMean(tmp);
+                if (data.length > 0) {
+                    Float sdOtherCluster = (float) StatsUtils.getSD(data, StatsUtils.getMean(data));
+                    maxDelta = sDAutoSensitivy * sdOtherCluster;
+                }
+            }
+            if (((double) fData.size() / (double) data.length) > amntAutoSensitivity) {
+                return toReturn;
+            }
+            toReturn = fData.get(fData.size() - 1);
+            return toReturn;
+        }
+        return toReturn;
+    }
 }
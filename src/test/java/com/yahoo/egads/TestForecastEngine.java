@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.Properties;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.yahoo.egads.data.ModelSnapshot;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.models.tsmm.RegressionModel;
+import com.yahoo.egads.models.tsmm.TimeSeriesAbstractModel;
+import com.yahoo.egads.utilities.FileUtils;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+// The NATIVE and OPENFORECAST engines of the forecasting models give the
+// same forecasts and errors.
+public class TestForecastEngine {
+
+    private static final String[] MODELS = {
+        "MovingAverageModel", "NaiveForecastingModel", "WeightedMovingAverageModel",
+        "SimpleExponentialSmoothingModel", "DoubleExponentialSmoothingModel", "TripleExponentialSmoothingModel",
+        "RegressionModel", "PolynomialRegressionModel", "MultipleLinearRegressionModel"
+    };
+
+    private static Properties config(String engine) throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        p.setProperty("FORECAST_ENGINE", engine);
+        return p;
+    }
+
+    private static TimeSeries.DataSequence input(String file) throws Exception {
+        Logger logger = (Logger) LoggerFactory.getLogger(FileUtils.class);
+        Level level = logger.getLevel();
+        logger.setLevel(Level.INFO);
+        try {
+            return FileUtils.createTimeSeries(file, config("NATIVE")).get(0).data;
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+    // Daily seasonality on a trend, with noise and a few zeros.
+    private static TimeSeries.DataSequence synthetic(int n) {
+        java.util.Random r = new java.util.Random(42);
+        TimeSeries.DataSequence data = new TimeSeries.DataSequence(n);
+        for (int i = 0; i < n; i++) {
+            double v = 100 + 0.05 * i + 30 * Math.sin(2 * Math.PI * i / 24) + r.nextGaussian() * 5;
+            data.add(new TimeSeries.Entry(1400000000L + i * 3600L, i % 97 == 0 ? 0 : (float) v));
+        }
+        return data;
+    }
+
+    private static TimeSeriesAbstractModel create(String name, Properties p) throws Exception {
+        Constructor<?> c = Class.forName("com.yahoo.egads.models.tsmm." + name).getConstructor(Properties.class);
+        return (TimeSeriesAbstractModel) c.newInstance(p);
+    }
+
+    private static TimeSeries.DataSequence slice(TimeSeries.DataSequence data, int from, int to) {
+        TimeSeries.DataSequence s = new TimeSeries.DataSequence(to - from);
+        for (int i = from; i < to; i++) {
+            s.add(data.get(i));
+        }
+        return s;
+    }
+
+    private static float[] predict(TimeSeriesAbstractModel model, TimeSeries.DataSequence data) throws Exception {
+        TimeSeries.DataSequence sequence = new TimeSeries.DataSequence(data.get(0).time,
+                                                                       data.get(data.size() - 1).time, 3600);
+        sequence.setLogicalIndices(data.get(0).time, 3600);
+        model.predict(sequence);
+        return sequence.valuesAsFloatArray();
+    }
+
+    private static void assertSame(TimeSeriesAbstractModel actual, TimeSeriesAbstractModel expected,
+                                   TimeSeries.DataSequence data, String name) throws Exception {
+        Assert.assertEquals(predict(actual, data), predict(expected, data), name);
+        double[] a = {actual.getBias(), actual.getMAD(), actual.getMAPE(), actual.getMSE(), actual.getSAE()};
+        double[] e = {expected.getBias(), expected.getMAD(), expected.getMAPE(), expected.getMSE(), expected.getSAE()};
+        for (int i = 0; i < e.length; i++) {
+            if (Double.isNaN(e[i]) || Double.isInfinite(e[i])) {
+                Assert.assertEquals(Double.valueOf(a[i]), Double.valueOf(e[i]), name);
+            } else {
+                Assert.assertEquals(a[i], e[i], Math.abs(e[i]) * 1e-9, name);
+            }
+        }
+    }
+
+    @Test
+    public void testEquivalence() throws Exception {
+        TimeSeries.DataSequence[] inputs = {
+            input("src/test/resources/sample_input.csv"), slice(input("src/test/resources/model_input.csv"), 0, 500),
+            synthetic(300), synthetic(24)
+        };
+        for (TimeSeries.DataSequence data : inputs) {
+            for (String name : MODELS) {
+                TimeSeriesAbstractModel nativeModel = create(name, config("NATIVE"));
+                nativeModel.train(data);
+                TimeSeriesAbstractModel openForecast = create(name, config("OPENFORECAST"));
+                openForecast.train(data);
+                assertSame(nativeModel, openForecast, data, name + "/" + data.size());
+            }
+        }
+    }
+
+    @Test
+    public void testOpenForecastUpdate() throws Exception {
+        TimeSeries.DataSequence data = synthetic(200);
+        for (String name : MODELS) {
+            TimeSeriesAbstractModel model = create(name, config("OPENFORECAST"));
+            model.train(slice(data, 0, 100));
+            model.update(slice(data, 100, 200));
+            TimeSeriesAbstractModel full = create(name, config("NATIVE"));
+            full.train(data);
+            assertSame(model, full, data, name);
+
+            // the forecaster is built again after a snapshot
+            byte[] b = ModelSnapshot.toBytes(model);
+            TimeSeriesAbstractModel copy = (TimeSeriesAbstractModel) ModelSnapshot.fromBytes(b, 0, b.length);
+            assertSame(copy, full, data, name);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownEngine() throws Exception {
+        new RegressionModel(config("FAST"));
+    }
+
+    // Train and predict time of both engines, -Degads.points sets the length
+    // of the series.
+    @Test
+    public void testSpeed() throws Exception {
+        int n = Integer.parseInt(System.getProperty("egads.points", "1000"));
+        TimeSeries.DataSequence data = synthetic(n);
+        for (String name : MODELS) {
+            long[] nanos = new long[2];
+            String[] engines = {"NATIVE", "OPENFORECAST"};
+            for (int e = 0; e < engines.length; e++) {
+                long start = System.nanoTime();
+                TimeSeriesAbstractModel model = create(name, config(engines[e]));
+                model.train(data);
+                predict(model, data);
+                nanos[e] = System.nanoTime() - start;
+            }
+            System.out.print("\n " + name + " " + n + " points: native " + (nanos[0] / 1000000) + "ms, openforecast "
+                             + (nanos[1] / 1000000) + "ms");
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.Iterator;
+import java.util.Properties;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.yahoo.egads.data.ModelSnapshot;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.models.tsmm.TimeSeriesAbstractModel;
+import com.yahoo.egads.utilities.FileUtils;
+import net.sourceforge.openforecast.DataPoint;
+import net.sourceforge.openforecast.DataSet;
+import net.sourceforge.openforecast.ForecastingModel;
+import net.sourceforge.openforecast.Observation;
+import net.sourceforge.openforecast.models.DoubleExponentialSmoothingModel;
+import net.sourceforge.openforecast.models.MovingAverageModel;
+import net.sourceforge.openforecast.models.MultipleLinearRegressionModel;
+import net.sourceforge.openforecast.models.NaiveForecastingModel;
+import net.sourceforge.openforecast.models.PolynomialRegressionModel;
+import net.sourceforge.openforecast.models.RegressionModel;
+import net.sourceforge.openforecast.models.SimpleExponentialSmoothingModel;
+import net.sourceforge.openforecast.models.TripleExponentialSmoothingModel;
+import net.sourceforge.openforecast.models.WeightedMovingAverageModel;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+// Training on a prefix and updating with the rest gives the same model as
+// training on all of the points, and the same one as OpenForecast.
+public class TestIncrementalUpdate {
+
+    private static final String[] MODELS = {
+        "MovingAverageModel", "NaiveForecastingModel", "WeightedMovingAverageModel",
+        "SimpleExponentialSmoothingModel", "DoubleExponentialSmoothingModel", "TripleExponentialSmoothingModel",
+        "RegressionModel", "PolynomialRegressionModel", "MultipleLinearRegressionModel"
+    };
+
+    // Updated incrementally too, with no OpenForecast counterpart.
+    private static final String[] OTHER_MODELS = {"OlympicModel", "NullModel"};
+
+    private static Properties config() throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        return p;
+    }
+
+    private static TimeSeries.DataSequence input(Properties p) throws Exception {
+        Logger logger = (Logger) LoggerFactory.getLogger(FileUtils.class);
+        Level level = logger.getLevel();
+        logger.setLevel(Level.INFO);
+        try {
+            return FileUtils.createTimeSeries("src/test/resources/model_input.csv", p).get(0).data;
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+    private static TimeSeriesAbstractModel create(String name, Properties p) throws Exception {
+        Constructor<?> c = Class.forName("com.yahoo.egads.models.tsmm." + name).getConstructor(Properties.class);
+        return (TimeSeriesAbstractModel) c.newInstance(p);
+    }
+
+    private static TimeSeries.DataSequence slice(TimeSeries.DataSequence data, int from, int to) {
+        TimeSeries.DataSequence s = new TimeSeries.DataSequence(to - from);
+        for (int i = from; i < to; i++) {
+            s.add(data.get(i));
+        }
+        return s;
+    }
+
+    private static float[] predict(TimeSeriesAbstractModel model, TimeSeries.DataSequence data) throws Exception {
+        TimeSeries.DataSequence sequence = new TimeSeries.DataSequence(data.get(0).time,
+                                                                       data.get(data.size() - 1).time, 3600);
+        sequence.setLogicalIndices(data.get(0).time, 3600);
+        model.predict(sequence);
+        return sequence.valuesAsFloatArray();
+    }
+
+    private static double[] errors(TimeSeriesAbstractModel model) {
+        return new double[] {model.getBias(), model.getMAD(), model.getMAPE(), model.getMSE(), model.getSAE()};
+    }
+
+    private static double[] errors(ForecastingModel model) {
+        return new double[] {model.getBias(), model.getMAD(), model.getMAPE(), model.getMSE(), model.getSAE()};
+    }
+
+    private static void assertErrors(double[] actual, double[] expected, String name) {
+        for (int i = 0; i < expected.length; i++) {
+            if (Double.isNaN(expected[i])) {
+                Assert.assertTrue(Double.isNaN(actual[i]), name);
+            } else {
+                Assert.assertEquals(actual[i], expected[i], Math.abs(expected[i]) * 1e-9, name);
+            }
+        }
+    }
+
+    private static ForecastingModel reference(String name, int n) {
+        if (name.equals("MovingAverageModel")) {
+            return new MovingAverageModel(n);
+        } else if (name.equals("NaiveForecastingModel")) {
+            return new NaiveForecastingModel();
+        } else if (name.equals("WeightedMovingAverageModel")) {
+            return new WeightedMovingAverageModel(new double[] {0.75, 0.25});
+        } else if (name.equals("SimpleExponentialSmoothingModel")) {
+            return new SimpleExponentialSmoothingModel(0.75);
+        } else if (name.equals("DoubleExponentialSmoothingModel")) {
+            return new DoubleExponentialSmoothingModel(0.75, 0.1);
+        } else if (name.equals("TripleExponentialSmoothingModel")) {
+            return new TripleExponentialSmoothingModel(0.75, 0.001, 0.001);
+        } else if (name.equals("RegressionModel")) {
+            return new RegressionModel("x");
+        } else if (name.equals("PolynomialRegressionModel")) {
+            return new PolynomialRegressionModel("x", 3);
+        }
+        return new MultipleLinearRegressionModel();
+    }
+
+    @Test
+    public void testUpdateEqualsTrain() throws Exception {
+        Properties p = config();
+        TimeSeries.DataSequence data = input(p);
+        int n = data.size();
+        for (String[] names : new String[][] {MODELS, OTHER_MODELS}) {
+            for (String name : names) {
+                TimeSeriesAbstractModel full = create(name, p);
+                full.train(data);
+
+                TimeSeriesAbstractModel model = create(name, p);
+                model.train(slice(data, 0, n / 2));
+                model.update(slice(data, n / 2, n / 2 + 1));
+                model.update(slice(data, n / 2 + 1, n - 10));
+                model.update(slice(data, n - 10, n));
+
+                // an untrained model is trained by its first update
+                TimeSeriesAbstractModel updated = create(name, p);
+                updated.update(data);
+
+                Assert.assertEquals(predict(model, data), predict(full, data), name);
+                Assert.assertEquals(errors(model), errors(full), name);
+                Assert.assertEquals(predict(updated, data), predict(full, data), name);
+                Assert.assertEquals(errors(updated), errors(full), name);
+
+                // no longer bound to OpenForecast, the models can be stored
+                byte[] b = ModelSnapshot.toBytes(model);
+                TimeSeriesAbstractModel copy = (TimeSeriesAbstractModel) ModelSnapshot.fromBytes(b, 0, b.length);
+                Assert.assertEquals(predict(copy, data), predict(full, data), name);
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsOpenForecast() throws Exception {
+        Properties p = config();
+        // OpenForecast forecasts the points of its data set in O(n^2)
+        TimeSeries.DataSequence data = slice(input(p), 0, 400);
+        int n = data.size();
+        DataSet observedData = new DataSet();
+        DataSet requiredDataPoints = new DataSet();
+        for (int i = 0; i < n; i++) {
+            DataPoint dp = new Observation(data.get(i).value);
+            dp.setIndependentValue("x", i);
+            observedData.add(dp);
+            dp = new Observation(0.0);
+            dp.setIndependentValue("x", i);
+            requiredDataPoints.add(dp);
+        }
+        observedData.setTimeVariable("x");
+        observedData.setPeriodsPerYear(12);
+
+        for (String name : MODELS) {
+            TimeSeriesAbstractModel model = create(name, p);
+            model.train(data);
+            float[] expected = predict(model, data);
+
+            ForecastingModel forecaster = reference(name, n);
+            forecaster.init(observedData);
+            forecaster.forecast(requiredDataPoints);
+            Iterator<DataPoint> it = requiredDataPoints.iterator();
+            for (int i = 0; i < n; i++) {
+                Assert.assertEquals(expected[i], (float) it.next().getDependentValue(), name + " at " + i);
+            }
+            assertErrors(errors(model), errors(forecaster), name);
+        }
+    }
+
+    @Test
+    public void testTooFewPoints() throws Exception {
+        Properties p = config();
+        TimeSeries.DataSequence data = slice(input(p), 0, 23);
+        try {
+            create("TripleExponentialSmoothingModel", p).train(data);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            create("WeightedMovingAverageModel", p).train(slice(data, 0, 1));
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        // a line through one point, a parabola through two
+        String[] names = {"RegressionModel", "MultipleLinearRegressionModel", "PolynomialRegressionModel"};
+        int[] enough = {2, 2, 3};
+        for (int m = 0; m < names.length; m++) {
+            try {
+                create(names[m], p).train(slice(data, 0, enough[m] - 1));
+                Assert.fail(names[m]);
+            } catch (IllegalArgumentException e) {
+            }
+            TimeSeriesAbstractModel model = create(names[m], p);
+            model.train(slice(data, 0, enough[m]));
+            Assert.assertFalse(Double.isNaN(model.getMAD()), names[m]);
+        }
+    }
+
+    // Cost of keeping a model up to date point by point, with
+    // update() and by training again, -Degads.updates sets the number of points.
+    @Test
+    public void testUpdateThroughput() throws Exception {
+        int updates = Integer.parseInt(System.getProperty("egads.updates", "50"));
+        Properties p = config();
+        TimeSeries.DataSequence data = input(p);
+        int n = data.size();
+        int first = n - updates;
+        for (String name : new String[] {"SimpleExponentialSmoothingModel", "TripleExponentialSmoothingModel",
+                                         "PolynomialRegressionModel"}) {
+            long start = System.nanoTime();
+            TimeSeriesAbstractModel model = create(name, p);
+            model.train(slice(data, 0, first));
+            for (int i = first; i < n; i++) {
+                model.update(slice(data, i, i + 1));
+            }
+            long update = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = first; i < n; i++) {
+                create(name, p).train(slice(data, 0, i + 1));
+            }
+            long retrain = System.nanoTime() - start;
+            System.out.print("\n " + name + " " + updates + " updates of " + first + " points: update "
+                             + (update / 1000000) + "ms, retrain " + (retrain / 1000000) + "ms");
+        }
+    }
+}
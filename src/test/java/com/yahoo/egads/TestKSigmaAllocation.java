@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.yahoo.egads.data.Anomaly;
+import com.yahoo.egads.data.AnomalyErrorStorage;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.models.adm.KSigmaModel;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestKSigmaAllocation {
+
+    private static Properties config() throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        p.setProperty("OUTPUT", "STD_OUT");
+        return p;
+    }
+
+    private static TimeSeries.DataSequence series(int n, long seed, float noise) {
+        Random r = new Random(seed);
+        TimeSeries.DataSequence data = new TimeSeries.DataSequence();
+        for (int i = 0; i < n; i++) {
+            float v = (float) (100 + 10 * Math.sin(i * Math.PI / 12) + noise * r.nextGaussian());
+            data.add(new TimeSeries.Entry(1417194000L + i * 3600L, v));
+        }
+        return data;
+    }
+
+    @Test
+    public void testErrorMetricsBuffer() throws Exception {
+        AnomalyErrorStorage storage = new AnomalyErrorStorage();
+        storage.initAnomalyErrors(series(50, 1, 1), series(50, 2, 1));
+        float[] buffer = new float[5];
+        Random r = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            float expected = (float) (100 * r.nextGaussian());
+            float actual = (i % 10 == 0) ? expected : (float) (100 * r.nextGaussian());
+            Float[] boxed = storage.computeErrorMetrics(expected, actual);
+            storage.computeErrorMetrics(expected, actual, buffer);
+            for (int j = 0; j < 5; j++) {
+                Assert.assertEquals(buffer[j], boxed[j].floatValue());
+            }
+        }
+    }
+
+    @Test
+    public void testDetectMatchesMapLookup() throws Exception {
+        Properties p = config();
+        p.setProperty("THRESHOLD", "mape#10,mase#15");
+        TimeSeries.DataSequence observed = series(500, 3, 1);
+        TimeSeries.DataSequence expected = series(500, 4, 1);
+        for (int i = 0; i < observed.size(); i += 41) {
+            observed.get(i).value += 30;
+        }
+        KSigmaModel model = new KSigmaModel(p);
+        model.tune(observed, expected, null);
+        Anomaly.IntervalSequence found = model.detect(observed, expected);
+        Assert.assertFalse(found.isEmpty());
+
+        AnomalyErrorStorage storage = new AnomalyErrorStorage();
+        storage.initAnomalyErrors(observed, expected);
+        Map<String, Float> threshold = new HashMap<String, Float>();
+        threshold.put("mape", 10F);
+        threshold.put("mase", 15F);
+        int k = 0;
+        for (int i = 0; i < observed.size(); i++) {
+            Float[] errors = storage.computeErrorMetrics(expected.get(i).value, observed.get(i).value);
+            if (model.isAnomaly(errors, threshold)) {
+                Assert.assertEquals(found.get(k).index.intValue(), i);
+                Assert.assertEquals(found.get(k).anomalyScore, errors);
+                k++;
+            }
+        }
+        Assert.assertEquals(k, found.size());
+    }
+
+    // Steady state allocation of the per point path, excluding the intervals
+    // built for the anomalies themselves.
+    @Test
+    public void testZeroAllocationPerPoint() throws Exception {
+        Logger logger = (Logger) LoggerFactory.getLogger(KSigmaModel.class);
+        Level level = logger.getLevel();
+        logger.setLevel(Level.INFO);
+        try {
+            Properties p = config();
+            p.setProperty("MAX_ANOMALY_TIME_AGO", "0");
+            TimeSeries.DataSequence data = series(1000, 5, 5);
+            TimeSeries.DataSequence expected = series(1000, 6, 5);
+            KSigmaModel model = new KSigmaModel(p);
+            model.tune(data, expected, null);
+
+            int n = 200000;
+            float[] observed = new float[n];
+            float[] forecast = new float[n];
+            Random r = new Random(7);
+            for (int i = 0; i < n; i++) {
+                forecast[i] = (float) (100 + 10 * Math.sin(i * Math.PI / 12));
+                observed[i] = forecast[i] + (float) (0.1 * r.nextGaussian());
+            }
+            // Warm up, then measure.
+            for (int i = 0; i < n; i++) {
+                Assert.assertNull(model.onPoint(i * 3600L, observed[i], forecast[i]));
+            }
+            long before = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                model.onPoint((n + i) * 3600L, observed[i], forecast[i]);
+            }
+            long elapsed = System.nanoTime() - start;
+            long bytes = allocatedBytes() - before;
+            System.out.print("\n ksigma: " + ((double) bytes / n) + " bytes/point, "
+                             + (elapsed / n) + "ns/point");
+            if (before > 0) {
+                // Leave some room for the measurement itself.
+                Assert.assertTrue(bytes < 1024, bytes + " bytes allocated");
+            }
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
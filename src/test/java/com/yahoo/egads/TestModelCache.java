@@ -0,0 +1,226 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads;
+
+import com.yahoo.egads.control.ModelCache;
+import com.yahoo.egads.control.ProcessableObject;
+import com.yahoo.egads.control.ProcessableObjectFactory;
+import com.yahoo.egads.data.SegmentModelStore;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.models.tsmm.NullModel;
+import com.yahoo.egads.models.tsmm.OlympicModel;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestModelCache {
+
+    private static Properties config() throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        p.setProperty("TS_MODEL", "OlympicModel");
+        p.setProperty("AD_MODEL", "ExtremeLowDensityModel");
+        p.setProperty("OP_TYPE", "DETECT_ANOMALY");
+        p.setProperty("OUTPUT", "STD_OUT");
+        return p;
+    }
+
+    @Test
+    public void testRepeatedDetect() throws Exception {
+        Properties p = config();
+        TimeSeries ts = com.yahoo.egads.utilities.FileUtils
+            .createTimeSeries("src/test/resources/model_input.csv", p).get(0);
+
+        ProcessableObject cold = ProcessableObjectFactory.create(ts, p);
+        cold.process();
+
+        ModelCache cache = new ModelCache(64 << 20);
+        ProcessableObject first = ProcessableObjectFactory.create(ts, p, cache);
+        first.process();
+        Assert.assertEquals(cache.misses(), 2);
+        Assert.assertEquals(cache.size(), 2);
+        String key = ModelCache.key(ts.meta.fileName + ":" + ts.meta.name, "TS_MODEL", p);
+        ModelCache.Checkpoint trained = cache.get(key);
+        Assert.assertTrue(trained.model instanceof OlympicModel);
+        Assert.assertEquals(trained.trainedUntil, ts.lastTime());
+
+        // the same models, nothing new to learn
+        ProcessableObject second = ProcessableObjectFactory.create(ts, p, cache);
+        second.process();
+        Assert.assertEquals(cache.hits(), 3);
+        Assert.assertSame(cache.get(key).model, trained.model);
+        Assert.assertEquals(second.result().toString(), cold.result().toString());
+        Assert.assertEquals(first.result().toString(), cold.result().toString());
+    }
+
+    @Test
+    public void testNewPoints() throws Exception {
+        Properties p = config();
+        TimeSeries ts = com.yahoo.egads.utilities.FileUtils
+            .createTimeSeries("src/test/resources/model_input.csv", p).get(0);
+        TimeSeries head = new TimeSeries();
+        head.meta = ts.meta;
+        for (int i = 0; i < ts.size() / 2; i++) {
+            head.append(ts.time(i), ts.value(i));
+        }
+
+        ModelCache cache = new ModelCache(64 << 20);
+        ProcessableObjectFactory.create(head, p, cache).process();
+        ProcessableObjectFactory.create(ts, p, cache).process();
+        String key = ModelCache.key(ts.meta.fileName + ":" + ts.meta.name, "TS_MODEL", p);
+        ModelCache.Checkpoint checkpoint = cache.get(key);
+        Assert.assertEquals(checkpoint.firstTimeStamp, ts.time(0));
+        Assert.assertEquals(checkpoint.trainedUntil, ts.lastTime());
+        Assert.assertEquals(cache.hits(), 3);
+
+        // the updated model forecasts the new points as one trained on all of them
+        OlympicModel cold = new OlympicModel(p);
+        cold.train(head.data);
+        // the fallback retrains the cached instance
+        cold.reset();
+        cold.train(ts.data);
+        OlympicModel warm = (OlympicModel) checkpoint.model;
+        Assert.assertEquals(warm.getModel().size(), ts.size());
+        Assert.assertEquals(warm.getModel(), cold.getModel());
+        Assert.assertEquals(warm.getMAD(), cold.getMAD());
+    }
+
+    private static TimeSeries slice(TimeSeries ts, int from, int to) throws Exception {
+        TimeSeries s = new TimeSeries();
+        s.meta = ts.meta;
+        for (int i = from; i < to; i++) {
+            s.append(ts.time(i), ts.value(i));
+        }
+        return s;
+    }
+
+    @Test
+    public void testSlidingWindow() throws Exception {
+        for (String ad : new String[] {"DBScanModel", "KSigmaModel"}) {
+            for (String tsModel : new String[] {"WeightedMovingAverageModel", "NaiveForecastingModel", "OlympicModel"}) {
+                Properties p = config();
+                p.setProperty("TS_MODEL", tsModel);
+                p.setProperty("AD_MODEL", ad);
+                TimeSeries ts = com.yahoo.egads.utilities.FileUtils
+                    .createTimeSeries("src/test/resources/model_input.csv", p).get(0);
+                TimeSeries window = slice(ts, 100, 420);
+
+                ModelCache cache = new ModelCache(64 << 20);
+                ProcessableObjectFactory.create(slice(ts, 0, 400), p, cache).process();
+                // the window starts after the cached history, the models are trained again
+                ProcessableObject warm = ProcessableObjectFactory.create(window, p, cache);
+                warm.process();
+                ProcessableObject cold = ProcessableObjectFactory.create(slice(ts, 100, 420), p);
+                cold.process();
+                Assert.assertEquals(warm.result().toString(), cold.result().toString(), tsModel + " " + ad);
+                String key = ModelCache.key(ts.meta.fileName + ":" + ts.meta.name, "TS_MODEL", p);
+                Assert.assertEquals(cache.get(key).firstTimeStamp, window.startTime());
+                Assert.assertEquals(cache.get(key).trainedUntil, window.lastTime());
+            }
+        }
+    }
+
+    // Counts its encodings as a snapshot.
+    private static class CountedModel extends NullModel {
+        private static final long serialVersionUID = 1L;
+        static int writes = 0;
+
+        CountedModel(Properties config) {
+            super(config);
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            writes++;
+            out.defaultWriteObject();
+        }
+    }
+
+    @Test
+    public void testWarmPutKeepsWeight() throws Exception {
+        Properties p = config();
+        CountedModel model = new CountedModel(p);
+        ModelCache cache = new ModelCache(64 << 20);
+        cache.put("m", model, 0, 1);
+        Assert.assertEquals(CountedModel.writes, 1);
+        long weight = cache.bytes();
+
+        // put back after an update, measured again on flush only
+        cache.put("m", model, 0, 2);
+        Assert.assertEquals(CountedModel.writes, 1);
+        Assert.assertEquals(cache.bytes(), weight);
+        Assert.assertEquals(cache.get("m").trainedUntil, 2);
+        cache.flush();
+        Assert.assertEquals(CountedModel.writes, 2);
+
+        cache.put("m", new CountedModel(p), 0, 3);
+        Assert.assertEquals(CountedModel.writes, 3);
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        Properties p = config();
+        String key = ModelCache.key("m", "TS_MODEL", p);
+        p.setProperty("OP_TYPE", "UPDATE_MODEL");
+        Assert.assertEquals(ModelCache.key("m", "TS_MODEL", p), key);
+        p.setProperty("NUM_WEEKS", "3");
+        Assert.assertFalse(ModelCache.key("m", "TS_MODEL", p).equals(key));
+        Assert.assertFalse(ModelCache.key("n", "TS_MODEL", p).equals(ModelCache.key("m", "TS_MODEL", p)));
+    }
+
+    @Test
+    public void testEvictionAndWriteBack() throws Exception {
+        Properties p = config();
+        TimeSeries ts = com.yahoo.egads.utilities.FileUtils
+            .createTimeSeries("src/test/resources/model_input.csv", p).get(0);
+        OlympicModel model = new OlympicModel(p);
+        model.train(ts.data);
+
+        File dir = Files.createTempDirectory("egads").toFile();
+        dir.deleteOnExit();
+        SegmentModelStore store = new SegmentModelStore(dir.getPath());
+        ModelCache probe = new ModelCache(1);
+        probe.put("probe", model, 0, 0);
+        long weight = probe.bytes();
+
+        // room for 3 models
+        ModelCache cache = new ModelCache(3 * weight + weight / 2, store);
+        for (int i = 0; i < 10; i++) {
+            cache.put("m" + i, model, ts.time(0), ts.lastTime());
+        }
+        Assert.assertEquals(cache.size(), 3);
+        Assert.assertEquals(cache.evictions(), 7);
+        Assert.assertEquals(cache.writeBacks(), 7);
+        Assert.assertEquals(store.size(), 7);
+
+        // m0 comes back from the store, m7 gets evicted
+        ModelCache.Checkpoint loaded = cache.get("m0");
+        Assert.assertEquals(cache.loads(), 1);
+        Assert.assertEquals(loaded.trainedUntil, ts.lastTime());
+        Assert.assertEquals(((OlympicModel) loaded.model).getMAD(), model.getMAD());
+        Assert.assertEquals(cache.evictions(), 8);
+        Assert.assertNull(cache.get("unknown"));
+        Assert.assertEquals(cache.misses(), 1);
+
+        cache.flush();
+        Assert.assertEquals(store.size(), 10);
+        store.close();
+
+        // warm start after a restart
+        store = new SegmentModelStore(dir.getPath());
+        ModelCache restarted = new ModelCache(64 << 20, store);
+        Assert.assertNotNull(restarted.get("m9"));
+        Assert.assertEquals(restarted.loads(), 1);
+        store.close();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import com.yahoo.egads.control.DetectAnomalyProcessable;
+import com.yahoo.egads.control.ModelProvider;
+import com.yahoo.egads.control.ModelRegistry;
+import com.yahoo.egads.control.ProcessableObject;
+import com.yahoo.egads.control.ProcessableObjectFactory;
+import com.yahoo.egads.data.Anomaly;
+import com.yahoo.egads.data.ModelConfig;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.models.adm.AnomalyDetectionModel;
+import com.yahoo.egads.models.adm.KSigmaModel;
+import com.yahoo.egads.models.tsmm.NullModel;
+import com.yahoo.egads.models.tsmm.OlympicModel;
+import com.yahoo.egads.models.tsmm.TimeSeriesModel;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestModelRegistry {
+
+    // Registered through META-INF/services in the test resources, as a model jar would.
+    public static class Provider implements ModelProvider {
+        @Override
+        public void registerModels(ModelRegistry registry) {
+            registry.registerTimeSeriesModel("ProvidedNullModel", c -> new NullModel(c.getProperties()));
+            registry.registerAnomalyDetectionModel("ProvidedKSigmaModel", KSigmaModel::new);
+        }
+    }
+
+    private static Properties config() throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        p.setProperty("OUTPUT", "STD_OUT");
+        return p;
+    }
+
+    @Test
+    public void builtInAndProvided() throws Exception {
+        Properties p = config();
+        ModelRegistry registry = ModelRegistry.getInstance();
+        Assert.assertTrue(registry.hasTimeSeriesModel("OlympicModel"));
+        Assert.assertTrue(registry.hasAnomalyDetectionModel("KSigmaModel"));
+        Assert.assertTrue(registry.hasTimeSeriesModel("ProvidedNullModel"));
+
+        p.setProperty("TS_MODEL", "OlympicModel");
+        Assert.assertTrue(registry.createTimeSeriesModel(new ModelConfig(p)) instanceof OlympicModel);
+
+        p.setProperty("TS_MODEL", "ProvidedNullModel");
+        p.setProperty("AD_MODEL", "ProvidedKSigmaModel");
+        TimeSeries ts = com.yahoo.egads.utilities.FileUtils.createTimeSeries("src/test/resources/sample_input.csv", p)
+            .get(0);
+        ProcessableObject po = ProcessableObjectFactory.create(ts, p);
+        po.process();
+        ArrayList<Anomaly> anomalies = ((DetectAnomalyProcessable) po).getAnomalyList();
+        Assert.assertEquals(anomalies.size(), 1);
+        Assert.assertEquals(anomalies.get(0).modelName, "KSigmaModel");
+    }
+
+    @Test
+    public void byClassName() throws Exception {
+        ModelConfig config = new ModelConfig(config());
+        ModelRegistry registry = new ModelRegistry();
+        // not registered, found in the model package or by the full name, then kept
+        TimeSeriesModel m = registry.createTimeSeriesModel("NullModel", config);
+        Assert.assertTrue(m instanceof NullModel);
+        Assert.assertTrue(registry.hasTimeSeriesModel("NullModel"));
+        AnomalyDetectionModel ad = registry.createAnomalyDetectionModel("com.yahoo.egads.models.adm.KSigmaModel", config);
+        Assert.assertTrue(ad instanceof KSigmaModel);
+        try {
+            registry.createTimeSeriesModel("NoSuchModel", config);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("NoSuchModel"));
+        }
+        try {
+            registry.createAnomalyDetectionModel("NullModel", config);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("NullModel"));
+        }
+    }
+
+    @Test
+    public void typedConfig() throws Exception {
+        Properties p = config();
+        p.setProperty("THRESHOLD", "mape#10,mase#15");
+        ModelConfig config = new ModelConfig(p);
+        Assert.assertEquals(config.getPeriod(), 0);
+        Assert.assertEquals(config.getMaxAnomalyTimeAgo(), 999999999);
+        Assert.assertEquals(config.getDetectionWindowStart(), 0);
+        Assert.assertEquals(config.getThreshold().get("mase"), 15f);
+        config.getThreshold().put("mae", 1f);
+        Assert.assertEquals(config.getThreshold().size(), 2);
+
+        String[][] invalid = {{"PERIOD", "hourly"}, {"MAX_ANOMALY_TIME_AGO", "1h"}, {"THRESHOLD", "mape"},
+            {"AUTO_SENSITIVITY_SD", "x"}, {"AUTO_SENSITIVITY_ENGINE", "FAST"}};
+        for (String[] kv : invalid) {
+            Properties bad = config();
+            bad.setProperty(kv[0], kv[1]);
+            try {
+                new ModelConfig(bad);
+                Assert.fail(kv[0]);
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage().startsWith(kv[0]), e.getMessage());
+            }
+        }
+
+        Properties missing = config();
+        missing.remove("MAX_ANOMALY_TIME_AGO");
+        try {
+            new KSigmaModel(new ModelConfig(missing));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(e.getMessage(), "MAX_ANOMALY_TIME_AGO is NULL");
+        }
+    }
+}
@@ -114,4 +114,66 @@ public class TestOlympicModel {
         Assert.assertEquals(TimeSeriesAbstractModel.betterThan(olympicModel, movingAverageModel), false);
         Assert.assertEquals(TimeSeriesAbstractModel.betterThan(olympicModel, olympicModel), false);
     }
+
+    @Test
+    public void testTrimmedMeanEngine() throws Exception {
+        java.util.Random r = new java.util.Random(1);
+        TimeSeries ts = new TimeSeries();
+        for (int i = 0; i < 3000; i++) {
+            float v = (float) (100 + 10 * Math.sin(i * Math.PI / 12) + 5 * r.nextGaussian());
+            // repeated values and zeros, ties in the sort
+            ts.append(1417194000L + i * 3600L, i % 29 == 0 ? 0 : (i % 31 == 0 ? 100 : v));
+        }
+        String[][] configs = {{"8", "0", "0", "24,168"}, {"8", "2", "0", "0,1"}, {"5", "1", "1", "0,1,3"},
+                              {"3", "2", "1", "0"}, {"4", "4", "0", "2"}};
+        for (String[] c : configs) {
+            Properties p = new Properties();
+            p.setProperty("NUM_WEEKS", c[0]);
+            p.setProperty("NUM_TO_DROP", c[1]);
+            p.setProperty("DYNAMIC_PARAMETERS", c[2]);
+            p.setProperty("TIME_SHIFTS", c[3]);
+            p.setProperty("BASE_WINDOWS", "24,168");
+            OlympicModel fast = new OlympicModel(p);
+            fast.train(ts.data);
+            p.setProperty("OLYMPIC_ENGINE", "LIST");
+            OlympicModel list = new OlympicModel(p);
+            list.train(ts.data);
+            // bit-identical
+            Assert.assertEquals(fast.getModel(), list.getModel(), java.util.Arrays.toString(c));
+            Assert.assertEquals(fast.getSAE(), list.getSAE());
+        }
+    }
+
+    // Training time on 90 days of one minute data, BASE_WINDOWS 24,168 and
+    // NUM_WEEKS 8, with the list engine and the trimmed mean engine.
+    // -Degads.days sets the number of days.
+    @Test
+    public void testTrimmedMeanSpeed() throws Exception {
+        int days = Integer.parseInt(System.getProperty("egads.days", "90"));
+        java.util.Random r = new java.util.Random(2);
+        TimeSeries ts = new TimeSeries();
+        for (int i = 0; i < days * 1440; i++) {
+            ts.append(1417194000L + i * 60L, (float) (100 + 10 * Math.sin(i * Math.PI / 720) + r.nextGaussian()));
+        }
+        Properties p = new Properties();
+        p.setProperty("NUM_WEEKS", "8");
+        p.setProperty("NUM_TO_DROP", "1");
+        p.setProperty("TIME_SHIFTS", "0,1");
+        p.setProperty("BASE_WINDOWS", "24,168");
+
+        // warm up
+        new OlympicModel(p).train(ts.data);
+        p.setProperty("OLYMPIC_ENGINE", "LIST");
+        new OlympicModel(p).train(ts.data);
+
+        long begin = System.nanoTime();
+        new OlympicModel(p).train(ts.data);
+        long list = System.nanoTime() - begin;
+        p.setProperty("OLYMPIC_ENGINE", "TRIMMED_MEAN");
+        begin = System.nanoTime();
+        new OlympicModel(p).train(ts.data);
+        long trimmed = System.nanoTime() - begin;
+        System.out.print("\n OlympicModel training on " + ts.size() + " points: trimmed mean " + (trimmed / 1000000)
+                + "ms, list " + (list / 1000000) + "ms");
+    }
 }
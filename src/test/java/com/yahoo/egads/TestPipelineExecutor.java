@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import com.yahoo.egads.control.ModelCache;
+import com.yahoo.egads.control.PipelineExecutor;
+import com.yahoo.egads.control.ProcessableObject;
+import com.yahoo.egads.data.TimeSeries;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestPipelineExecutor {
+
+    // Number of synthetic series for the throughput test, -Degads.pipeline.series=100000 for the full run.
+    private static final int SERIES = Integer.getInteger("egads.pipeline.series", 400);
+
+    private static Properties config(int threads) {
+        Properties p = new Properties();
+        p.setProperty("OP_TYPE", "UPDATE_MODEL");
+        p.setProperty("TS_MODEL", "OlympicModel");
+        p.setProperty("PERIOD", "0");
+        p.setProperty("BASE_WINDOWS", "24,168");
+        p.setProperty("TIME_SHIFTS", "0,1");
+        p.setProperty("NUM_WEEKS", "2");
+        p.setProperty("NUM_TO_DROP", "0");
+        p.setProperty("DYNAMIC_PARAMETERS", "0");
+        p.setProperty("PIPELINE_THREADS", Integer.toString(threads));
+        return p;
+    }
+
+    private static List<TimeSeries> synthetic(int count, int points) throws Exception {
+        Random r = new Random(42);
+        List<TimeSeries> out = new ArrayList<TimeSeries>();
+        for (int s = 0; s < count; s++) {
+            TimeSeries ts = new TimeSeries();
+            ts.meta.name = "metric_" + s;
+            for (int i = 0; i < points; i++) {
+                ts.append(1417194000L + i * 3600L, (float) (100 + 10 * Math.sin(i * Math.PI / 12) + r.nextGaussian()));
+            }
+            out.add(ts);
+        }
+        return out;
+    }
+
+    @Test
+    public void testDeterministicOrder() throws Exception {
+        List<TimeSeries> metrics = synthetic(50, 400);
+        final List<String> names = Collections.synchronizedList(new ArrayList<String>());
+        Properties p = config(4);
+        p.setProperty("PIPELINE_QUEUE_SIZE", "3");
+        PipelineExecutor executor = new PipelineExecutor(p, new PipelineExecutor.ResultListener() {
+            public void onResult(TimeSeries ts, ProcessableObject po) throws Exception {
+                Assert.assertEquals(po.result(), "Updated");
+                names.add(ts.meta.name);
+            }
+        });
+        Assert.assertEquals(executor.getMode(), PipelineExecutor.Mode.FORK_JOIN);
+        try {
+            for (TimeSeries ts : metrics) {
+                executor.submit(ts);
+            }
+        } finally {
+            executor.close();
+        }
+        Assert.assertEquals(names.size(), metrics.size());
+        for (int i = 0; i < metrics.size(); i++) {
+            Assert.assertEquals(names.get(i), metrics.get(i).meta.name);
+        }
+    }
+
+    @Test
+    public void testSharedModelCache() throws Exception {
+        List<TimeSeries> metrics = synthetic(20, 400);
+        File dir = Files.createTempDirectory("egads").toFile();
+        dir.deleteOnExit();
+        Properties p = config(4);
+        p.setProperty("MODEL_CACHE_BYTES", Integer.toString(64 << 20));
+        p.setProperty("MODEL_STORE_PATH", dir.getPath());
+        PipelineExecutor executor = new PipelineExecutor(p);
+        ModelCache cache = executor.getModelCache();
+        try {
+            // the second of each pair waits for the first and reuses its model
+            for (TimeSeries ts : metrics) {
+                executor.submit(ts);
+                executor.submit(ts);
+            }
+        } finally {
+            executor.close();
+        }
+        Assert.assertEquals(cache.misses(), metrics.size());
+        Assert.assertEquals(cache.hits(), metrics.size());
+        Assert.assertEquals(cache.writeBacks(), metrics.size());
+
+        // after a restart the models come from the store
+        executor = new PipelineExecutor(p);
+        try {
+            for (TimeSeries ts : metrics) {
+                executor.submit(ts);
+            }
+        } finally {
+            executor.close();
+        }
+        Assert.assertEquals(executor.getModelCache().loads(), metrics.size());
+        Assert.assertEquals(executor.getModelCache().misses(), 0);
+    }
+
+    @Test
+    public void testSerialFallback() throws Exception {
+        Assert.assertEquals(new PipelineExecutor(config(1)).getMode(), PipelineExecutor.Mode.SERIAL);
+        Properties p = config(4);
+        p.setProperty("OUTPUT", "GUI");
+        Assert.assertEquals(new PipelineExecutor(p).getMode(), PipelineExecutor.Mode.SERIAL);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTaskFailure() throws Exception {
+        Properties p = config(2);
+        p.remove("OP_TYPE");
+        PipelineExecutor executor = new PipelineExecutor(p);
+        try {
+            executor.submit(synthetic(1, 10).get(0));
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        List<TimeSeries> metrics = synthetic(SERIES, 24 * 7 * 3);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            for (String mode : new String[] {"FORK_JOIN", "FIXED"}) {
+                if (threads == 1 && mode.equals("FIXED")) {
+                    continue;
+                }
+                Properties p = config(threads);
+                p.setProperty("PIPELINE_MODE", mode);
+                PipelineExecutor executor = new PipelineExecutor(p);
+                long start = System.currentTimeMillis();
+                try {
+                    for (TimeSeries ts : metrics) {
+                        executor.submit(ts);
+                    }
+                } finally {
+                    executor.close();
+                }
+                long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                System.out.print("\n pipeline " + executor.getMode() + " threads=" + threads + ": "
+                                 + (metrics.size() * 1000L / elapsed) + " series/s");
+            }
+        }
+    }
+}
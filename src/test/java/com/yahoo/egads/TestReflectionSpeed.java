@@ -12,9 +12,12 @@ import java.util.ArrayList;
 import java.util.Properties;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.lang.reflect.Constructor;
 
+import com.yahoo.egads.control.ModelRegistry;
 import com.yahoo.egads.control.ProcessableObject;
 import com.yahoo.egads.control.ProcessableObjectFactory;
+import com.yahoo.egads.data.ModelConfig;
 
 import org.testng.annotations.Test;
 
@@ -42,4 +45,42 @@ public class TestReflectionSpeed {
         }
         System.out.print("\n reflection speed: " + (System.currentTimeMillis() - start) + "ms");
     }
+
+    // Time to build the models of a metric by reflection, as the factory did,
+    // and from the ModelRegistry with the config parsed once.
+    // -Degads.models sets the number of model pairs built.
+    @Test
+    public void testRegistrySpeed() throws Exception {
+        int n = Integer.parseInt(System.getProperty("egads.models", "20000"));
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        ModelRegistry registry = ModelRegistry.getInstance();
+        long reflection = 0;
+        long registered = 0;
+        for (int run = 0; run < 2; run++) {
+            // the first run warms up
+            long begin = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                Long period = new Long(p.getProperty("PERIOD"));
+                Class<?> tsClass = Class.forName("com.yahoo.egads.models.tsmm." + p.getProperty("TS_MODEL"));
+                Constructor<?> tsConstructor = tsClass.getConstructor(Properties.class);
+                tsConstructor.newInstance(p);
+                Class<?> adClass = Class.forName("com.yahoo.egads.models.adm." + p.getProperty("AD_MODEL"));
+                Constructor<?> adConstructor = adClass.getConstructor(Properties.class);
+                adConstructor.newInstance(p);
+            }
+            long middle = System.nanoTime();
+            ModelConfig config = new ModelConfig(p);
+            for (int i = 0; i < n; i++) {
+                config.getPeriod();
+                registry.createTimeSeriesModel(config);
+                registry.createAnomalyDetectionModel(config);
+            }
+            reflection = middle - begin;
+            registered = System.nanoTime() - middle;
+        }
+        System.out.print("\n " + n + " " + p.getProperty("TS_MODEL") + " + " + p.getProperty("AD_MODEL")
+                + ": reflection " + (reflection / 1000000) + "ms, registry " + (registered / 1000000) + "ms");
+    }
 }
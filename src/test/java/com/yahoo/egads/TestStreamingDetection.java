@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import com.yahoo.egads.data.Anomaly;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.models.adm.AdaptiveKernelDensityChangePointDetector;
+import com.yahoo.egads.models.adm.AnomalyDetectionModel;
+import com.yahoo.egads.models.adm.KSigmaModel;
+import com.yahoo.egads.models.adm.SimpleThresholdModel;
+import com.yahoo.egads.models.tsmm.DoubleExponentialSmoothingModel;
+import com.yahoo.egads.models.tsmm.SimpleExponentialSmoothingModel;
+import com.yahoo.egads.models.tsmm.TimeSeriesModel;
+import com.yahoo.egads.models.tsmm.TripleExponentialSmoothingModel;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+// Checks that onPoint() gives the same answer as the batch path on the same data.
+public class TestStreamingDetection {
+
+    private static Properties config() throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        p.setProperty("OUTPUT", "STD_OUT");
+        return p;
+    }
+
+    private static TimeSeries.DataSequence series(int n, long seed) {
+        Random r = new Random(seed);
+        TimeSeries.DataSequence data = new TimeSeries.DataSequence();
+        for (int i = 0; i < n; i++) {
+            float v = (float) (100 + 0.05 * i + 10 * Math.sin(i * Math.PI / 6) + r.nextGaussian());
+            data.add(new TimeSeries.Entry(1417194000L + i * 3600L, v));
+        }
+        return data;
+    }
+
+    private static TimeSeries.DataSequence head(TimeSeries.DataSequence data, int n) {
+        TimeSeries.DataSequence out = new TimeSeries.DataSequence();
+        for (int i = 0; i < n; i++) {
+            out.add(new TimeSeries.Entry(data.get(i)));
+        }
+        return out;
+    }
+
+    private static void checkForecaster(Class<? extends TimeSeriesModel> type) throws Exception {
+        Properties p = config();
+        TimeSeries.DataSequence data = series(120, 7);
+        int trained = 60;
+        TimeSeriesModel streaming = type.getConstructor(Properties.class).newInstance(p);
+        streaming.train(head(data, trained));
+        for (int j = trained; j < data.size(); j++) {
+            float actual = streaming.onPoint(data.get(j).time, data.get(j).value);
+
+            // Retrain on everything up to and including j, the in-sample value at j is the reference.
+            TimeSeries.DataSequence history = head(data, j + 1);
+            TimeSeriesModel batch = type.getConstructor(Properties.class).newInstance(p);
+            batch.train(history);
+            TimeSeries.DataSequence expected = head(data, j + 1);
+            batch.predict(expected);
+            Assert.assertEquals(actual, expected.get(j).value, 1e-4, type.getSimpleName() + " at " + j);
+        }
+    }
+
+    @Test
+    public void testExponentialSmoothing() throws Exception {
+        checkForecaster(SimpleExponentialSmoothingModel.class);
+        checkForecaster(DoubleExponentialSmoothingModel.class);
+        checkForecaster(TripleExponentialSmoothingModel.class);
+    }
+
+    private static void checkDetector(AnomalyDetectionModel streaming, AnomalyDetectionModel batch,
+                                      TimeSeries.DataSequence observed, TimeSeries.DataSequence expected,
+                                      int tuned) throws Exception {
+        streaming.tune(head(observed, tuned), head(expected, tuned), null);
+        batch.tune(head(observed, tuned), head(expected, tuned), null);
+        List<Integer> found = new ArrayList<Integer>();
+        for (int i = tuned; i < observed.size(); i++) {
+            Anomaly.Interval interval = streaming.onPoint(observed.get(i).time, observed.get(i).value,
+                                                          expected.get(i).value);
+            if (interval != null) {
+                Assert.assertEquals(interval.utime.longValue(), observed.get(i).time);
+                found.add(interval.index);
+            }
+        }
+        List<Integer> reference = new ArrayList<Integer>();
+        for (Anomaly.Interval interval : batch.detect(observed, expected)) {
+            if (interval.index >= tuned) {
+                reference.add(interval.index);
+            }
+        }
+        Assert.assertFalse(reference.isEmpty());
+        Assert.assertEquals(found, reference);
+    }
+
+    @Test
+    public void testPointDetectors() throws Exception {
+        Properties p = config();
+        TimeSeries.DataSequence observed = series(500, 11);
+        TimeSeries.DataSequence expected = head(observed, observed.size());
+        Random r = new Random(3);
+        for (int i = 0; i < expected.size(); i++) {
+            expected.get(i).value += (float) r.nextGaussian();
+        }
+        for (int i = 320; i < 500; i += 37) {
+            observed.get(i).value += 40;
+        }
+        observed.get(100).value += 40;
+        checkDetector(new KSigmaModel(p), new KSigmaModel(p), observed, expected, 300);
+        checkDetector(new SimpleThresholdModel(p), new SimpleThresholdModel(p), observed, expected, 300);
+    }
+
+    @Test
+    public void testChangePoints() throws Exception {
+        Properties p = config();
+        p.setProperty("PRE_WINDOW_SIZE", "48");
+        p.setProperty("POST_WINDOW_SIZE", "48");
+        Random r = new Random(5);
+        float[] residuals = new float[1500];
+        for (int i = 0; i < residuals.length; i++) {
+            residuals[i] = (float) r.nextGaussian() + (i >= 500 && i < 1000 ? 8 : 0);
+        }
+
+        AdaptiveKernelDensityChangePointDetector batch = new AdaptiveKernelDensityChangePointDetector(p);
+        ArrayList<Integer> reference = batch.detectChangePoints(residuals, 48, 48, 0.8F);
+
+        AdaptiveKernelDensityChangePointDetector streaming = new AdaptiveKernelDensityChangePointDetector(p);
+        List<Integer> found = new ArrayList<Integer>();
+        for (int i = 0; i < residuals.length; i++) {
+            Anomaly.Interval interval = streaming.onPoint(1417194000L + i * 900L, residuals[i], 0);
+            if (interval != null) {
+                found.add(interval.index);
+            }
+        }
+        Assert.assertFalse(found.isEmpty());
+        // The batch mode also reports a change point still open at the end of the series.
+        Assert.assertEquals(found, reference.subList(0, found.size()));
+        Assert.assertTrue(reference.size() - found.size() <= 1);
+    }
+
+    // Per-point latency should not grow with the length of the stream.
+    @Test
+    public void testLatency() throws Exception {
+        Properties p = config();
+        TimeSeries.DataSequence data = series(200, 13);
+        SimpleExponentialSmoothingModel ses = new SimpleExponentialSmoothingModel(p);
+        ses.train(data);
+        KSigmaModel ksigma = new KSigmaModel(p);
+        TimeSeries.DataSequence expected = head(data, data.size());
+        ses.predict(expected);
+        ksigma.tune(data, expected, null);
+
+        int blocks = 5;
+        int perBlock = 20000;
+        Random r = new Random(17);
+        for (int b = 0; b < blocks; b++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < perBlock; i++) {
+                long t = 1417194000L + (200 + b * perBlock + i) * 3600L;
+                float v = (float) (100 + r.nextGaussian());
+                ksigma.onPoint(t, v, ses.onPoint(t, v));
+            }
+            System.out.print("\n streaming points " + (b * perBlock) + "-" + ((b + 1) * perBlock) + ": "
+                             + ((System.nanoTime() - start) / perBlock) + "ns/point");
+        }
+    }
+}
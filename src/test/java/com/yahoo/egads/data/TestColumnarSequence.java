@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestColumnarSequence {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        int n = 10000;
+        long[] times = new long[n];
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++) {
+            times[i] = 1000L + i * 60L;
+            values[i] = (float) Math.sin(i);
+        }
+        ColumnarSequence col = new ColumnarSequence(times, values);
+        col.setLogicalIndices(1000L, 60L);
+        Assert.assertEquals(col.size(), n);
+        Assert.assertEquals(col.timesAsLongArray(), times);
+        Assert.assertEquals(col.valuesAsFloatArray(), values);
+        Assert.assertEquals(col.logicalIndexAt(n - 1), n - 1);
+
+        TimeSeries.DataSequence data = col.toDataSequence();
+        Assert.assertEquals(data.valuesAsFloatArray(), values);
+        Assert.assertEquals(data.timeAt(4097), col.timeAt(4097));
+        Assert.assertEquals(data.get(5000), col.entryAt(5000));
+        Assert.assertEquals(data.toColumnar(), col);
+
+        col.setValue(3, 42.0f);
+        Assert.assertEquals(col.valueAt(3), 42.0f);
+
+        col.clear();
+        Assert.assertTrue(col.isEmpty());
+        col.add(1L, 2.0f);
+        Assert.assertEquals(col.size(), 1);
+        Assert.assertEquals(col.valueAt(0), 2.0f);
+    }
+
+    // The entries are created on access and write through to the sequence.
+    @Test
+    public void testEntryView() throws Exception {
+        TimeSeries.DataSequence data = new TimeSeries.DataSequence();
+        for (int i = 0; i < 10000; i++) {
+            data.add(i * 60L, (float) i);
+        }
+        TimeSeries.Entry e = data.get(5000);
+        Assert.assertSame(data.get(5000), e);
+        e.value = -1.0f;
+        e.time = 5000 * 60L;
+        Assert.assertEquals(data.valueAt(5000), -1.0f);
+        Assert.assertEquals(data.valuesAsFloatArray()[5000], -1.0f);
+        Assert.assertEquals(data.toColumnar().valueAt(5000), -1.0f);
+
+        data.setLogicalIndices(0L, 60L);
+        Assert.assertEquals(e.logicalIndex, 5000);
+        Assert.assertEquals(data.logicalIndexAt(9999), 9999);
+
+        data.remove(0);
+        Assert.assertEquals(data.size(), 9999);
+        Assert.assertSame(data.get(4999), e);
+        Assert.assertEquals(data.timeAt(0), 60L);
+        data.add(0, new TimeSeries.Entry(0L, 0.0f));
+        Assert.assertSame(data.get(5000), e);
+        Assert.assertEquals(data.timeAt(4097), 4097 * 60L);
+
+        TimeSeries.DataSequence head = new TimeSeries.DataSequence();
+        head.addAll(data.subList(0, 5001));
+        Assert.assertSame(head.get(5000), e);
+        data.subList(4000, data.size()).clear();
+        Assert.assertEquals(data.size(), 4000);
+        data.add(1L, 1.0f);
+        Assert.assertEquals(data.get(4000).value, 1.0f);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(head);
+        out.close();
+        Object copy = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        Assert.assertEquals(copy, head);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testOutOfBounds() throws Exception {
+        ColumnarSequence col = new ColumnarSequence();
+        col.add(1L, 1.0f);
+        col.valueAt(1);
+    }
+
+    @Test(expectedExceptions = Exception.class)
+    public void testOutOfOrder() throws Exception {
+        new ColumnarSequence(new long[] {2L, 1L}, new float[] {1.0f, 2.0f});
+    }
+
+    // Compares heap allocated and scan time of a sequence of entries vs one
+    // that was never read as entries.
+    @Test
+    public void testFootprintAndScanSpeed() throws Exception {
+        int n = 1000000;
+        long before = allocatedBytes();
+        TimeSeries.DataSequence entries = new TimeSeries.DataSequence(n);
+        for (int i = 0; i < n; i++) {
+            entries.add(new TimeSeries.Entry(i * 60L, (float) i));
+        }
+        long entryBytes = allocatedBytes() - before;
+
+        before = allocatedBytes();
+        TimeSeries.DataSequence columns = new TimeSeries.DataSequence(n);
+        for (int i = 0; i < n; i++) {
+            columns.add(i * 60L, (float) i);
+        }
+        long columnBytes = allocatedBytes() - before;
+
+        double entrySum = 0;
+        double columnSum = 0;
+        long entryTime = 0;
+        long columnTime = 0;
+        for (int r = 0; r < 10; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                entrySum += entries.get(i).value;
+            }
+            entryTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                columnSum += columns.valueAt(i);
+            }
+            columnTime += System.nanoTime() - start;
+        }
+        Assert.assertEquals(columnSum, entrySum);
+
+        System.out.print("\n entry layout: " + (entryBytes / n) + " bytes/point, scan "
+                         + (entryTime / 1000000) + "ms");
+        System.out.print("\n columnar layout: " + (columnBytes / n) + " bytes/point, scan "
+                         + (columnTime / 1000000) + "ms");
+        if (entryBytes > 0 && columnBytes > 0) {
+            Assert.assertTrue(columnBytes < entryBytes);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.data;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.yahoo.egads.control.AnomalyDetector;
+import com.yahoo.egads.models.adm.AdaptiveKernelDensityChangePointDetector;
+import com.yahoo.egads.models.adm.AnomalyDetectionModel;
+import com.yahoo.egads.models.adm.DBScanModel;
+import com.yahoo.egads.models.adm.ExtremeLowDensityModel;
+import com.yahoo.egads.models.adm.KSigmaModel;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+// The models of an AnomalyDetector find the same anomalies over a shared
+// DetectionContext, run one after the other or in parallel, as on their own.
+public class TestDetectionContext {
+
+    private static TimeSeries series(int n, long seed) throws Exception {
+        Random r = new Random(seed);
+        TimeSeries ts = new TimeSeries();
+        for (int i = 0; i < n; i++) {
+            ts.append(1417194000L + i * 3600L, (float) (100 + 10 * Math.sin(i * Math.PI / 12) + r.nextGaussian()));
+        }
+        return ts;
+    }
+
+    private static Properties config() throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        p.setProperty("OUTPUT", "STD_OUT");
+        p.setProperty("MAX_ANOMALY_TIME_AGO", "999999999");
+        return p;
+    }
+
+    private static List<AnomalyDetectionModel> models(Properties p) {
+        List<AnomalyDetectionModel> models = new ArrayList<AnomalyDetectionModel>();
+        models.add(new KSigmaModel(p));
+        models.add(new ExtremeLowDensityModel(p));
+        models.add(new DBScanModel(p));
+        models.add(new AdaptiveKernelDensityChangePointDetector(p));
+        return models;
+    }
+
+    private static AnomalyDetector detector(TimeSeries observed, TimeSeries.DataSequence expected, Properties p)
+            throws Exception {
+        AnomalyDetector detector = new AnomalyDetector(observed, 3600);
+        for (AnomalyDetectionModel model : models(p)) {
+            detector.addModel(model);
+        }
+        detector.tune(expected, null);
+        return detector;
+    }
+
+    private static void assertSame(Anomaly.IntervalSequence actual, Anomaly.IntervalSequence expected, String name) {
+        Assert.assertEquals(actual.size(), expected.size(), name);
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(actual.get(i).index, expected.get(i).index, name);
+            Assert.assertEquals(actual.get(i).anomalyScore, expected.get(i).anomalyScore, name);
+        }
+    }
+
+    @Test
+    public void cached() throws Exception {
+        TimeSeries.DataSequence observed = series(200, 1).data;
+        TimeSeries.DataSequence expected = series(200, 2).data;
+        DetectionContext context = new DetectionContext(observed, expected);
+        float[] residuals = context.residuals();
+        Assert.assertSame(context.residuals(), residuals);
+        Assert.assertSame(context.errors().get(ErrorMetrics.MAE), context.errors().get(ErrorMetrics.MAE));
+        double sum = 0;
+        for (int i = 0; i < observed.size(); i++) {
+            Assert.assertEquals(residuals[i], observed.get(i).value - expected.get(i).value);
+            Assert.assertEquals(context.errors().get(ErrorMetrics.MAE)[i], Math.abs(residuals[i]));
+            sum += residuals[i];
+        }
+        Assert.assertEquals(context.residualMean(), sum / observed.size(), 1e-9);
+        Assert.assertTrue(context.observedSD() > 5);
+        Assert.assertTrue(context.isFor(observed, expected));
+        Assert.assertFalse(context.isFor(expected, observed));
+    }
+
+    @Test
+    public void shared() throws Exception {
+        TimeSeries observed = series(600, 3);
+        TimeSeries.DataSequence expected = series(600, 4).data;
+        for (int i = 11; i < observed.size(); i += 43) {
+            observed.data.get(i).value += 40;
+        }
+        for (int i = 400; i < observed.size(); i++) {
+            observed.data.get(i).value += 15;
+        }
+        Properties p = config();
+
+        // a detector each, the change point model carries its window over to the next detect()
+        ArrayList<Anomaly> sequential = detector(observed, expected, p).detect(observed, expected);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ArrayList<Anomaly> parallel;
+        try {
+            parallel = detector(observed, expected, p).detect(observed, expected, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        List<AnomalyDetectionModel> alone = models(p);
+        Assert.assertEquals(sequential.size(), alone.size());
+        Assert.assertEquals(parallel.size(), alone.size());
+        Assert.assertFalse(sequential.get(0).intervals.isEmpty());
+        for (int m = 0; m < alone.size(); m++) {
+            AnomalyDetectionModel model = alone.get(m);
+            model.tune(observed.data, expected, null);
+            Anomaly.IntervalSequence found = model.detect(observed.data, expected);
+            assertSame(sequential.get(m).intervals, found, model.getModelName());
+            assertSame(parallel.get(m).intervals, found, model.getModelName());
+        }
+    }
+
+    // Detection time of several change point models over one context, in
+    // parallel over one context and each over its own context.
+    // -Degads.points sets the number of points.
+    @Test
+    public void speed() throws Exception {
+        int n = Integer.parseInt(System.getProperty("egads.points", "20000"));
+        int count = 4;
+        TimeSeries observed = series(n, 5);
+        TimeSeries.DataSequence expected = series(n, 6).data;
+        Properties p = config();
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            // warm up
+            changePoints(observed, expected, p, count).detect(observed, expected, executor);
+            changePoints(observed, expected, p, count).detect(observed, expected);
+
+            AnomalyDetector detector = changePoints(observed, expected, p, count);
+            long begin = System.nanoTime();
+            detector.detect(observed, expected);
+            long shared = System.nanoTime() - begin;
+            detector = changePoints(observed, expected, p, count);
+            begin = System.nanoTime();
+            detector.detect(observed, expected, executor);
+            long parallel = System.nanoTime() - begin;
+            begin = System.nanoTime();
+            for (int m = 0; m < count; m++) {
+                new AdaptiveKernelDensityChangePointDetector(p).detect(observed.data, expected);
+            }
+            long alone = System.nanoTime() - begin;
+            System.out.print("\n Detection by " + count + " change point models on " + n + " points: shared context "
+                    + (shared / 1000000) + "ms, in parallel " + (parallel / 1000000) + "ms, one context each "
+                    + (alone / 1000000) + "ms");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static AnomalyDetector changePoints(TimeSeries observed, TimeSeries.DataSequence expected, Properties p,
+            int count) throws Exception {
+        AnomalyDetector detector = new AnomalyDetector(observed, 3600);
+        for (int m = 0; m < count; m++) {
+            detector.addModel(new AdaptiveKernelDensityChangePointDetector(p));
+        }
+        detector.tune(expected, null);
+        return detector;
+    }
+}
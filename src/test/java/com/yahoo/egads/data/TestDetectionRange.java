@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.data;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import com.yahoo.egads.control.AnomalyDetector;
+import com.yahoo.egads.control.ModelAdapter;
+import com.yahoo.egads.models.adm.AdaptiveKernelDensityChangePointDetector;
+import com.yahoo.egads.models.adm.AnomalyDetectionModel;
+import com.yahoo.egads.models.adm.DBScanModel;
+import com.yahoo.egads.models.adm.ExtremeLowDensityModel;
+import com.yahoo.egads.models.adm.KSigmaModel;
+import com.yahoo.egads.models.adm.NaiveModel;
+import com.yahoo.egads.models.adm.SimpleThresholdModel;
+import com.yahoo.egads.models.tsmm.OlympicModel;
+import com.yahoo.egads.models.tsmm.TimeSeriesModel;
+import com.yahoo.egads.models.tsmm.TripleExponentialSmoothingModel;
+import com.yahoo.egads.models.tsmm.WeightedMovingAverageModel;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+// The detection window found by binary search is the one of
+// isDetectionWindowPoint(), and the models report the same anomalies when
+// only the points of the window are forecast and scored.
+public class TestDetectionRange {
+
+    private static final long MINUTE = 60;
+
+    // 'days' of minute points ending at 'end'.
+    private static TimeSeries series(int days, long end, long seed) throws Exception {
+        Random r = new Random(seed);
+        int n = days * 1440;
+        TimeSeries ts = new TimeSeries();
+        for (int i = 0; i < n; i++) {
+            ts.append(end - (n - 1 - i) * MINUTE, (float) (100 + 10 * Math.sin(i * Math.PI / 720) + r.nextGaussian()));
+        }
+        return ts;
+    }
+
+    private static Properties config(int maxHrsAgo, long windowStart) throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        p.setProperty("OUTPUT", "STD_OUT");
+        p.setProperty("MAX_ANOMALY_TIME_AGO", String.valueOf(maxHrsAgo));
+        p.setProperty("DETECTION_WINDOW_START_TIME", String.valueOf(windowStart));
+        return p;
+    }
+
+    private static List<AnomalyDetectionModel> models(Properties p) {
+        List<AnomalyDetectionModel> models = new ArrayList<AnomalyDetectionModel>();
+        models.add(new KSigmaModel(p));
+        models.add(new ExtremeLowDensityModel(p));
+        models.add(new SimpleThresholdModel(p));
+        Properties naive = new Properties();
+        naive.putAll(p);
+        naive.setProperty("THRESHOLD", "mape#10");
+        models.add(new NaiveModel(naive));
+        models.add(new DBScanModel(p));
+        models.add(new AdaptiveKernelDensityChangePointDetector(p));
+        return models;
+    }
+
+    @Test
+    public void window() throws Exception {
+        Random r = new Random(1);
+        for (int trial = 0; trial < 500; trial++) {
+            long now = 1500000000L + r.nextInt(1000000);
+            TimeSeries ts = new TimeSeries();
+            long t = now - r.nextInt(200000);
+            int n = r.nextInt(300);
+            for (int i = 0; i < n; i++) {
+                ts.append(t, 1);
+                t += r.nextInt(4) * 600;
+            }
+            int maxHrsAgo = r.nextInt(60) - 1;
+            long windowStart = r.nextBoolean() ? 0 : now - r.nextInt(250000);
+            DetectionRange range = DetectionRange.of(ts.data, maxHrsAgo, windowStart, now);
+            Assert.assertEquals(range.size(), n);
+            Assert.assertEquals(range.isLatest(), maxHrsAgo == 0);
+            for (int i = 0; i < n; i++) {
+                boolean in = DetectionRange.inWindow(maxHrsAgo, windowStart, ts.time(i), ts.time(0), now);
+                Assert.assertEquals(i >= range.getWindowFrom(), in, "trial " + trial + " point " + i);
+                Assert.assertEquals(i >= range.getFrom(), in || (maxHrsAgo == 0 && i == n - 1));
+            }
+        }
+        Assert.assertEquals(DetectionRange.all(5).getFrom(), 0);
+        Assert.assertEquals(DetectionRange.of(series(1, 1500000000L, 1).data, new Properties()).getFrom(), 0);
+    }
+
+    @Test
+    public void sameAnomalies() throws Exception {
+        TimeSeries ts = series(3, 1500000000L, 2);
+        int n = ts.size();
+        for (int i = 7; i < n; i += 97) {
+            ts.data.get(i).value += 30;
+        }
+        for (int i = n - 40; i < n; i++) {
+            ts.data.get(i).value += 20;
+        }
+        // the last 90 points, then the last one only
+        Assert.assertTrue(check(ts, config(1, ts.time(n - 91))) > 0);
+        check(ts, config(0, 0));
+    }
+
+    // The number of anomalies found.
+    private static int check(TimeSeries ts, Properties p) throws Exception {
+        ModelAdapter adapter = new ModelAdapter(ts, MINUTE);
+        adapter.addModel(new WeightedMovingAverageModel(p));
+        adapter.train();
+        TimeSeries.DataSequence expected = adapter.forecast(ts.startTime(), ts.lastTime()).get(0);
+        DetectionRange range = DetectionRange.of(ts.data, p);
+        TimeSeries.DataSequence window = adapter.forecast(ts.startTime(), ts.lastTime(), range).get(0);
+        for (int i = range.getFrom(); i < ts.size(); i++) {
+            Assert.assertEquals(window.get(i).value, expected.get(i).value);
+        }
+
+        List<AnomalyDetectionModel> whole = models(p);
+        List<AnomalyDetectionModel> ranged = models(p);
+        int found = 0;
+        for (int m = 0; m < whole.size(); m++) {
+            AnomalyDetectionModel a = whole.get(m);
+            AnomalyDetectionModel b = ranged.get(m);
+            a.tune(ts.data, expected, null);
+            b.tune(ts.data, expected, null);
+            Anomaly.IntervalSequence reference = a.detect(ts.data, expected);
+            Anomaly.IntervalSequence actual = b.detect(ts.data, b.isPointwise() ? window : expected, range);
+            Assert.assertEquals(actual.size(), reference.size(), a.getModelName());
+            for (int i = 0; i < reference.size(); i++) {
+                Assert.assertEquals(actual.get(i).index, reference.get(i).index, a.getModelName());
+                Assert.assertEquals(actual.get(i).anomalyScore, reference.get(i).anomalyScore, a.getModelName());
+                Assert.assertEquals(actual.get(i).expectedVal, reference.get(i).expectedVal, a.getModelName());
+                Assert.assertTrue(actual.get(i).index >= range.getFrom());
+            }
+            found += reference.size();
+        }
+        return found;
+    }
+
+    @Test
+    public void forecastWindow() throws Exception {
+        TimeSeries ts = series(15, 1500000000L, 3);
+        Properties p = config(1, 0);
+        TimeSeriesModel[] models = {new OlympicModel(p), new TripleExponentialSmoothingModel(p),
+            new WeightedMovingAverageModel(p)};
+        DetectionRange range = new DetectionRange(ts.size() - 60, ts.size(), false);
+        for (TimeSeriesModel model : models) {
+            ModelAdapter adapter = new ModelAdapter(ts, MINUTE);
+            adapter.addModel(model);
+            adapter.train();
+            TimeSeries.DataSequence expected = adapter.forecast(ts.startTime(), ts.lastTime()).get(0);
+            TimeSeries.DataSequence window = adapter.forecast(ts.startTime(), ts.lastTime(), range).get(0);
+            Assert.assertEquals(window.size(), expected.size());
+            for (int i = range.getFrom(); i < ts.size(); i++) {
+                Assert.assertEquals(window.get(i).time, expected.get(i).time);
+                Assert.assertEquals(window.get(i).value, expected.get(i).value, model.getModelName());
+            }
+        }
+    }
+
+    // Forecast and detection time of tuned models over 30 days of minute
+    // points with MAX_ANOMALY_TIME_AGO 1: the whole series forecast and
+    // scored, then the last hour only.
+    // -Degads.days sets the number of days.
+    @Test
+    public void speed() throws Exception {
+        int days = Integer.parseInt(System.getProperty("egads.days", "30"));
+        long now = System.currentTimeMillis() / 1000L;
+        TimeSeries ts = series(days, now - MINUTE, 4);
+        Properties p = config(1, 0);
+        ModelAdapter adapter = new ModelAdapter(ts, MINUTE);
+        adapter.addModel(new WeightedMovingAverageModel(p));
+        adapter.train();
+        AnomalyDetector detector = new AnomalyDetector(ts, MINUTE);
+        detector.addModel(new KSigmaModel(p));
+        detector.addModel(new ExtremeLowDensityModel(p));
+        detector.tune(adapter.forecast(ts.startTime(), ts.lastTime()).get(0), null);
+        Assert.assertTrue(detector.isPointwise());
+
+        long whole = 0;
+        long window = 0;
+        DetectionRange range = null;
+        for (int run = 0; run < 6; run++) {
+            // the first runs warm up
+            long begin = System.nanoTime();
+            TimeSeries.DataSequence expected = adapter.forecast(ts.startTime(), ts.lastTime()).get(0);
+            detector.detect(ts, expected, DetectionRange.all(ts.size()), null);
+            long middle = System.nanoTime();
+            range = DetectionRange.of(ts.data, p);
+            expected = adapter.forecast(ts.startTime(), ts.lastTime(), range).get(0);
+            detector.detect(ts, expected, range, null);
+            long end = System.nanoTime();
+            if (run >= 3) {
+                whole += middle - begin;
+                window += end - middle;
+            }
+        }
+        Assert.assertTrue(range.getFrom() >= ts.size() - 61);
+        System.out.print("\n Forecast and detection on " + ts.size() + " points, MAX_ANOMALY_TIME_AGO 1: whole series "
+                + (whole / 3000000) + "ms, window of " + (ts.size() - range.getFrom()) + " points "
+                + (window / 3000) + "us");
+    }
+}
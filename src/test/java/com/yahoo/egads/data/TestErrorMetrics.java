@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.data;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import com.yahoo.egads.control.AnomalyDetector;
+import com.yahoo.egads.models.adm.AnomalyDetectionModel;
+import com.yahoo.egads.models.adm.DBScanModel;
+import com.yahoo.egads.models.adm.ExtremeLowDensityModel;
+import com.yahoo.egads.models.adm.KSigmaModel;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+// The columnar errors are the ones of computeErrorMetrics(), and the models
+// give the same anomalies with the errors shared by an AnomalyDetector.
+public class TestErrorMetrics {
+
+    private static TimeSeries series(int n, long seed) throws Exception {
+        Random r = new Random(seed);
+        TimeSeries ts = new TimeSeries();
+        for (int i = 0; i < n; i++) {
+            float v = (float) (100 + 10 * Math.sin(i * Math.PI / 12) + r.nextGaussian());
+            ts.append(1417194000L + i * 3600L, i % 17 == 0 ? 0 : v);
+        }
+        return ts;
+    }
+
+    private static Properties config() throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        p.setProperty("OUTPUT", "STD_OUT");
+        p.setProperty("MAX_ANOMALY_TIME_AGO", "999999999");
+        return p;
+    }
+
+    @Test
+    public void sameAsPerPoint() throws Exception {
+        TimeSeries.DataSequence observed = series(500, 1).data;
+        TimeSeries.DataSequence expected = series(500, 2).data;
+        for (int i = 0; i < observed.size(); i += 13) {
+            expected.get(i).value = observed.get(i).value;
+        }
+        expected.get(5).value = 0;
+        AnomalyErrorStorage storage = new AnomalyErrorStorage();
+        ErrorMetrics errors = storage.initErrorMetrics(observed, expected, null);
+        // a subset first, then the rest
+        float[] mase = errors.get("mase");
+        errors.compute(ErrorMetrics.MAPEE, ErrorMetrics.SMAPE);
+        for (int i = 0; i < observed.size(); i++) {
+            Float[] boxed = storage.computeErrorMetrics(expected.get(i).value, observed.get(i).value);
+            Assert.assertEquals(mase[i], boxed[ErrorMetrics.MASE].floatValue());
+            for (int m = 0; m < ErrorMetrics.NAMES.length; m++) {
+                Assert.assertEquals(errors.get(m)[i], boxed[storage.getErrorToIndex().get(ErrorMetrics.NAMES[m])]
+                        .floatValue(), ErrorMetrics.NAMES[m] + " at " + i);
+            }
+        }
+
+        HashMap<String, ArrayList<Float>> lists = new AnomalyErrorStorage().initAnomalyErrors(observed, expected);
+        for (int m = 0; m < ErrorMetrics.NAMES.length; m++) {
+            Assert.assertEquals(lists.get(ErrorMetrics.NAMES[m]).toArray(new Float[0]), errors.boxed(m));
+        }
+
+        // shared errors are used for the same series only
+        Assert.assertSame(new AnomalyErrorStorage().initErrorMetrics(observed, expected, errors), errors);
+        Assert.assertNotSame(new AnomalyErrorStorage().initErrorMetrics(expected, observed, errors), errors);
+    }
+
+    @Test
+    public void sharedByDetector() throws Exception {
+        TimeSeries observed = series(400, 3);
+        TimeSeries.DataSequence expected = series(400, 4).data;
+        for (int i = 7; i < observed.size(); i += 37) {
+            observed.data.get(i).value += 40;
+        }
+        Properties p = config();
+        List<AnomalyDetectionModel> alone = new ArrayList<AnomalyDetectionModel>();
+        alone.add(new KSigmaModel(p));
+        alone.add(new ExtremeLowDensityModel(p));
+        alone.add(new DBScanModel(p));
+
+        AnomalyDetector detector = new AnomalyDetector(observed, 3600);
+        detector.addModel(new KSigmaModel(p));
+        detector.addModel(new ExtremeLowDensityModel(p));
+        detector.addModel(new DBScanModel(p));
+        detector.tune(expected, null);
+        ArrayList<Anomaly> shared = detector.detect(observed, expected);
+        Assert.assertFalse(shared.get(0).intervals.isEmpty());
+
+        for (int m = 0; m < alone.size(); m++) {
+            AnomalyDetectionModel model = alone.get(m);
+            model.tune(observed.data, expected, null);
+            Anomaly.IntervalSequence found = model.detect(observed.data, expected);
+            Assert.assertEquals(shared.get(m).intervals.size(), found.size(), model.getModelName());
+            for (int i = 0; i < found.size(); i++) {
+                Assert.assertEquals(shared.get(m).intervals.get(i).index, found.get(i).index);
+                Assert.assertEquals(shared.get(m).intervals.get(i).anomalyScore, found.get(i).anomalyScore);
+            }
+        }
+    }
+
+    // Time to compute the five errors of every point, one point at a time
+    // into boxed lists as initAnomalyErrors() did, and in columns.
+    // -Degads.points sets the number of points.
+    @Test
+    public void speed() throws Exception {
+        int n = Integer.parseInt(System.getProperty("egads.points", "1000000"));
+        float[] observed = new float[n];
+        float[] expected = new float[n];
+        Random r = new Random(5);
+        for (int i = 0; i < n; i++) {
+            observed[i] = (float) (100 + 10 * r.nextGaussian());
+            expected[i] = (float) (100 + 10 * r.nextGaussian());
+        }
+        AnomalyErrorStorage storage = new AnomalyErrorStorage();
+
+        // warm up
+        boxedLists(storage, observed, expected);
+        new ErrorMetrics(observed, expected).compute();
+
+        long begin = System.nanoTime();
+        boxedLists(storage, observed, expected);
+        long boxed = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        new ErrorMetrics(observed, expected).compute();
+        long columnar = System.nanoTime() - begin;
+        System.out.print("\n Error metrics of " + n + " points: columnar " + (columnar / 1000000)
+                + "ms, per point into lists " + (boxed / 1000000) + "ms");
+    }
+
+    private static HashMap<String, ArrayList<Float>> boxedLists(AnomalyErrorStorage storage, float[] observed,
+            float[] expected) {
+        HashMap<String, ArrayList<Float>> allErrors = new HashMap<String, ArrayList<Float>>();
+        for (int i = 0; i < observed.length; i++) {
+            Float[] errors = storage.computeErrorMetrics(expected[i], observed[i]);
+            for (int j = 0; j < errors.length; j++) {
+                String name = storage.getIndexToError().get(j);
+                if (!allErrors.containsKey(name)) {
+                    allErrors.put(name, new ArrayList<Float>());
+                }
+                ArrayList<Float> tmp = allErrors.get(name);
+                tmp.add(errors[j]);
+                allErrors.put(name, tmp);
+            }
+        }
+        return allErrors;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.yahoo.egads.control.ModelRegistry;
+import com.yahoo.egads.models.adm.AnomalyDetectionModel;
+import com.yahoo.egads.models.tsmm.OlympicModel;
+import com.yahoo.egads.models.tsmm.TimeSeriesAbstractModel;
+import com.yahoo.egads.models.tsmm.TimeSeriesModel;
+import com.yahoo.egads.utilities.FileUtils;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestModelStore {
+
+    // A model without codec, stored with Java serialization.
+    static class LastValueModel extends TimeSeriesAbstractModel {
+        private static final long serialVersionUID = 1L;
+        float last = 0;
+
+        LastValueModel(Properties config) {
+            super(config);
+        }
+
+        public void reset() {
+            last = 0;
+        }
+
+        public void train(TimeSeries.DataSequence data) {
+            last = data.get(data.size() - 1).value;
+        }
+
+        public void update(TimeSeries.DataSequence data) {
+            train(data);
+        }
+
+        public void predict(TimeSeries.DataSequence sequence) {
+            for (TimeSeries.Entry e : sequence) {
+                e.value = last;
+            }
+        }
+    }
+
+    private static Properties config() throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        return p;
+    }
+
+    private static TimeSeries.DataSequence input(Properties p) throws Exception {
+        Logger logger = (Logger) LoggerFactory.getLogger(FileUtils.class);
+        Level level = logger.getLevel();
+        logger.setLevel(Level.INFO);
+        try {
+            return FileUtils.createTimeSeries("src/test/resources/model_input.csv", p).get(0).data;
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+    private static File tempDir() throws IOException {
+        File dir = Files.createTempDirectory("egads").toFile();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static float[] predict(TimeSeriesModel model, TimeSeries.DataSequence data) throws Exception {
+        TimeSeries.DataSequence sequence = new TimeSeries.DataSequence(data.get(0).time,
+                                                                       data.get(data.size() - 1).time, 3600);
+        sequence.setLogicalIndices(data.get(0).time, 3600);
+        model.predict(sequence);
+        return sequence.valuesAsFloatArray();
+    }
+
+    @Test
+    public void testOlympicSnapshot() throws Exception {
+        Properties p = config();
+        TimeSeries.DataSequence data = input(p);
+        OlympicModel model = new OlympicModel(p);
+        model.train(data);
+
+        byte[] b = ModelSnapshot.toBytes(model);
+        OlympicModel copy = (OlympicModel) ModelSnapshot.fromBytes(b, 0, b.length);
+        Assert.assertEquals(copy.getNumWeeks(), model.getNumWeeks());
+        Assert.assertEquals(copy.getMAD(), model.getMAD());
+        Assert.assertEquals(copy.getBias(), model.getBias());
+        Assert.assertEquals(Double.isNaN(copy.getMAPE()), Double.isNaN(model.getMAPE()));
+        Assert.assertEquals(predict(copy, data), predict(model, data));
+    }
+
+    // The codec version of a snapshot, JAVA_SERIALIZATION without a codec.
+    private static int codecVersion(byte[] b) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+        in.readInt();
+        in.readInt();
+        in.readUTF();
+        return in.readInt();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Model> T copy(T model) throws IOException {
+        byte[] b = ModelSnapshot.toBytes(model);
+        Assert.assertTrue(codecVersion(b) > ModelSnapshot.JAVA_SERIALIZATION, model.getClass().getName());
+        return (T) ModelSnapshot.fromBytes(b, 0, b.length);
+    }
+
+    @Test
+    public void testForecastCodecs() throws Exception {
+        Properties p = config();
+        p.setProperty("AUTO_FORECAST_CANDIDATES", "NaiveForecastingModel,RegressionModel");
+        TimeSeries.DataSequence data = input(p);
+        int n = data.size();
+        String[] names = {
+            "MovingAverageModel", "NaiveForecastingModel", "WeightedMovingAverageModel",
+            "SimpleExponentialSmoothingModel", "DoubleExponentialSmoothingModel", "TripleExponentialSmoothingModel",
+            "RegressionModel", "PolynomialRegressionModel", "MultipleLinearRegressionModel", "NullModel",
+            "AutoForecastModel"
+        };
+        for (String engine : new String[] {"NATIVE", "OPENFORECAST"}) {
+            p.setProperty("FORECAST_ENGINE", engine);
+            for (String name : names) {
+                TimeSeriesAbstractModel model =
+                    (TimeSeriesAbstractModel) ModelRegistry.getInstance().createTimeSeriesModel(name, new ModelConfig(p));
+                model.train(data);
+                TimeSeriesAbstractModel copy = copy(model);
+                Assert.assertEquals(copy.getMAD(), model.getMAD(), name);
+                Assert.assertEquals(predict(copy, data), predict(model, data), name);
+                if (name.endsWith("ExponentialSmoothingModel")) {
+                    // the streaming state goes with the model
+                    for (int i = 0; i < 10; i++) {
+                        model.onPoint(data.get(n - 10 + i).time, data.get(n - 10 + i).value);
+                    }
+                    copy = copy(model);
+                    for (int i = 0; i < 10; i++) {
+                        Assert.assertEquals(copy.onPoint(i, data.get(i).value), model.onPoint(i, data.get(i).value), name);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAnomalyDetectionCodecs() throws Exception {
+        Properties p = config();
+        TimeSeries.DataSequence data = input(p);
+        OlympicModel olympic = new OlympicModel(p);
+        olympic.train(data);
+        TimeSeries.DataSequence expected = new TimeSeries.DataSequence(data.size());
+        for (TimeSeries.Entry e : data) {
+            expected.add(new TimeSeries.Entry(e.time, e.value));
+        }
+        olympic.predict(expected);
+
+        String[] names = {"KSigmaModel", "ExtremeLowDensityModel", "NaiveModel", "SimpleThresholdModel", "DBScanModel"};
+        for (String name : names) {
+            Properties config = new Properties();
+            config.putAll(p);
+            if (name.equals("NaiveModel")) {
+                config.setProperty("THRESHOLD", "mape#10,mase#15");
+            }
+            AnomalyDetectionModel model =
+                ModelRegistry.getInstance().createAnomalyDetectionModel(name, new ModelConfig(config));
+            model.tune(data, expected, null);
+            AnomalyDetectionModel copy = copy(model);
+            Assert.assertEquals(copy.detect(data, expected).toString(), model.detect(data, expected).toString(), name);
+            if (name.equals("KSigmaModel") || name.equals("SimpleThresholdModel")) {
+                for (int i = 0; i < 10; i++) {
+                    model.onPoint(data.get(i).time, data.get(i).value, expected.get(i).value);
+                }
+                copy = copy(model);
+                for (int i = 10; i < 50; i++) {
+                    TimeSeries.Entry o = data.get(i);
+                    Assert.assertEquals(String.valueOf(copy.onPoint(o.time, o.value, expected.get(i).value)),
+                                        String.valueOf(model.onPoint(o.time, o.value, expected.get(i).value)), name);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSerializationFallback() throws Exception {
+        Properties p = config();
+        TimeSeries.DataSequence data = input(p);
+        LastValueModel model = new LastValueModel(p);
+        model.train(data);
+
+        byte[] b = ModelSnapshot.toBytes(model);
+        LastValueModel copy = (LastValueModel) ModelSnapshot.fromBytes(b, 0, b.length);
+        Assert.assertEquals(copy.last, model.last);
+        Assert.assertEquals(predict(copy, data), predict(model, data));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotASnapshot() throws Exception {
+        byte[] b = new byte[64];
+        ModelSnapshot.fromBytes(b, 0, b.length);
+    }
+
+    @Test
+    public void testStoreAndReopen() throws Exception {
+        Properties p = config();
+        TimeSeries.DataSequence data = input(p);
+        OlympicModel olympic = new OlympicModel(p);
+        olympic.train(data);
+        LastValueModel last = new LastValueModel(p);
+        last.train(data);
+
+        File dir = tempDir();
+        // small segments to roll over
+        SegmentModelStore store = new SegmentModelStore(dir.getPath(), 64 << 10);
+        for (int i = 0; i < 50; i++) {
+            store.storeModel("olympic/" + i, olympic);
+        }
+        store.storeModel("last", olympic);
+        store.storeModel("last", last);
+        // read before flush
+        Assert.assertTrue(store.retrieveModel("last") instanceof LastValueModel);
+        Assert.assertNull(store.retrieveModel("unknown"));
+        store.close();
+        Assert.assertTrue(new File(dir, "segment-000001.dat").exists());
+
+        store = new SegmentModelStore(dir.getPath(), 64 << 10);
+        Assert.assertEquals(store.size(), 51);
+        Assert.assertTrue(store.contains("olympic/49"));
+        Assert.assertEquals(predict((TimeSeriesModel) store.retrieveModel("olympic/7"), data), predict(olympic, data));
+        Assert.assertEquals(predict((TimeSeriesModel) store.retrieveModel("last"), data), predict(last, data));
+        store.storeModel("olympic/50", olympic);
+        store.close();
+
+        // an index entry cut short by a crash is dropped and appending still works
+        RandomAccessFile index = new RandomAccessFile(new File(dir, "index.dat"), "rw");
+        index.setLength(index.length() - 5);
+        index.close();
+        store = new SegmentModelStore(dir.getPath(), 64 << 10);
+        Assert.assertEquals(store.size(), 51);
+        Assert.assertFalse(store.contains("olympic/50"));
+        store.storeModel("olympic/51", olympic);
+        store.close();
+        store = new SegmentModelStore(dir.getPath(), 64 << 10);
+        Assert.assertEquals(store.size(), 52);
+        Assert.assertTrue(store.retrieveModel("olympic/51") instanceof OlympicModel);
+        store.close();
+    }
+
+    // Save and restore throughput of SegmentModelStore against FileModelStore,
+    // -Degads.models sets the number of models.
+    @Test
+    public void testThroughput() throws Exception {
+        int n = Integer.parseInt(System.getProperty("egads.models", "500"));
+        Properties p = config();
+        TimeSeries.DataSequence data = input(p);
+        OlympicModel model = new OlympicModel(p);
+        model.train(data);
+
+        long start = System.nanoTime();
+        FileModelStore files = new FileModelStore(tempDir().getPath());
+        for (int i = 0; i < n; i++) {
+            files.storeModel("model-" + i, model);
+        }
+        long fileSave = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            Assert.assertNotNull(files.retrieveModel("model-" + i));
+        }
+        long fileRestore = System.nanoTime() - start;
+
+        File dir = tempDir();
+        start = System.nanoTime();
+        SegmentModelStore store = new SegmentModelStore(dir.getPath());
+        for (int i = 0; i < n; i++) {
+            store.storeModel("model-" + i, model);
+        }
+        store.close();
+        long segmentSave = System.nanoTime() - start;
+        start = System.nanoTime();
+        store = new SegmentModelStore(dir.getPath());
+        long open = System.nanoTime() - start;
+        for (int i = 0; i < n; i++) {
+            Assert.assertNotNull(store.retrieveModel("model-" + i));
+        }
+        long segmentRestore = System.nanoTime() - start;
+        store.close();
+
+        System.out.print("\n model store " + n + " models: file save " + (fileSave / 1000000) + "ms, restore "
+                         + (fileRestore / 1000000) + "ms; segment save " + (segmentSave / 1000000) + "ms, open "
+                         + (open / 1000000) + "ms, restore " + (segmentRestore / 1000000) + "ms");
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+package com.yahoo.egads.models.tsmm;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.math3.util.Pair;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.data.TimeSeries.DataSequence;
+import com.yahoo.egads.data.WeightedValue;
+
+// OlympicModel2 trained through the CalendarIndex gives the same model as
+// the ZonedDateTime walk it replaces.
+public class TestCalendarIndex {
+
+    /** The training loop of OlympicModel2 before the calendar index. */
+    static class LegacyOlympicModel2 extends OlympicModel2 {
+        private static final long serialVersionUID = 1L;
+
+        LegacyOlympicModel2(final Properties config) {
+            super(config);
+        }
+
+        @Override
+        public void train(final DataSequence data) throws Exception {
+            legacyIndices(data, modelStartEpoch);
+            final long size = data.size();
+            ZonedDateTime model_ts = Instant.ofEpochSecond(modelStartEpoch)
+                    .atZone(zone);
+            ZonedDateTime end_ts = model_ts.plus(windowSize, windowUnits);
+            int prediction_index = 0;
+            final List<WeightedValue> accumulator = Lists.newArrayList();
+            while (true) {
+                accumulator.clear();
+                for (int i = 0; i < windowTimes.length; i++) {
+                    if (indices[i] < 0 || indices[i] >= size) {
+                        continue;
+                    }
+                    windowTimes[i] = windowTimes[i].plus(interval,
+                            intervalUnits);
+                    long interval_end = windowTimes[i].toEpochSecond();
+                    final List<Double> doubles = Lists.newArrayList();
+                    while (indices[i] < size
+                            && data.get(indices[i]).time < interval_end) {
+                        if (Double.isFinite(data.get(indices[i]).value)) {
+                            doubles.add((double) data.get(indices[i]).value);
+                        }
+                        indices[i]++;
+                    }
+                    if (!doubles.isEmpty()) {
+                        double sum = 0;
+                        for (final Double v : doubles) {
+                            sum += v;
+                        }
+                        accumulator.add(
+                                new WeightedValue((sum / doubles.size()), i + 1));
+                    }
+                }
+                if (drop_lowest > 0 || drop_highest > 0) {
+                    if (drop_highest > drop_lowest) {
+                        WeightedValue.drop(accumulator, drop_highest, true);
+                        WeightedValue.drop(accumulator, drop_lowest, false);
+                    } else {
+                        WeightedValue.drop(accumulator, drop_lowest, false);
+                        WeightedValue.drop(accumulator, drop_highest, true);
+                    }
+                }
+                model.add(new Pair<Long, Double>(model_ts.toEpochSecond(),
+                        WeightedValue.aggregate(accumulator, windowAggregator)));
+                model_ts = model_ts.plus(interval, intervalUnits);
+                if (model_ts.toEpochSecond() > end_ts.toEpochSecond()) {
+                    prediction_index++;
+                    if (prediction_index >= futureWindows) {
+                        break;
+                    }
+                    model_ts = Instant.ofEpochSecond(modelStartEpoch).atZone(zone);
+                    model_ts = model_ts.plus(
+                            (windowDistanceInterval * prediction_index),
+                            windowDistanceIntervalUnits);
+                    end_ts = model_ts.plus(windowSize, windowUnits);
+                    legacyIndices(data, model_ts.toEpochSecond());
+                }
+            }
+        }
+
+        private void legacyIndices(final DataSequence data, final long start) {
+            final ZonedDateTime base = Instant.ofEpochSecond(start).atZone(zone);
+            for (int i = 0; i < pastWindows; i++) {
+                final ZonedDateTime seek = base.minus(
+                        (windowDistanceInterval * (pastWindows - i)),
+                        windowDistanceIntervalUnits);
+                final long seek_time = seek.toEpochSecond();
+                int idx = data.size() / (pastWindows - i);
+                if (idx >= data.size()) {
+                    idx = data.size() - 1;
+                }
+                if (data.get(idx).time < seek_time) {
+                    while (idx < data.size() && data.get(idx).time < seek_time) {
+                        idx++;
+                    }
+                } else if (data.get(idx).time > seek_time) {
+                    while (idx > 0 && data.get(idx - 1).time >= seek_time) {
+                        idx--;
+                    }
+                }
+                windowTimes[i] = seek;
+                indices[i] = idx >= data.size() ? -1 : idx;
+            }
+        }
+    }
+
+    private static Properties config(final long start, final String zone,
+            final String interval, final String windowSize) {
+        final Properties config = new Properties();
+        config.put("INTERVAL", interval.split(" ")[0]);
+        config.put("INTERVAL_UNITS", interval.split(" ")[1]);
+        config.put("WINDOW_SIZE", windowSize.split(" ")[0]);
+        config.put("WINDOW_SIZE_UNITS", windowSize.split(" ")[1]);
+        config.put("WINDOW_DISTANCE", "1");
+        config.put("WINDOW_DISTANCE_UNITS", "WEEKS");
+        config.put("MODEL_START", Long.toString(start));
+        config.put("TIMEZONE", zone);
+        return config;
+    }
+
+    // Irregular points with gaps and NaNs from 'weeks' weeks before start.
+    private static DataSequence data(final long start, final int weeks,
+            final int step, final Random r) throws Exception {
+        final TimeSeries ts = new TimeSeries();
+        long t = start - weeks * 7 * 86400L;
+        final long end = start + 3 * 7 * 86400L;
+        while (t < end) {
+            if (r.nextInt(10) > 0) {
+                ts.append(t, r.nextInt(50) == 0 ? Float.NaN
+                        : (float) (100 + 50 * Math.sin(t / 7200.0)
+                                + r.nextGaussian() * 10));
+            }
+            t += step * (1 + r.nextInt(3));
+        }
+        return ts.data;
+    }
+
+    private static void assertSameModel(final OlympicModel2 actual,
+            final OlympicModel2 expected, final String name) {
+        assertEquals(name, expected.model.size(), actual.model.size());
+        for (int i = 0; i < expected.model.size(); i++) {
+            assertEquals(name + " at " + i, expected.model.get(i).getKey(),
+                    actual.model.get(i).getKey());
+            assertEquals(name + " at " + i,
+                    Double.doubleToLongBits(expected.model.get(i).getValue()),
+                    Double.doubleToLongBits(actual.model.get(i).getValue()));
+        }
+    }
+
+    @Test
+    public void sameAsLegacy() throws Exception {
+        final Random r = new Random(3);
+        // around the DST changes of March 12 and April 2 2017
+        final long[] starts = { 1489536000L, 1491436800L };
+        final String[] zones = { "UTC", "America/Los_Angeles",
+                "Australia/Lord_Howe" };
+        final String[] aggregators = { "AVG", "WAVG", "MEDIAN", "MAX", "MIN",
+                "SUM", "COUNT" };
+        final String[][] windows = { { "5 MINUTES", "1 HOURS" },
+                { "30 MINUTES", "1 DAYS" }, { "1 HOURS", "1 DAYS" } };
+        for (final long start : starts) {
+            final DataSequence data = data(start, 5, 300, r);
+            for (final String zone : zones) {
+                for (final String[] window : windows) {
+                    for (final String aggregator : aggregators) {
+                        final Properties config = config(start, zone,
+                                window[0], window[1]);
+                        config.put("HISTORICAL_WINDOWS", "4");
+                        config.put("FUTURE_WINDOWS", "3");
+                        config.put("WINDOW_AGGREGATOR", aggregator);
+                        config.put("NUM_TO_DROP_HIGHEST",
+                                Integer.toString(r.nextInt(2)));
+                        config.put("NUM_TO_DROP_LOWEST",
+                                Integer.toString(r.nextInt(2)));
+                        final OlympicModel2 model = new OlympicModel2(config);
+                        model.train(data);
+                        final OlympicModel2 legacy =
+                                new LegacyOlympicModel2(config);
+                        legacy.train(data);
+                        assertSameModel(model, legacy, start + " " + zone + " "
+                                + window[0] + "/" + window[1] + " " + aggregator);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shared() throws Exception {
+        final Properties config = config(1489536000L, "America/Los_Angeles",
+                "5 MINUTES", "1 DAYS");
+        config.put("HISTORICAL_WINDOWS", "4");
+        final OlympicModel2 a = new OlympicModel2(config);
+        final OlympicModel2 b = new OlympicModel2(config);
+        assertSame(CalendarIndex.of(a), CalendarIndex.of(b));
+        config.put("TIMEZONE", "UTC");
+        final OlympicModel2 c = new OlympicModel2(config);
+        assertEquals(false, CalendarIndex.of(a) == CalendarIndex.of(c));
+
+        final CalendarIndex index = CalendarIndex.of(a);
+        assertEquals(24 * 12 + 1, index.modelTimes(0).length);
+        // the past windows are before the DST change of March 12, they keep
+        // the local time which is an hour later in UTC
+        assertEquals(1489536000L - 4 * 7 * 86400L + 3600, index.seek(0, 0));
+        assertEquals(1489536000L - 7 * 86400L + 3600, index.seek(0, 3));
+    }
+
+    @Test
+    public void seek() throws Exception {
+        final TimeSeries ts = new TimeSeries();
+        ts.append(10, 1);
+        ts.append(20, 1);
+        ts.append(30, 1);
+        assertEquals(0, OlympicModel2.seek(ts.data, 5));
+        assertEquals(0, OlympicModel2.seek(ts.data, 10));
+        assertEquals(1, OlympicModel2.seek(ts.data, 11));
+        assertEquals(2, OlympicModel2.seek(ts.data, 30));
+        assertEquals(-1, OlympicModel2.seek(ts.data, 31));
+    }
+
+    // Training time of 8 weekly windows over a week at one minute
+    // resolution, -Degads.metrics sets the number of metrics.
+    @Test
+    public void speed() throws Exception {
+        final int metrics = Integer.parseInt(
+                System.getProperty("egads.metrics", "5"));
+        final long start = 1489536000L;
+        final Properties config = config(start, "America/Los_Angeles",
+                "1 MINUTES", "7 DAYS");
+        config.put("HISTORICAL_WINDOWS", "8");
+        final Random r = new Random(5);
+        final List<DataSequence> data = Lists.newArrayList();
+        for (int i = 0; i < metrics; i++) {
+            data.add(data(start, 8, 60, r));
+        }
+
+        // warm up
+        new LegacyOlympicModel2(config).train(data.get(0));
+        new OlympicModel2(config).train(data.get(0));
+
+        long begin = System.nanoTime();
+        for (final DataSequence d : data) {
+            new LegacyOlympicModel2(config).train(d);
+        }
+        final long legacy = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        for (final DataSequence d : data) {
+            new OlympicModel2(config).train(d);
+        }
+        final long indexed = System.nanoTime() - begin;
+        System.out.print("\n OlympicModel2 " + metrics + " metrics, 8 weekly "
+                + "windows at 1 minute: calendar index " + (indexed / 1000000)
+                + "ms, ZonedDateTime walk " + (legacy / 1000000) + "ms");
+    }
+}
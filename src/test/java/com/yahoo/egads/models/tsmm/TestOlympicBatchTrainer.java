@@ -0,0 +1,217 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+package com.yahoo.egads.models.tsmm;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.egads.control.BatchModelAdapter;
+import com.yahoo.egads.data.ColumnarSequence;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.data.TimeSeries.DataSequence;
+
+// The batch trainer gives each metric the model OlympicModel2.train gives it.
+public class TestOlympicBatchTrainer {
+    private final long start = 1489536000L;
+
+    private Properties config(final String aggregator, final int drop) {
+        final Properties config = new Properties();
+        config.put("INTERVAL", "5");
+        config.put("INTERVAL_UNITS", "MINUTES");
+        config.put("WINDOW_SIZE", "1");
+        config.put("WINDOW_SIZE_UNITS", "DAYS");
+        config.put("WINDOW_DISTANCE", "1");
+        config.put("WINDOW_DISTANCE_UNITS", "WEEKS");
+        config.put("HISTORICAL_WINDOWS", "4");
+        config.put("FUTURE_WINDOWS", "2");
+        config.put("MODEL_START", Long.toString(start));
+        config.put("TIMEZONE", "America/Los_Angeles");
+        config.put("WINDOW_AGGREGATOR", aggregator);
+        config.put("NUM_TO_DROP_HIGHEST", Integer.toString(drop));
+        config.put("NUM_TO_DROP_LOWEST", Integer.toString(drop));
+        return config;
+    }
+
+    // Metrics sharing timestamps every 'step' seconds over 'weeks' weeks
+    // before the model start, with gaps and NaNs.
+    private static List<TimeSeries> metrics(final long start, final int count,
+            final int weeks, final int step, final Random r) throws Exception {
+        final List<Long> times = new ArrayList<Long>();
+        for (long t = start - weeks * 7 * 86400L; t < start + 14 * 86400L;
+                t += step) {
+            if (r.nextInt(20) > 0) {
+                times.add(t);
+            }
+        }
+        final List<TimeSeries> metrics = new ArrayList<TimeSeries>();
+        for (int m = 0; m < count; m++) {
+            final TimeSeries ts = new TimeSeries();
+            for (final long t : times) {
+                ts.append(t, r.nextInt(100) == 0 ? Float.NaN
+                        : (float) (m * 10 + 50 * Math.sin(t / 3600.0)
+                                + r.nextGaussian() * 5));
+            }
+            metrics.add(ts);
+        }
+        return metrics;
+    }
+
+    private static void assertSame(final DataSequence expected,
+            final DataSequence actual) {
+        Assert.assertEquals(actual.timesAsLongArray(),
+                expected.timesAsLongArray());
+        Assert.assertEquals(actual.valuesAsFloatArray(),
+                expected.valuesAsFloatArray());
+    }
+
+    private static void assertSameModel(final OlympicModel2 actual,
+            final OlympicModel2 expected, final String name) {
+        assertEquals(name, expected.model.size(), actual.model.size());
+        for (int i = 0; i < expected.model.size(); i++) {
+            assertEquals(name + " at " + i, expected.model.get(i).getKey(),
+                    actual.model.get(i).getKey());
+            assertEquals(name + " at " + i,
+                    Double.doubleToLongBits(expected.model.get(i).getValue()),
+                    Double.doubleToLongBits(actual.model.get(i).getValue()));
+        }
+    }
+
+    @Test
+    public void sameAsTrain() throws Exception {
+        final Random r = new Random(17);
+        final List<TimeSeries> metrics = metrics(start, 6, 5, 300, r);
+        final List<DataSequence> series = new ArrayList<DataSequence>();
+        final ColumnarSequence[] columns = new ColumnarSequence[metrics.size()];
+        for (int m = 0; m < metrics.size(); m++) {
+            series.add(metrics.get(m).data);
+            columns[m] = metrics.get(m).data.toColumnar();
+        }
+        for (final String aggregator : new String[] { "AVG", "WAVG", "MEDIAN",
+                "MAX", "COUNT" }) {
+            for (int drop = 0; drop < 2; drop++) {
+                final Properties config = config(aggregator, drop);
+                final OlympicBatchTrainer trainer =
+                        new OlympicBatchTrainer(config);
+                final OlympicModel2[] batch = trainer.train(series);
+                final OlympicModel2[] columnar = trainer.train(columns);
+                for (int m = 0; m < metrics.size(); m++) {
+                    final OlympicModel2 single = new OlympicModel2(config);
+                    single.train(metrics.get(m).data);
+                    assertSameModel(batch[m], single, aggregator + " " + m);
+                    assertSameModel(columnar[m], single, aggregator + " " + m);
+                    assertSame(single.history, batch[m].history);
+                }
+
+                // the columns become the history on the first update
+                final DataSequence later = new DataSequence();
+                later.add(new TimeSeries.Entry(start + 30 * 86400L, 1));
+                for (int m = 0; m < metrics.size(); m++) {
+                    columnar[m].update(later);
+                    final OlympicModel2 single = new OlympicModel2(config);
+                    single.train(metrics.get(m).data);
+                    single.update(later);
+                    assertSame(single.history, columnar[m].history);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void notAligned() throws Exception {
+        final Random r = new Random(19);
+        final List<TimeSeries> metrics = metrics(start, 2, 5, 300, r);
+        metrics.get(1).data.remove(10);
+        final List<DataSequence> series = new ArrayList<DataSequence>();
+        series.add(metrics.get(0).data);
+        series.add(metrics.get(1).data);
+        try {
+            new OlympicBatchTrainer(config("AVG", 0)).train(series);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new OlympicBatchTrainer(config("AVG", 0)).train(new long[0],
+                    new float[1][0]);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void adapter() throws Exception {
+        final Random r = new Random(23);
+        final List<TimeSeries> metrics = metrics(start, 4, 5, 300, r);
+        // a metric with other timestamps is trained on its own
+        final TimeSeries other = new TimeSeries();
+        for (int i = 0; i < metrics.get(0).size(); i += 2) {
+            other.append(metrics.get(0).time(i), metrics.get(0).value(i));
+        }
+        metrics.add(other);
+
+        final Properties config = config("AVG", 0);
+        final BatchModelAdapter batch = new BatchModelAdapter(metrics, 300,
+                config);
+        batch.train();
+        assertEquals(5, batch.size());
+        assertEquals(4, batch.batched());
+        for (int m = 0; m < metrics.size(); m++) {
+            final com.yahoo.egads.control.ModelAdapter single =
+                    new com.yahoo.egads.control.ModelAdapter(metrics.get(m), 300);
+            single.addModel(new OlympicModel2(config));
+            single.train();
+            final long from = start;
+            final long to = start + 86400L;
+            Assert.assertEquals(batch.getAdapter(m).forecast(from, to).get(0)
+                    .valuesAsFloatArray(), single.forecast(from, to).get(0)
+                    .valuesAsFloatArray());
+        }
+    }
+
+    // Training time of the models of many metrics, in a batch and one by
+    // one, for 8 weekly windows of a day at one minute resolution.
+    // -Degads.metrics sets the number of metrics.
+    @Test
+    public void throughput() throws Exception {
+        final int count = Integer.parseInt(
+                System.getProperty("egads.metrics", "100"));
+        final Random r = new Random(29);
+        final List<TimeSeries> metrics = metrics(start, count, 8, 60, r);
+        final long[] times = metrics.get(0).data.timesAsLongArray();
+        final float[][] values = new float[count][];
+        for (int m = 0; m < count; m++) {
+            values[m] = metrics.get(m).data.valuesAsFloatArray();
+        }
+        final Properties config = config("AVG", 0);
+        config.put("INTERVAL", "1");
+        config.put("HISTORICAL_WINDOWS", "8");
+        config.put("FUTURE_WINDOWS", "1");
+        final OlympicBatchTrainer trainer = new OlympicBatchTrainer(config);
+
+        // warm up
+        trainer.train(times, values);
+        new OlympicModel2(config).train(metrics.get(0).data);
+
+        long begin = System.nanoTime();
+        trainer.train(times, values);
+        final long batch = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        for (final TimeSeries metric : metrics) {
+            new OlympicModel2(config).train(metric.data);
+        }
+        final long single = System.nanoTime() - begin;
+        System.out.print("\n OlympicModel2 " + count + " metrics of "
+                + times.length + " points: batch " + (batch / 1000000)
+                + "ms, one by one " + (single / 1000000) + "ms");
+    }
+}
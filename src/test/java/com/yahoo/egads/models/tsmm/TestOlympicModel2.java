@@ -14,7 +14,6 @@ import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.Properties;
 
-import org.apache.commons.lang.NotImplementedException;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -1454,13 +1453,45 @@ public class TestOlympicModel2 {
         assertTrue(Double.isNaN(model.model.get(53).getValue()));
     }
     
-    @Test (expectedExceptions = NotImplementedException.class)
-    public void update() throws Exception {
+    @Test (expectedExceptions = IllegalStateException.class)
+    public void updateNotTrained() throws Exception {
         final OlympicModel2 model = new OlympicModel2(config);
         final TimeSeries ts = new TimeSeries();
         model.update(ts.data);
     }
     
+    @Test
+    public void update() throws Exception {
+        final TimeSeries ts = new TimeSeries();
+        for (int week = 4; week > 0; week--) {
+            for (int i = 0; i < 12; i++) {
+                ts.append(start - (week * 604800L) + (i * 300), (week * 10) + i);
+            }
+        }
+        final OlympicModel2 full = new OlympicModel2(config);
+        full.train(ts.data);
+        
+        // the last two weeks fall in the windows
+        final OlympicModel2 model = new OlympicModel2(config);
+        final TimeSeries head = new TimeSeries();
+        final TimeSeries tail = new TimeSeries();
+        for (int i = 0; i < ts.size(); i++) {
+            (i < 24 ? head : tail).append(ts.time(i), ts.value(i));
+        }
+        model.train(head.data);
+        assertFalse(full.model.equals(model.model));
+        model.update(tail.data);
+        assertEquals(full.model, model.model);
+        
+        // points after the windows leave the model as it is
+        assertEquals(start - 604800L + 3600 + 600, model.coverEnd());
+        final TimeSeries later = new TimeSeries();
+        later.append(start, 100);
+        later.append(start + 300, 200);
+        model.update(later.data);
+        assertEquals(full.model, model.model);
+    }
+    
     @Test
     public void predict() throws Exception {
         OlympicModel2 model = new OlympicModel2(config);
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.Random;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.yahoo.egads.data.TimeSeries;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBinaryTimeSeries {
+
+    private static Properties config() throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        return p;
+    }
+
+    private static void assertSameMetrics(BinaryTimeSeriesReader reader, ArrayList<TimeSeries> expected) {
+        Assert.assertEquals(reader.size(), expected.size());
+        for (int m = 0; m < expected.size(); m++) {
+            BinaryTimeSeriesReader.Metric metric = reader.get(m);
+            TimeSeries ts = expected.get(m);
+            Assert.assertEquals(metric.getName(), ts.meta.name);
+            Assert.assertEquals(metric.size(), ts.size());
+            TimeSeries loaded = metric.toTimeSeries();
+            Assert.assertEquals(loaded.meta.name, ts.meta.name);
+            Assert.assertEquals(loaded.size(), ts.size());
+            float[] values = metric.valuesAsFloatArray();
+            long[] times = metric.timesAsLongArray();
+            for (int i = 0; i < ts.size(); i++) {
+                Assert.assertEquals(metric.timeAt(i), ts.time(i));
+                Assert.assertEquals(Float.floatToIntBits(metric.valueAt(i)), Float.floatToIntBits(ts.value(i)));
+                Assert.assertEquals(times[i], ts.time(i));
+                Assert.assertEquals(values[i], ts.value(i));
+                // bitwise, Entry.equals() does not match NaN values
+                Assert.assertEquals(loaded.time(i), ts.time(i));
+                Assert.assertEquals(Float.floatToIntBits(loaded.value(i)), Float.floatToIntBits(ts.value(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testConvertSampleInput() throws Exception {
+        Properties p = config();
+        File bin = File.createTempFile("egads", ".bin");
+        bin.deleteOnExit();
+        BinaryTimeSeriesWriter.convert("src/test/resources/sample_input.csv", bin.getPath(), p);
+        assertSameMetrics(new BinaryTimeSeriesReader(bin.getPath()),
+                          FileUtils.createTimeSeries("src/test/resources/sample_input.csv", p));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ArrayList<TimeSeries> metrics = new ArrayList<TimeSeries>();
+        Random r = new Random(3);
+        // irregular and out of order times, special values, a non ASCII name and an empty metric
+        TimeSeries ts = new TimeSeries();
+        ts.meta.name = "指标_1";
+        long time = -100;
+        for (int i = 0; i < 1000; i++) {
+            time += r.nextInt(7200) - 600;
+            ts.data.add(new TimeSeries.Entry(time, (float) r.nextGaussian()));
+        }
+        ts.data.add(new TimeSeries.Entry(time + 1, Float.NaN));
+        ts.data.add(new TimeSeries.Entry(time + 2, Float.NEGATIVE_INFINITY));
+        metrics.add(ts);
+        TimeSeries empty = new TimeSeries();
+        empty.meta.name = "";
+        metrics.add(empty);
+
+        File bin = File.createTempFile("egads", ".bin");
+        bin.deleteOnExit();
+        BinaryTimeSeriesWriter.write(metrics, bin.getPath());
+        assertSameMetrics(new BinaryTimeSeriesReader(bin.getPath()), metrics);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotBinary() throws Exception {
+        new BinaryTimeSeriesReader("src/test/resources/sample_input.csv");
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testTimeGapTooLarge() throws Exception {
+        TimeSeries ts = new TimeSeries();
+        ts.data.add(new TimeSeries.Entry(0, 1));
+        ts.data.add(new TimeSeries.Entry(1L << 40, 1));
+        ArrayList<TimeSeries> metrics = new ArrayList<TimeSeries>();
+        metrics.add(ts);
+        File bin = File.createTempFile("egads", ".bin");
+        bin.deleteOnExit();
+        BinaryTimeSeriesWriter.write(metrics, bin.getPath());
+    }
+
+    @Test
+    public void testBinaryInputProcessor() throws Exception {
+        Properties p = config();
+        p.setProperty("OUTPUT", "STD_OUT");
+        p.setProperty("INPUT", "BINARY");
+        File bin = File.createTempFile("egads", ".bin");
+        bin.deleteOnExit();
+        BinaryTimeSeriesWriter.convert("src/test/resources/sample_input.csv", bin.getPath(), p);
+        new BinaryInputProcessor(bin.getPath()).processInput(p);
+    }
+
+    // Load time of a 20 metric x 100k row dump, CSV parsing against the mapped binary file.
+    @Test
+    public void testLoadTime() throws Exception {
+        int metrics = 20;
+        int rows = 100000;
+        File csv = File.createTempFile("egads", ".csv");
+        csv.deleteOnExit();
+        Random r = new Random(5);
+        PrintWriter out = new PrintWriter(new FileOutputStream(csv));
+        try {
+            out.print("timestamp");
+            for (int m = 0; m < metrics; m++) {
+                out.print(",metric_" + m);
+            }
+            out.println();
+            for (int i = 0; i < rows; i++) {
+                out.print(1417194000L + 60L * i);
+                for (int m = 0; m < metrics; m++) {
+                    out.print("," + (float) (1000 * r.nextDouble()));
+                }
+                out.println();
+            }
+        } finally {
+            out.close();
+        }
+        Properties p = config();
+        File bin = File.createTempFile("egads", ".bin");
+        bin.deleteOnExit();
+        // Without the per line debug output of the CSV reader.
+        Logger logger = (Logger) LoggerFactory.getLogger(FileUtils.class);
+        Level level = logger.getLevel();
+        logger.setLevel(Level.INFO);
+        ArrayList<TimeSeries> parsed;
+        long csvTime;
+        try {
+            BinaryTimeSeriesWriter.convert(csv.getPath(), bin.getPath(), p);
+            long start = System.nanoTime();
+            parsed = FileUtils.createTimeSeries(csv.getPath(), p);
+            csvTime = System.nanoTime() - start;
+        } finally {
+            logger.setLevel(level);
+        }
+
+        long start = System.nanoTime();
+        BinaryTimeSeriesReader reader = new BinaryTimeSeriesReader(bin.getPath());
+        long mapTime = System.nanoTime() - start;
+        double sum = 0;
+        for (int m = 0; m < reader.size(); m++) {
+            float[] values = reader.get(m).valuesAsFloatArray();
+            for (float v : values) {
+                sum += v;
+            }
+        }
+        long columnTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        ArrayList<TimeSeries> loaded = new ArrayList<TimeSeries>();
+        for (int m = 0; m < reader.size(); m++) {
+            loaded.add(reader.get(m).toTimeSeries());
+        }
+        long materializeTime = System.nanoTime() - start;
+
+        Assert.assertEquals(loaded.size(), parsed.size());
+        Assert.assertEquals(loaded.get(metrics - 1).data, parsed.get(metrics - 1).data);
+        Assert.assertTrue(sum > 0);
+        System.out.print("\n load " + metrics + "x" + rows + ": csv " + (csvTime / 1000000) + "ms (" + csv.length()
+                         + " bytes), binary open " + (mapTime / 1000000) + "ms, values " + (columnTime / 1000000)
+                         + "ms, entries " + (materializeTime / 1000000) + "ms (" + bin.length() + " bytes)");
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.yahoo.egads.data.TimeSeries;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCsvTokenizer {
+
+    // Size of the load benchmark file, -Degads.csv.bytes=1073741824 for the 1GB run.
+    private static final long BENCHMARK_BYTES = Long.getLong("egads.csv.bytes", 20L << 20);
+
+    private static Properties config(String fillMissing, String aggregation) throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        p.setProperty("FILL_MISSING", fillMissing);
+        p.setProperty("AGGREGATION", aggregation);
+        return p;
+    }
+
+    // The String based reader FileUtils.createTimeSeries() used to be, without the logging.
+    private static ArrayList<TimeSeries> legacyCreateTimeSeries(String csv_file, Properties config) {
+        BufferedReader fileReader = null;
+        ArrayList<TimeSeries> output = new ArrayList<TimeSeries>();
+        final String delimiter = ",";
+        Long interval = null;
+        Long prevTimestamp = null;
+        Integer aggregation = 1;
+        boolean fillMissing = false;
+        if (config.getProperty("FILL_MISSING") != null && config.getProperty("FILL_MISSING").equals("1")) {
+            fillMissing = true;
+        }
+        if (config.getProperty("AGGREGATION") != null) {
+            aggregation = new Integer(config.getProperty("AGGREGATION"));
+        }
+        try {
+            String line = "";
+            fileReader = new BufferedReader(new FileReader(csv_file));
+            boolean firstLine = true;
+            while ((line = fileReader.readLine()) != null) {
+                String[] tokens = line.split(delimiter);
+                Long curTimestamp = null;
+                if (firstLine == true) {
+                    if (!FileUtils.isNumeric(tokens[0]) && tokens[0].equals("timestamp") == false) {
+                        continue;
+                    }
+                }
+                if (firstLine == false && tokens.length > 1) {
+                    curTimestamp = (new Double(tokens[0])).longValue();
+                }
+                for (int i = 1; i < tokens.length; i++) {
+                    if (firstLine) {
+                        TimeSeries ts = new TimeSeries();
+                        ts.meta.fileName = csv_file;
+                        output.add(ts);
+                        if (FileUtils.isNumeric(tokens[i]) == false) {
+                            ts.meta.name = tokens[i];
+                        } else {
+                            ts.meta.name = "metric_" + i;
+                            output.get(i - 1).append((new Double(tokens[0])).longValue(), new Float(tokens[i]));
+                        }
+                    } else {
+                        if (interval != null && prevTimestamp != null && interval > 0 && fillMissing == true) {
+                            if ((curTimestamp - prevTimestamp) != interval) {
+                                int missingValues = (int) ((curTimestamp - prevTimestamp) / interval);
+                                Long curTimestampToFill = prevTimestamp + interval;
+                                for (int j = (missingValues - 1); j > 0; j--) {
+                                    Float valToFill = new Float(tokens[i]);
+                                    if (output.get(i - 1).size() >= missingValues) {
+                                        valToFill = output.get(i - 1).data.get(output.get(i - 1).size() - missingValues).value;
+                                    }
+                                    output.get(i - 1).append(curTimestampToFill, valToFill);
+                                    curTimestampToFill += interval;
+                                }
+                            }
+                        }
+                        if (interval == null && prevTimestamp != null) {
+                            interval = curTimestamp - new Long(prevTimestamp);
+                        }
+                        output.get(i - 1).append(curTimestamp, new Float(tokens[i]));
+                    }
+                }
+                if (firstLine == false) {
+                    prevTimestamp = curTimestamp;
+                }
+                firstLine = false;
+            }
+        } catch (Exception e) {
+            // stops at the first malformed line like the original
+        } finally {
+            try {
+                fileReader.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        if (aggregation > 1) {
+            for (TimeSeries t : output) {
+                t.data = t.aggregate(aggregation);
+                t.meta.name += "_aggr_" + aggregation;
+            }
+        }
+        return output;
+    }
+
+    private static void assertSameSeries(List<TimeSeries> actual, List<TimeSeries> expected, String what) {
+        Assert.assertEquals(actual.size(), expected.size(), what);
+        for (int m = 0; m < expected.size(); m++) {
+            TimeSeries e = expected.get(m);
+            TimeSeries a = actual.get(m);
+            Assert.assertEquals(a.meta.name, e.meta.name, what);
+            Assert.assertEquals(a.meta.fileName, e.meta.fileName, what);
+            Assert.assertEquals(a.size(), e.size(), what + " metric " + m);
+            for (int i = 0; i < e.size(); i++) {
+                Assert.assertEquals(a.time(i), e.time(i), what + " metric " + m + " index " + i);
+                Assert.assertEquals(Float.floatToIntBits(a.value(i)), Float.floatToIntBits(e.value(i)),
+                                    what + " metric " + m + " index " + i);
+                Assert.assertEquals(a.data.get(i).logicalIndex, e.data.get(i).logicalIndex);
+            }
+        }
+    }
+
+    private static File write(String content) throws Exception {
+        File f = File.createTempFile("egads", ".csv");
+        f.deleteOnExit();
+        OutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    // Reads 'f' with the given tokenizer buffer size.
+    private static ArrayList<TimeSeries> read(File f, Properties p, int bufferSize) throws Exception {
+        ArrayList<TimeSeries> output = new ArrayList<TimeSeries>();
+        InputStream in = new FileInputStream(f);
+        try {
+            FileUtils.readTimeSeries(new CsvTokenizer(Channels.newChannel(in), bufferSize), f.getPath(), p, output);
+        } catch (Exception e) {
+            // same as createTimeSeries()
+        } finally {
+            in.close();
+        }
+        return output;
+    }
+
+    private static void checkFile(File f) throws Exception {
+        for (String fill : new String[] {"0", "1"}) {
+            for (String aggregation : new String[] {"1", "3"}) {
+                Properties p = config(fill, aggregation);
+                ArrayList<TimeSeries> expected = legacyCreateTimeSeries(f.getPath(), p);
+                String what = f.getName() + " FILL_MISSING=" + fill + " AGGREGATION=" + aggregation;
+                assertSameSeries(FileUtils.createTimeSeries(f.getPath(), p), expected, what);
+                for (int bufferSize : new int[] {16, 17, 100}) {
+                    assertSameSeries(read(f, p, bufferSize), expected, what + " buffer " + bufferSize);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSampleInput() throws Exception {
+        checkFile(new File("src/test/resources/sample_input.csv"));
+    }
+
+    // Preamble lines, gaps, odd number formats, line endings and malformed lines.
+    @Test
+    public void testSameSemantics() throws Exception {
+        String gaps = "timestamp,a,b\n100,1,2\n160,2,3\n220,3.5,4e1\n400,-4,.5\n460,5.,-0\n1000,6,7\n1060,7,8\n";
+        checkFile(write(gaps));
+        checkFile(write("# preamble\n\nname,x\ntimestamp,a,b\n100,1,2\n160,2,3\n"));
+        // no header, the first line is data
+        checkFile(write("100,1,2\n160,2,3\n220,3,4\n400,4,5\n"));
+        checkFile(write(gaps.replace("\n", "\r\n")));
+        checkFile(write(gaps.replace("\n", "\r")));
+        // blank lines reset the previous time-stamp, missing and trailing fields
+        checkFile(write("timestamp,a,b\n100,1,2\n160,2,3\n\n400,3,4\n460,4,\n520,,5\n580,6,7,\n"));
+        checkFile(write("timestamp,a,b\n100,1,2\n160,2,3\n,\n400,3\n700,4,5"));
+        checkFile(write("timestamp,a,b\n100, 1 ,2\n160,NaN,Infinity\n220,0x1p3,1f\n280,1e-50,3.4028236e38\n"));
+        checkFile(write("timestamp,a,b\n1.4171940005E9,1,2\n1417194060.9,2,3\n1e3,3,4\n"));
+        // malformed lines stop the parsing
+        checkFile(write("timestamp,a,b\n100,1,2\n160,x,3\n220,3,4\n"));
+        checkFile(write("timestamp,a,b\n100,1,2\n160,1,2,3\n220,3,4\n"));
+        checkFile(write("timestamp,a,b\n100,1,2\n60,1,2\n220,3,4\n"));
+        checkFile(write("timestamp,a\n100,1\nabc,2\n220,3\n"));
+        checkFile(write(""));
+        checkFile(write("\n\n"));
+        checkFile(write(","));
+    }
+
+    @Test
+    public void testRandomNumbers() throws Exception {
+        Random r = new Random(11);
+        StringBuilder sb = new StringBuilder("timestamp,a,b,c,d\n");
+        long t = 1417194000L;
+        for (int i = 0; i < 20000; i++) {
+            t += 60 * (1 + (r.nextInt(10) == 0 ? r.nextInt(5) : 0));
+            sb.append(t);
+            sb.append(',').append((float) (r.nextGaussian() * Math.pow(10, r.nextInt(20) - 10)));
+            sb.append(',').append(r.nextGaussian() * Math.pow(10, r.nextInt(40) - 20));
+            sb.append(',').append(r.nextInt(100000)).append('.').append(r.nextInt(1000));
+            // values near the middle of two floats
+            double f = (float) (1 + r.nextDouble());
+            sb.append(',').append(f + Math.ulp((float) f) / 2 * (r.nextBoolean() ? 1 : -1));
+            sb.append('\n');
+        }
+        checkFile(write(sb.toString()));
+    }
+
+    @Test
+    public void testNumbers() throws Exception {
+        String[] numbers = {"0", "-0", "+1", "1.", ".5", "00012.50", "1e22", "1e23", "123456789012345",
+            "1234567890123456", "0.1", "3.4028235e38", "3.4028236e38", "1.17549435E-38", "1.4e-45", "1e-46",
+            "16777217", "16777219", "33554435", "0.30000001192092896", "1.00000005960464477539", "9007199254740993",
+            "NaN", "-Infinity", " 7 ", "7f", "7d", "0x10", "1e", "e1", ".", "-", "1.2.3", "1e1000", "2e-1000"};
+        StringBuilder sb = new StringBuilder();
+        for (String n : numbers) {
+            sb.append(n).append(',').append(n).append('\n');
+        }
+        CsvTokenizer csv = new CsvTokenizer(Channels.newChannel(new ByteArrayInputStream(
+                        sb.toString().getBytes(StandardCharsets.UTF_8))), 16);
+        for (String n : numbers) {
+            Assert.assertTrue(csv.nextLine());
+            Assert.assertEquals(csv.field(0), n);
+            try {
+                double expected = Double.parseDouble(n);
+                Assert.assertEquals(Double.doubleToRawLongBits(csv.parseDouble(0)),
+                                    Double.doubleToRawLongBits(expected), n);
+            } catch (NumberFormatException e) {
+                try {
+                    csv.parseDouble(0);
+                    Assert.fail(n);
+                } catch (NumberFormatException expected) {
+                    // same error
+                }
+            }
+            try {
+                float expected = Float.parseFloat(n);
+                Assert.assertEquals(Float.floatToRawIntBits(csv.parseFloat(0)), Float.floatToRawIntBits(expected), n);
+            } catch (NumberFormatException e) {
+                try {
+                    csv.parseFloat(0);
+                    Assert.fail(n);
+                } catch (NumberFormatException expected) {
+                    // same error
+                }
+            }
+        }
+        Assert.assertFalse(csv.nextLine());
+    }
+
+    @Test
+    public void testSeveralFiles() throws Exception {
+        Properties p = config("1", "1");
+        List<String> files = Arrays.asList("src/test/resources/sample_input.csv",
+                                           write("timestamp,a\n100,1\n160,2\n").getPath(),
+                                           "src/test/resources/sample_input.csv");
+        List<ArrayList<TimeSeries>> parallel = FileUtils.createTimeSeries(files, p, 3);
+        Assert.assertEquals(parallel.size(), files.size());
+        for (int i = 0; i < files.size(); i++) {
+            assertSameSeries(parallel.get(i), FileUtils.createTimeSeries(files.get(i), p), files.get(i));
+        }
+    }
+
+    // Load time of a 1000 column file, BENCHMARK_BYTES large.
+    @Test
+    public void testLoadTime() throws Exception {
+        int columns = 1000;
+        File f = File.createTempFile("egads", ".csv");
+        f.deleteOnExit();
+        Random r = new Random(13);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f), 1 << 16);
+        try {
+            StringBuilder sb = new StringBuilder("timestamp");
+            for (int c = 0; c < columns; c++) {
+                sb.append(",metric_").append(c);
+            }
+            out.write(sb.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+            long t = 1417194000L;
+            long written = 0;
+            while (written < BENCHMARK_BYTES) {
+                sb.setLength(0);
+                sb.append(t);
+                for (int c = 0; c < columns; c++) {
+                    sb.append(',').append(r.nextInt(100000) / 100.0);
+                }
+                byte[] line = sb.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+                out.write(line);
+                written += line.length;
+                t += 60;
+            }
+        } finally {
+            out.close();
+        }
+
+        // Tokenizer throughput, every field parsed into a primitive.
+        long start = System.nanoTime();
+        FileInputStream in = new FileInputStream(f);
+        double sum = 0;
+        try {
+            CsvTokenizer csv = new CsvTokenizer(in.getChannel(), 1 << 20);
+            csv.nextLine();
+            while (csv.nextLine()) {
+                sum += csv.parseDouble(0);
+                for (int c = 1; c < csv.fieldCount(); c++) {
+                    sum += csv.parseFloat(c);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        long scanTime = System.nanoTime() - start;
+        Assert.assertTrue(sum > 0);
+        String line = "\n csv " + (f.length() >> 20) + "MB x " + columns + " columns: tokenizer scan "
+                        + (scanTime / 1000000) + "ms";
+
+        // The time-series hold an Entry per value, only load the smaller files.
+        if (f.length() <= (64L << 20)) {
+            Logger logger = (Logger) LoggerFactory.getLogger(FileUtils.class);
+            Level level = logger.getLevel();
+            logger.setLevel(Level.INFO);
+            try {
+                Properties p = config("0", "1");
+                start = System.nanoTime();
+                ArrayList<TimeSeries> tokenized = FileUtils.createTimeSeries(f.getPath(), p);
+                long tokenizerTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                ArrayList<TimeSeries> legacy = legacyCreateTimeSeries(f.getPath(), p);
+                long legacyTime = System.nanoTime() - start;
+                assertSameSeries(tokenized, legacy, f.getName());
+                line += ", createTimeSeries " + (tokenizerTime / 1000000) + "ms, String.split "
+                        + (legacyTime / 1000000) + "ms";
+            } finally {
+                logger.setLevel(level);
+            }
+        }
+        System.out.print(line);
+    }
+}
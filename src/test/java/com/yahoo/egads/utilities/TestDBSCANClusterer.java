@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.utilities;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.math3.ml.clustering.Cluster;
+import org.apache.commons.math3.ml.distance.CanberraDistance;
+import org.apache.commons.math3.ml.distance.EuclideanDistance;
+import org.apache.commons.math3.ml.distance.ManhattanDistance;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestDBSCANClusterer {
+
+    // Point counts for the scaling test, -Degads.dbscan.points=1000,10000,100000 for the full run.
+    private static final String POINTS = System.getProperty("egads.dbscan.points", "1000,10000");
+
+    // Error-metric like points: a dense bulk, a few blobs and heavy tailed outliers.
+    private static List<IdentifiedDoublePoint> points(int n, int dimension, long seed) {
+        Random r = new Random(seed);
+        List<IdentifiedDoublePoint> points = new ArrayList<IdentifiedDoublePoint>();
+        for (int i = 0; i < n; i++) {
+            double[] d = new double[dimension];
+            double center = (i % 10 == 0) ? 20 * r.nextInt(4) : 0;
+            double scale = (i % 97 == 0) ? 50 : 1;
+            for (int k = 0; k < dimension; k++) {
+                d[k] = Math.abs(center + scale * r.nextGaussian());
+            }
+            points.add(new IdentifiedDoublePoint(d, i));
+        }
+        return points;
+    }
+
+    private static void assertSameClusters(List<Cluster<IdentifiedDoublePoint>> expected,
+                                           List<Cluster<IdentifiedDoublePoint>> actual) {
+        Assert.assertEquals(actual.size(), expected.size());
+        for (int c = 0; c < expected.size(); c++) {
+            List<IdentifiedDoublePoint> e = expected.get(c).getPoints();
+            List<IdentifiedDoublePoint> a = actual.get(c).getPoints();
+            Assert.assertEquals(a.size(), e.size(), "cluster " + c);
+            for (int i = 0; i < e.size(); i++) {
+                Assert.assertSame(a.get(i), e.get(i), "cluster " + c + " point " + i);
+            }
+        }
+    }
+
+    private static void checkSameClusters(List<IdentifiedDoublePoint> points, double eps, int minPts) {
+        DBSCANClusterer<IdentifiedDoublePoint> linear = new DBSCANClusterer<IdentifiedDoublePoint>(eps, minPts,
+                        DBSCANClusterer.NeighborSearch.LINEAR);
+        DBSCANClusterer<IdentifiedDoublePoint> tree = new DBSCANClusterer<IdentifiedDoublePoint>(eps, minPts,
+                        DBSCANClusterer.NeighborSearch.KD_TREE);
+        assertSameClusters(linear.cluster(points), tree.cluster(points));
+        assertSameClusters(linear.cluster_getClusters_MY(points, 0), tree.cluster_getClusters_MY(points, 0));
+        assertSameClusters(linear.cluster_getClusters_MY(points, 1), tree.cluster_getClusters_MY(points, 1));
+    }
+
+    @Test
+    public void testSameClusters() throws Exception {
+        List<IdentifiedDoublePoint> points = points(2000, 5, 1);
+        // duplicates, a repeated reference and non finite errors
+        points.add(new IdentifiedDoublePoint(points.get(3).getPoint().clone(), 2000));
+        points.add(points.get(5));
+        points.add(new IdentifiedDoublePoint(new double[] {Double.NaN, 1, 1, 1, 1}, 2002));
+        points.add(new IdentifiedDoublePoint(new double[] {Double.POSITIVE_INFINITY, 1, 1, 1, 1}, 2003));
+        for (double eps : new double[] {0.5, 1, 2, 5, 50, 1000}) {
+            for (int minPts : new int[] {0, 1, 2, 5, 20, 200}) {
+                checkSameClusters(points, eps, minPts);
+            }
+        }
+        checkSameClusters(points(500, 1, 2), 0.1, 3);
+        checkSameClusters(new ArrayList<IdentifiedDoublePoint>(), 1, 2);
+    }
+
+    @Test
+    public void testOtherMeasures() throws Exception {
+        List<IdentifiedDoublePoint> points = points(1000, 3, 3);
+        DBSCANClusterer<IdentifiedDoublePoint> linear = new DBSCANClusterer<IdentifiedDoublePoint>(2, 4,
+                        new ManhattanDistance());
+        DBSCANClusterer<IdentifiedDoublePoint> tree = new DBSCANClusterer<IdentifiedDoublePoint>(2, 4,
+                        new ManhattanDistance(), DBSCANClusterer.NeighborSearch.KD_TREE);
+        assertSameClusters(linear.cluster_getClusters_MY(points, 0), tree.cluster_getClusters_MY(points, 0));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnsupportedMeasure() throws Exception {
+        new DBSCANClusterer<IdentifiedDoublePoint>(2, 4, new CanberraDistance(), DBSCANClusterer.NeighborSearch.KD_TREE);
+    }
+
+    @Test
+    public void testMeanDistance() throws Exception {
+        List<IdentifiedDoublePoint> points = points(300, 5, 4);
+        EuclideanDistance ed = new EuclideanDistance();
+        double sum = 0.0;
+        double count = 0.0;
+        for (int i = 0; i < points.size(); i++) {
+            for (int j = 0; j < points.size(); j++) {
+                sum += ed.compute(points.get(i).getPoint(), points.get(j).getPoint());
+                count++;
+            }
+        }
+        double exact = sum / count;
+        Assert.assertEquals(DBSCANClusterer.meanDistance(points, ed, 0, 1), exact);
+        Assert.assertEquals(DBSCANClusterer.meanDistance(points, ed, 300 * 300, 1), exact);
+        Assert.assertEquals(DBSCANClusterer.meanDistance(points, ed, 20000, 1), exact, 0.05 * exact);
+    }
+
+    // Clustering and eps estimation by point count. The linear search and the
+    // exact eps are quadratic, they are skipped above 10k points.
+    @Test
+    public void testScaling() throws Exception {
+        EuclideanDistance ed = new EuclideanDistance();
+        for (String size : POINTS.split(",")) {
+            int n = Integer.parseInt(size.trim());
+            List<IdentifiedDoublePoint> points = points(n, 5, 5);
+            long start = System.currentTimeMillis();
+            double eps = 3 * DBSCANClusterer.meanDistance(points, ed, 1000000, n);
+            long sampled = System.currentTimeMillis() - start;
+            int minPts = (int) Math.ceil(0.01 * n);
+
+            start = System.currentTimeMillis();
+            List<Cluster<IdentifiedDoublePoint>> tree = new DBSCANClusterer<IdentifiedDoublePoint>(eps, minPts,
+                            DBSCANClusterer.NeighborSearch.KD_TREE).cluster(points);
+            long treeTime = System.currentTimeMillis() - start;
+            String line = "\n dbscan n=" + n + ": eps sampled " + sampled + "ms, KD_TREE " + treeTime + "ms";
+
+            if (n <= 10000) {
+                start = System.currentTimeMillis();
+                DBSCANClusterer.meanDistance(points, ed, 0, n);
+                long exact = System.currentTimeMillis() - start;
+                start = System.currentTimeMillis();
+                List<Cluster<IdentifiedDoublePoint>> linear = new DBSCANClusterer<IdentifiedDoublePoint>(eps, minPts,
+                                DBSCANClusterer.NeighborSearch.LINEAR).cluster(points);
+                long linearTime = System.currentTimeMillis() - start;
+                assertSameClusters(linear, tree);
+                line += ", eps exact " + exact + "ms, LINEAR " + linearTime + "ms";
+            }
+            System.out.print(line);
+        }
+    }
+
+    // One-dimensional errors with ties, signed zeros and non finite values.
+    private static List<IdentifiedDoublePoint> points1D(int n, Random r) {
+        List<IdentifiedDoublePoint> points = new ArrayList<IdentifiedDoublePoint>();
+        double scale = new double[] {0.5, 2, 10}[r.nextInt(3)];
+        for (int i = 0; i < n; i++) {
+            double v;
+            int kind = r.nextInt(40);
+            if (kind == 0) {
+                v = new double[] {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, -0.0, 0.0}[r.nextInt(5)];
+            } else if (kind < 10) {
+                // ties
+                v = Math.round(scale * r.nextGaussian());
+            } else {
+                v = Math.abs((i % 10 == 0 ? 20 * r.nextInt(4) : 0) + scale * r.nextGaussian());
+            }
+            points.add(new IdentifiedDoublePoint(new double[] {v}, i));
+        }
+        return points;
+    }
+
+    private static long bits(IdentifiedDoublePoint point) {
+        return Double.doubleToLongBits(point.getPoint()[0]);
+    }
+
+    @Test
+    public void testSorted1D() throws Exception {
+        Random r = new Random(6);
+        for (int t = 0; t < 300; t++) {
+            List<IdentifiedDoublePoint> points = points1D(r.nextInt(t < 20 ? 6 : 400), r);
+            double eps = new double[] {0, 0.5, 1, 2, 5}[r.nextInt(5)];
+            int minPts = new int[] {0, 1, 2, 3, 8}[r.nextInt(5)];
+            DBSCANClusterer<IdentifiedDoublePoint> dbscan = new DBSCANClusterer<IdentifiedDoublePoint>(eps, minPts,
+                            DBSCANClusterer.NeighborSearch.KD_TREE);
+            SortedDBSCANClusterer<IdentifiedDoublePoint> sorted = new SortedDBSCANClusterer<IdentifiedDoublePoint>(eps,
+                            minPts);
+            // same noise points, in the same order
+            assertSameClusters(dbscan.cluster(points), sorted.cluster(points));
+
+            // same clusters, by value, the noise values aside
+            double[] values = new double[points.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = points.get(i).getPoint()[0];
+            }
+            int[] labels = sorted.labels(values);
+            Set<Long> noise = new HashSet<Long>();
+            for (IdentifiedDoublePoint point : dbscan.cluster(points).get(0).getPoints()) {
+                noise.add(bits(point));
+            }
+            List<Cluster<IdentifiedDoublePoint>> clusters = dbscan.cluster_getClusters_MY(points, 0);
+            for (int c = 0; c < clusters.size(); c++) {
+                Set<Long> expected = new HashSet<Long>();
+                for (IdentifiedDoublePoint point : clusters.get(c).getPoints()) {
+                    if (!noise.contains(bits(point))) {
+                        expected.add(bits(point));
+                    }
+                }
+                Set<Long> actual = new HashSet<Long>();
+                for (int i = 0; i < labels.length; i++) {
+                    if (labels[i] == c) {
+                        actual.add(bits(points.get(i)));
+                    }
+                }
+                Assert.assertTrue(actual.equals(expected), "trial " + t + " cluster " + c);
+            }
+            for (int i = 0; i < labels.length; i++) {
+                Assert.assertTrue(labels[i] < clusters.size());
+                Assert.assertEquals(labels[i] == SortedDBSCANClusterer.NOISE, noise.contains(bits(points.get(i))));
+            }
+        }
+    }
+
+    @Test
+    public void testDBSCANThreshold() throws Exception {
+        Random r = new Random(7);
+        for (int t = 0; t < 50; t++) {
+            List<IdentifiedDoublePoint> points = points1D(1 + r.nextInt(300), r);
+            Float[] array = new Float[points.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = (float) points.get(i).getPoint()[0];
+            }
+            Assert.assertEquals(StatisticsUtils.getDBSCANThreshold(array), dbscanThreshold(array), "trial " + t);
+        }
+    }
+
+    // The DBSCAN threshold as StatisticsUtils.getThreshold() computed it.
+    private static float dbscanThreshold(Float[] array) {
+        List<IdentifiedDoublePoint> points = new ArrayList<IdentifiedDoublePoint>();
+        for (int i = 0; i < array.length; i++) {
+            points.add(new IdentifiedDoublePoint(new double[] {array[i]}, i));
+        }
+        Cluster<IdentifiedDoublePoint> anomalyCluster = new DBSCANClusterer<IdentifiedDoublePoint>(2, 2,
+                        DBSCANClusterer.NeighborSearch.KD_TREE).cluster_getClusters_MY(points, 1).get(0);
+        List<Float> newArr = new ArrayList<Float>();
+        for (int i = 0; i < array.length; i++) {
+            boolean isSame = false;
+            for (int j = 0; j < anomalyCluster.getPoints().size(); j++) {
+                if (anomalyCluster.getPoints().get(j).getPoint()[0] == array[i]) {
+                    isSame = true;
+                    break;
+                }
+            }
+            if (!isSame) {
+                newArr.add(array[i]);
+            }
+        }
+        return AutoSensitivity.getKSigmaSensitivity(newArr.toArray(new Float[0]), 3);
+    }
+
+    // Noise of one-dimensional points by point count, sorted and with the k-d
+    // tree. -Degads.dbscan.points sets the counts.
+    @Test
+    public void testSorted1DScaling() throws Exception {
+        for (String size : POINTS.split(",")) {
+            int n = Integer.parseInt(size.trim());
+            List<IdentifiedDoublePoint> points = points(n, 1, 8);
+            // warm up
+            new SortedDBSCANClusterer<IdentifiedDoublePoint>(2, 2).cluster(points);
+
+            long start = System.currentTimeMillis();
+            List<Cluster<IdentifiedDoublePoint>> sorted = new SortedDBSCANClusterer<IdentifiedDoublePoint>(2, 2)
+                            .cluster(points);
+            long sortedTime = System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+            List<Cluster<IdentifiedDoublePoint>> tree = new DBSCANClusterer<IdentifiedDoublePoint>(2, 2,
+                            DBSCANClusterer.NeighborSearch.KD_TREE).cluster(points);
+            long treeTime = System.currentTimeMillis() - start;
+            assertSameClusters(tree, sorted);
+            System.out.print("\n dbscan 1-D n=" + n + ": sorted " + sortedTime + "ms, KD_TREE " + treeTime + "ms");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.utilities;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.Random;
+
+import com.yahoo.egads.data.Anomaly;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.models.adm.AdaptiveKernelDensityChangePointDetector;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestKernelDensityWindow {
+
+    private static Properties config(String engine, int preWindowSize, int postWindowSize) throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        p.setProperty("OUTPUT", "STD_OUT_ALL");
+        p.setProperty("PRE_WINDOW_SIZE", Integer.toString(preWindowSize));
+        p.setProperty("POST_WINDOW_SIZE", Integer.toString(postWindowSize));
+        p.setProperty("CHANGE_POINT_ENGINE", engine);
+        return p;
+    }
+
+    private static void assertSameScores(Anomaly.IntervalSequence expected, Anomaly.IntervalSequence actual) {
+        Assert.assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(Float.floatToIntBits(actual.get(i).anomalyScore[0]),
+                                Float.floatToIntBits(expected.get(i).anomalyScore[0]), "score at " + i);
+            Assert.assertEquals(Float.floatToIntBits(actual.get(i).thresholdScore[0]),
+                                Float.floatToIntBits(expected.get(i).thresholdScore[0]), "level at " + i);
+            Assert.assertEquals(actual.get(i).isAnomaly, expected.get(i).isAnomaly, "change point at " + i);
+        }
+    }
+
+    // The ring buffer engine has to reproduce the list based scores bit for bit.
+    @Test
+    public void testGoldenScores() throws Exception {
+        Properties p = config("RING_BUFFER", 2 * 24 * 4, 2 * 24 * 4);
+        TimeSeries observedTS = FileUtils.createTimeSeries("src/test/resources/cp-obs.csv", p).get(0);
+        TimeSeries expectedTS = FileUtils.createTimeSeries("src/test/resources/cp-exp.csv", p).get(0);
+
+        for (int[] windows : new int[][] {{48, 48}, {96, 96}, {24, 48}, {100, 30}}) {
+            AdaptiveKernelDensityChangePointDetector legacy =
+                            new AdaptiveKernelDensityChangePointDetector(config("LINKED_LIST", windows[0], windows[1]));
+            AdaptiveKernelDensityChangePointDetector ring =
+                            new AdaptiveKernelDensityChangePointDetector(config("RING_BUFFER", windows[0], windows[1]));
+            assertSameScores(legacy.detect(observedTS.data, expectedTS.data), ring.detect(observedTS.data, expectedTS.data));
+            // Both engines keep their windows between calls.
+            assertSameScores(legacy.detect(observedTS.data, expectedTS.data), ring.detect(observedTS.data, expectedTS.data));
+        }
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        KernelDensityWindow window = new KernelDensityWindow(3, 2, 0.8F);
+        for (int i = 0; i < 5; i++) {
+            float[] result = window.update(i);
+            Assert.assertEquals(result[0], 0F);
+            Assert.assertEquals(result[1], 0F);
+        }
+        Assert.assertEquals(window.size(), 5);
+        Assert.assertTrue(window.update(5)[1] != 0F);
+        Assert.assertEquals(window.size(), 5);
+        window.clear();
+        Assert.assertEquals(window.update(1)[0], 0F);
+    }
+
+    private static long run(String engine, int preWindowSize, int postWindowSize, float[] residuals) throws Exception {
+        AdaptiveKernelDensityChangePointDetector cpd =
+                        new AdaptiveKernelDensityChangePointDetector(config(engine, preWindowSize, postWindowSize));
+        long start = System.nanoTime();
+        cpd.detectChangePoints(residuals, preWindowSize, postWindowSize, 0.8F);
+        return System.nanoTime() - start;
+    }
+
+    // Per point cost of both engines for windows from 12 hours to 15 days of 15 minute data.
+    @Test
+    public void testWindowSizes() throws Exception {
+        Random r = new Random(19);
+        for (int w : new int[] {48, 96, 480, 1440}) {
+            float[] residuals = new float[2 * w + 1000];
+            for (int i = 0; i < residuals.length; i++) {
+                residuals[i] = (float) r.nextGaussian() + (i > residuals.length / 2 ? 5 : 0);
+            }
+            long legacy = run("LINKED_LIST", w, w, residuals);
+            long ring = run("RING_BUFFER", w, w, residuals);
+            System.out.print("\n change point window=" + w + ": LINKED_LIST " + (legacy / residuals.length / 1000)
+                             + "us/point, RING_BUFFER " + (ring / residuals.length / 1000) + "us/point");
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.utilities;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+// QuantileSketch stays within its error bounds, alone and merged, and the
+// AutoSensitivity thresholds found on it follow the exact ones.
+public class TestQuantileSketch {
+
+    private static double[] data(int n, Random r) {
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            // skewed, with a heavy tail
+            x[i] = Math.exp(r.nextGaussian()) + (r.nextInt(100) == 0 ? 50 * r.nextDouble() : 0);
+        }
+        return x;
+    }
+
+    // Largest distance between the rank of each sketched quantile and the requested one, as a fraction of n.
+    private static double rankError(QuantileSketch sketch, double[] sorted) {
+        double error = 0;
+        for (int i = 1; i < 100; i++) {
+            double p = i / 100.0;
+            double q = sketch.quantile(p);
+            int lo = lowerBound(sorted, q);
+            int hi = lowerBound(sorted, Math.nextUp(q));
+            double target = p * (sorted.length - 1);
+            double distance = target < lo ? lo - target : (target > hi ? target - hi : 0);
+            error = Math.max(error, distance / sorted.length);
+        }
+        return error;
+    }
+
+    private static int lowerBound(double[] sorted, double value) {
+        int i = Arrays.binarySearch(sorted, value);
+        if (i < 0) {
+            return -i - 1;
+        }
+        while (i > 0 && sorted[i - 1] == value) {
+            i--;
+        }
+        return i;
+    }
+
+    @Test
+    public void exactWhenSmall() throws Exception {
+        Random r = new Random(1);
+        double[] x = data(150, r);
+        QuantileSketch sketch = new QuantileSketch();
+        List<Float> list = new ArrayList<Float>();
+        for (double v : x) {
+            sketch.add((float) v);
+            list.add((float) v);
+        }
+        for (float p : new float[] {0, 0.1F, 0.5F, 0.95F, 1}) {
+            Assert.assertEquals(sketch.quantile(p), ListUtils.quantile(list, p), 1e-5);
+        }
+        Assert.assertEquals(sketch.rank(list.get(20)), 21);
+        Assert.assertEquals(sketch.countAtLeast(list.get(20)), 130);
+        Assert.assertEquals(sketch.min(), (double) list.get(0));
+        Assert.assertEquals(sketch.max(), (double) list.get(149));
+    }
+
+    @Test
+    public void errorBounds() throws Exception {
+        Random r = new Random(2);
+        int n = 1000000;
+        double[] x = data(n, r);
+        QuantileSketch sketch = new QuantileSketch();
+        QuantileSketch[] shards = new QuantileSketch[4];
+        for (int s = 0; s < shards.length; s++) {
+            shards[s] = new QuantileSketch();
+        }
+        for (int i = 0; i < n; i++) {
+            sketch.add(x[i]);
+            shards[i % shards.length].add(x[i]);
+        }
+        QuantileSketch merged = new QuantileSketch();
+        for (QuantileSketch shard : shards) {
+            merged.merge(shard);
+        }
+        double[] sorted = x.clone();
+        Arrays.sort(sorted);
+
+        Assert.assertEquals(sketch.count(), n);
+        Assert.assertEquals(merged.count(), n);
+        Assert.assertTrue(sketch.items() < 4 * QuantileSketch.DEFAULT_K);
+        Assert.assertTrue(rankError(sketch, sorted) < 0.015, "rank error " + rankError(sketch, sorted));
+        Assert.assertTrue(rankError(merged, sorted) < 0.015, "rank error " + rankError(merged, sorted));
+        System.out.print("\n QuantileSketch rank error at " + n + " points: " + rankError(sketch, sorted) + ", merged "
+                        + rankError(merged, sorted));
+        double median = sorted[n / 2];
+        Assert.assertEquals(sketch.rank(median), n / 2, 0.01 * n);
+        Assert.assertEquals(merged.countAtLeast(median), n / 2, 0.01 * n);
+        Assert.assertEquals(merged.mean(), sketch.mean(), 1e-9);
+        Assert.assertEquals(sketch.min(), sorted[0]);
+        Assert.assertEquals(sketch.max(), sorted[n - 1]);
+    }
+
+    @Test
+    public void autoSensitivity() throws Exception {
+        List<Float> errors = new ArrayList<Float>();
+        BufferedReader reader = new BufferedReader(new FileReader("src/test/resources/sample_errors.csv"));
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            errors.add(Float.parseFloat(line));
+        }
+        reader.close();
+        QuantileSketch sketch = new QuantileSketch();
+        for (Float f : errors) {
+            sketch.add(f);
+        }
+        Float[] data = errors.toArray(new Float[errors.size()]);
+
+        Assert.assertEquals(AutoSensitivity.getKSigmaSensitivity(sketch, 3),
+                        AutoSensitivity.getKSigmaSensitivity(data.clone(), 3), 1e-3 * Math.abs(sketch.mean()) + 1);
+        Assert.assertTrue(AutoSensitivity.getLowDensitySensitivity(sketch, 1, 1) > 5000000);
+
+        // same number of SDs from the mean, up to the float rounding of the exact mean and SD
+        Float[] exact = AutoSensitivity.getAdaptiveKSigmaSensitivity(data.clone(), 0.05F);
+        Float[] sketched = AutoSensitivity.getAdaptiveKSigmaSensitivity(sketch, 0.05F);
+        Assert.assertEquals(sketched[0], exact[0], 1e-5 * Math.abs(exact[0]));
+        Assert.assertEquals(sketched[1], exact[1], 1e-5 * Math.abs(exact[1]));
+
+        Random r = new Random(3);
+        double[] x = data(20000, r);
+        Float[] values = new Float[x.length];
+        QuantileSketch small = new QuantileSketch();
+        for (int i = 0; i < x.length; i++) {
+            values[i] = (float) x[i];
+            small.add(values[i]);
+        }
+        // thresholds within the rank error of the sketch from the exact ones
+        double[] sorted = x.clone();
+        for (int i = 0; i < x.length; i++) {
+            sorted[i] = values[i];
+        }
+        Arrays.sort(sorted);
+        exact = AutoSensitivity.getAdaptiveMaxMinSigmaSensitivity(values.clone(), 0.05F, 1);
+        sketched = AutoSensitivity.getAdaptiveMaxMinSigmaSensitivity(small, 0.05F, 1);
+        Assert.assertNotNull(exact[0]);
+        Assert.assertEquals(lowerBound(sorted, sketched[0]), lowerBound(sorted, exact[0]), 0.01 * x.length);
+        // no low threshold, the lowest values are within 1 SD of 5% of the data
+        Assert.assertNull(exact[1]);
+        Assert.assertNull(sketched[1]);
+        Assert.assertEquals(lowerBound(sorted, AutoSensitivity.getLowDensitySensitivity(small, 3, 0.05F)),
+                        lowerBound(sorted, AutoSensitivity.getLowDensitySensitivity(values.clone(), 3, 0.05F)),
+                        0.01 * x.length);
+    }
+
+    // Time to find the 95th percentile of 1M points by sorting boxed Floats
+    // as AutoSensitivity does and with a sketch, -Degads.points sets the size.
+    @Test
+    public void speed() throws Exception {
+        int n = Integer.parseInt(System.getProperty("egads.points", "1000000"));
+        Random r = new Random(4);
+        double[] x = data(n, r);
+        Float[] boxed = new Float[n];
+        for (int i = 0; i < n; i++) {
+            boxed[i] = (float) x[i];
+        }
+
+        // warm up
+        new QuantileSketch().add(x);
+        Arrays.sort(boxed.clone());
+
+        long begin = System.nanoTime();
+        Float[] copy = boxed.clone();
+        Arrays.sort(copy);
+        float exact = copy[(int) (0.95 * (n - 1))];
+        long sorting = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(x);
+        double sketched = sketch.quantile(0.95);
+        long sketching = System.nanoTime() - begin;
+        System.out.print("\n Quantile of " + n + " points: sketch " + (sketching / 1000000) + "ms ("
+                        + sketch.items() + " items, " + sketched + "), sort " + (sorting / 1000000) + "ms (" + exact
+                        + ")");
+    }
+}
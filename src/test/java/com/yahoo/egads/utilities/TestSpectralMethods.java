@@ -7,9 +7,11 @@
 package com.yahoo.egads.utilities;
 
 import java.util.Arrays;
+import java.util.Random;
 
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 public class TestSpectralMethods {
@@ -28,4 +30,76 @@ public class TestSpectralMethods {
             System.out.println(Arrays.toString(data2.getRow(i)));
         }
     }
+
+    private static final double[] PARAMS = {8, 0.99, 10, 0.97, 0.1, 0.01};
+
+    // A month of hourly points: daily and weekly seasonality on a trend with noise.
+    private static double[] series(int n) {
+        Random r = new Random(7);
+        double[] x = new double[n];
+        for (int t = 0; t < n; t++) {
+            x[t] = 500 + 0.2 * t + 80 * Math.sin(2 * Math.PI * t / 24) + 30 * Math.sin(2 * Math.PI * t / 168)
+                   + 10 * r.nextGaussian();
+        }
+        return x;
+    }
+
+    private static double[] svdFilter(double[] x, int windowSize, SpectralMethods.FilteringMethod method,
+                                      double param) {
+        RealMatrix data = MatrixUtils.createColumnRealMatrix(x);
+        return SpectralMethods.mFilter(data, windowSize, method, param).getColumn(0);
+    }
+
+    @Test
+    public void testFastFilter() {
+        // K_GAP of mFilter() needs more than 8 singular values
+        int[] windows = {12, 24, 48, 96, 192};
+        for (int n : new int[] {100, 200, 720}) {
+            double[] x = series(n);
+            for (int windowSize : windows) {
+                if (windowSize > n - 12) {
+                    continue;
+                }
+                SpectralMethods.FilteringMethod[] methods = SpectralMethods.FilteringMethod.values();
+                for (int m = 0; m < methods.length; m++) {
+                    double[] expected = svdFilter(x, windowSize, methods[m], PARAMS[m]);
+                    double[] actual = SpectralMethods.fastFilter(x, windowSize, methods[m], PARAMS[m]);
+                    for (int t = 0; t < n; t++) {
+                        Assert.assertEquals(actual[t], expected[t], 1e-6 * Math.abs(expected[t]) + 1e-6,
+                                            methods[m] + " " + n + "/" + windowSize + " at " + t);
+                    }
+                }
+            }
+        }
+        // the window is longer than the series
+        try {
+            SpectralMethods.fastFilter(series(10), 11, SpectralMethods.FilteringMethod.EXPLICIT, 10);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    // Time and largest difference of both engines across window sizes, -Degads.points sets the length of the series.
+    @Test
+    public void testFastFilterSpeed() {
+        int n = Integer.parseInt(System.getProperty("egads.points", "720"));
+        double[] x = series(n);
+        // warm up
+        svdFilter(x, 24, SpectralMethods.FilteringMethod.GAP_RATIO, 0.01);
+        SpectralMethods.fastFilter(x, 24, SpectralMethods.FilteringMethod.GAP_RATIO, 0.01);
+        for (int windowSize : new int[] {24, 48, 96, 192}) {
+            long start = System.nanoTime();
+            double[] expected = svdFilter(x, windowSize, SpectralMethods.FilteringMethod.GAP_RATIO, 0.01);
+            long svd = System.nanoTime() - start;
+            start = System.nanoTime();
+            double[] actual = SpectralMethods.fastFilter(x, windowSize, SpectralMethods.FilteringMethod.GAP_RATIO, 0.01);
+            long fast = System.nanoTime() - start;
+            double diff = 0;
+            for (int t = 0; t < n; t++) {
+                diff = Math.max(diff, Math.abs(actual[t] - expected[t]));
+            }
+            System.out.print("\n SSA " + n + " points, window " + windowSize + ": svd " + (svd / 1000000) + "ms, fast "
+                             + (fast / 1000000) + "ms, max difference " + diff);
+        }
+    }
 }
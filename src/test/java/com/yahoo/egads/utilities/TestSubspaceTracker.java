@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015, Yahoo Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.egads.utilities;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import com.yahoo.egads.data.ModelSnapshot;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.egads.models.tsmm.SpectralSmoother;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+// The streaming smoothing of SubspaceTracker follows the batch filter, and
+// keeps the SpectralSmoother map within its retention.
+public class TestSubspaceTracker {
+
+    // Hourly points: daily and weekly seasonality with noise.
+    private static double signal(int t) {
+        return 500 + 80 * Math.sin(2 * Math.PI * t / 24) + 30 * Math.sin(2 * Math.PI * t / 168);
+    }
+
+    private static double[] series(int n) {
+        Random r = new Random(11);
+        double[] x = new double[n];
+        for (int t = 0; t < n; t++) {
+            x[t] = signal(t) + 10 * r.nextGaussian();
+        }
+        return x;
+    }
+
+    private static TimeSeries.DataSequence sequence(double[] x, int from, int to) throws Exception {
+        TimeSeries.DataSequence data = new TimeSeries.DataSequence(from * 3600L, (to - 1) * 3600L, 3600);
+        data.setLogicalIndices(0, 3600);
+        for (int t = from; t < to; t++) {
+            data.get(t - from).value = (float) x[t];
+        }
+        return data;
+    }
+
+    private static Properties config(String engine) throws Exception {
+        InputStream is = new FileInputStream("src/test/resources/sample_config.ini");
+        Properties p = new Properties();
+        p.load(is);
+        p.setProperty("SSA_ENGINE", engine);
+        p.setProperty("WINDOW_SIZE", "48");
+        return p;
+    }
+
+    // RMS distance to the signal of the points from..to-1 of smoothed, which starts at point offset.
+    private static double rms(double[] smoothed, int offset, int from, int to) {
+        double sum = 0;
+        for (int t = from; t < to; t++) {
+            double d = smoothed[t - offset] - signal(t);
+            sum += d * d;
+        }
+        return Math.sqrt(sum / (to - from));
+    }
+
+    @Test
+    public void testTracksBatchFilter() {
+        int n = 1000, windowSize = 48;
+        double[] x = series(2 * n);
+        double[] head = Arrays.copyOf(x, n);
+        double[] smoothed = SpectralMethods.fastFilter(head, windowSize, SpectralMethods.FilteringMethod.GAP_RATIO, 0.01);
+        SubspaceTracker tracker =
+                        new SubspaceTracker(head, smoothed, windowSize, SpectralMethods.FilteringMethod.GAP_RATIO, 0.01);
+        Assert.assertTrue(tracker.getRank() > 1);
+
+        double[] streamed = new double[n];
+        for (int t = n; t < 2 * n; t++) {
+            tracker.add(x[t]);
+            if (t - n >= windowSize - 1) {
+                streamed[t - n - windowSize + 1] = tracker.smoothed(windowSize - 1);
+            }
+        }
+        Assert.assertEquals(tracker.getPoints(), 2 * n);
+
+        // the trailing window filtered in batch
+        double[] tail = Arrays.copyOfRange(x, n, 2 * n);
+        double[] batch = SpectralMethods.fastFilter(tail, windowSize, SpectralMethods.FilteringMethod.GAP_RATIO, 0.01);
+        double streamedError = rms(streamed, n, n, 2 * n - windowSize);
+        double batchError = rms(batch, n, n, 2 * n - windowSize);
+        System.out.print("\n SSA rms to the signal: streamed " + streamedError + ", batch " + batchError);
+        // the noise has a deviation of 10
+        Assert.assertTrue(streamedError < 5, "streamed " + streamedError);
+        Assert.assertTrue(streamedError < 1.5 * batchError + 1, "streamed " + streamedError + ", batch " + batchError);
+    }
+
+    @Test
+    public void testIncrementalSmoother() throws Exception {
+        double[] x = series(800);
+        Properties p = config("INCREMENTAL");
+        p.setProperty("SSA_RETENTION", "300");
+        SpectralSmoother model = new SpectralSmoother(p);
+        model.train(sequence(x, 0, 500));
+        for (int t = 500; t < 700; t++) {
+            model.update(sequence(x, t, t + 1));
+        }
+        // points already seen are skipped
+        model.update(sequence(x, 650, 750));
+
+        TimeSeries.DataSequence predicted = sequence(x, 0, 750);
+        model.predict(predicted);
+        for (int t = 0; t < 450; t++) {
+            Assert.assertEquals(predicted.get(t).value, 0f, "at " + t);
+        }
+        double sum = 0;
+        for (int t = 450; t < 750; t++) {
+            double d = predicted.get(t).value - signal(t);
+            sum += d * d;
+        }
+        Assert.assertTrue(Math.sqrt(sum / 300) < 6, "rms " + Math.sqrt(sum / 300));
+
+        // the tracker is stored with the model
+        byte[] b = ModelSnapshot.toBytes(model);
+        SpectralSmoother copy = (SpectralSmoother) ModelSnapshot.fromBytes(b, 0, b.length);
+        model.update(sequence(x, 750, 800));
+        copy.update(sequence(x, 750, 800));
+        TimeSeries.DataSequence expected = sequence(x, 0, 800);
+        TimeSeries.DataSequence actual = sequence(x, 0, 800);
+        model.predict(expected);
+        copy.predict(actual);
+        Assert.assertEquals(actual.valuesAsFloatArray(), expected.valuesAsFloatArray());
+
+        // an untrained model is trained by its first update
+        SpectralSmoother updated = new SpectralSmoother(p);
+        updated.update(sequence(x, 0, 500));
+        SpectralSmoother trained = new SpectralSmoother(p);
+        trained.train(sequence(x, 0, 500));
+        expected = sequence(x, 0, 500);
+        actual = sequence(x, 0, 500);
+        trained.predict(expected);
+        updated.predict(actual);
+        Assert.assertEquals(actual.valuesAsFloatArray(), expected.valuesAsFloatArray());
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        double[] x = series(600);
+        Properties p = config("FAST");
+        SpectralSmoother model = new SpectralSmoother(p);
+        model.train(sequence(x, 0, 600));
+        TimeSeries.DataSequence predicted = sequence(x, 0, 600);
+        model.predict(predicted);
+        Assert.assertTrue(predicted.get(0).value != 0);
+
+        p.setProperty("SSA_RETENTION", "100");
+        model = new SpectralSmoother(p);
+        model.train(sequence(x, 0, 600));
+        predicted = sequence(x, 0, 600);
+        model.predict(predicted);
+        Assert.assertEquals(predicted.get(499).value, 0f);
+        Assert.assertTrue(predicted.get(500).value != 0);
+
+        try {
+            new SpectralSmoother(config("LANCZOS"));
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    // Cost of smoothing point by point, with the tracker and by filtering the
+    // trailing points again, -Degads.updates sets the number of points.
+    @Test
+    public void testUpdateThroughput() throws Exception {
+        int updates = Integer.parseInt(System.getProperty("egads.updates", "200"));
+        int n = 720;
+        double[] x = series(n + updates);
+        for (int windowSize : new int[] {48, 192}) {
+            Properties p = config("INCREMENTAL");
+            p.setProperty("WINDOW_SIZE", Integer.toString(windowSize));
+            SpectralSmoother model = new SpectralSmoother(p);
+            model.train(sequence(x, 0, n));
+            long start = System.nanoTime();
+            for (int t = n; t < n + updates; t++) {
+                model.update(sequence(x, t, t + 1));
+            }
+            long incremental = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int t = n; t < n + updates; t++) {
+                SpectralMethods.fastFilter(Arrays.copyOfRange(x, t + 1 - n, t + 1), windowSize,
+                                           SpectralMethods.FilteringMethod.GAP_RATIO, 0.01);
+            }
+            long refilter = System.nanoTime() - start;
+            System.out.print("\n SSA " + updates + " updates, window " + windowSize + ": incremental "
+                             + (incremental / 1000000) + "ms, filter again " + (refilter / 1000000) + "ms");
+        }
+    }
+}